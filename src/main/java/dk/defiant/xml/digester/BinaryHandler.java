@@ -0,0 +1,13 @@
+package dk.defiant.xml.digester;
+
+public interface BinaryHandler<T> {
+
+	/**
+	 * Handle binary content that has been decoded and written to its destination.
+	 * 
+	 * @param target The digest target
+	 * @param length The number of bytes decoded
+	 */
+	void handle(T target, long length);
+	
+}
@@ -0,0 +1,30 @@
+package dk.defiant.xml.digester;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Token for cancelling digests from another thread.
+ * 
+ * A cancelled digest ends with a {@link DigestCancelledException} shortly after the 
+ * token is cancelled, once the digester gets to check the token between events.
+ * 
+ * @see DigestLimits#withCancellationToken(CancellationToken)
+ * @author jip
+ *
+ */
+@ThreadSafe
+public final class CancellationToken {
+
+	private volatile boolean cancelled = false;
+	
+	/**
+	 * Cancel the digests using this token. Cancelling cannot be undone.
+	 */
+	public void cancel() {
+		cancelled = true;
+	}
+	
+	public boolean isCancelled() {
+		return cancelled;
+	}
+}
@@ -0,0 +1,34 @@
+package dk.defiant.xml.digester;
+
+/**
+ * Callback for an incremental digest of the records of a file that changed since an 
+ * earlier version of it.
+ * 
+ * @see XmlDigester#digestChanges(java.io.File, javax.xml.namespace.QName, String, dk.defiant.xml.digester.index.RecordIndex, ChangeHandler)
+ */
+public interface ChangeHandler<T> extends DigestFactory<T> {
+
+	/**
+	 * Handle a digested record that is new in the file.
+	 * 
+	 * @param key The value of the key attribute of the record
+	 * @param digestTarget The object the record was digested into
+	 */
+	void added(String key, T digestTarget);
+	
+	/**
+	 * Handle a digested record that changed since the earlier version of the file.
+	 * 
+	 * @param key The value of the key attribute of the record
+	 * @param digestTarget The object the record was digested into
+	 */
+	void changed(String key, T digestTarget);
+	
+	/**
+	 * Handle a record that is no longer in the file.
+	 * 
+	 * @param key The value of the key attribute of the record
+	 */
+	void removed(String key);
+	
+}
@@ -0,0 +1,175 @@
+package dk.defiant.xml.digester;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Position in a document from which a digest can be resumed.
+ * 
+ * A checkpoint holds the character offset after a record, or the byte offset and encoding
+ * for a digest of bytes, the elements that were open
+ * at that point (with their attributes and namespace declarations) and the states the 
+ * handlers on the handler stack chose to save through 
+ * {@link DigesterEventHandler#getCheckpointState()}.
+ * 
+ * @see XmlDigester#resume(java.io.Reader, Checkpoint, Object, DigesterEventHandler, Checkpointing)
+ * @see XmlDigester#resume(java.io.InputStream, Checkpoint, Object, DigesterEventHandler, Checkpointing)
+ */
+@Immutable
+public final class Checkpoint implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * An element that was open when the checkpoint was made.
+	 */
+	@Immutable
+	public static final class OpenElement implements Serializable {
+		
+		private static final long serialVersionUID = 1L;
+		
+		private final QName name;
+		private final Map<QName, String> attributes;
+		private final Map<String, String> namespaces;
+		
+		public OpenElement(QName name, Map<QName, String> attributes, Map<String, String> namespaces) {
+			this.name = name;
+			this.attributes = Collections.unmodifiableMap(attributes);
+			this.namespaces = Collections.unmodifiableMap(namespaces);
+		}
+		
+		public QName getName() {
+			return name;
+		}
+		
+		public Map<QName, String> getAttributes() {
+			return attributes;
+		}
+		
+		/**
+		 * @return The namespaces declared on the element mapped from prefix to URI
+		 */
+		public Map<String, String> getNamespaces() {
+			return namespaces;
+		}
+	}
+	
+	private final long characterOffset;
+	private final long byteOffset;
+	private final String encoding;
+	private final long recordCount;
+	private final List<OpenElement> openElements;
+	private final List<Serializable> handlerStates;
+	
+	public Checkpoint(long characterOffset, long recordCount, List<OpenElement> openElements, List<Serializable> handlerStates) {
+		this(characterOffset, -1, null, recordCount, openElements, handlerStates);
+	}
+	
+	/**
+	 * @param characterOffset The character offset after the last record or -1 if it is unknown
+	 * @param byteOffset The byte offset after the last record or -1 if it is unknown
+	 * @param encoding The encoding of the bytes or null if the byte offset is unknown
+	 */
+	public Checkpoint(long characterOffset, long byteOffset, String encoding, long recordCount, List<OpenElement> openElements, List<Serializable> handlerStates) {
+		this.characterOffset = characterOffset;
+		this.byteOffset = byteOffset;
+		this.encoding = encoding;
+		this.recordCount = recordCount;
+		this.openElements = Collections.unmodifiableList(openElements);
+		this.handlerStates = Collections.unmodifiableList(handlerStates);
+	}
+	
+	/**
+	 * @return The number of characters from the start of the document to the end of the last record,
+	 *         -1 for a checkpoint of a digest of bytes
+	 */
+	public long getCharacterOffset() {
+		return characterOffset;
+	}
+	
+	/**
+	 * @return The number of bytes from the start of the document to the end of the last record,
+	 *         -1 for a checkpoint of a digest of characters
+	 */
+	public long getByteOffset() {
+		return byteOffset;
+	}
+	
+	/**
+	 * @return The encoding of the document for a checkpoint of a digest of bytes, otherwise null
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+	
+	/**
+	 * @return The number of records digested up to the checkpoint
+	 */
+	public long getRecordCount() {
+		return recordCount;
+	}
+	
+	public List<OpenElement> getOpenElements() {
+		return openElements;
+	}
+	
+	/**
+	 * @return The saved handler states from the bottom to the top of the handler stack
+	 */
+	public List<Serializable> getHandlerStates() {
+		return handlerStates;
+	}
+	
+	/**
+	 * Get the start tags of the open elements. Together with the remainder of the
+	 * document after the checkpoint they form a well-formed document.
+	 */
+	String getPrologue() {
+		StringBuilder prologue = new StringBuilder();
+		for (OpenElement element : openElements) {
+			prologue.append('<');
+			appendName(prologue, element.getName());
+			for (Map.Entry<String, String> namespace : element.getNamespaces().entrySet()) {
+				prologue.append(' ').append(namespace.getKey().isEmpty() ? "xmlns" : "xmlns:" + namespace.getKey());
+				appendValue(prologue, namespace.getValue());
+			}
+			for (Map.Entry<QName, String> attribute : element.getAttributes().entrySet()) {
+				prologue.append(' ');
+				appendName(prologue, attribute.getKey());
+				appendValue(prologue, attribute.getValue());
+			}
+			prologue.append('>');
+		}
+		return prologue.toString();
+	}
+	
+	private static void appendName(StringBuilder builder, QName name) {
+		if (!name.getPrefix().isEmpty()) {
+			builder.append(name.getPrefix()).append(':');
+		}
+		builder.append(name.getLocalPart());
+	}
+	
+	private static void appendValue(StringBuilder builder, String value) {
+		builder.append("=\"");
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			switch (c) {
+			case '&': builder.append("&amp;"); break;
+			case '<': builder.append("&lt;"); break;
+			case '"': builder.append("&quot;"); break;
+			case '\n': builder.append("&#10;"); break;
+			case '\r': builder.append("&#13;"); break;
+			case '\t': builder.append("&#9;"); break;
+			default: builder.append(c);
+			}
+		}
+		builder.append('"');
+	}
+}
@@ -0,0 +1,12 @@
+package dk.defiant.xml.digester;
+
+public interface CheckpointListener {
+
+	/**
+	 * Handle a checkpoint, typically by saving it somewhere a later run can find it.
+	 * 
+	 * @param checkpoint The checkpoint
+	 */
+	void checkpoint(Checkpoint checkpoint);
+	
+}
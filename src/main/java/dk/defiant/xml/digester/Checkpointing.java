@@ -0,0 +1,47 @@
+package dk.defiant.xml.digester;
+
+import javax.xml.namespace.QName;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Settings for making checkpoints while digesting.
+ * 
+ * A checkpoint is made at the end of every {@code interval}th record element, 
+ * once the handlers have handled its end element.
+ * 
+ * @see XmlDigester#digest(java.io.Reader, Object, DigesterEventHandler, Checkpointing)
+ */
+@Immutable
+public final class Checkpointing {
+
+	private final QName recordName;
+	private final long interval;
+	private final CheckpointListener listener;
+	
+	/**
+	 * @param recordName The name of the record elements at whose ends checkpoints can be made
+	 * @param interval The number of records between checkpoints
+	 * @param listener The listener receiving the checkpoints
+	 */
+	public Checkpointing(QName recordName, long interval, CheckpointListener listener) {
+		if (interval <= 0) {
+			throw new IllegalArgumentException("Interval must be positive");
+		}
+		this.recordName = recordName;
+		this.interval = interval;
+		this.listener = listener;
+	}
+	
+	public QName getRecordName() {
+		return recordName;
+	}
+	
+	public long getInterval() {
+		return interval;
+	}
+	
+	public CheckpointListener getListener() {
+		return listener;
+	}
+}
@@ -0,0 +1,291 @@
+package dk.defiant.xml.digester;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLStreamException;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Cache of digest results in front of an {@link XmlDigester}.
+ * 
+ * Results are keyed by a hash of the input bytes together with the character set and
+ * a cache key given by the caller, which identifies the configuration of the event handler
+ * and the kind of digest target. On a hit the input is not parsed at all, the event handler
+ * receives no events and the cached result is returned instead of digesting into the
+ * given digest target. Each entry keeps a copy of its input, so the cache is bounded by
+ * the total size of the inputs as well as by the number of entries. Entries are evicted in
+ * least recently used order once either bound is exceeded. Inputs larger than the size 
+ * bound are digested but not cached.
+ * <p>
+ * Cached results are handed out through a {@link TargetCopier}. The default copier shares
+ * the cached instance between all callers, so results must then be treated as immutable.
+ * Give a copier that makes defensive copies or frozen views if that is not the case.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@ThreadSafe
+public class DigestCache {
+
+	/**
+	 * Hook for copying or freezing digest targets going in and out of the cache.
+	 */
+	public interface TargetCopier {
+		
+		/**
+		 * Copy a digest target.
+		 * 
+		 * @param digestTarget The digest target to copy
+		 * @return A copy that can safely be shared with the cache or handed out from it
+		 */
+		Object copy(Object digestTarget);
+	}
+	
+	private static final TargetCopier sharingCopier = new TargetCopier() {
+		@Override
+		public Object copy(Object digestTarget) {
+			return digestTarget;
+		}
+	};
+	
+	/**
+	 * The total size of cached inputs when no size is given, in bytes
+	 */
+	public static final long DEFAULT_MAX_INPUT_BYTES = 64L * 1024 * 1024;
+	
+	private final XmlDigester digester;
+	private final TargetCopier copier;
+	private final int maxEntries;
+	private final long maxInputBytes;
+	private final Map<Key, Object> entries = new LinkedHashMap<Key, Object>(16, 0.75f, true);
+	// Total length of the inputs of the entries, guarded by entries
+	private long inputBytes;
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	
+	public DigestCache(XmlDigester digester, int maxEntries) {
+		this(digester, maxEntries, sharingCopier);
+	}
+	
+	public DigestCache(XmlDigester digester, int maxEntries, TargetCopier copier) {
+		this(digester, maxEntries, DEFAULT_MAX_INPUT_BYTES, copier);
+	}
+	
+	/**
+	 * @param digester The digester to digest with on cache misses
+	 * @param maxEntries The maximum number of entries
+	 * @param maxInputBytes The maximum total size of the inputs kept by the entries
+	 * @param copier The copier of digest targets going in and out of the cache
+	 */
+	public DigestCache(XmlDigester digester, int maxEntries, long maxInputBytes, TargetCopier copier) {
+		if (maxEntries <= 0) {
+			throw new IllegalArgumentException("Maximum number of entries must be positive");
+		}
+		if (maxInputBytes <= 0) {
+			throw new IllegalArgumentException("Maximum input size must be positive");
+		}
+		this.digester = digester;
+		this.maxEntries = maxEntries;
+		this.maxInputBytes = maxInputBytes;
+		this.copier = copier;
+	}
+	
+	/**
+	 * Digest XML from a byte array unless an identical document has been digested 
+	 * under the same cache key before.
+	 * <p>
+	 * The cache key stands for everything besides the input that decides the result,
+	 * i.e. the kind of digest target and the event handler with its configuration. Handlers
+	 * of the same class configured differently, e.g. with different root elements, need
+	 * different keys. The key must implement {@link Object#equals(Object)} and 
+	 * {@link Object#hashCode()}. On a hit the event handler receives no events, so handlers 
+	 * with side effects beyond the digest target should not be cached.
+	 * </p>
+	 * 
+	 * @param input The bytes of the XML document
+	 * @param charSetName The character set name to use for reading the bytes, or null to detect it from the document
+	 * @param cacheKey The identity of the handler configuration and kind of digest target
+	 * @param digestTarget The object to digest XML into on a cache miss
+	 * @param eventHandler The event handler that will receive StAX XML events on a cache miss
+	 * @return The digest target on a cache miss or a copy of the cached result on a hit
+	 * @throws UnsupportedEncodingException
+	 * @throws XMLStreamException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T digest(byte[] input, String charSetName, Object cacheKey, T digestTarget, DigesterEventHandler eventHandler) throws UnsupportedEncodingException, XMLStreamException {
+		if (cacheKey == null) {
+			throw new IllegalArgumentException("Cache key must not be null");
+		}
+		Key key = new Key(input, charSetName, cacheKey);
+		Object cached = get(key);
+		if (cached != null) {
+			return (T) copier.copy(cached);
+		}
+		return digest(key, digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML from a byte array unless an identical document has been digested 
+	 * with the same digest factory before.
+	 * <p>
+	 * The factory is the cache key, see {@link #digest(byte[], String, Object, Object, DigesterEventHandler)}.
+	 * A digest target and event handler are only obtained from the factory on a cache miss.
+	 * </p>
+	 * 
+	 * @param input The bytes of the XML document
+	 * @param charSetName The character set name to use for reading the bytes, or null to detect it from the document
+	 * @param digestFactory The factory of digest targets and event handlers for cache misses
+	 * @return The new digest target on a cache miss or a copy of the cached result on a hit
+	 * @throws UnsupportedEncodingException
+	 * @throws XMLStreamException
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T digest(byte[] input, String charSetName, DigestFactory<T> digestFactory) throws UnsupportedEncodingException, XMLStreamException {
+		Key key = new Key(input, charSetName, digestFactory);
+		Object cached = get(key);
+		if (cached != null) {
+			return (T) copier.copy(cached);
+		}
+		return digest(key, digestFactory.newDigestTarget(), digestFactory.newEventHandler());
+	}
+	
+	private Object get(Key key) {
+		Object cached;
+		synchronized (entries) {
+			cached = entries.get(key);
+		}
+		if (cached != null) {
+			hits.incrementAndGet();
+		}
+		return cached;
+	}
+	
+	private <T> T digest(Key key, T digestTarget, DigesterEventHandler eventHandler) throws UnsupportedEncodingException, XMLStreamException {
+		misses.incrementAndGet();
+		if (key.charSetName == null) {
+			digester.digest(key.input, digestTarget, eventHandler);
+		} else {
+			digester.digest(key.input, key.charSetName, digestTarget, eventHandler);
+		}
+		if (digestTarget != null && key.input.length <= maxInputBytes) {
+			// Keep our own copy of the input since the caller may reuse the array
+			key.input = key.input.clone();
+			Object copy = copier.copy(digestTarget);
+			synchronized (entries) {
+				if (entries.put(key, copy) == null) {
+					inputBytes += key.input.length;
+				}
+				evict();
+			}
+		}
+		return digestTarget;
+	}
+	
+	private void evict() {
+		Iterator<Key> eldest = entries.keySet().iterator();
+		while (entries.size() > maxEntries || inputBytes > maxInputBytes) {
+			inputBytes -= eldest.next().input.length;
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+	
+	public long getHitCount() {
+		return hits.get();
+	}
+	
+	public long getMissCount() {
+		return misses.get();
+	}
+	
+	public long getEvictionCount() {
+		return evictions.get();
+	}
+	
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+	
+	/**
+	 * @return The total size of the inputs kept by the entries, in bytes
+	 */
+	public long getInputBytes() {
+		synchronized (entries) {
+			return inputBytes;
+		}
+	}
+	
+	public void clear() {
+		synchronized (entries) {
+			entries.clear();
+			inputBytes = 0;
+		}
+	}
+	
+	private static final class Key {
+		
+		private byte[] input;
+		private final long hash;
+		private final String charSetName;
+		private final Object cacheKey;
+		
+		Key(byte[] input, String charSetName, Object cacheKey) {
+			this.input = input;
+			this.hash = hash(input);
+			this.charSetName = charSetName;
+			this.cacheKey = cacheKey;
+		}
+		
+		@Override
+		public int hashCode() {
+			return (int) (hash ^ (hash >>> 32));
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			// The hash is only used for finding the bucket, identical bytes decide a hit
+			return hash == other.hash 
+					&& (charSetName == null ? other.charSetName == null : charSetName.equals(other.charSetName))
+					&& cacheKey.equals(other.cacheKey)
+					&& Arrays.equals(input, other.input);
+		}
+		
+		private static long hash(byte[] input) {
+			// 64 bit FNV-1a over eight bytes at a time followed by a final mix
+			long hash = 0xcbf29ce484222325L;
+			int i = 0;
+			for (; i + 8 <= input.length; i += 8) {
+				long word = (input[i] & 0xffL)
+						| (input[i + 1] & 0xffL) << 8
+						| (input[i + 2] & 0xffL) << 16
+						| (input[i + 3] & 0xffL) << 24
+						| (input[i + 4] & 0xffL) << 32
+						| (input[i + 5] & 0xffL) << 40
+						| (input[i + 6] & 0xffL) << 48
+						| (input[i + 7] & 0xffL) << 56;
+				hash = (hash ^ word) * 0x100000001b3L;
+			}
+			for (; i < input.length; i++) {
+				hash = (hash ^ (input[i] & 0xff)) * 0x100000001b3L;
+			}
+			hash ^= hash >>> 33;
+			hash *= 0xff51afd7ed558ccdL;
+			hash ^= hash >>> 33;
+			return hash ^ input.length;
+		}
+	}
+}
@@ -0,0 +1,18 @@
+package dk.defiant.xml.digester;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Thrown when a digest is cancelled through its {@link CancellationToken}.
+ * 
+ * @author jip
+ *
+ */
+public class DigestCancelledException extends XMLStreamException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public DigestCancelledException() {
+		super("Digest was cancelled");
+	}
+}
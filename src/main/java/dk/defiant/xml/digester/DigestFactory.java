@@ -0,0 +1,22 @@
+package dk.defiant.xml.digester;
+
+/**
+ * Supplies the digest target and event handler for each of a number of digests,
+ * e.g. of the records of a document.
+ * 
+ * @see XmlDigester#readRecords(java.io.Reader, javax.xml.namespace.QName, DigestFactory)
+ */
+public interface DigestFactory<T> {
+
+	/**
+	 * Get the object to digest into.
+	 */
+	T newDigestTarget();
+	
+	/**
+	 * Get the event handler for the digest. This can be a new handler or 
+	 * a handler that has been reset.
+	 */
+	DigesterEventHandler newEventHandler();
+	
+}
@@ -0,0 +1,39 @@
+package dk.defiant.xml.digester;
+
+import javax.xml.stream.XMLStreamException;
+
+/**
+ * Thrown when a digest exceeds one of its {@link DigestLimits}.
+ * 
+ * @author jip
+ *
+ */
+public class DigestLimitExceededException extends XMLStreamException {
+
+	private static final long serialVersionUID = 1L;
+	
+	public enum Limit {
+		DURATION,
+		EVENTS,
+		INPUT_LENGTH,
+	}
+	
+	private final Limit limit;
+	
+	public DigestLimitExceededException(Limit limit, String message) {
+		super(message);
+		this.limit = limit;
+	}
+	
+	public DigestLimitExceededException(Limit limit, String message, Throwable cause) {
+		super(message, cause);
+		this.limit = limit;
+	}
+	
+	/**
+	 * @return The limit that was exceeded
+	 */
+	public Limit getLimit() {
+		return limit;
+	}
+}
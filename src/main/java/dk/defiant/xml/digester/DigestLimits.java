@@ -0,0 +1,121 @@
+package dk.defiant.xml.digester;
+
+import java.util.concurrent.TimeUnit;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Limits bounding the time and work spent on a digest.
+ * <p>
+ * When a limit is exceeded the digest ends with a {@link DigestLimitExceededException},
+ * or a {@link DigestCancelledException} if it was cancelled, and the parser is closed.
+ * The limits are checked between events, the duration and cancellation every 
+ * {@value #CHECK_INTERVAL} events, so a handler blocking for a long time delays the check.
+ * </p>
+ * <pre>
+ * CancellationToken token = new CancellationToken();
+ * DigestLimits limits = DigestLimits.NONE
+ *         .withMaxDuration(200, TimeUnit.MILLISECONDS)
+ *         .withMaxInputLength(10 * 1024 * 1024)
+ *         .withCancellationToken(token);
+ * digester.withLimits(limits).digest(input, target, handler);
+ * </pre>
+ * 
+ * @see XmlDigester#setLimits(DigestLimits)
+ * @author jip
+ *
+ */
+@Immutable
+public final class DigestLimits {
+
+	/**
+	 * The number of events between checks of the duration and the cancellation token
+	 */
+	public static final int CHECK_INTERVAL = 64;
+	
+	/**
+	 * No limits
+	 */
+	public static final DigestLimits NONE = new DigestLimits(0, Long.MAX_VALUE, Long.MAX_VALUE, null);
+	
+	private final long maxDurationNanos;
+	private final long maxEvents;
+	private final long maxInputLength;
+	private final CancellationToken cancellationToken;
+	
+	private DigestLimits(long maxDurationNanos, long maxEvents, long maxInputLength, CancellationToken cancellationToken) {
+		this.maxDurationNanos = maxDurationNanos;
+		this.maxEvents = maxEvents;
+		this.maxInputLength = maxInputLength;
+		this.cancellationToken = cancellationToken;
+	}
+	
+	/**
+	 * @param duration The maximum duration of a digest
+	 * @param unit The unit of the duration
+	 * @return A copy of these limits with the given maximum duration
+	 */
+	public DigestLimits withMaxDuration(long duration, TimeUnit unit) {
+		if (duration <= 0) {
+			throw new IllegalArgumentException("Duration must be positive");
+		}
+		return new DigestLimits(unit.toNanos(duration), maxEvents, maxInputLength, cancellationToken);
+	}
+	
+	/**
+	 * @param maxEvents The maximum number of events read by a digest
+	 * @return A copy of these limits with the given maximum number of events
+	 */
+	public DigestLimits withMaxEvents(long maxEvents) {
+		if (maxEvents <= 0) {
+			throw new IllegalArgumentException("Maximum number of events must be positive");
+		}
+		return new DigestLimits(maxDurationNanos, maxEvents, maxInputLength, cancellationToken);
+	}
+	
+	/**
+	 * The input length is counted in bytes when digesting bytes and in characters when 
+	 * digesting from a {@link java.io.Reader}. It does not apply to digests of an
+	 * {@link javax.xml.stream.XMLEventReader}.
+	 * 
+	 * @param maxInputLength The maximum number of bytes or characters read by a digest
+	 * @return A copy of these limits with the given maximum input length
+	 */
+	public DigestLimits withMaxInputLength(long maxInputLength) {
+		if (maxInputLength <= 0) {
+			throw new IllegalArgumentException("Maximum input length must be positive");
+		}
+		return new DigestLimits(maxDurationNanos, maxEvents, maxInputLength, cancellationToken);
+	}
+	
+	/**
+	 * @param cancellationToken The token for cancelling digests
+	 * @return A copy of these limits with the given cancellation token
+	 */
+	public DigestLimits withCancellationToken(CancellationToken cancellationToken) {
+		return new DigestLimits(maxDurationNanos, maxEvents, maxInputLength, cancellationToken);
+	}
+	
+	/**
+	 * @return The maximum duration in nanoseconds or 0 for no limit
+	 */
+	public long getMaxDurationNanos() {
+		return maxDurationNanos;
+	}
+	
+	public long getMaxEvents() {
+		return maxEvents;
+	}
+	
+	public long getMaxInputLength() {
+		return maxInputLength;
+	}
+	
+	public CancellationToken getCancellationToken() {
+		return cancellationToken;
+	}
+	
+	boolean isLimitingInput() {
+		return maxInputLength != Long.MAX_VALUE;
+	}
+}
@@ -0,0 +1,116 @@
+package dk.defiant.xml.digester;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import net.jcip.annotations.ThreadSafe;
+
+/**
+ * Statistics of the shape of digested documents, used to size buffers and collections up front.
+ * <p>
+ * Sizes are recorded per owner, a handler class or digest type, and measure, e.g. the text
+ * length of a handler or the number of elements of a collection field. The expected size of
+ * a measure follows the largest sizes seen: it rises at once to a larger size and decays slowly
+ * when sizes get smaller, so an outlier does not keep buffers large forever. Expected sizes are
+ * capped at {@value #MAX_EXPECTED_SIZE}.
+ * </p>
+ * <pre>
+ * DigestStatistics statistics = new DigestStatistics();
+ * digester.setStatistics(statistics);
+ * // Later digests of the same kind of document start with buffers of the sizes seen so far
+ * </pre>
+ * <p>
+ * The digester records the text lengths of handlers and the depth of the handler stack. 
+ * {@link dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler} records the sizes of the 
+ * collection fields of its types. Handlers can record and use measures of their own through 
+ * {@link DigesterEventHandler#getStatistics()}. The statistics can be shared by any number of 
+ * digesters and digests.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@ThreadSafe
+public final class DigestStatistics {
+
+	/**
+	 * The largest expected size, to bound the memory spent up front
+	 */
+	public static final int MAX_EXPECTED_SIZE = 64 * 1024;
+	
+	/**
+	 * Measure of the longest text captured by a handler
+	 */
+	public static final String TEXT_LENGTH = "#text-length";
+	
+	/**
+	 * Measure of the number of handlers delegated to at once
+	 */
+	public static final String HANDLER_DEPTH = "#handler-depth";
+	
+	// A smaller size lowers the expected size by this fraction of the difference, as a shift
+	private static final int DECAY_SHIFT = 4;
+	
+	private final ConcurrentMap<Class<?>, ConcurrentMap<String, AtomicInteger>> measures = new ConcurrentHashMap<Class<?>, ConcurrentMap<String, AtomicInteger>>();
+	
+	/**
+	 * Record a size.
+	 * 
+	 * @param owner The handler class or digest type the size belongs to
+	 * @param measure The measure
+	 * @param size The size seen
+	 */
+	public void record(Class<?> owner, String measure, int size) {
+		AtomicInteger expected = getMeasure(owner, measure);
+		int current;
+		int updated;
+		do {
+			current = expected.get();
+			updated = size >= current ? size : current - ((current - size) >> DECAY_SHIFT);
+		} while (updated != current && !expected.compareAndSet(current, updated));
+	}
+	
+	/**
+	 * Get the expected size of a measure.
+	 * 
+	 * @param owner The handler class or digest type the size belongs to
+	 * @param measure The measure
+	 * @return The expected size, 0 if nothing has been recorded
+	 */
+	public int getExpectedSize(Class<?> owner, String measure) {
+		ConcurrentMap<String, AtomicInteger> ownerMeasures = measures.get(owner);
+		if (ownerMeasures == null) {
+			return 0;
+		}
+		AtomicInteger expected = ownerMeasures.get(measure);
+		return expected == null ? 0 : Math.min(expected.get(), MAX_EXPECTED_SIZE);
+	}
+	
+	/**
+	 * Forget every size recorded.
+	 */
+	public void clear() {
+		measures.clear();
+	}
+	
+	private AtomicInteger getMeasure(Class<?> owner, String measure) {
+		ConcurrentMap<String, AtomicInteger> ownerMeasures = measures.get(owner);
+		if (ownerMeasures == null) {
+			ownerMeasures = new ConcurrentHashMap<String, AtomicInteger>();
+			ConcurrentMap<String, AtomicInteger> existing = measures.putIfAbsent(owner, ownerMeasures);
+			if (existing != null) {
+				ownerMeasures = existing;
+			}
+		}
+		AtomicInteger expected = ownerMeasures.get(measure);
+		if (expected == null) {
+			expected = new AtomicInteger();
+			AtomicInteger existing = ownerMeasures.putIfAbsent(measure, expected);
+			if (existing != null) {
+				expected = existing;
+			}
+		}
+		return expected;
+	}
+}
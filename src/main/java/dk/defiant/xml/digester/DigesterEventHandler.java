@@ -1,5 +1,6 @@
 package dk.defiant.xml.digester;
 
+import java.io.Serializable;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -11,6 +12,7 @@ import net.jcip.annotations.NotThreadSafe;
 import dk.defiant.xml.digester.responses.ContinueParsingResponse;
 import dk.defiant.xml.digester.responses.DelegateParsingResponse;
 import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+import dk.defiant.xml.digester.tree.CompactTree;
 
 /**
  * Base class for handling StAX XML events from {@link XmlDigester}
@@ -24,6 +26,10 @@ public abstract class DigesterEventHandler {
     private XmlDigester digester;
 	private XmlDigester.Context digesterState;
 	private StringBuilder characterBuffer = new StringBuilder();
+	private boolean armedCapture = false;
+	private int armedDepth = 0;
+	private EventInterest eventInterest;
+	private int maxTextLength = 0;
 	
 	/**
 	 * Get String of characters parsed since last reset of the character buffer
@@ -44,6 +50,34 @@ public abstract class DigesterEventHandler {
 		characterBuffer.setLength(0);
 	}
 	
+	/**
+	 * Reset the character buffer and start capturing the text of the current element.
+	 * 
+	 * In armed capture mode this is called on the start element of an element whose
+	 * text is to be digested. Characters are captured until the element ends, 
+	 * including characters of descendant elements.
+	 * 
+	 * @see #setArmedCapture(boolean)
+	 */
+	public final void armCharacterBuffer() {
+		characterBuffer.setLength(0);
+		armedDepth = digesterState == null ? 0 : digesterState.depth;
+	}
+	
+	/**
+	 * Only capture characters while the character buffer is armed.
+	 * 
+	 * By default every character event reaching the handler is appended to the 
+	 * character buffer, including whitespace between elements and text of elements
+	 * the handler never reads. In armed capture mode characters are only captured
+	 * inside elements for which {@link #armCharacterBuffer()} has been called.
+	 * 
+	 * @param armedCapture True to only capture characters while armed
+	 */
+	protected final void setArmedCapture(boolean armedCapture) {
+		this.armedCapture = armedCapture;
+	}
+	
 	/**
 	 * <h1>Handle an XMLEvent.</h1> 
 	 * <p>
@@ -126,9 +160,12 @@ public abstract class DigesterEventHandler {
 	 *         to send further events
 	 */
 	public HandlerResponse handle(XMLEvent event, Object digestTarget, boolean captureCharacters) throws XMLStreamException {
-		if (captureCharacters && XMLEvent.CHARACTERS == event.getEventType()) {
+		if (captureCharacters && XMLEvent.CHARACTERS == event.getEventType() && (!armedCapture || armedDepth > 0)) {
 			Characters characters = event.asCharacters();
 			characterBuffer.append(characters.getData());
+			if (characterBuffer.length() > maxTextLength) {
+				maxTextLength = characterBuffer.length();
+			}
 		}
 		return new ContinueParsingResponse();
 	}
@@ -221,6 +258,118 @@ public abstract class DigesterEventHandler {
 		return digester.getXmlFragment(digesterState, includeFragmentRoot);
 	}
 	
+	/**
+	 * Capture the element of the current start element in a {@link CompactTree}. 
+	 * 
+	 * Like {@link #getXmlFragment(boolean)} the events of the element, including its end 
+	 * element, are consumed and not passed to the handler.
+	 * 
+	 * @return The tree of the element
+	 * @throws XMLStreamException
+	 */
+	protected CompactTree getTree() throws XMLStreamException {
+		return digester.getTree(digesterState);
+	}
+	
+	/**
+	 * Get the events this handler is interested in. Events that are not of interest are
+	 * not passed to the handler.
+	 * <p>
+	 * The default is to be interested in every event. The interest is asked for once per handler.
+	 * </p>
+	 * 
+	 * @return The interest of this handler
+	 */
+	public EventInterest getEventInterest() {
+		return EventInterest.ALL;
+	}
+	
+	/**
+	 * Check if this handler never delegates parsing to other handlers and never captures
+	 * content with {@link #getXmlFragment(boolean)} or {@link #getTree()}. The interest of such
+	 * a handler filters the input of the whole digest when it is the outermost handler, so 
+	 * events of other types are never created. Otherwise events are filtered per handler as 
+	 * they are dispatched. The default is false.
+	 * 
+	 * @return true if the handler only ever sees events of its own interest
+	 */
+	protected boolean neverDelegates() {
+		return false;
+	}
+	
+	boolean isInterestedIn(XMLEvent event) {
+		if (eventInterest == null) {
+			eventInterest = getEventInterest();
+		}
+		return eventInterest == EventInterest.ALL || eventInterest.accepts(event);
+	}
+	
+	/**
+	 * Check if this handler is the outermost handler of the digest, i.e. no other 
+	 * handler delegated parsing to it. When the outermost handler finishes parsing
+	 * the digester stops reading input.
+	 * 
+	 * @return true if this handler is at the bottom of the handler stack
+	 */
+	protected boolean isOutermostHandler() {
+		return digester.isOutermostHandler(digesterState, this);
+	}
+	
+	/**
+	 * Get the state to save in a checkpoint.
+	 * 
+	 * Override this to save whatever the handler needs to continue when a digest 
+	 * is resumed from the checkpoint. The default is to save nothing.
+	 * 
+	 * @return The state to save or null
+	 */
+	protected Serializable getCheckpointState() {
+		return null;
+	}
+	
+	/**
+	 * Restore the state saved in a checkpoint when resuming a digest.
+	 * 
+	 * @param state The state returned by {@link #getCheckpointState()} when the checkpoint was made
+	 */
+	protected void restoreCheckpointState(Serializable state) {
+	}
+	
+	/**
+	 * Get the statistics of the digest, for handlers sizing buffers or collections of their own.
+	 * 
+	 * @return The statistics or null if the digester does not collect statistics
+	 * @see XmlDigester#setStatistics(DigestStatistics)
+	 */
+	protected DigestStatistics getStatistics() {
+		return digesterState == null ? null : digesterState.statistics;
+	}
+	
+	/**
+	 * Size the character buffer for the text this kind of handler has captured before.
+	 */
+	void presize(DigestStatistics statistics) {
+		characterBuffer.ensureCapacity(statistics.getExpectedSize(getClass(), DigestStatistics.TEXT_LENGTH));
+		maxTextLength = 0;
+	}
+	
+	/**
+	 * Record the shape of what the handler digested.
+	 */
+	void recordShape(DigestStatistics statistics) {
+		statistics.record(getClass(), DigestStatistics.TEXT_LENGTH, maxTextLength);
+	}
+	
+	/**
+	 * Stop capturing if the armed element ended, called by the digester after 
+	 * the handler has handled an end element.
+	 */
+	void disarmCharacterBuffer(int depth) {
+		if (armedDepth > depth) {
+			armedDepth = 0;
+		}
+	}
+	
 	void setXmlDigester(XmlDigester digester) {
 		this.digester = digester;
 	}
@@ -0,0 +1,17 @@
+package dk.defiant.xml.digester;
+
+/**
+ * Callback for digesting a stream of concatenated XML documents.
+ * 
+ * @see XmlDigester#digestDocuments(java.io.Reader, DocumentHandler)
+ */
+public interface DocumentHandler<T> extends DigestFactory<T> {
+
+	/**
+	 * Handle a digested document.
+	 * 
+	 * @param digestTarget The object the document was digested into
+	 */
+	void handle(T digestTarget);
+	
+}
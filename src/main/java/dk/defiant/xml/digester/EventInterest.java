@@ -0,0 +1,198 @@
+package dk.defiant.xml.digester;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.StreamFilter;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamReader;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * The events a {@link DigesterEventHandler} is interested in.
+ * <p>
+ * An interest is made up of event types, and for element events of namespaces and
+ * element names. An element event is of interest if its name is one of the names or
+ * its namespace is one of the namespaces. If neither names nor namespaces are given
+ * all elements are of interest.
+ * </p>
+ * <pre>
+ * // Elements and text in a namespace
+ * EventInterest.ELEMENTS_AND_TEXT.inNamespaces("my-uri");
+ * </pre>
+ * <p>
+ * Events not of interest to a handler are filtered out before they are dispatched to it.
+ * If the outermost handler of a digest {@link DigesterEventHandler#neverDelegates() never delegates}
+ * its interest filters the input when it is parsed, so events of other types are never 
+ * created. Start and end elements and the document events always pass the parser filter 
+ * as the digester needs them to keep track of the document structure.
+ * </p>
+ *
+ * @author jip
+ *
+ * @see DigesterEventHandler#getEventInterest()
+ */
+@Immutable
+public final class EventInterest {
+
+	private static final int ALL_EVENT_TYPES = ~0;
+	private static final int STRUCTURAL_EVENT_TYPES = mask(XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT,
+			XMLStreamConstants.START_DOCUMENT, XMLStreamConstants.END_DOCUMENT);
+
+	/**
+	 * Interest in every event
+	 */
+	public static final EventInterest ALL = new EventInterest(ALL_EVENT_TYPES, false, null, null);
+
+	/**
+	 * Interest in elements and their text, i.e. no comments, processing instructions or DTD events
+	 */
+	public static final EventInterest ELEMENTS_AND_TEXT = forEventTypes(XMLStreamConstants.START_ELEMENT, XMLStreamConstants.END_ELEMENT, XMLStreamConstants.CHARACTERS);
+
+	private final int eventTypes;
+	private final boolean ignoringWhitespace;
+	private final Set<String> namespaces;
+	private final Set<QName> names;
+
+	private EventInterest(int eventTypes, boolean ignoringWhitespace, Set<String> namespaces, Set<QName> names) {
+		this.eventTypes = eventTypes;
+		this.ignoringWhitespace = ignoringWhitespace;
+		this.namespaces = namespaces;
+		this.names = names;
+	}
+
+	/**
+	 * Get an interest in events of the given types.
+	 *
+	 * Interest in {@link XMLStreamConstants#CHARACTERS} includes CDATA and whitespace
+	 * as parsers report text as either depending on their settings.
+	 *
+	 * @param eventTypes The event types, see {@link XMLStreamConstants}
+	 * @return The interest
+	 */
+	public static EventInterest forEventTypes(int... eventTypes) {
+		int mask = mask(eventTypes);
+		if ((mask & mask(XMLStreamConstants.CHARACTERS)) != 0) {
+			mask |= mask(XMLStreamConstants.CDATA, XMLStreamConstants.SPACE);
+		}
+		return new EventInterest(mask, false, null, null);
+	}
+
+	/**
+	 * Get a copy of this interest that is only interested in elements of the given namespaces
+	 * in addition to the names it is interested in.
+	 *
+	 * @param namespaceUris The namespace URIs, the empty string for no namespace
+	 * @return The interest
+	 */
+	public EventInterest inNamespaces(String... namespaceUris) {
+		Set<String> namespaces = new HashSet<String>(Arrays.asList(namespaceUris));
+		if (this.namespaces != null) {
+			namespaces.addAll(this.namespaces);
+		}
+		return new EventInterest(eventTypes, ignoringWhitespace, Collections.unmodifiableSet(namespaces), names);
+	}
+
+	/**
+	 * Get a copy of this interest that is only interested in elements with the given names
+	 * in addition to the namespaces it is interested in.
+	 *
+	 * @param elementNames The names of the elements
+	 * @return The interest
+	 */
+	public EventInterest withNames(QName... elementNames) {
+		Set<QName> names = new HashSet<QName>(Arrays.asList(elementNames));
+		if (this.names != null) {
+			names.addAll(this.names);
+		}
+		return new EventInterest(eventTypes, ignoringWhitespace, namespaces, Collections.unmodifiableSet(names));
+	}
+
+	/**
+	 * Get a copy of this interest that is not interested in text consisting of whitespace only,
+	 * e.g. the indentation of pretty printed documents. Note that this also drops the text
+	 * of elements containing nothing but whitespace.
+	 *
+	 * @return The interest
+	 */
+	public EventInterest ignoringWhitespace() {
+		return new EventInterest(eventTypes, true, namespaces, names);
+	}
+
+	/**
+	 * Check if an event is of interest.
+	 *
+	 * @param event The event
+	 * @return true if the event is of interest
+	 */
+	public boolean accepts(XMLEvent event) {
+		int eventType = event.getEventType();
+		if ((eventTypes & mask(eventType)) == 0) {
+			return false;
+		}
+		switch (eventType) {
+		case XMLStreamConstants.START_ELEMENT:
+			return acceptsName(event.asStartElement().getName());
+		case XMLStreamConstants.END_ELEMENT:
+			return acceptsName(event.asEndElement().getName());
+		case XMLStreamConstants.CHARACTERS:
+		case XMLStreamConstants.SPACE:
+			return !ignoringWhitespace || !event.asCharacters().isWhiteSpace();
+		default:
+			return true;
+		}
+	}
+
+	private boolean acceptsName(QName name) {
+		if (names == null && namespaces == null) {
+			return true;
+		}
+		return (names != null && names.contains(name))
+				|| (namespaces != null && namespaces.contains(name.getNamespaceURI()));
+	}
+
+	/**
+	 * Check if the interest excludes any event types, so filtering the parser output pays off.
+	 *
+	 * @return true if some event types are not of interest
+	 */
+	boolean isFilteringEvents() {
+		return ignoringWhitespace || (eventTypes | STRUCTURAL_EVENT_TYPES) != ALL_EVENT_TYPES;
+	}
+
+	/**
+	 * Get a filter for the parser that drops events of types not of interest. Structural
+	 * events always pass.
+	 *
+	 * @return The filter
+	 */
+	StreamFilter asStreamFilter() {
+		final int acceptedTypes = eventTypes | STRUCTURAL_EVENT_TYPES;
+		return new StreamFilter() {
+			@Override
+			public boolean accept(XMLStreamReader reader) {
+				int eventType = reader.getEventType();
+				if ((acceptedTypes & mask(eventType)) == 0) {
+					return false;
+				}
+				if (ignoringWhitespace && (XMLStreamConstants.CHARACTERS == eventType || XMLStreamConstants.SPACE == eventType)) {
+					return !reader.isWhiteSpace();
+				}
+				return true;
+			}
+		};
+	}
+
+	private static int mask(int... eventTypes) {
+		int mask = 0;
+		for (int eventType : eventTypes) {
+			mask |= 1 << eventType;
+		}
+		return mask;
+	}
+}
@@ -0,0 +1,133 @@
+package dk.defiant.xml.digester;
+
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.defiant.xml.digester.responses.ContinueParsingResponse;
+import dk.defiant.xml.digester.responses.DelegateParsingResponse;
+
+/**
+ * Reader of the records of a document, i.e. the elements with a given name, each
+ * digested into a target of its own.
+ * <p>
+ * Parsing is driven by the reader: the document is only parsed as far as needed to 
+ * digest the next record, so records can be consumed one at a time at the pace of
+ * the consumer without buffering the records of the document.
+ * </p>
+ * <pre>
+ * RecordReader&lt;Person&gt; people = digester.readRecords(reader, new QName("person"), factory);
+ * try {
+ *     while (people.hasNext()) {
+ *         save(people.next());
+ *     }
+ * } finally {
+ *     people.close();
+ * }
+ * </pre>
+ * <p>
+ * Each record is digested by the handler given by the {@link DigestFactory}, which must 
+ * finish parsing at the end element of the record. Elements outside records are skipped.
+ * </p>
+ * 
+ * @see XmlDigester#readRecords(java.io.Reader, QName, DigestFactory)
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public final class RecordReader<T> implements AutoCloseable {
+
+	/**
+	 * Outermost handler delegating records to the handlers of the factory and 
+	 * collecting the digested records.
+	 */
+	static final class Collector<T> extends DigesterEventHandler {
+		
+		private final QName recordName;
+		private final DigestFactory<T> digestFactory;
+		private final Queue<T> records = new ArrayDeque<T>();
+		
+		Collector(QName recordName, DigestFactory<T> digestFactory) {
+			this.recordName = recordName;
+			this.digestFactory = digestFactory;
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+			if (event.isStartElement() && recordName.equals(event.asStartElement().getName())) {
+				return new DelegateParsingResponse(digestFactory.newEventHandler(), digestFactory.newDigestTarget());
+			} else if (event.isEndElement() && recordName.equals(event.asEndElement().getName())) {
+				// The record handler finished and handed back the record
+				records.add((T) digestTarget);
+			}
+			return new ContinueParsingResponse();
+		}
+	}
+	
+	private final XmlDigester digester;
+	private final XmlDigester.Context context;
+	private final Queue<T> records;
+	private boolean finished = false;
+	
+	RecordReader(XmlDigester digester, XmlDigester.Context context, Collector<T> collector) {
+		this.digester = digester;
+		this.context = context;
+		this.records = collector.records;
+	}
+	
+	/**
+	 * Check if there are more records, parsing up to the end of the next record.
+	 * 
+	 * @return true if there is another record
+	 * @throws XMLStreamException
+	 */
+	public boolean hasNext() throws XMLStreamException {
+		while (records.isEmpty() && !finished) {
+			try {
+				if (!digester.step(context)) {
+					digester.recordStatistics(context);
+					close();
+				}
+			} catch (XMLStreamException e) {
+				close();
+				throw XmlDigester.inputLimitExceeded(e);
+			} catch (RuntimeException e) {
+				close();
+				throw e;
+			}
+		}
+		return !records.isEmpty();
+	}
+	
+	/**
+	 * Get the next record.
+	 * 
+	 * @return The digest target of the next record
+	 * @throws XMLStreamException
+	 * @throws NoSuchElementException if there are no more records
+	 */
+	public T next() throws XMLStreamException {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return records.remove();
+	}
+	
+	/**
+	 * Stop reading records and close the parser. Records already parsed can still be read.
+	 */
+	@Override
+	public void close() throws XMLStreamException {
+		if (!finished) {
+			finished = true;
+			context.eventReader.close();
+		}
+	}
+}
@@ -0,0 +1,16 @@
+package dk.defiant.xml.digester;
+
+/**
+ * Digest target that can be reset to its initial state, so it can be digested into again.
+ * 
+ * @see ReusingDigestFactory
+ */
+public interface Resettable {
+
+	/**
+	 * Reset the object to the state of a newly created object, clearing collections
+	 * rather than replacing them.
+	 */
+	void reset();
+	
+}
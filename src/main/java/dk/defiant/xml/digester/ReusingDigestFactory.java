@@ -0,0 +1,59 @@
+package dk.defiant.xml.digester;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Digest factory handing out the same target and handler for every digest.
+ * <p>
+ * When streaming records with a {@link RecordReader}, a new target per record is garbage as soon as the record has been processed. Reusing the target avoids
+ * allocating it and its collections for every record. The consumer can only use a record
+ * until the next record is digested and must copy whatever it wants to keep.
+ * </p>
+ * <p>
+ * A target implementing {@link Resettable} is reset before it is handed out again. Otherwise 
+ * the handler must reset it, e.g. a 
+ * {@link dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler} in reuse mode.
+ * The handler must be able to handle one record after another, which the handlers of
+ * this library can.
+ * </p>
+ * <p>
+ * Only the outermost target and handler are reused. Targets made by handlers the record
+ * handler delegates to are allocated as before, and members a handler digests through 
+ * setters are not reset by it, so such targets should implement {@link Resettable}.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class ReusingDigestFactory<T> implements DigestFactory<T> {
+
+	private final DigestFactory<T> digestFactory;
+	private T digestTarget;
+	private DigesterEventHandler eventHandler;
+	
+	/**
+	 * @param digestFactory The factory making the target and handler on first use
+	 */
+	public ReusingDigestFactory(DigestFactory<T> digestFactory) {
+		this.digestFactory = digestFactory;
+	}
+	
+	@Override
+	public T newDigestTarget() {
+		if (digestTarget == null) {
+			digestTarget = digestFactory.newDigestTarget();
+		} else if (digestTarget instanceof Resettable) {
+			((Resettable) digestTarget).reset();
+		}
+		return digestTarget;
+	}
+	
+	@Override
+	public DigesterEventHandler newEventHandler() {
+		if (eventHandler == null) {
+			eventHandler = digestFactory.newEventHandler();
+		}
+		return eventHandler;
+	}
+}
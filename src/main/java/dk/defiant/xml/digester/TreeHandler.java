@@ -0,0 +1,9 @@
+package dk.defiant.xml.digester;
+
+import dk.defiant.xml.digester.tree.CompactTree;
+
+public interface TreeHandler<T> {
+
+	void handle(T target, CompactTree tree);
+	
+}
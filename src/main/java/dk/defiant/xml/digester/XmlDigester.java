@@ -1,48 +1,250 @@
 package dk.defiant.xml.digester;
 
-import java.io.BufferedReader;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.Reader;
+import java.io.SequenceInputStream;
+import java.io.Serializable;
 import java.io.StringReader;
 import java.io.StringWriter;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.IllegalCharsetNameException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
 
 import javax.xml.namespace.QName;
 import javax.xml.stream.XMLEventReader;
 import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
 import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
 
 import net.jcip.annotations.ThreadSafe;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.defiant.xml.digester.columnar.AggregatingHandler;
+import dk.defiant.xml.digester.columnar.Aggregation;
+import dk.defiant.xml.digester.columnar.AggregationResult;
+import dk.defiant.xml.digester.events.PipelinedEventReader;
+import dk.defiant.xml.digester.index.RecordChanges;
+import dk.defiant.xml.digester.index.RecordIndex;
+import dk.defiant.xml.digester.index.RecordIndexer;
+import dk.defiant.xml.digester.io.CompressedInput;
+import dk.defiant.xml.digester.io.ConcatenatedDocumentInputStream;
+import dk.defiant.xml.digester.io.ConcatenatedDocumentReader;
+import dk.defiant.xml.digester.io.InputLimitExceededException;
+import dk.defiant.xml.digester.io.LimitedInputStream;
+import dk.defiant.xml.digester.io.LimitedReader;
+import dk.defiant.xml.digester.io.ElementEndTracker;
+import dk.defiant.xml.digester.io.OffsetTrackingInputStream;
+import dk.defiant.xml.digester.io.OffsetTrackingReader;
+import dk.defiant.xml.digester.io.PrefixedReader;
+import dk.defiant.xml.digester.io.XmlEncoding;
 import dk.defiant.xml.digester.responses.BadHandlerResponse;
+import dk.defiant.xml.digester.responses.ContinueParsingResponse;
+import dk.defiant.xml.digester.tree.CompactTree;
+import dk.defiant.xml.digester.tree.CompactTreeBuilder;
 
 /**
  * Class for digesting XML into Java objects
  * 
+ * The digester can be configured through its setters. Configure it before
+ * sharing it between threads.
+ * 
  */
 @ThreadSafe
 public class XmlDigester {
 
 	private static final Logger log = LoggerFactory.getLogger(XmlDigester.class);
+	private static final HandlerResponse CONTINUE = new ContinueParsingResponse();
+	// Canonical names of the character sets XML parsers support for byte input
+	private static final Set<String> parserCharSets = new HashSet<String>(Arrays.asList("UTF-8", "UTF-16", "UTF-16BE", "UTF-16LE", 
+			"ISO-8859-1", "US-ASCII"));
 	
 	public class Context {
 	    Stack<DigesterEventHandler> eventHandlers = new Stack<DigesterEventHandler>();
 	    Stack<Object> digestTargets = new Stack<Object>();
 	    int depth, ignoredElementDepth;
 	    boolean ignoring;
+	    // Depth of the element a delegate finished at the start of, whose result is kept for the end element
+	    int finishedDelegateDepth;
 	    XMLEventReader eventReader;
 	    XMLEvent event;
+	    
+	    // Checkpointing state, only used when digesting with checkpoints
+	    Checkpointing checkpointing;
+	    ElementEndTracker offsetTracker;
+	    // The tracked input of a digest of bytes, null for a digest of characters
+	    OffsetTrackingInputStream trackedInput;
+	    // End elements read so far, also those consumed by the handlers
+	    long endElementCount;
+	    List<StartElement> openElements;
+	    long recordCount;
+	    List<Serializable> restoredStates;
+	    int startElementsBeforeRestore;
+	    
+	    // Limits of the digest
+	    DigestLimits limits;
+	    long deadline;
+	    long eventCount;
+	    
+	    // Statistics of the shape of the document, null when not collected
+	    DigestStatistics statistics;
+	    Class<?> outermostHandlerClass;
+	    int maxHandlerDepth;
+	}
+	
+	// Woodstox property for the size of its input buffer
+	private static final String INPUT_BUFFER_LENGTH_PROPERTY = "com.ctc.wstx.inputBufferLength";
+	
+	private volatile boolean pipelined = false;
+	private volatile int pipelineCapacity = PipelinedEventReader.DEFAULT_CAPACITY;
+	private volatile Executor pipelineExecutor = null;
+	private volatile int inputBufferLength = 0;
+	private volatile boolean coalescing = false;
+	private volatile DigestLimits limits = DigestLimits.NONE;
+	private volatile Executor decompressionExecutor = null;
+	private volatile DigestStatistics statistics = null;
+	
+	/**
+	 * Parse on a separate thread while handlers run on the digesting thread.
+	 * 
+	 * Pipelining pays off when handlers do expensive work, e.g. validation or 
+	 * costly setters, as parsing and handling then use a core each. It applies
+	 * to digests that parse their input, not to digests of a given {@link XMLEventReader}.
+	 * 
+	 * @param pipelined True to parse on a separate thread
+	 */
+	public void setPipelined(boolean pipelined) {
+		this.pipelined = pipelined;
+	}
+	
+	/**
+	 * Set the number of events that can be buffered between the parsing thread 
+	 * and the digesting thread when pipelined.
+	 * 
+	 * @param pipelineCapacity Number of events, rounded up to a power of two
+	 */
+	public void setPipelineCapacity(int pipelineCapacity) {
+		this.pipelineCapacity = pipelineCapacity;
+	}
+	
+	/**
+	 * Set the executor running the parsing threads of pipelined digests.
+	 * 
+	 * Each pipelined digest occupies a thread of the executor until it is done, and the
+	 * thread blocks on I/O, so the executor must not be one meant for short tasks only.
+	 * 
+	 * @param pipelineExecutor The executor or null to start a new daemon thread per digest
+	 */
+	public void setPipelineExecutor(Executor pipelineExecutor) {
+		this.pipelineExecutor = pipelineExecutor;
+	}
+	
+	/**
+	 * Set the size of the buffer used when parsing from an {@link InputStream}.
+	 * 
+	 * The size is handed to the parser if it supports it (Woodstox does). Otherwise the
+	 * stream is buffered with a buffer of the given size before the parser sees it.
+	 * 
+	 * @param inputBufferLength Buffer size in bytes or 0 to use the parser's default
+	 */
+	public void setInputBufferLength(int inputBufferLength) {
+		this.inputBufferLength = inputBufferLength;
+	}
+	
+	/**
+	 * Have the parser report all text of an element between two tags as a single event.
+	 * 
+	 * Coalescing costs some buffering in the parser, but handlers see one characters 
+	 * event instead of several for text spanning the parser's buffer or containing 
+	 * entity references or CDATA sections.
+	 * 
+	 * @param coalescing True to coalesce adjacent text
+	 */
+	public void setCoalescing(boolean coalescing) {
+		this.coalescing = coalescing;
+	}
+	
+	/**
+	 * Decompress compressed input given as an {@link InputStream}.
+	 * 
+	 * Gzip and zlib input is recognised from its header and decompressed on the executor 
+	 * while the parser reads the decompressed bytes, so decompression no longer takes time 
+	 * from parsing. Blocked gzip (BGZF) members are also inflated in parallel. Uncompressed
+	 * input is read as is. Input limits apply to the decompressed input.
+	 * 
+	 * @param decompressionExecutor The executor to decompress on, or null to read input as is
+	 * @see CompressedInput
+	 */
+	public void setDecompressionExecutor(Executor decompressionExecutor) {
+		this.decompressionExecutor = decompressionExecutor;
+	}
+	
+	/**
+	 * Collect statistics of the shape of the documents digested and size buffers and 
+	 * collections of later digests from them.
+	 * 
+	 * For feeds of similar documents this saves most of the copying of growing buffers, 
+	 * stacks and collections one resize at a time.
+	 * 
+	 * @param statistics The statistics to record in and size from, or null not to collect statistics
+	 */
+	public void setStatistics(DigestStatistics statistics) {
+		this.statistics = statistics;
+	}
+	
+	/**
+	 * Set the limits of every digest made by this digester.
+	 * 
+	 * @param limits The limits, {@link DigestLimits#NONE} for no limits
+	 */
+	public void setLimits(DigestLimits limits) {
+		this.limits = limits;
+	}
+	
+	/**
+	 * Get a digester configured like this digester, but with other limits.
+	 * 
+	 * This is the way to digest with limits that differ per digest, e.g. a 
+	 * cancellation token per request, using a shared digester.
+	 * 
+	 * @param limits The limits of the new digester
+	 * @return A new digester
+	 */
+	public XmlDigester withLimits(DigestLimits limits) {
+		XmlDigester digester = new XmlDigester();
+		digester.pipelined = pipelined;
+		digester.pipelineCapacity = pipelineCapacity;
+		digester.pipelineExecutor = pipelineExecutor;
+		digester.inputBufferLength = inputBufferLength;
+		digester.coalescing = coalescing;
+		digester.limits = limits;
+		digester.decompressionExecutor = decompressionExecutor;
+		digester.statistics = statistics;
+		return digester;
 	}
 	
 	/**
@@ -60,6 +262,28 @@ public class XmlDigester {
 	/**
 	 * Digest XML obtained from an {@link InputStream} into Java objects.
 	 * 
+	 * The bytes are given directly to the parser which detects the encoding from 
+	 * the byte order mark or the XML declaration of the document.
+	 * 
+	 * @param input The input stream to read from
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @throws XMLStreamException
+	 */
+	public final void digest(InputStream input, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(newEventReader(xmlInputFactory, input, null, eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML obtained from an {@link InputStream} into Java objects.
+	 * 
+	 * The bytes are given directly to the parser which decodes them using the given
+	 * character set regardless of the encoding declared in the document. The parser is
+	 * given the canonical name of the character set, and character sets other than those
+	 * all XML parsers support (UTF-8, UTF-16, ISO-8859-1 and US-ASCII) are decoded by 
+	 * a reader instead, as parsers differ in which names and character sets they accept.
+	 * 
 	 * @param input The input stream to read from
 	 * @param charSetName The character set name to use for reading from input stream
 	 * @param digestTarget The object to digest XML into
@@ -68,8 +292,71 @@ public class XmlDigester {
 	 * @throws XMLStreamException
 	 */
 	public final void digest(InputStream input, String charSetName, Object digestTarget, DigesterEventHandler eventHandler) throws UnsupportedEncodingException, XMLStreamException {
-		InputStreamReader isr = new InputStreamReader(input, charSetName);
-		digest(new BufferedReader(isr), digestTarget, eventHandler);
+		String canonicalName = canonicalCharSet(charSetName);
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(newEventReader(xmlInputFactory, input, canonicalName, eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML from a byte array into Java objects, detecting the encoding from the document.
+	 * 
+	 * @param input The bytes of the XML document
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @throws XMLStreamException
+	 */
+	public final void digest(byte[] input, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(limited(new ByteArrayInputStream(input))), eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML from a byte array into Java objects using the given character set.
+	 * 
+	 * @param input The bytes of the XML document
+	 * @param charSetName The character set name to use for decoding the bytes
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @throws UnsupportedEncodingException
+	 * @throws XMLStreamException
+	 */
+	public final void digest(byte[] input, String charSetName, Object digestTarget, DigesterEventHandler eventHandler) throws UnsupportedEncodingException, XMLStreamException {
+		String canonicalName = canonicalCharSet(charSetName);
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(newEventReader(xmlInputFactory, createXMLStreamReader(xmlInputFactory, limited(new ByteArrayInputStream(input)), canonicalName), eventHandler), 
+				digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML from the remaining bytes of a {@link ByteBuffer} into Java objects, 
+	 * detecting the encoding from the document. The position of the buffer is not changed.
+	 * 
+	 * @param input The buffer holding the XML document
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @throws XMLStreamException
+	 */
+	public final void digest(ByteBuffer input, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(limited(asInputStream(input))), eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML from the remaining bytes of a {@link ByteBuffer} into Java objects using
+	 * the given character set. The position of the buffer is not changed.
+	 * 
+	 * @param input The buffer holding the XML document
+	 * @param charSetName The character set name to use for decoding the bytes
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @throws UnsupportedEncodingException
+	 * @throws XMLStreamException
+	 */
+	public final void digest(ByteBuffer input, String charSetName, Object digestTarget, DigesterEventHandler eventHandler) throws UnsupportedEncodingException, XMLStreamException {
+		String canonicalName = canonicalCharSet(charSetName);
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(newEventReader(xmlInputFactory, createXMLStreamReader(xmlInputFactory, limited(asInputStream(input)), canonicalName), eventHandler), 
+				digestTarget, eventHandler);
 	}
 	
 	/**
@@ -82,78 +369,904 @@ public class XmlDigester {
 	 * @throws XMLStreamException
 	 */
 	public final void digest(Reader reader, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(limited(reader)), eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest a stream of concatenated XML documents, e.g. messages arriving one
+	 * root element after another on a long-lived connection.
+	 * 
+	 * The reader and its buffer are kept across document boundaries and every 
+	 * document is digested with the target and handler given by the document handler,
+	 * which is called back once the document has been digested.
+	 * 
+	 * @param reader The reader to read the documents from
+	 * @param documentHandler The callback supplying targets and handlers and receiving results
+	 * @return The number of documents digested
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public final <T> long digestDocuments(Reader reader, DocumentHandler<T> documentHandler) throws IOException, XMLStreamException {
+		ConcatenatedDocumentReader documents = new ConcatenatedDocumentReader(reader);
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		long count = 0;
+		while (documents.nextDocument()) {
+			T digestTarget = documentHandler.newDigestTarget();
+			DigesterEventHandler eventHandler = documentHandler.newEventHandler();
+			digestParsed(newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(limited(documents)), eventHandler), digestTarget, eventHandler);
+			documentHandler.handle(digestTarget);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Digest a stream of concatenated XML documents of bytes in the given encoding.
+	 * <p>
+	 * Like {@link #digestDocuments(Reader, DocumentHandler)}, except that in UTF-8 and single
+	 * byte encodings extending ASCII, like ISO-8859-1, the documents are split as bytes and 
+	 * only decoded by the parser. Documents in other encodings, like UTF-16 and Shift_JIS,
+	 * are decoded by a reader and split as characters. The encoding is given rather than
+	 * detected, as it applies to every document of the stream.
+	 * </p>
+	 * 
+	 * @param input The input stream to read the documents from
+	 * @param charSetName The character set name of the documents
+	 * @param documentHandler The callback supplying targets and handlers and receiving results
+	 * @return The number of documents digested
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public final <T> long digestDocuments(InputStream input, String charSetName, DocumentHandler<T> documentHandler) throws IOException, XMLStreamException {
+		String canonicalName = canonicalCharSet(charSetName);
+		if (!XmlEncoding.isScannable(Charset.forName(canonicalName))) {
+			return digestDocuments(new InputStreamReader(input, canonicalName), documentHandler);
+		}
+		ConcatenatedDocumentInputStream documents = new ConcatenatedDocumentInputStream(input);
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		long count = 0;
+		while (documents.nextDocument()) {
+			T digestTarget = documentHandler.newDigestTarget();
+			DigesterEventHandler eventHandler = documentHandler.newEventHandler();
+			digestParsed(newEventReader(xmlInputFactory, createXMLStreamReader(xmlInputFactory, limited(documents), canonicalName), eventHandler), 
+					digestTarget, eventHandler);
+			documentHandler.handle(digestTarget);
+			count++;
+		}
+		return count;
+	}
+	
+	/**
+	 * Read the records of a document one at a time, parsing only as far as the records 
+	 * read so far.
+	 * 
+	 * @param reader The reader to read the document from
+	 * @param recordName The name of the record elements
+	 * @param digestFactory The factory supplying the target and handler of each record
+	 * @return A reader of the records, which must be closed when done
+	 * @throws XMLStreamException
+	 * @see RecordReader
+	 */
+	public final <T> RecordReader<T> readRecords(Reader reader, QName recordName, DigestFactory<T> digestFactory) throws XMLStreamException {
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		RecordReader.Collector<T> collector = new RecordReader.Collector<T>(recordName, digestFactory);
+		return newRecordReader(newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(limited(reader)), collector), collector);
+	}
+	
+	/**
+	 * Read the records of a document one at a time, parsing only as far as the records 
+	 * read so far. The encoding is detected from the document.
+	 * 
+	 * @param input The input stream to read the document from
+	 * @param recordName The name of the record elements
+	 * @param digestFactory The factory supplying the target and handler of each record
+	 * @return A reader of the records, which must be closed when done
+	 * @throws XMLStreamException
+	 * @see RecordReader
+	 */
+	public final <T> RecordReader<T> readRecords(InputStream input, QName recordName, DigestFactory<T> digestFactory) throws XMLStreamException {
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		RecordReader.Collector<T> collector = new RecordReader.Collector<T>(recordName, digestFactory);
+		return newRecordReader(newEventReader(xmlInputFactory, input, null, collector), collector);
+	}
+	
+	/**
+	 * Aggregate the records of a document without making objects of them, so memory
+	 * depends on the number of groups, not on the number of records.
+	 * 
+	 * @param reader The reader to read the document from
+	 * @param aggregation The columns of the records and the aggregates to compute
+	 * @return The aggregates of each group
+	 * @throws XMLStreamException
+	 * @see AggregatingHandler
+	 */
+	public final AggregationResult aggregate(Reader reader, Aggregation aggregation) throws XMLStreamException {
+		AggregatingHandler handler = new AggregatingHandler(aggregation);
+		digest(reader, null, handler);
+		return handler.getResult();
+	}
+	
+	/**
+	 * Aggregate the records of a document without making objects of them. The encoding 
+	 * is detected from the document.
+	 * 
+	 * @param input The input stream to read the document from
+	 * @param aggregation The columns of the records and the aggregates to compute
+	 * @return The aggregates of each group
+	 * @throws XMLStreamException
+	 * @see AggregatingHandler
+	 */
+	public final AggregationResult aggregate(InputStream input, Aggregation aggregation) throws XMLStreamException {
+		AggregatingHandler handler = new AggregatingHandler(aggregation);
+		digest(input, null, handler);
+		return handler.getResult();
+	}
+	
+	private <T> RecordReader<T> newRecordReader(XMLEventReader eventReader, RecordReader.Collector<T> collector) throws XMLStreamException {
+		if (pipelined) {
+			eventReader = new PipelinedEventReader(eventReader, pipelineCapacity, pipelineExecutor);
+		}
 		Context context = new Context();
+		try {
+			start(context, eventReader, null, collector);
+		} catch (XMLStreamException e) {
+			eventReader.close();
+			throw e;
+		}
+		return new RecordReader<T>(this, context, collector);
+	}
+	
+	/**
+	 * Digest a single record of an indexed file.
+	 * 
+	 * Only the bytes of the record are read, so the time taken does not depend on the size of the file.
+	 * The record is digested as a document of its own with the namespaces of its ancestors declared
+	 * on its root element.
+	 * 
+	 * @param file The indexed file
+	 * @param index The index of the file, see {@link dk.defiant.xml.digester.index.RecordIndexer}
+	 * @param ordinal The ordinal of the record
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public final void digestAt(File file, RecordIndex index, int ordinal, Object digestTarget, DigesterEventHandler eventHandler) throws IOException, XMLStreamException {
+		digest(index.readRecord(file, ordinal), index.getEncoding(), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest a single record of an indexed file, looking it up by a key attribute.
+	 * 
+	 * @param file The indexed file
+	 * @param index The index of the file, see {@link dk.defiant.xml.digester.index.RecordIndexer}
+	 * @param keyAttribute The local name of the indexed key attribute
+	 * @param key The value of the key attribute
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @return true if the record was found and digested
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public final boolean digestAt(File file, RecordIndex index, String keyAttribute, String key, Object digestTarget, DigesterEventHandler eventHandler) throws IOException, XMLStreamException {
+		int ordinal = index.getOrdinal(keyAttribute, key);
+		if (ordinal < 0) {
+			return false;
+		}
+		digestAt(file, index, ordinal, digestTarget, eventHandler);
+		return true;
+	}
+	
+	/**
+	 * Digest the records of a file that were added or changed since an earlier version of it.
+	 * <p>
+	 * The file is scanned, not parsed, to index its records and hash their bytes. Records whose
+	 * key is new or whose hash differs from the hash in the index of the earlier version are
+	 * digested and handed to the change handler, and the keys of records that are gone are
+	 * reported as removed. The index of the file is returned, so it can be stored, e.g. with
+	 * {@link RecordIndex#write(File)}, and compared with at the next run.
+	 * </p>
+	 * 
+	 * @param file The XML file
+	 * @param recordName The name of the record elements
+	 * @param keyAttribute The local name of the attribute identifying records across versions
+	 * @param previous The index of the earlier version, made by this method, or null to digest every record as added
+	 * @param changeHandler The callback supplying targets and handlers and receiving the changes
+	 * @return The index of the file
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 * @see RecordChanges
+	 */
+	public final <T> RecordIndex digestChanges(File file, QName recordName, String keyAttribute, RecordIndex previous, ChangeHandler<T> changeHandler) throws IOException, XMLStreamException {
+		RecordIndex index = new RecordIndexer(recordName, keyAttribute).index(file);
+		RecordChanges changes = RecordChanges.between(previous, index, keyAttribute);
+		log.debug("{} of {} records added or changed, {} removed", new Object[] { changes.size(), index.size(), changes.getRemovedKeys().size() });
+		for (int change = 0; change < changes.size(); change++) {
+			T digestTarget = changeHandler.newDigestTarget();
+			digestAt(file, index, changes.getOrdinal(change), digestTarget, changeHandler.newEventHandler());
+			if (changes.isAdded(change)) {
+				changeHandler.added(changes.getKey(change), digestTarget);
+			} else {
+				changeHandler.changed(changes.getKey(change), digestTarget);
+			}
+		}
+		for (String key : changes.getRemovedKeys()) {
+			changeHandler.removed(key);
+		}
+		return index;
+	}
+	
+	private void digestParsed(XMLEventReader eventReader, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		digestParsed(new Context(), eventReader, digestTarget, eventHandler);
+	}
+	
+	private void digestParsed(Context context, XMLEventReader eventReader, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		// The offsets of checkpoints are tracked as the parser reads, which must not run ahead
+		if (pipelined && context.checkpointing == null) {
+			eventReader = new PipelinedEventReader(eventReader, pipelineCapacity, pipelineExecutor);
+		}
+		try {
+			digest(context, eventReader, digestTarget, eventHandler);
+		} catch (XMLStreamException e) {
+			throw inputLimitExceeded(e);
+		} finally {
+			// Also stops the parsing thread of a pipelined digest that finished early
+			eventReader.close();
+		}
+	}
+	
+	/**
+	 * Digest XML obtained from an {@link XMLEventReader} into Java objects.
+	 * 
+	 * This makes it possible to digest events that do not come directly
+	 * from a parser, e.g. a replay of a {@link dk.defiant.xml.digester.events.EventRecording}.
+	 * 
+	 * @param eventReader The event reader to read from
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * 
+	 * @throws XMLStreamException
+	 */
+	public final void digest(XMLEventReader eventReader, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		digest(new Context(), eventReader, digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML obtained from a {@link Reader} into Java objects, making checkpoints
+	 * along the way.
+	 * 
+	 * If the digest fails, e.g. because of an I/O error late in a huge document, it can
+	 * be resumed from the last checkpoint using 
+	 * {@link #resume(Reader, Checkpoint, Object, DigesterEventHandler, Checkpointing)}.
+	 * Record elements must reach the digester as events, i.e. they must not be consumed
+	 * by {@link DigesterEventHandler#getText()} or {@link DigesterEventHandler#getXmlFragment(boolean)},
+	 * and the document must not use entities whose replacement text contains elements.
+	 * Digests with checkpoints are not pipelined.
+	 * 
+	 * @param reader The reader to read from
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @param checkpointing Where and how often to make checkpoints
+	 * @throws XMLStreamException
+	 */
+	public final void digest(Reader reader, Object digestTarget, DigesterEventHandler eventHandler, Checkpointing checkpointing) throws XMLStreamException {
+		Context context = new Context();
+		context.checkpointing = checkpointing;
+		OffsetTrackingReader trackedReader = new OffsetTrackingReader(limited(reader), 0);
+		context.offsetTracker = trackedReader.getTracker();
+		context.openElements = new ArrayList<StartElement>();
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(context, newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(trackedReader), eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Digest XML obtained from an {@link InputStream} into Java objects, making checkpoints
+	 * with byte offsets along the way.
+	 * 
+	 * Like {@link #digest(Reader, Object, DigesterEventHandler, Checkpointing)}, except that
+	 * the digest can be resumed with {@link #resume(InputStream, Checkpoint, Object, DigesterEventHandler, Checkpointing)},
+	 * which skips the bytes before the checkpoint without decoding them. The document must
+	 * be in UTF-8 or a single byte encoding extending ASCII, like ISO-8859-1, see
+	 * {@link XmlEncoding#isScannable(Charset)}. The input is not decompressed.
+	 * 
+	 * @param input The input stream to read from
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @param checkpointing Where and how often to make checkpoints
+	 * @throws XMLStreamException
+	 */
+	public final void digest(InputStream input, Object digestTarget, DigesterEventHandler eventHandler, Checkpointing checkpointing) throws XMLStreamException {
+		Context context = new Context();
+		context.checkpointing = checkpointing;
+		context.trackedInput = new OffsetTrackingInputStream(limited(input));
+		context.offsetTracker = context.trackedInput.getTracker();
+		context.openElements = new ArrayList<StartElement>();
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(context, newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(context.trackedInput), eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Resume digesting a document from a checkpoint.
+	 * <p>
+	 * The reader must be positioned at the start of the document. Everything up to the
+	 * checkpoint is skipped without being parsed. The handlers then receive start element
+	 * events for the elements that were open at the checkpoint, so they can set up their
+	 * context as usual, after which the saved handler states are restored through
+	 * {@link DigesterEventHandler#restoreCheckpointState(Serializable)} and the digest 
+	 * continues with the rest of the document. Text content of the open elements before the
+	 * checkpoint is not repeated.
+	 * </p>
+	 * 
+	 * @param reader The reader to read from, positioned at the start of the document
+	 * @param checkpoint The checkpoint to resume from
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @param checkpointing Where and how often to make further checkpoints
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public final void resume(Reader reader, Checkpoint checkpoint, Object digestTarget, DigesterEventHandler eventHandler, Checkpointing checkpointing) throws IOException, XMLStreamException {
+		if (checkpoint.getCharacterOffset() < 0) {
+			throw new IllegalArgumentException("The checkpoint has no character offset, resume from an input stream");
+		}
+		long remaining = checkpoint.getCharacterOffset();
+		while (remaining > 0) {
+			long skipped = reader.skip(remaining);
+			if (skipped <= 0) {
+				if (reader.read() < 0) {
+					throw new IOException("Document ended before the checkpoint at offset " + checkpoint.getCharacterOffset());
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+		String prologue = checkpoint.getPrologue();
+		Context context = new Context();
+		context.checkpointing = checkpointing;
+		OffsetTrackingReader trackedReader = new OffsetTrackingReader(new PrefixedReader(prologue, limited(reader)), checkpoint.getCharacterOffset() - prologue.length());
+		context.offsetTracker = trackedReader.getTracker();
+		context.openElements = new ArrayList<StartElement>();
+		context.recordCount = checkpoint.getRecordCount();
+		context.restoredStates = checkpoint.getHandlerStates();
+		context.startElementsBeforeRestore = checkpoint.getOpenElements().size();
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(context, newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(trackedReader), eventHandler), digestTarget, eventHandler);
+	}
+	
+	/**
+	 * Resume digesting a document of bytes from a checkpoint made by 
+	 * {@link #digest(InputStream, Object, DigesterEventHandler, Checkpointing)}.
+	 * <p>
+	 * The bytes before the checkpoint are skipped with {@link InputStream#skip(long)}, which 
+	 * for a file input stream moves the position without reading. Otherwise the digest resumes
+	 * like {@link #resume(Reader, Checkpoint, Object, DigesterEventHandler, Checkpointing)}.
+	 * </p>
+	 * 
+	 * @param input The input stream to read from, positioned at the start of the document
+	 * @param checkpoint The checkpoint to resume from
+	 * @param digestTarget The object to digest XML into
+	 * @param eventHandler The event handler that will receive StAX XML events
+	 * @param checkpointing Where and how often to make further checkpoints
+	 * @throws IOException
+	 * @throws XMLStreamException
+	 */
+	public final void resume(InputStream input, Checkpoint checkpoint, Object digestTarget, DigesterEventHandler eventHandler, Checkpointing checkpointing) throws IOException, XMLStreamException {
+		if (checkpoint.getEncoding() == null || checkpoint.getByteOffset() < 0) {
+			throw new IllegalArgumentException("The checkpoint has no byte offset, resume from a reader");
+		}
+		long remaining = checkpoint.getByteOffset();
+		while (remaining > 0) {
+			long skipped = input.skip(remaining);
+			if (skipped <= 0) {
+				if (input.read() < 0) {
+					throw new IOException("Document ended before the checkpoint at offset " + checkpoint.getByteOffset());
+				}
+				skipped = 1;
+			}
+			remaining -= skipped;
+		}
+		byte[] prologue = checkpoint.getPrologue().getBytes(checkpoint.getEncoding());
+		Context context = new Context();
+		context.checkpointing = checkpointing;
+		context.trackedInput = new OffsetTrackingInputStream(new SequenceInputStream(new ByteArrayInputStream(prologue), limited(input)), 
+				checkpoint.getByteOffset() - prologue.length, checkpoint.getEncoding());
+		context.offsetTracker = context.trackedInput.getTracker();
+		context.openElements = new ArrayList<StartElement>();
+		context.recordCount = checkpoint.getRecordCount();
+		context.restoredStates = checkpoint.getHandlerStates();
+		context.startElementsBeforeRestore = checkpoint.getOpenElements().size();
+		XMLInputFactory xmlInputFactory = newXmlInputFactory();
+		digestParsed(context, newEventReader(xmlInputFactory, xmlInputFactory.createXMLStreamReader(context.trackedInput, checkpoint.getEncoding()), eventHandler), 
+				digestTarget, eventHandler);
+	}
+	
+	private void digest(Context context, XMLEventReader eventReader, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
+		start(context, eventReader, digestTarget, eventHandler);
+		while (step(context)) {
+			// Step through the events until the document or the outermost handler is finished
+		}
+		recordStatistics(context);
+	}
+	
+	/**
+	 * Record the shape of the handlers still on the stack and of the handler stack at the end of a digest.
+	 */
+	void recordStatistics(Context context) {
+		DigestStatistics statistics = context.statistics;
+		if (statistics == null) {
+			return;
+		}
+		for (DigesterEventHandler handler : context.eventHandlers) {
+			handler.recordShape(statistics);
+		}
+		statistics.record(context.outermostHandlerClass, DigestStatistics.HANDLER_DEPTH, context.maxHandlerDepth);
+	}
+	
+	private void start(Context context, XMLEventReader eventReader, Object digestTarget, DigesterEventHandler eventHandler) throws XMLStreamException {
         eventHandler.setXmlDigester(this);
         eventHandler.setXmlDigesterContext(context);
+		context.limits = limits;
+		context.eventCount = 0;
+		context.deadline = System.nanoTime() + context.limits.getMaxDurationNanos();
+		checkLimits(context);
 		context.depth = 0;
 		context.ignoredElementDepth = 0;
 		context.ignoring = false;
-        XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
-        context.eventReader = xmlInputFactory.createXMLEventReader(reader);
+		context.finishedDelegateDepth = 0;
+        context.eventReader = eventReader;
+		context.statistics = statistics;
+		context.outermostHandlerClass = eventHandler.getClass();
+		if (context.statistics != null) {
+			int expectedDepth = context.statistics.getExpectedSize(eventHandler.getClass(), DigestStatistics.HANDLER_DEPTH);
+			context.eventHandlers.ensureCapacity(expectedDepth);
+			context.digestTargets.ensureCapacity(expectedDepth);
+			eventHandler.presize(context.statistics);
+		}
 		context.eventHandlers.push(eventHandler);
 		context.digestTargets.push(digestTarget);
-		while (context.eventReader.hasNext() && context.eventHandlers.size() > 0) {
-			context.event = context.eventReader.nextEvent();
-			if (context.event.isStartElement()) {
-			    context.depth++;
-			} else if (context.event.isEndElement()) {
-			    context.depth--;
-			}
-			if (context.ignoring && context.depth < context.ignoredElementDepth) {
-				// We've escaped the ignored element
-			    context.ignoring = false;
-			}
-			if (context.ignoring) {
-				// Ignore event
-				if (log.isDebugEnabled()) {
-					if (context.event.isStartElement()) {
-						log.debug("Ignoring element '{}'", context.event.asStartElement().getName().getLocalPart());
+		context.maxHandlerDepth = 1;
+		if (context.restoredStates != null && context.startElementsBeforeRestore == 0) {
+			restoreCheckpointStates(context);
+		}
+	}
+	
+	/**
+	 * Read and handle the next event.
+	 * 
+	 * @return false if there are no more events for the handlers
+	 */
+	boolean step(Context context) throws XMLStreamException {
+		if (!context.eventReader.hasNext() || context.eventHandlers.isEmpty()) {
+			return false;
+		}
+		context.event = context.eventReader.nextEvent();
+		if ((++context.eventCount & (DigestLimits.CHECK_INTERVAL - 1)) == 0 || context.eventCount > context.limits.getMaxEvents()) {
+			checkLimits(context);
+		}
+		if (isIgnorableWhitespace(context.event)) {
+			// Whitespace the DTD declares insignificant never reaches handlers
+			return true;
+		}
+		if (context.event.isStartElement()) {
+		    context.depth++;
+		} else if (context.event.isEndElement()) {
+		    context.depth--;
+		}
+		if (context.ignoring && context.depth < context.ignoredElementDepth) {
+			// We've escaped the ignored element
+		    context.ignoring = false;
+		}
+		if (context.ignoring) {
+			// Ignore event
+			if (log.isDebugEnabled()) {
+				if (context.event.isStartElement()) {
+					log.debug("Ignoring element '{}'", context.event.asStartElement().getName().getLocalPart());
+				}
+			}
+		} else {
+			HandlerResponse response = dispatch(context, context.eventHandlers.peek());
+			if (context.finishedDelegateDepth > 0 && context.depth < context.finishedDelegateDepth) {
+				// The handler has had the end element with the result of the delegate that finished at its start
+				context.digestTargets.pop();
+				context.finishedDelegateDepth = 0;
+			}
+			respond(context, response);
+		}
+		if (context.checkpointing != null) {
+			trackCheckpoints(context);
+		}
+		return true;
+	}
+	
+	/**
+	 * Act on the response of a handler to the current event.
+	 */
+	private void respond(Context context, HandlerResponse response) throws XMLStreamException {
+		if (HandlerResponse.Type.DELEGATE.equals(response.getType())) {
+			// Handler wants to delegate parsing to another handler
+			Object newDigestTarget = response.getDigestTarget() == null ? context.digestTargets.peek() : response.getDigestTarget();
+			context.digestTargets.push(newDigestTarget);
+			DigesterEventHandler handler = response.getHandler();
+			if (handler == null) {
+				// Only class of handler was given so we make a new instance of it
+				Class<? extends DigesterEventHandler> handlerClass = response.getHandlerClass();
+				if (handlerClass != null) {
+					try {
+						handler = handlerClass.newInstance();
+					} catch (Exception e) {
+						log.error("Error instantiating new digester event handler", e);
+						throw new RuntimeException("Error instantiating new digester event handler", e);
 					}
 				}
+			}
+			handler.setXmlDigester(this);
+			handler.setXmlDigesterContext(context);
+			if (context.statistics != null) {
+				handler.presize(context.statistics);
+			}
+			context.eventHandlers.push(handler);
+			context.maxHandlerDepth = Math.max(context.maxHandlerDepth, context.eventHandlers.size());
+			// The delegate always gets the event it was delegated at, and its response counts like any other
+			HandlerResponse first = handOver(context, handler);
+			if (HandlerResponse.Type.FINISHED_PARSING.equals(first.getType())) {
+				finishAtDelegation(context, first);
 			} else {
-				HandlerResponse response = context.eventHandlers.peek().handle(context.event, context.digestTargets.peek());
-				if (HandlerResponse.Type.DELEGATE.equals(response.getType())) {
-					// Handler wants to delegate parsing to another handler
-					Object newDigestTarget = response.getDigestTarget() == null ? context.digestTargets.peek() : response.getDigestTarget();
-					context.digestTargets.push(newDigestTarget);
-					DigesterEventHandler handler = response.getHandler();
-					if (handler == null) {
-						// Only class of handler was given so we make a new instance of it
-						Class<? extends DigesterEventHandler> handlerClass = response.getHandlerClass();
-						if (handlerClass != null) {
-							try {
-								handler = handlerClass.newInstance();
-							} catch (Exception e) {
-								log.error("Error instantiating new digester event handler", e);
-								throw new RuntimeException("Error instantiating new digester event handler", e);
-							}
-						}
-					}
-					handler.setXmlDigester(this);
-					handler.setXmlDigesterContext(context);
-					context.eventHandlers.push(handler);
-					context.eventHandlers.peek().handle(context.event, context.digestTargets.peek());
-				} else if (HandlerResponse.Type.FINISHED_PARSING.equals(response.getType())) {
-					// Handler finished its parsing
-				    context.eventHandlers.pop();
-					if (context.eventHandlers.size() > 0) {
-					    context.eventHandlers.peek().handle(context.event, context.digestTargets.peek());
+				respond(context, first);
+			}
+		} else if (HandlerResponse.Type.FINISHED_PARSING.equals(response.getType())) {
+			// Handler finished its parsing
+		    DigesterEventHandler finished = context.eventHandlers.pop();
+		    if (context.statistics != null) {
+		    	finished.recordShape(context.statistics);
+		    }
+		    if (response.getDigestTarget() != null) {
+		    	// The result of the handler replaces its digest target
+		    	context.digestTargets.pop();
+		    	context.digestTargets.push(response.getDigestTarget());
+		    }
+			if (context.eventHandlers.size() > 0) {
+			    handOver(context, context.eventHandlers.peek());
+			}
+			context.digestTargets.pop();
+		} else if (HandlerResponse.Type.ERROR.equals(response.getType())) {
+			// Handler returned an error
+			throw new RuntimeException("Handler returned " + BadHandlerResponse.class.getSimpleName());
+		} else if (HandlerResponse.Type.IGNORE_ELEMENT.equals(response.getType())) {
+			// Handler wants to ignore an element
+		    context.ignoredElementDepth = context.depth;
+		    context.ignoring = true;
+		}
+	}
+	
+	/**
+	 * Finish a delegate at the event it was delegated at. The delegating handler has just
+	 * had the event, so rather than handing it over again the rest of the element is skipped,
+	 * and the delegating handler gets the end element with the result of the delegate as
+	 * digest target, as if the delegate had finished there.
+	 */
+	private void finishAtDelegation(Context context, HandlerResponse response) {
+		DigesterEventHandler finished = context.eventHandlers.pop();
+		if (context.statistics != null) {
+			finished.recordShape(context.statistics);
+		}
+		if (response.getDigestTarget() != null) {
+			context.digestTargets.pop();
+			context.digestTargets.push(response.getDigestTarget());
+		}
+		if (context.event.isStartElement()) {
+			context.ignoredElementDepth = context.depth;
+			context.ignoring = true;
+			context.finishedDelegateDepth = context.depth;
+		} else {
+			context.digestTargets.pop();
+		}
+	}
+	
+	private static void checkLimits(Context context) throws XMLStreamException {
+		DigestLimits limits = context.limits;
+		if (context.eventCount > limits.getMaxEvents()) {
+			throw new DigestLimitExceededException(DigestLimitExceededException.Limit.EVENTS, 
+					"Digest exceeded the limit of " + limits.getMaxEvents() + " events");
+		}
+		if (limits.getCancellationToken() != null && limits.getCancellationToken().isCancelled()) {
+			throw new DigestCancelledException();
+		}
+		if (limits.getMaxDurationNanos() > 0 && System.nanoTime() - context.deadline > 0) {
+			throw new DigestLimitExceededException(DigestLimitExceededException.Limit.DURATION, 
+					"Digest exceeded the limit of " + TimeUnit.NANOSECONDS.toMillis(limits.getMaxDurationNanos()) + " ms");
+		}
+	}
+	
+	/**
+	 * Get the exception to throw for a parser failure, which is a {@link DigestLimitExceededException}
+	 * if the parser failed because the input limit was exceeded.
+	 */
+	static XMLStreamException inputLimitExceeded(XMLStreamException e) {
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof InputLimitExceededException) {
+				return new DigestLimitExceededException(DigestLimitExceededException.Limit.INPUT_LENGTH, cause.getMessage(), e);
+			}
+			if (cause instanceof XMLStreamException && cause.getCause() == null) {
+				// Parsers tend to use the nested exception rather than the cause
+				Throwable nested = ((XMLStreamException) cause).getNestedException();
+				if (nested instanceof InputLimitExceededException) {
+					return new DigestLimitExceededException(DigestLimitExceededException.Limit.INPUT_LENGTH, nested.getMessage(), e);
+				}
+			}
+		}
+		return e;
+	}
+	
+	private InputStream limited(InputStream input) {
+		DigestLimits limits = this.limits;
+		return limits.isLimitingInput() ? new LimitedInputStream(input, limits.getMaxInputLength()) : input;
+	}
+	
+	private Reader limited(Reader reader) {
+		DigestLimits limits = this.limits;
+		return limits.isLimitingInput() ? new LimitedReader(reader, limits.getMaxInputLength()) : reader;
+	}
+	
+	private HandlerResponse dispatch(Context context, DigesterEventHandler handler) throws XMLStreamException {
+		if (!handler.isInterestedIn(context.event)) {
+			return CONTINUE;
+		}
+		return handOver(context, handler);
+	}
+	
+	private HandlerResponse handOver(Context context, DigesterEventHandler handler) throws XMLStreamException {
+		HandlerResponse response = handler.handle(context.event, context.digestTargets.peek());
+		if (context.event.isEndElement()) {
+			handler.disarmCharacterBuffer(context.depth);
+		}
+		return response;
+	}
+	
+	private static boolean isIgnorableWhitespace(XMLEvent event) {
+		int eventType = event.getEventType();
+		return XMLEvent.SPACE == eventType 
+				|| (XMLEvent.CHARACTERS == eventType && event.asCharacters().isIgnorableWhiteSpace());
+	}
+	
+	private void trackCheckpoints(Context context) throws XMLStreamException {
+		if (context.event.isStartElement()) {
+			while (context.openElements.size() >= context.depth) {
+				context.openElements.remove(context.openElements.size() - 1);
+			}
+			context.openElements.add(context.event.asStartElement());
+			if (context.restoredStates != null && --context.startElementsBeforeRestore == 0) {
+				// Handlers have seen the elements that were open at the checkpoint
+				restoreCheckpointStates(context);
+			}
+		} else if (context.event.isEndElement()) {
+			while (context.openElements.size() > context.depth) {
+				context.openElements.remove(context.openElements.size() - 1);
+			}
+			// Matched by number, as parser locations are ints and wrap in documents of more than 2G characters
+			long offset = context.offsetTracker.getElementEndOffset(++context.endElementCount);
+			if (context.checkpointing.getRecordName().equals(context.event.asEndElement().getName())) {
+				context.recordCount++;
+				if (context.recordCount % context.checkpointing.getInterval() == 0) {
+					if (offset < 0) {
+						log.warn("Unable to make checkpoint after record {}, the offset of its end is unknown", context.recordCount);
+					} else {
+						context.checkpointing.getListener().checkpoint(newCheckpoint(context, offset));
 					}
-					context.digestTargets.pop();
-				} else if (HandlerResponse.Type.ERROR.equals(response.getType())) {
-					// Handler returned an error
-					throw new RuntimeException("Handler returned " + BadHandlerResponse.class.getSimpleName());
-				} else if (HandlerResponse.Type.IGNORE_ELEMENT.equals(response.getType())) {
-					// Handler wants to ignore an element
-				    context.ignoredElementDepth = context.depth;
-				    context.ignoring = true;
 				}
 			}
 		}
 	}
 	
+	private Checkpoint newCheckpoint(Context context, long offset) throws XMLStreamException {
+		List<Checkpoint.OpenElement> openElements = new ArrayList<Checkpoint.OpenElement>(context.openElements.size());
+		for (StartElement element : context.openElements) {
+			Map<QName, String> attributes = new LinkedHashMap<QName, String>();
+			@SuppressWarnings("unchecked")
+			Iterator<Attribute> elementAttributes = element.getAttributes();
+			while (elementAttributes.hasNext()) {
+				Attribute attribute = elementAttributes.next();
+				attributes.put(attribute.getName(), attribute.getValue());
+			}
+			Map<String, String> namespaces = new LinkedHashMap<String, String>();
+			@SuppressWarnings("unchecked")
+			Iterator<Namespace> elementNamespaces = element.getNamespaces();
+			while (elementNamespaces.hasNext()) {
+				Namespace namespace = elementNamespaces.next();
+				namespaces.put(namespace.getPrefix(), namespace.getNamespaceURI());
+			}
+			openElements.add(new Checkpoint.OpenElement(element.getName(), attributes, namespaces));
+		}
+		List<Serializable> handlerStates = new ArrayList<Serializable>(context.eventHandlers.size());
+		for (DigesterEventHandler handler : context.eventHandlers) {
+			handlerStates.add(handler.getCheckpointState());
+		}
+		if (context.trackedInput == null) {
+			return new Checkpoint(offset, context.recordCount, openElements, handlerStates);
+		}
+		try {
+			return new Checkpoint(-1, offset, context.trackedInput.getEncoding(), context.recordCount, openElements, handlerStates);
+		} catch (UnsupportedEncodingException e) {
+			throw new XMLStreamException("Unable to make checkpoint by byte offset", e);
+		}
+	}
+	
+	private void restoreCheckpointStates(Context context) {
+		for (int i = 0; i < context.restoredStates.size() && i < context.eventHandlers.size(); i++) {
+			context.eventHandlers.get(i).restoreCheckpointState(context.restoredStates.get(i));
+		}
+		context.restoredStates = null;
+	}
+	
+	private XMLInputFactory newXmlInputFactory() {
+		XMLInputFactory xmlInputFactory = XMLInputFactory.newInstance();
+		xmlInputFactory.setProperty(XMLInputFactory.IS_COALESCING, coalescing);
+		if (inputBufferLength > 0 && xmlInputFactory.isPropertySupported(INPUT_BUFFER_LENGTH_PROPERTY)) {
+			xmlInputFactory.setProperty(INPUT_BUFFER_LENGTH_PROPERTY, inputBufferLength);
+		}
+		return xmlInputFactory;
+	}
+	
+	private static XMLEventReader newEventReader(XMLInputFactory xmlInputFactory, XMLStreamReader streamReader, DigesterEventHandler eventHandler) throws XMLStreamException {
+		EventInterest eventInterest = eventHandler.getEventInterest();
+		if (eventHandler.neverDelegates() && eventInterest.isFilteringEvents()) {
+			// Events nobody is interested in are dropped before event objects are made for them
+			streamReader = xmlInputFactory.createFilteredReader(streamReader, eventInterest.asStreamFilter());
+		}
+		return xmlInputFactory.createXMLEventReader(streamReader);
+	}
+	
+	/**
+	 * Get an event reader of an input stream, decompressing the input if the digester is set up to.
+	 * Closing the event reader stops the decompression.
+	 */
+	private XMLEventReader newEventReader(XMLInputFactory xmlInputFactory, InputStream input, String charSetName, DigesterEventHandler eventHandler) throws XMLStreamException {
+		InputStream decompressed = decompressed(input);
+		try {
+			InputStream parsed = buffered(xmlInputFactory, limited(decompressed));
+			XMLStreamReader streamReader = charSetName == null ? xmlInputFactory.createXMLStreamReader(parsed) 
+					: createXMLStreamReader(xmlInputFactory, parsed, charSetName);
+			XMLEventReader eventReader = newEventReader(xmlInputFactory, streamReader, eventHandler);
+			return decompressed == input ? eventReader : new InputClosingEventReader(eventReader, decompressed);
+		} catch (XMLStreamException e) {
+			closeQuietly(decompressed, input);
+			throw e;
+		} catch (RuntimeException e) {
+			closeQuietly(decompressed, input);
+			throw e;
+		}
+	}
+	
+	private InputStream decompressed(InputStream input) throws XMLStreamException {
+		Executor executor = decompressionExecutor;
+		if (executor == null) {
+			return input;
+		}
+		try {
+			return CompressedInput.open(input, executor);
+		} catch (IOException e) {
+			throw new XMLStreamException("Error reading compressed input", e);
+		}
+	}
+	
+	private static void closeQuietly(InputStream decompressed, InputStream input) {
+		if (decompressed != input) {
+			try {
+				decompressed.close();
+			} catch (IOException e) {
+				log.warn("Error closing decompressed input", e);
+			}
+		}
+	}
+	
+	/**
+	 * Event reader closing the decompressed input it reads when closed
+	 */
+	private static final class InputClosingEventReader extends EventReaderDelegate {
+		
+		private final InputStream input;
+		
+		InputClosingEventReader(XMLEventReader eventReader, InputStream input) {
+			super(eventReader);
+			this.input = input;
+		}
+		
+		@Override
+		public void close() throws XMLStreamException {
+			try {
+				super.close();
+			} finally {
+				try {
+					input.close();
+				} catch (IOException e) {
+					throw new XMLStreamException("Error closing decompressed input", e);
+				}
+			}
+		}
+	}
+	
+	private InputStream buffered(XMLInputFactory xmlInputFactory, InputStream input) {
+		if (inputBufferLength > 0 && !xmlInputFactory.isPropertySupported(INPUT_BUFFER_LENGTH_PROPERTY)) {
+			return new BufferedInputStream(input, inputBufferLength);
+		}
+		return input;
+	}
+	
+	private static InputStream asInputStream(ByteBuffer buffer) {
+		if (buffer.hasArray()) {
+			return new ByteArrayInputStream(buffer.array(), buffer.arrayOffset() + buffer.position(), buffer.remaining());
+		}
+		final ByteBuffer source = buffer.duplicate();
+		return new InputStream() {
+			@Override
+			public int read() {
+				return source.hasRemaining() ? source.get() & 0xff : -1;
+			}
+			
+			@Override
+			public int read(byte[] b, int off, int len) {
+				if (!source.hasRemaining()) {
+					return -1;
+				}
+				len = Math.min(len, source.remaining());
+				source.get(b, off, len);
+				return len;
+			}
+			
+			@Override
+			public int available() {
+				return source.remaining();
+			}
+		};
+	}
+	
+	/**
+	 * Get the canonical name of a character set, which parsers are more likely to know than aliases.
+	 */
+	private static String canonicalCharSet(String charSetName) throws UnsupportedEncodingException {
+		try {
+			if (Charset.isSupported(charSetName)) {
+				return Charset.forName(charSetName).name();
+			}
+		} catch (IllegalCharsetNameException e) {
+			// Reported below like an unsupported character set
+		}
+		throw new UnsupportedEncodingException(charSetName);
+	}
+	
+	/**
+	 * Create a stream reader of bytes in a character set given by its canonical name. Only the
+	 * character sets all XML parsers must support are decoded by the parser, others by a reader.
+	 */
+	private static XMLStreamReader createXMLStreamReader(XMLInputFactory xmlInputFactory, InputStream input, String canonicalName) throws XMLStreamException {
+		if (parserCharSets.contains(canonicalName)) {
+			return xmlInputFactory.createXMLStreamReader(input, canonicalName);
+		}
+		return xmlInputFactory.createXMLStreamReader(new InputStreamReader(input, Charset.forName(canonicalName)));
+	}
+	
 	String getText(Context context) throws XMLStreamException {
-		return context.eventReader.getElementText();
+		String text = context.eventReader.getElementText();
+		// The end element has been consumed without passing through the digest loop
+		context.depth--;
+		context.endElementCount++;
+		return text;
+	}
+	
+	CompactTree getTree(Context context) throws XMLStreamException {
+		CompactTreeBuilder builder = new CompactTreeBuilder();
+		// Assuming we are viewing the start element event for the tree
+		boolean complete = builder.add(context.event);
+		while (!complete && context.eventReader.hasNext()) {
+			context.event = context.eventReader.nextEvent();
+			if (context.event.isEndElement()) {
+				context.endElementCount++;
+			}
+			complete = builder.add(context.event);
+		}
+		// The end element has been consumed without passing through the digest loop
+		context.depth--;
+		return builder.build();
 	}
 	
 	String getXmlFragment(Context context, boolean includeFragmentRoot) throws XMLStreamException {
@@ -168,14 +1281,20 @@ public class XmlDigester {
 				depth++;
 			} else if (XMLEvent.END_ELEMENT == context.event.getEventType()) {
 				depth--;
+				context.endElementCount++;
 				if (depth == 0) {
 				    context.event.writeAsEncodedUnicode(writer);
+				    context.depth--;
 				}
 			}
 		}
 		return writer.toString();
 	}
 	
+	boolean isOutermostHandler(Context context, DigesterEventHandler handler) {
+		return context.eventHandlers.size() == 1 && context.eventHandlers.peek() == handler;
+	}
+	
 	Map<QName, String> getAttributes(Context context) {
 		Map<QName, String> result = new HashMap<QName, String>();
 		if (context.event != null && XMLEvent.START_ELEMENT == context.event.getEventType()) {
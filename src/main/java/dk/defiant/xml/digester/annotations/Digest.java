@@ -6,4 +6,10 @@ import java.lang.annotation.RetentionPolicy;
 @Retention(RetentionPolicy.RUNTIME)
 public @interface Digest {
 	String value() default "";
+	
+	/**
+	 * Marks the member as required for projection. Once every required member
+	 * of a type has been digested the handler skips the rest of the element.
+	 */
+	boolean required() default false;
 }
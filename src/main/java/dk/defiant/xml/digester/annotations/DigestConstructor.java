@@ -0,0 +1,16 @@
+package dk.defiant.xml.digester.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks the constructor a {@link dk.defiant.xml.digester.handlers.ConstructorBasedHandler}
+ * creates digested objects with. Every parameter must be annotated with {@link Digest}
+ * giving the element or attribute of its value.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.CONSTRUCTOR)
+public @interface DigestConstructor {
+}
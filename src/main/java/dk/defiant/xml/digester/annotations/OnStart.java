@@ -0,0 +1,18 @@
+package dk.defiant.xml.digester.annotations;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a method of an {@link dk.defiant.xml.digester.handlers.AnnotatedMethodHandler} 
+ * that handles start elements with the given local name.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface OnStart {
+	String value();
+	
+	String namespace() default "";
+}
@@ -0,0 +1,285 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.defiant.xml.digester.columnar.Aggregation.Function;
+
+/**
+ * Handler aggregating records as they are digested.
+ * <p>
+ * Records are read into column batches as by the {@link ColumnarHandler}, and each batch is
+ * folded into running aggregates per group before it is reused. Groups are found by the key
+ * value in a primitive hash map, string keys by their dictionary code, and the aggregates 
+ * are kept in arrays indexed by group, so nothing is allocated per record.
+ * </p>
+ * <p>
+ * Only the key column and the aggregated columns of the schema are read, and of the columns
+ * that are only counted only the presence of a value is recorded, so only the key column 
+ * can be dictionary encoded.
+ * </p>
+ * 
+ * @see dk.defiant.xml.digester.XmlDigester#aggregate(java.io.Reader, Aggregation)
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class AggregatingHandler extends ColumnarHandler {
+
+	private static final int BATCH_SIZE = 1024;
+	
+	private final Aggregator aggregator;
+	
+	public AggregatingHandler(Aggregation aggregation) {
+		this(aggregation, project(aggregation));
+	}
+	
+	private AggregatingHandler(Aggregation aggregation, Aggregation projection) {
+		this(projection, new Aggregator(aggregation, projection));
+	}
+	
+	private AggregatingHandler(Aggregation projection, Aggregator aggregator) {
+		// Groups are found by dictionary code, so the dictionary of a string key is not bounded
+		super(projection.getSchema(), countedOnly(projection), BATCH_SIZE, Integer.MAX_VALUE, aggregator);
+		this.aggregator = aggregator;
+	}
+	
+	/**
+	 * Get the aggregation over a schema of only the columns the aggregation reads.
+	 */
+	private static Aggregation project(Aggregation aggregation) {
+		ColumnSchema schema = aggregation.getSchema();
+		List<Integer> read = new ArrayList<Integer>();
+		if (aggregation.getGroupColumn() >= 0) {
+			read.add(aggregation.getGroupColumn());
+		}
+		for (int a = 0; a < aggregation.getAggregateCount(); a++) {
+			if (!read.contains(aggregation.getColumn(a))) {
+				read.add(aggregation.getColumn(a));
+			}
+		}
+		ColumnSchema projected = ColumnSchema.forRecords(schema.getRecordName());
+		for (int column : read) {
+			projected = projected.withColumn(schema.getColumnName(column), schema.getColumnPath(column), schema.getColumnType(column));
+		}
+		Aggregation projection = Aggregation.of(projected);
+		if (aggregation.getGroupColumn() >= 0) {
+			projection = projection.groupBy(schema.getColumnName(aggregation.getGroupColumn()));
+		}
+		for (int a = 0; a < aggregation.getAggregateCount(); a++) {
+			projection = projection.with(aggregation.getFunction(a), schema.getColumnName(aggregation.getColumn(a)));
+		}
+		return projection;
+	}
+	
+	/**
+	 * Find the columns that are only counted, whose values need not be parsed.
+	 */
+	private static boolean[] countedOnly(Aggregation projection) {
+		boolean[] countedOnly = new boolean[projection.getSchema().getColumnCount()];
+		Arrays.fill(countedOnly, true);
+		if (projection.getGroupColumn() >= 0) {
+			countedOnly[projection.getGroupColumn()] = false;
+		}
+		for (int a = 0; a < projection.getAggregateCount(); a++) {
+			if (projection.getFunction(a) != Function.COUNT) {
+				countedOnly[projection.getColumn(a)] = false;
+			}
+		}
+		return countedOnly;
+	}
+	
+	/**
+	 * @return The aggregates of the records digested so far
+	 */
+	public AggregationResult getResult() {
+		flush();
+		return aggregator.getResult();
+	}
+	
+	private static final class Aggregator implements BatchHandler {
+		
+		private static final int INITIAL_GROUPS = 16;
+		
+		// The aggregation of the result and the same aggregation over the columns read
+		private final Aggregation result;
+		private final Aggregation aggregation;
+		private final ColumnType keyType;
+		private final LongIntHashMap groups = new LongIntHashMap(INITIAL_GROUPS);
+		private int nullGroup = -1;
+		private int groupCount;
+		private long[] keys = new long[INITIAL_GROUPS];
+		private long[] counts = new long[INITIAL_GROUPS];
+		private final long[][] longValues;
+		private final double[][] doubleValues;
+		private final long[][] valueCounts;
+		// Keeps the dictionary of string keys, which is shared by all batches
+		private StringColumn keyColumn;
+		
+		Aggregator(Aggregation result, Aggregation aggregation) {
+			this.result = result;
+			this.aggregation = aggregation;
+			ColumnSchema schema = aggregation.getSchema();
+			keyType = aggregation.getGroupColumn() < 0 ? null : schema.getColumnType(aggregation.getGroupColumn());
+			int aggregates = aggregation.getAggregateCount();
+			longValues = new long[aggregates][];
+			doubleValues = new double[aggregates][];
+			valueCounts = new long[aggregates][];
+			for (int a = 0; a < aggregates; a++) {
+				if (aggregation.getFunction(a) == Function.COUNT || schema.getColumnType(aggregation.getColumn(a)) != ColumnType.DOUBLE) {
+					longValues[a] = new long[INITIAL_GROUPS];
+				} else {
+					doubleValues[a] = new double[INITIAL_GROUPS];
+				}
+				valueCounts[a] = new long[INITIAL_GROUPS];
+			}
+			if (keyType == null) {
+				// All records make up one group, even if there are none
+				nullGroup = addGroup(0);
+			}
+		}
+		
+		@Override
+		public void handle(ColumnBatch batch) {
+			Column key = keyType == null ? null : batch.getColumn(aggregation.getGroupColumn());
+			if (keyType == ColumnType.STRING) {
+				keyColumn = (StringColumn) key;
+			}
+			Column[] columns = new Column[aggregation.getAggregateCount()];
+			for (int a = 0; a < columns.length; a++) {
+				columns[a] = batch.getColumn(aggregation.getColumn(a));
+			}
+			for (int row = 0; row < batch.size(); row++) {
+				int group = group(key, row);
+				counts[group]++;
+				for (int a = 0; a < columns.length; a++) {
+					if (!columns[a].isNull(row)) {
+						aggregate(a, columns[a], row, group);
+					}
+				}
+			}
+		}
+		
+		private int group(Column key, int row) {
+			if (key == null || key.isNull(row)) {
+				if (nullGroup < 0) {
+					nullGroup = addGroup(0);
+				}
+				return nullGroup;
+			}
+			long value;
+			switch (keyType) {
+			case INT:
+				value = ((IntColumn) key).getInt(row);
+				break;
+			case LONG:
+				value = ((LongColumn) key).getLong(row);
+				break;
+			case DOUBLE:
+				value = Double.doubleToLongBits(((DoubleColumn) key).getDouble(row));
+				break;
+			case BOOLEAN:
+				value = ((BooleanColumn) key).getBoolean(row) ? 1 : 0;
+				break;
+			default:
+				value = ((StringColumn) key).getCode(row);
+				break;
+			}
+			int group = groups.get(value);
+			if (group == LongIntHashMap.MISSING) {
+				group = addGroup(value);
+				groups.put(value, group);
+			}
+			return group;
+		}
+		
+		private int addGroup(long key) {
+			if (groupCount == counts.length) {
+				int capacity = groupCount * 2;
+				keys = Arrays.copyOf(keys, capacity);
+				counts = Arrays.copyOf(counts, capacity);
+				for (int a = 0; a < valueCounts.length; a++) {
+					if (longValues[a] != null) {
+						longValues[a] = Arrays.copyOf(longValues[a], capacity);
+					} else {
+						doubleValues[a] = Arrays.copyOf(doubleValues[a], capacity);
+					}
+					valueCounts[a] = Arrays.copyOf(valueCounts[a], capacity);
+				}
+			}
+			keys[groupCount] = key;
+			return groupCount++;
+		}
+		
+		private void aggregate(int a, Column column, int row, int group) {
+			Function function = aggregation.getFunction(a);
+			boolean first = valueCounts[a][group]++ == 0;
+			if (function == Function.COUNT) {
+				longValues[a][group]++;
+			} else if (longValues[a] != null) {
+				long value = column.getType() == ColumnType.INT ? ((IntColumn) column).getInt(row) : ((LongColumn) column).getLong(row);
+				long[] values = longValues[a];
+				switch (function) {
+				case SUM:
+					values[group] += value;
+					break;
+				case MIN:
+					values[group] = first ? value : Math.min(values[group], value);
+					break;
+				default:
+					values[group] = first ? value : Math.max(values[group], value);
+					break;
+				}
+			} else {
+				double value = ((DoubleColumn) column).getDouble(row);
+				double[] values = doubleValues[a];
+				switch (function) {
+				case SUM:
+					values[group] += value;
+					break;
+				case MIN:
+					values[group] = first ? value : Math.min(values[group], value);
+					break;
+				default:
+					values[group] = first ? value : Math.max(values[group], value);
+					break;
+				}
+			}
+		}
+		
+		AggregationResult getResult() {
+			Object[] keyValues = new Object[groupCount];
+			for (int group = 0; group < groupCount; group++) {
+				keyValues[group] = group == nullGroup ? null : keyValue(keys[group]);
+			}
+			int aggregates = aggregation.getAggregateCount();
+			long[][] longs = new long[aggregates][];
+			double[][] doubles = new double[aggregates][];
+			long[][] counted = new long[aggregates][];
+			for (int a = 0; a < aggregates; a++) {
+				longs[a] = longValues[a] == null ? null : Arrays.copyOf(longValues[a], groupCount);
+				doubles[a] = doubleValues[a] == null ? null : Arrays.copyOf(doubleValues[a], groupCount);
+				counted[a] = Arrays.copyOf(valueCounts[a], groupCount);
+			}
+			return new AggregationResult(result, keyValues, Arrays.copyOf(counts, groupCount), longs, doubles, counted);
+		}
+		
+		private Object keyValue(long key) {
+			switch (keyType) {
+			case INT:
+				return (int) key;
+			case LONG:
+				return key;
+			case DOUBLE:
+				return Double.longBitsToDouble(key);
+			case BOOLEAN:
+				return key != 0;
+			default:
+				return keyColumn.getDictionaryValue((int) key);
+			}
+		}
+	}
+}
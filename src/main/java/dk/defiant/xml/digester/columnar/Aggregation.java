@@ -0,0 +1,134 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Aggregates to compute over the records of a document, optionally grouped by a key column.
+ * <p>
+ * The values of the records are read into the columns of a {@link ColumnSchema} and
+ * aggregated as they are read, so no record objects are made and memory depends on the 
+ * number of groups, not the number of records.
+ * </p>
+ * <pre>
+ * ColumnSchema schema = ColumnSchema.forRecords(new QName("order"))
+ *     .withColumn("country", "address/country", ColumnType.STRING)
+ *     .withColumn("amount", "amount", ColumnType.DOUBLE);
+ * Aggregation aggregation = Aggregation.of(schema).groupBy("country")
+ *     .with(Aggregation.Function.SUM, "amount")
+ *     .with(Aggregation.Function.MAX, "amount");
+ * AggregationResult result = digester.aggregate(input, aggregation);
+ * </pre>
+ * 
+ * @see dk.defiant.xml.digester.XmlDigester#aggregate(java.io.Reader, Aggregation)
+ * @author jip
+ *
+ */
+@Immutable
+public final class Aggregation {
+
+	public enum Function {
+		/**
+		 * The number of records with a value
+		 */
+		COUNT,
+		SUM,
+		MIN,
+		MAX,
+	}
+	
+	private final ColumnSchema schema;
+	private final int groupColumn;
+	private final List<Function> functions;
+	private final List<Integer> columns;
+	
+	private Aggregation(ColumnSchema schema, int groupColumn, List<Function> functions, List<Integer> columns) {
+		this.schema = schema;
+		this.groupColumn = groupColumn;
+		this.functions = functions;
+		this.columns = columns;
+	}
+	
+	/**
+	 * Get an aggregation of the records of a schema, counting the records in a single group.
+	 * 
+	 * @param schema The schema of the records
+	 * @return The aggregation
+	 */
+	public static Aggregation of(ColumnSchema schema) {
+		List<Function> functions = Collections.emptyList();
+		List<Integer> columns = Collections.emptyList();
+		return new Aggregation(schema, -1, functions, columns);
+	}
+	
+	/**
+	 * Get a copy of this aggregation grouping the records by the value of a column. Records
+	 * without a value make up a group of their own.
+	 * 
+	 * @param column The name of the key column
+	 * @return The aggregation
+	 */
+	public Aggregation groupBy(String column) {
+		return new Aggregation(schema, columnIndex(column), functions, columns);
+	}
+	
+	/**
+	 * Get a copy of this aggregation with another aggregate.
+	 * 
+	 * @param function The function to aggregate with
+	 * @param column The name of the column to aggregate, which must be numeric except for {@link Function#COUNT}
+	 * @return The aggregation
+	 */
+	public Aggregation with(Function function, String column) {
+		int index = columnIndex(column);
+		ColumnType type = schema.getColumnType(index);
+		if (function != Function.COUNT && type != ColumnType.INT && type != ColumnType.LONG && type != ColumnType.DOUBLE) {
+			throw new IllegalArgumentException("Column " + column + " of type " + type + " can not be aggregated with " + function);
+		}
+		return new Aggregation(schema, groupColumn, append(functions, function), append(columns, index));
+	}
+	
+	private int columnIndex(String column) {
+		for (int i = 0; i < schema.getColumnCount(); i++) {
+			if (schema.getColumnName(i).equals(column)) {
+				return i;
+			}
+		}
+		throw new IllegalArgumentException("No column " + column);
+	}
+	
+	private static <T> List<T> append(List<T> list, T element) {
+		List<T> appended = new ArrayList<T>(list);
+		appended.add(element);
+		return Collections.unmodifiableList(appended);
+	}
+	
+	public ColumnSchema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * @return The index of the key column or -1 if the records are not grouped
+	 */
+	public int getGroupColumn() {
+		return groupColumn;
+	}
+	
+	public int getAggregateCount() {
+		return functions.size();
+	}
+	
+	public Function getFunction(int aggregate) {
+		return functions.get(aggregate);
+	}
+	
+	/**
+	 * @return The index of the column of the aggregate
+	 */
+	public int getColumn(int aggregate) {
+		return columns.get(aggregate);
+	}
+}
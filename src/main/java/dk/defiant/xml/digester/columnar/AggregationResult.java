@@ -0,0 +1,122 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import net.jcip.annotations.Immutable;
+
+import dk.defiant.xml.digester.columnar.Aggregation.Function;
+
+/**
+ * The aggregates of the groups of an {@link Aggregation}, groups being numbered in the 
+ * order they were first met and aggregates in the order they were added to the aggregation.
+ * <pre>
+ * for (int group = 0; group &lt; result.getGroupCount(); group++) {
+ *     System.out.println(result.getKey(group) + ": " + result.getCount(group) + " orders of " + result.getValue(group, 0));
+ * }
+ * </pre>
+ * 
+ * @author jip
+ *
+ */
+@Immutable
+public final class AggregationResult {
+
+	private final Aggregation aggregation;
+	private final Object[] keys;
+	private final long[] counts;
+	private final long[][] longValues;
+	private final double[][] doubleValues;
+	private final long[][] valueCounts;
+	private final Map<Object, Integer> groups;
+	
+	AggregationResult(Aggregation aggregation, Object[] keys, long[] counts, long[][] longValues, double[][] doubleValues, long[][] valueCounts) {
+		this.aggregation = aggregation;
+		this.keys = keys;
+		this.counts = counts;
+		this.longValues = longValues;
+		this.doubleValues = doubleValues;
+		this.valueCounts = valueCounts;
+		groups = new HashMap<Object, Integer>(keys.length * 2);
+		for (int group = 0; group < keys.length; group++) {
+			groups.put(keys[group], group);
+		}
+	}
+	
+	public Aggregation getAggregation() {
+		return aggregation;
+	}
+	
+	public int getGroupCount() {
+		return keys.length;
+	}
+	
+	/**
+	 * @return The group with the key or -1 if there is none
+	 */
+	public int findGroup(Object key) {
+		Integer group = groups.get(key);
+		return group == null ? -1 : group;
+	}
+	
+	/**
+	 * @return The value of the key column of the group, e.g. a {@link String} or {@link Integer},
+	 * null for the records without a key or if the records are not grouped
+	 */
+	public Object getKey(int group) {
+		return keys[group];
+	}
+	
+	/**
+	 * @return The number of records in the group
+	 */
+	public long getCount(int group) {
+		return counts[group];
+	}
+	
+	/**
+	 * @param group The group
+	 * @param aggregate The index of the aggregate
+	 * @return The value of the aggregate, NaN for the minimum or maximum of a group without values
+	 */
+	public double getValue(int group, int aggregate) {
+		if (isExtreme(aggregate) && valueCounts[aggregate][group] == 0) {
+			return Double.NaN;
+		}
+		return isIntegral(aggregate) ? longValues[aggregate][group] : doubleValues[aggregate][group];
+	}
+	
+	/**
+	 * Get the exact value of a count or of an aggregate of an integral column.
+	 * 
+	 * @param group The group
+	 * @param aggregate The index of the aggregate
+	 * @return The value of the aggregate
+	 * @throws IllegalStateException if the aggregate is not integral or is the minimum or maximum of a group without values
+	 */
+	public long getLongValue(int group, int aggregate) {
+		if (!isIntegral(aggregate)) {
+			throw new IllegalStateException("Aggregate " + aggregate + " is not integral");
+		}
+		if (isExtreme(aggregate) && valueCounts[aggregate][group] == 0) {
+			throw new IllegalStateException("Group " + group + " has no values to aggregate");
+		}
+		return longValues[aggregate][group];
+	}
+	
+	/**
+	 * @return The number of records of the group with a value in the column of the aggregate
+	 */
+	public long getValueCount(int group, int aggregate) {
+		return valueCounts[aggregate][group];
+	}
+	
+	private boolean isExtreme(int aggregate) {
+		Function function = aggregation.getFunction(aggregate);
+		return function == Function.MIN || function == Function.MAX;
+	}
+	
+	private boolean isIntegral(int aggregate) {
+		return longValues[aggregate] != null;
+	}
+}
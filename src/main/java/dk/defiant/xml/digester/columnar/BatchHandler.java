@@ -0,0 +1,13 @@
+package dk.defiant.xml.digester.columnar;
+
+public interface BatchHandler {
+
+	/**
+	 * Handle a batch of records. The batch is reused for the next records once this returns,
+	 * so anything to keep must be copied.
+	 * 
+	 * @param batch The batch
+	 */
+	void handle(ColumnBatch batch);
+	
+}
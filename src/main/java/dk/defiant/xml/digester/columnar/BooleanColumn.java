@@ -0,0 +1,37 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.Arrays;
+
+public final class BooleanColumn extends Column {
+
+	private final long[] values;
+	
+	BooleanColumn(String name, int capacity) {
+		super(name, ColumnType.BOOLEAN, capacity);
+		values = new long[(capacity + 63) >>> 6];
+	}
+	
+	/**
+	 * @return The value of the row, false if it is null
+	 */
+	public boolean getBoolean(int row) {
+		return (values[row >>> 6] & (1L << row)) != 0;
+	}
+	
+	@Override
+	void parse(int row, CharSequence text) {
+		// Like xs:boolean, true or 1 is true
+		String value = text.toString().trim();
+		if ("true".equals(value) || "1".equals(value)) {
+			values[row >>> 6] |= 1L << row;
+		} else {
+			values[row >>> 6] &= ~(1L << row);
+		}
+	}
+	
+	@Override
+	void clear() {
+		super.clear();
+		Arrays.fill(values, 0);
+	}
+}
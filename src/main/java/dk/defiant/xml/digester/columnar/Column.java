@@ -0,0 +1,113 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A column of a {@link ColumnBatch}: the values of one field of the records of the batch, 
+ * stored in a primitive array, and a bitmap of the rows holding a value.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public abstract class Column {
+
+	private final String name;
+	private final ColumnType type;
+	private final long[] present;
+	
+	Column(String name, ColumnType type, int capacity) {
+		this.name = name;
+		this.type = type;
+		this.present = new long[(capacity + 63) >>> 6];
+	}
+	
+	public String getName() {
+		return name;
+	}
+	
+	public ColumnType getType() {
+		return type;
+	}
+	
+	/**
+	 * @param row The row
+	 * @return true if the record of the row has no value for the column
+	 */
+	public boolean isNull(int row) {
+		return (present[row >>> 6] & (1L << row)) == 0;
+	}
+	
+	/**
+	 * Set the value of a row from the text of the record.
+	 */
+	final void set(int row, CharSequence text) {
+		parse(row, text);
+		present[row >>> 6] |= 1L << row;
+	}
+	
+	abstract void parse(int row, CharSequence text);
+	
+	void clear() {
+		Arrays.fill(present, 0);
+	}
+	
+	static Column newColumn(String name, ColumnType type, int capacity, boolean presenceOnly, int maxDictionarySize) {
+		if (presenceOnly) {
+			return new PresenceColumn(name, type, capacity);
+		}
+		switch (type) {
+		case INT: return new IntColumn(name, capacity);
+		case LONG: return new LongColumn(name, capacity);
+		case DOUBLE: return new DoubleColumn(name, capacity);
+		case BOOLEAN: return new BooleanColumn(name, capacity);
+		default: return new StringColumn(name, capacity, maxDictionarySize);
+		}
+	}
+	
+	/**
+	 * Parse a decimal integer without making a string of it.
+	 */
+	static long parseLong(CharSequence text, long min, long max) {
+		int start = 0;
+		int end = text.length();
+		while (start < end && Character.isWhitespace(text.charAt(start))) {
+			start++;
+		}
+		while (end > start && Character.isWhitespace(text.charAt(end - 1))) {
+			end--;
+		}
+		boolean negative = false;
+		if (start < end && (text.charAt(start) == '-' || text.charAt(start) == '+')) {
+			negative = text.charAt(start) == '-';
+			start++;
+		}
+		if (start == end) {
+			throw new NumberFormatException("Not a number: \"" + text + "\"");
+		}
+		long value = 0;
+		for (int i = start; i < end; i++) {
+			int digit = text.charAt(i) - '0';
+			if (digit < 0 || digit > 9) {
+				throw new NumberFormatException("Not a number: \"" + text + "\"");
+			}
+			// Accumulate negatively as the negative range is the larger
+			if (value < (Long.MIN_VALUE + digit) / 10) {
+				throw new NumberFormatException("Number out of range: \"" + text + "\"");
+			}
+			value = value * 10 - digit;
+		}
+		if (!negative) {
+			if (value == Long.MIN_VALUE) {
+				throw new NumberFormatException("Number out of range: \"" + text + "\"");
+			}
+			value = -value;
+		}
+		if (value < min || value > max) {
+			throw new NumberFormatException("Number out of range: \"" + text + "\"");
+		}
+		return value;
+	}
+}
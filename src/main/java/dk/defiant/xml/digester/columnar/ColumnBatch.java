@@ -0,0 +1,122 @@
+package dk.defiant.xml.digester.columnar;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * A batch of records stored column by column.
+ * <p>
+ * Rows are numbered from 0 to {@link #size()} - 1. The columns are allocated once at
+ * the capacity of the batch and reused for every batch of a digest, so the arrays of
+ * a column can be longer than the batch.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public final class ColumnBatch {
+
+	private final ColumnSchema schema;
+	private final Column[] columns;
+	private final int capacity;
+	private int size;
+	private long firstRecord;
+	
+	/**
+	 * @param schema The columns of the batch
+	 * @param presenceOnly For each column whether only the presence of values is recorded
+	 * @param capacity The maximum number of records in the batch
+	 * @param maxDictionarySize The maximum number of strings in the dictionary of a string column
+	 */
+	ColumnBatch(ColumnSchema schema, boolean[] presenceOnly, int capacity, int maxDictionarySize) {
+		this.schema = schema;
+		this.capacity = capacity;
+		columns = new Column[schema.getColumnCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = Column.newColumn(schema.getColumnName(i), schema.getColumnType(i), capacity, presenceOnly[i], maxDictionarySize);
+		}
+	}
+	
+	public ColumnSchema getSchema() {
+		return schema;
+	}
+	
+	/**
+	 * @return The number of records in the batch
+	 */
+	public int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The maximum number of records in a batch
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+	
+	/**
+	 * @return The number of records of the digest before the first record of the batch
+	 */
+	public long getFirstRecord() {
+		return firstRecord;
+	}
+	
+	public int getColumnCount() {
+		return columns.length;
+	}
+	
+	public Column getColumn(int column) {
+		return columns[column];
+	}
+	
+	/**
+	 * @param name The name of a column
+	 * @return The column
+	 * @throws IllegalArgumentException if there is no such column
+	 */
+	public Column getColumn(String name) {
+		for (Column column : columns) {
+			if (column.getName().equals(name)) {
+				return column;
+			}
+		}
+		throw new IllegalArgumentException("No column " + name);
+	}
+	
+	public IntColumn getIntColumn(String name) {
+		return (IntColumn) getColumn(name);
+	}
+	
+	public LongColumn getLongColumn(String name) {
+		return (LongColumn) getColumn(name);
+	}
+	
+	public DoubleColumn getDoubleColumn(String name) {
+		return (DoubleColumn) getColumn(name);
+	}
+	
+	public BooleanColumn getBooleanColumn(String name) {
+		return (BooleanColumn) getColumn(name);
+	}
+	
+	public StringColumn getStringColumn(String name) {
+		return (StringColumn) getColumn(name);
+	}
+	
+	boolean isFull() {
+		return size == capacity;
+	}
+	
+	void addRecord() {
+		size++;
+	}
+	
+	void clear() {
+		for (Column column : columns) {
+			column.clear();
+		}
+		firstRecord += size;
+		size = 0;
+	}
+}
@@ -0,0 +1,158 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import net.jcip.annotations.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.defiant.xml.digester.annotations.Digest;
+
+/**
+ * The columns to digest repeated records into.
+ * <p>
+ * A column has a name, a type and the path of its value relative to the record element.
+ * A path is made up of child element local names separated by {@code /}, and can end
+ * with an attribute, e.g. {@code address/street} or {@code address/@type}. The value of
+ * an element is its text.
+ * </p>
+ * <pre>
+ * ColumnSchema schema = ColumnSchema.forRecords(new QName("person"))
+ *     .withColumn("id", "@id", ColumnType.LONG)
+ *     .withColumn("name", "name", ColumnType.STRING)
+ *     .withColumn("city", "address/city", ColumnType.STRING);
+ * </pre>
+ * <p>
+ * A schema can also be made from the {@link Digest} annotated fields of a class, the
+ * same mappings a {@link dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler} uses.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@Immutable
+public final class ColumnSchema {
+
+	private static final Logger log = LoggerFactory.getLogger(ColumnSchema.class);
+	
+	private final QName recordName;
+	private final List<String> names;
+	private final List<String> paths;
+	private final List<ColumnType> types;
+	
+	private ColumnSchema(QName recordName, List<String> names, List<String> paths, List<ColumnType> types) {
+		this.recordName = recordName;
+		this.names = names;
+		this.paths = paths;
+		this.types = types;
+	}
+	
+	/**
+	 * Get a schema without columns.
+	 * 
+	 * @param recordName The name of the record elements
+	 * @return The schema
+	 */
+	public static ColumnSchema forRecords(QName recordName) {
+		List<String> none = Collections.emptyList();
+		List<ColumnType> noTypes = Collections.emptyList();
+		return new ColumnSchema(recordName, none, none, noTypes);
+	}
+	
+	/**
+	 * Get a schema of the {@link Digest} annotated fields of a type. The path of a column 
+	 * is the value of the annotation, defaulting to the field name, and the column is named
+	 * after the field. Fields of integral types up to int are INT columns, long fields LONG 
+	 * columns, floating point fields DOUBLE columns, boolean fields BOOLEAN columns and other
+	 * fields STRING columns. Collection fields are skipped as a column holds one value per record.
+	 * 
+	 * @param recordName The name of the record elements
+	 * @param digestType The annotated type
+	 * @return The schema
+	 */
+	public static ColumnSchema fromAnnotations(QName recordName, Class<?> digestType) {
+		ColumnSchema schema = forRecords(recordName);
+		for (Class<?> type = digestType; type != null && !Object.class.equals(type); type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				Digest digest = field.getAnnotation(Digest.class);
+				if (digest == null) {
+					continue;
+				}
+				if (Collection.class.isAssignableFrom(field.getType())) {
+					log.warn("Collection field {} can not be digested into a column", field.getName());
+					continue;
+				}
+				String path = "".equals(digest.value()) ? field.getName() : digest.value();
+				schema = schema.withColumn(field.getName(), path, columnType(field.getType()));
+			}
+		}
+		return schema;
+	}
+	
+	private static ColumnType columnType(Class<?> type) {
+		if (int.class.equals(type) || Integer.class.equals(type) || short.class.equals(type) || Short.class.equals(type)
+				|| byte.class.equals(type) || Byte.class.equals(type)) {
+			return ColumnType.INT;
+		} else if (long.class.equals(type) || Long.class.equals(type)) {
+			return ColumnType.LONG;
+		} else if (double.class.equals(type) || Double.class.equals(type) || float.class.equals(type) || Float.class.equals(type)) {
+			return ColumnType.DOUBLE;
+		} else if (boolean.class.equals(type) || Boolean.class.equals(type)) {
+			return ColumnType.BOOLEAN;
+		}
+		return ColumnType.STRING;
+	}
+	
+	/**
+	 * Get a copy of this schema with another column.
+	 * 
+	 * @param name The name of the column
+	 * @param path The path of the value relative to the record element
+	 * @param type The type of the column
+	 * @return The schema
+	 */
+	public ColumnSchema withColumn(String name, String path, ColumnType type) {
+		if (names.contains(name)) {
+			throw new IllegalArgumentException("Duplicate column " + name);
+		}
+		int attributeStep = path.indexOf('@');
+		if (path.isEmpty() || path.startsWith("/") || path.endsWith("/") || (attributeStep > 0 && path.charAt(attributeStep - 1) != '/')
+				|| (attributeStep >= 0 && path.indexOf('/', attributeStep) >= 0)) {
+			throw new IllegalArgumentException("Invalid path " + path + " of column " + name);
+		}
+		return new ColumnSchema(recordName, append(names, name), append(paths, path), append(types, type));
+	}
+	
+	private static <T> List<T> append(List<T> list, T element) {
+		List<T> appended = new ArrayList<T>(list);
+		appended.add(element);
+		return Collections.unmodifiableList(appended);
+	}
+	
+	public QName getRecordName() {
+		return recordName;
+	}
+	
+	public int getColumnCount() {
+		return names.size();
+	}
+	
+	public String getColumnName(int column) {
+		return names.get(column);
+	}
+	
+	public String getColumnPath(int column) {
+		return paths.get(column);
+	}
+	
+	public ColumnType getColumnType(int column) {
+		return types.get(column);
+	}
+}
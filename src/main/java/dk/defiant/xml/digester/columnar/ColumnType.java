@@ -0,0 +1,18 @@
+package dk.defiant.xml.digester.columnar;
+
+/**
+ * The types of values a {@link Column} can hold.
+ * 
+ * @author jip
+ *
+ */
+public enum ColumnType {
+	INT,
+	LONG,
+	DOUBLE,
+	BOOLEAN,
+	/**
+	 * Strings, dictionary encoded
+	 */
+	STRING,
+}
@@ -0,0 +1,249 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.defiant.xml.digester.DigesterEventHandler;
+import dk.defiant.xml.digester.EventInterest;
+import dk.defiant.xml.digester.HandlerResponse;
+
+/**
+ * Handler digesting repeated records into column vectors.
+ * <p>
+ * Every element with the record name of the {@link ColumnSchema} is a record, wherever
+ * it occurs. The values of a record are parsed straight into the columns of a {@link ColumnBatch}
+ * and when the batch is full it is handed to the {@link BatchHandler}, cleared and filled 
+ * with the next records. No objects are made per record, except the strings of new 
+ * dictionary entries or plain values and the text of double values. The last, partly filled, batch is handed 
+ * over at the end of the document or when {@link #flush()} is called.
+ * </p>
+ * <p>
+ * Text is looked up in the dictionaries of string columns without making a string of it.
+ * A dictionary holds at most {@link #DEFAULT_MAX_DICTIONARY_SIZE} strings unless another
+ * maximum is given, after which new strings are kept as plain values of their batch,
+ * see {@link StringColumn}.
+ * </p>
+ * <pre>
+ * ColumnSchema schema = ColumnSchema.fromAnnotations(new QName("person"), Person.class);
+ * digester.digest(input, null, new ColumnarHandler(schema, 4096, new BatchHandler() {
+ *     public void handle(ColumnBatch batch) {
+ *         LongColumn ids = batch.getLongColumn("id");
+ *         for (int row = 0; row &lt; batch.size(); row++) {
+ *             ...
+ *         }
+ *     }
+ * }));
+ * </pre>
+ * <p>
+ * Elements are matched by local name. If an element path occurs more than once in a
+ * record the last value is kept. Column elements must not contain other column elements.
+ * Records must not contain records.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class ColumnarHandler extends DigesterEventHandler {
+
+	/**
+	 * The element steps of the schema paths relative to the record element
+	 */
+	private static final class PathNode {
+		final Map<String, PathNode> children = new HashMap<String, PathNode>();
+		final Map<String, Integer> attributes = new HashMap<String, Integer>();
+		int column = -1;
+		boolean presenceOnly;
+	}
+	
+	// Elements and text, and the end of the document to hand over the last batch
+	private static final EventInterest INTEREST = EventInterest.forEventTypes(XMLStreamConstants.START_ELEMENT, 
+			XMLStreamConstants.END_ELEMENT, XMLStreamConstants.CHARACTERS, XMLStreamConstants.END_DOCUMENT);
+	
+	public static final int DEFAULT_MAX_DICTIONARY_SIZE = 1 << 16;
+	
+	private final QName recordName;
+	private final PathNode recordNode = new PathNode();
+	private final ColumnBatch batch;
+	private final BatchHandler batchHandler;
+	private final StringBuilder text = new StringBuilder();
+	
+	// Path nodes of the open elements of the current record, null for elements not on a path
+	private PathNode[] openNodes = new PathNode[8];
+	private int recordDepth = 0;
+	private int textColumn = -1;
+	
+	/**
+	 * @param schema The columns to digest the records into
+	 * @param batchSize The number of records per batch
+	 * @param batchHandler The handler of the batches
+	 */
+	public ColumnarHandler(ColumnSchema schema, int batchSize, BatchHandler batchHandler) {
+		this(schema, batchSize, DEFAULT_MAX_DICTIONARY_SIZE, batchHandler);
+	}
+	
+	/**
+	 * @param schema The columns to digest the records into
+	 * @param batchSize The number of records per batch
+	 * @param maxDictionarySize The maximum number of strings in the dictionary of a string column
+	 * @param batchHandler The handler of the batches
+	 */
+	public ColumnarHandler(ColumnSchema schema, int batchSize, int maxDictionarySize, BatchHandler batchHandler) {
+		this(schema, new boolean[schema.getColumnCount()], batchSize, maxDictionarySize, batchHandler);
+	}
+	
+	/**
+	 * @param schema The columns to digest the records into
+	 * @param presenceOnly For each column whether only the presence of values is recorded, leaving the text unparsed
+	 * @param batchSize The number of records per batch
+	 * @param maxDictionarySize The maximum number of strings in the dictionary of a string column
+	 * @param batchHandler The handler of the batches
+	 */
+	ColumnarHandler(ColumnSchema schema, boolean[] presenceOnly, int batchSize, int maxDictionarySize, BatchHandler batchHandler) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be positive");
+		}
+		if (maxDictionarySize < 0) {
+			throw new IllegalArgumentException("Maximum dictionary size must not be negative");
+		}
+		this.recordName = schema.getRecordName();
+		this.batch = new ColumnBatch(schema, presenceOnly, batchSize, maxDictionarySize);
+		this.batchHandler = batchHandler;
+		for (int column = 0; column < schema.getColumnCount(); column++) {
+			addPath(column, schema.getColumnPath(column), presenceOnly[column]);
+		}
+	}
+	
+	private void addPath(int column, String path, boolean presenceOnly) {
+		PathNode node = recordNode;
+		for (String step : path.split("/")) {
+			if (step.startsWith("@")) {
+				node.attributes.put(step.substring(1), column);
+				return;
+			}
+			PathNode child = node.children.get(step);
+			if (child == null) {
+				child = new PathNode();
+				node.children.put(step, child);
+			}
+			node = child;
+		}
+		node.column = column;
+		node.presenceOnly = presenceOnly;
+	}
+	
+	@Override
+	public EventInterest getEventInterest() {
+		return INTEREST;
+	}
+	
+	@Override
+	protected boolean neverDelegates() {
+		return true;
+	}
+	
+	@Override
+	public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+		switch (event.getEventType()) {
+		case XMLEvent.START_ELEMENT:
+			StartElement element = event.asStartElement();
+			if (recordDepth > 0) {
+				PathNode parent = openNodes[recordDepth - 1];
+				openElement(parent == null ? null : parent.children.get(element.getName().getLocalPart()), element);
+			} else if (recordName.equals(element.getName())) {
+				openElement(recordNode, element);
+			}
+			break;
+		case XMLEvent.CHARACTERS:
+		case XMLEvent.CDATA:
+		case XMLEvent.SPACE:
+			if (textColumn >= 0) {
+				text.append(event.asCharacters().getData());
+			}
+			break;
+		case XMLEvent.END_ELEMENT:
+			if (recordDepth > 0) {
+				closeElement(event);
+			}
+			break;
+		case XMLEvent.END_DOCUMENT:
+			flush();
+			break;
+		default:
+			break;
+		}
+		return super.handle(event, digestTarget, false);
+	}
+	
+	private void openElement(PathNode node, StartElement element) throws XMLStreamException {
+		if (recordDepth == openNodes.length) {
+			openNodes = Arrays.copyOf(openNodes, recordDepth * 2);
+		}
+		openNodes[recordDepth++] = node;
+		if (node == null) {
+			return;
+		}
+		if (!node.attributes.isEmpty()) {
+			@SuppressWarnings("unchecked")
+			Iterator<Attribute> attributes = element.getAttributes();
+			while (attributes.hasNext()) {
+				Attribute attribute = attributes.next();
+				Integer column = node.attributes.get(attribute.getName().getLocalPart());
+				if (column != null) {
+					setValue(column, attribute.getValue(), element);
+				}
+			}
+		}
+		if (node.column >= 0 && node.presenceOnly) {
+			// The element is the value, its text is not needed
+			setValue(node.column, "", element);
+		} else if (node.column >= 0) {
+			textColumn = node.column;
+			text.setLength(0);
+		}
+	}
+	
+	private void closeElement(XMLEvent event) throws XMLStreamException {
+		PathNode node = openNodes[--recordDepth];
+		openNodes[recordDepth] = null;
+		if (node != null && node.column >= 0 && !node.presenceOnly) {
+			setValue(node.column, text, event);
+			textColumn = -1;
+		}
+		if (recordDepth == 0) {
+			batch.addRecord();
+			if (batch.isFull()) {
+				flush();
+			}
+		}
+	}
+	
+	private void setValue(int column, CharSequence value, XMLEvent event) throws XMLStreamException {
+		try {
+			batch.getColumn(column).set(batch.size(), value);
+		} catch (NumberFormatException e) {
+			throw new XMLStreamException("Bad value of column " + batch.getColumn(column).getName() + ": " + e.getMessage(), event.getLocation(), e);
+		}
+	}
+	
+	/**
+	 * Hand the records digested so far to the batch handler, unless there are none.
+	 */
+	public void flush() {
+		if (batch.size() > 0) {
+			batchHandler.handle(batch);
+			batch.clear();
+		}
+	}
+}
@@ -0,0 +1,36 @@
+package dk.defiant.xml.digester.columnar;
+
+public final class DoubleColumn extends Column {
+
+	private final double[] values;
+	
+	DoubleColumn(String name, int capacity) {
+		super(name, ColumnType.DOUBLE, capacity);
+		values = new double[capacity];
+	}
+	
+	/**
+	 * @return The value of the row, 0 if it is null
+	 */
+	public double getDouble(int row) {
+		return values[row];
+	}
+	
+	/**
+	 * @return The values of the column, the first {@link ColumnBatch#size()} of which belong to the batch
+	 */
+	public double[] getValues() {
+		return values;
+	}
+	
+	@Override
+	void parse(int row, CharSequence text) {
+		values[row] = Double.parseDouble(text.toString());
+	}
+	
+	@Override
+	void clear() {
+		super.clear();
+		java.util.Arrays.fill(values, 0);
+	}
+}
@@ -0,0 +1,36 @@
+package dk.defiant.xml.digester.columnar;
+
+public final class IntColumn extends Column {
+
+	private final int[] values;
+	
+	IntColumn(String name, int capacity) {
+		super(name, ColumnType.INT, capacity);
+		values = new int[capacity];
+	}
+	
+	/**
+	 * @return The value of the row, 0 if it is null
+	 */
+	public int getInt(int row) {
+		return values[row];
+	}
+	
+	/**
+	 * @return The values of the column, the first {@link ColumnBatch#size()} of which belong to the batch
+	 */
+	public int[] getValues() {
+		return values;
+	}
+	
+	@Override
+	void parse(int row, CharSequence text) {
+		values[row] = (int) parseLong(text, Integer.MIN_VALUE, Integer.MAX_VALUE);
+	}
+	
+	@Override
+	void clear() {
+		super.clear();
+		java.util.Arrays.fill(values, 0);
+	}
+}
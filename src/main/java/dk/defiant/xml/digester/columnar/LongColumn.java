@@ -0,0 +1,36 @@
+package dk.defiant.xml.digester.columnar;
+
+public final class LongColumn extends Column {
+
+	private final long[] values;
+	
+	LongColumn(String name, int capacity) {
+		super(name, ColumnType.LONG, capacity);
+		values = new long[capacity];
+	}
+	
+	/**
+	 * @return The value of the row, 0 if it is null
+	 */
+	public long getLong(int row) {
+		return values[row];
+	}
+	
+	/**
+	 * @return The values of the column, the first {@link ColumnBatch#size()} of which belong to the batch
+	 */
+	public long[] getValues() {
+		return values;
+	}
+	
+	@Override
+	void parse(int row, CharSequence text) {
+		values[row] = parseLong(text, Long.MIN_VALUE, Long.MAX_VALUE);
+	}
+	
+	@Override
+	void clear() {
+		super.clear();
+		java.util.Arrays.fill(values, 0);
+	}
+}
@@ -0,0 +1,87 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Open addressing hash map of primitive long keys to int values, so looking up a key
+ * neither boxes it nor makes an entry object.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+final class LongIntHashMap {
+
+	static final int MISSING = -1;
+	
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+	
+	LongIntHashMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(values, MISSING);
+		mask = capacity - 1;
+	}
+	
+	int size() {
+		return size;
+	}
+	
+	/**
+	 * @return The value of the key or {@link #MISSING}
+	 */
+	int get(long key) {
+		for (int slot = slot(key); ; slot = (slot + 1) & mask) {
+			if (values[slot] == MISSING) {
+				return MISSING;
+			} else if (keys[slot] == key) {
+				return values[slot];
+			}
+		}
+	}
+	
+	/**
+	 * @param value The value, which must not be {@link #MISSING}
+	 */
+	void put(long key, int value) {
+		int slot = slot(key);
+		while (values[slot] != MISSING && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		if (values[slot] == MISSING) {
+			size++;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+		if (size * 2 > keys.length) {
+			grow();
+		}
+	}
+	
+	private int slot(long key) {
+		// Spread the bits, as keys are often small consecutive numbers
+		long hash = key * 0x9E3779B97F4A7C15L;
+		return (int) (hash ^ (hash >>> 32)) & mask;
+	}
+	
+	private void grow() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[oldKeys.length * 2];
+		Arrays.fill(values, MISSING);
+		mask = keys.length - 1;
+		size = 0;
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldValues[i] != MISSING) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
@@ -0,0 +1,19 @@
+package dk.defiant.xml.digester.columnar;
+
+/**
+ * Column that only records which rows have a value, for columns that are counted 
+ * but whose values are never read. The text of the values is not parsed.
+ * 
+ * @author jip
+ *
+ */
+final class PresenceColumn extends Column {
+
+	PresenceColumn(String name, ColumnType type, int capacity) {
+		super(name, type, capacity);
+	}
+	
+	@Override
+	void parse(int row, CharSequence text) {
+	}
+}
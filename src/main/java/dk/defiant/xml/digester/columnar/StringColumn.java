@@ -0,0 +1,155 @@
+package dk.defiant.xml.digester.columnar;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Column of dictionary encoded strings. Each distinct string is stored once in the
+ * dictionary, and rows hold the code of their string. The dictionary is kept across
+ * batches, so a code means the same string in every batch of a digest.
+ * <p>
+ * The dictionary holds at most a maximum number of strings. Once it is full, strings
+ * that are not in it are stored as plain values of the batch, with codes from
+ * {@link #getDictionarySize()} and up that are only valid until the batch is cleared,
+ * see {@link #isDictionaryCode(int)}.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+public final class StringColumn extends Column {
+	
+	private final int[] codes;
+	private final int maxDictionarySize;
+	private final List<String> dictionary = new ArrayList<String>();
+	private final List<String> batchValues = new ArrayList<String>();
+	// Open addressing table of dictionary codes plus one by hash, 0 for an empty slot
+	private int[] slots = new int[16];
+	
+	StringColumn(String name, int capacity, int maxDictionarySize) {
+		super(name, ColumnType.STRING, capacity);
+		codes = new int[capacity];
+		this.maxDictionarySize = maxDictionarySize;
+	}
+	
+	/**
+	 * @return The value of the row or null
+	 */
+	public String getString(int row) {
+		return isNull(row) ? null : getDictionaryValue(codes[row]);
+	}
+	
+	/**
+	 * The code of a null value is 0, which is also the code of the first dictionary string,
+	 * so check {@link #isNull(int)} to tell them apart.
+	 * 
+	 * @return The dictionary code of the value of the row
+	 */
+	public int getCode(int row) {
+		return codes[row];
+	}
+	
+	/**
+	 * @return The codes of the column, the first {@link ColumnBatch#size()} of which belong to the batch,
+	 * see {@link #getCode(int)} for null values
+	 */
+	public int[] getCodes() {
+		return codes;
+	}
+	
+	/**
+	 * @param code A code of the column
+	 * @return true if the code is in the dictionary and means the same string in every batch,
+	 * false if it is a plain value of the current batch
+	 */
+	public boolean isDictionaryCode(int code) {
+		return code < dictionary.size();
+	}
+	
+	/**
+	 * @param code A code of the column
+	 * @return The string of the code
+	 */
+	public String getDictionaryValue(int code) {
+		return code < dictionary.size() ? dictionary.get(code) : batchValues.get(code - dictionary.size());
+	}
+	
+	public int getDictionarySize() {
+		return dictionary.size();
+	}
+	
+	@Override
+	void parse(int row, CharSequence text) {
+		int hash = hash(text);
+		int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != 0) {
+			String value = dictionary.get(slots[slot] - 1);
+			if (hash(value) == hash && contentEquals(value, text)) {
+				codes[row] = slots[slot] - 1;
+				return;
+			}
+			slot = (slot + 1) & mask;
+		}
+		if (dictionary.size() == maxDictionarySize) {
+			codes[row] = dictionary.size() + batchValues.size();
+			batchValues.add(text.toString());
+			return;
+		}
+		int code = dictionary.size();
+		dictionary.add(text.toString());
+		slots[slot] = code + 1;
+		if (dictionary.size() * 2 > slots.length) {
+			rehash();
+		}
+		codes[row] = code;
+	}
+	
+	private void rehash() {
+		slots = new int[slots.length * 2];
+		int mask = slots.length - 1;
+		for (int code = 0; code < dictionary.size(); code++) {
+			int slot = hash(dictionary.get(code)) & mask;
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = code + 1;
+		}
+	}
+	
+	/**
+	 * Hash text as {@link String#hashCode()} does, so the cached hashes of dictionary strings
+	 * can be compared to the hash of text being parsed, spreading the high bits.
+	 */
+	private static int hash(CharSequence text) {
+		int hash = 0;
+		if (text instanceof String) {
+			hash = text.hashCode();
+		} else {
+			for (int i = 0; i < text.length(); i++) {
+				hash = 31 * hash + text.charAt(i);
+			}
+		}
+		return hash ^ (hash >>> 16);
+	}
+	
+	private static boolean contentEquals(String value, CharSequence text) {
+		if (value.length() != text.length()) {
+			return false;
+		}
+		for (int i = 0; i < value.length(); i++) {
+			if (value.charAt(i) != text.charAt(i)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	@Override
+	void clear() {
+		super.clear();
+		Arrays.fill(codes, 0);
+		batchValues.clear();
+	}
+}
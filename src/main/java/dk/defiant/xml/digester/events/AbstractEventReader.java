@@ -0,0 +1,146 @@
+package dk.defiant.xml.digester.events;
+
+import java.util.NoSuchElementException;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Base class for {@link XMLEventReader}s that are not backed by a parser.
+ * 
+ * Extensions only have to produce the next event; peeking, text
+ * accumulation and tag navigation is handled here.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+abstract class AbstractEventReader implements XMLEventReader {
+
+	private XMLEvent current;
+	private XMLEvent peeked;
+	private XMLStreamException pendingException;
+	
+	/**
+	 * Read the next event from the source.
+	 * 
+	 * @return The next event or null if there are no more events
+	 * @throws XMLStreamException
+	 */
+	protected abstract XMLEvent readEvent() throws XMLStreamException;
+	
+	@Override
+	public boolean hasNext() {
+		if (peeked == null && pendingException == null) {
+			try {
+				peeked = readEvent();
+			} catch (XMLStreamException e) {
+				// Report the error when the caller asks for the event
+				pendingException = e;
+			}
+		}
+		return peeked != null || pendingException != null;
+	}
+	
+	@Override
+	public XMLEvent nextEvent() throws XMLStreamException {
+		if (pendingException != null) {
+			XMLStreamException e = pendingException;
+			pendingException = null;
+			throw e;
+		}
+		XMLEvent event = peeked != null ? peeked : readEvent();
+		peeked = null;
+		if (event == null) {
+			throw new NoSuchElementException();
+		}
+		current = event;
+		return event;
+	}
+	
+	@Override
+	public Object next() {
+		try {
+			return nextEvent();
+		} catch (XMLStreamException e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	@Override
+	public XMLEvent peek() throws XMLStreamException {
+		if (!hasNext()) {
+			return null;
+		}
+		if (pendingException != null) {
+			throw pendingException;
+		}
+		return peeked;
+	}
+	
+	@Override
+	public String getElementText() throws XMLStreamException {
+		if (current == null || !current.isStartElement()) {
+			throw new XMLStreamException("Current event is not a START_ELEMENT");
+		}
+		StringBuilder text = new StringBuilder();
+		while (true) {
+			XMLEvent event = nextEvent();
+			switch (event.getEventType()) {
+			case XMLEvent.CHARACTERS:
+			case XMLEvent.CDATA:
+			case XMLEvent.SPACE:
+				text.append(event.asCharacters().getData());
+				break;
+			case XMLEvent.COMMENT:
+			case XMLEvent.PROCESSING_INSTRUCTION:
+				break;
+			case XMLEvent.END_ELEMENT:
+				return text.toString();
+			default:
+				throw new XMLStreamException("Unexpected event of type " + event.getEventType() + " while reading element text");
+			}
+		}
+	}
+	
+	@Override
+	public XMLEvent nextTag() throws XMLStreamException {
+		while (true) {
+			XMLEvent event = nextEvent();
+			switch (event.getEventType()) {
+			case XMLEvent.START_ELEMENT:
+			case XMLEvent.END_ELEMENT:
+				return event;
+			case XMLEvent.CHARACTERS:
+			case XMLEvent.CDATA:
+			case XMLEvent.SPACE:
+				if (!event.asCharacters().isWhiteSpace()) {
+					throw new XMLStreamException("Found non-whitespace text while looking for a tag");
+				}
+				break;
+			case XMLEvent.COMMENT:
+			case XMLEvent.PROCESSING_INSTRUCTION:
+				break;
+			default:
+				throw new XMLStreamException("Unexpected event of type " + event.getEventType() + " while looking for a tag");
+			}
+		}
+	}
+	
+	@Override
+	public Object getProperty(String name) {
+		throw new IllegalArgumentException("Property " + name + " is not supported");
+	}
+	
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException();
+	}
+	
+	@Override
+	public void close() throws XMLStreamException {
+	}
+}
@@ -0,0 +1,232 @@
+package dk.defiant.xml.digester.events;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Characters;
+import javax.xml.stream.events.Comment;
+import javax.xml.stream.events.DTD;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.ProcessingInstruction;
+import javax.xml.stream.events.StartDocument;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Records StAX events into a compact {@link EventRecording}.
+ * 
+ * Names and other repeated strings are interned in tables, text is packed
+ * into a single character array and each event is encoded as a few ints.
+ * Event types that carry no information needed for digesting (entity
+ * declarations, notations etc.) are not recorded.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class EventRecorder {
+
+	private int[] codes = new int[256];
+	private int codeCount;
+	private int[] eventOffsets = new int[64];
+	private int eventCount;
+	private char[] text = new char[1024];
+	private int textLength;
+	// QName equality ignores prefixes so names are interned by their prefixed form
+	private final Map<String, Integer> nameIndexes = new HashMap<String, Integer>();
+	private final Map<QName, Integer> lastNameIndexes = new HashMap<QName, Integer>();
+	private QName[] names = new QName[16];
+	private final Map<String, Integer> stringIndexes = new HashMap<String, Integer>();
+	private String[] strings = new String[16];
+	
+	/**
+	 * Record all remaining events of an event reader.
+	 * 
+	 * @param eventReader The reader to consume
+	 * @throws XMLStreamException
+	 */
+	public void record(XMLEventReader eventReader) throws XMLStreamException {
+		while (eventReader.hasNext()) {
+			record(eventReader.nextEvent());
+		}
+	}
+	
+	/**
+	 * Record a single event.
+	 * 
+	 * @param event The event to record
+	 */
+	public void record(XMLEvent event) {
+		int start = codeCount;
+		switch (event.getEventType()) {
+		case XMLEvent.START_DOCUMENT:
+			StartDocument startDocument = (StartDocument) event;
+			addCode(XMLEvent.START_DOCUMENT);
+			addCode(startDocument.encodingSet() ? stringIndex(startDocument.getCharacterEncodingScheme()) : -1);
+			addCode(stringIndex(startDocument.getVersion()));
+			addCode((startDocument.standaloneSet() ? 2 : 0) | (startDocument.isStandalone() ? 1 : 0));
+			break;
+		case XMLEvent.END_DOCUMENT:
+			addCode(XMLEvent.END_DOCUMENT);
+			break;
+		case XMLEvent.START_ELEMENT:
+			recordStartElement(event.asStartElement());
+			break;
+		case XMLEvent.END_ELEMENT:
+			addCode(XMLEvent.END_ELEMENT);
+			addCode(nameIndex(event.asEndElement().getName()));
+			break;
+		case XMLEvent.CHARACTERS:
+		case XMLEvent.CDATA:
+		case XMLEvent.SPACE:
+			Characters characters = event.asCharacters();
+			if (characters.isCData()) {
+				addCode(XMLEvent.CDATA);
+			} else if (characters.isIgnorableWhiteSpace()) {
+				addCode(XMLEvent.SPACE);
+			} else {
+				addCode(XMLEvent.CHARACTERS);
+			}
+			addText(characters.getData());
+			break;
+		case XMLEvent.COMMENT:
+			addCode(XMLEvent.COMMENT);
+			addText(((Comment) event).getText());
+			break;
+		case XMLEvent.PROCESSING_INSTRUCTION:
+			ProcessingInstruction pi = (ProcessingInstruction) event;
+			addCode(XMLEvent.PROCESSING_INSTRUCTION);
+			addCode(stringIndex(pi.getTarget()));
+			addText(pi.getData());
+			break;
+		case XMLEvent.DTD:
+			addCode(XMLEvent.DTD);
+			addText(((DTD) event).getDocumentTypeDeclaration());
+			break;
+		default:
+			// Not needed for digesting
+			return;
+		}
+		if (eventCount == eventOffsets.length) {
+			eventOffsets = Arrays.copyOf(eventOffsets, eventCount * 2);
+		}
+		eventOffsets[eventCount++] = start;
+	}
+	
+	/**
+	 * Get a recording of the events recorded so far.
+	 * 
+	 * The recorder can continue recording afterwards without affecting the returned recording.
+	 * 
+	 * @return The recording
+	 */
+	public EventRecording toRecording() {
+		return new EventRecording(
+				Arrays.copyOf(codes, codeCount),
+				Arrays.copyOf(eventOffsets, eventCount),
+				Arrays.copyOf(text, textLength),
+				Arrays.copyOf(names, nameIndexes.size()),
+				Arrays.copyOf(strings, stringIndexes.size()));
+	}
+	
+	/**
+	 * Discard all recorded events, keeping the allocated buffers and interned names.
+	 */
+	public void reset() {
+		codeCount = 0;
+		eventCount = 0;
+		textLength = 0;
+	}
+	
+	private void recordStartElement(StartElement element) {
+		addCode(XMLEvent.START_ELEMENT);
+		addCode(nameIndex(element.getName()));
+		int countsAt = codeCount;
+		addCode(0);
+		addCode(0);
+		int attributeCount = 0;
+		@SuppressWarnings("unchecked")
+		Iterator<Attribute> attributes = element.getAttributes();
+		while (attributes.hasNext()) {
+			Attribute attribute = attributes.next();
+			addCode(nameIndex(attribute.getName()));
+			addText(attribute.getValue());
+			attributeCount++;
+		}
+		int namespaceCount = 0;
+		@SuppressWarnings("unchecked")
+		Iterator<Namespace> namespaces = element.getNamespaces();
+		while (namespaces.hasNext()) {
+			Namespace namespace = namespaces.next();
+			addCode(stringIndex(namespace.getPrefix()));
+			addCode(stringIndex(namespace.getNamespaceURI()));
+			namespaceCount++;
+		}
+		codes[countsAt] = attributeCount;
+		codes[countsAt + 1] = namespaceCount;
+	}
+	
+	private void addCode(int code) {
+		if (codeCount == codes.length) {
+			codes = Arrays.copyOf(codes, codeCount * 2);
+		}
+		codes[codeCount++] = code;
+	}
+	
+	private void addText(String value) {
+		if (value == null) {
+			value = "";
+		}
+		int length = value.length();
+		if (textLength + length > text.length) {
+			text = Arrays.copyOf(text, Math.max(text.length * 2, textLength + length));
+		}
+		value.getChars(0, length, text, textLength);
+		addCode(textLength);
+		addCode(length);
+		textLength += length;
+	}
+	
+	private int nameIndex(QName name) {
+		Integer index = lastNameIndexes.get(name);
+		if (index != null && names[index].getPrefix().equals(name.getPrefix())) {
+			return index;
+		}
+		String key = name.getPrefix() + ":" + name.toString();
+		index = nameIndexes.get(key);
+		if (index == null) {
+			index = nameIndexes.size();
+			if (index == names.length) {
+				names = Arrays.copyOf(names, index * 2);
+			}
+			names[index] = name;
+			nameIndexes.put(key, index);
+		}
+		lastNameIndexes.put(name, index);
+		return index;
+	}
+	
+	private int stringIndex(String value) {
+		if (value == null) {
+			return -1;
+		}
+		Integer index = stringIndexes.get(value);
+		if (index == null) {
+			index = stringIndexes.size();
+			if (index == strings.length) {
+				strings = Arrays.copyOf(strings, index * 2);
+			}
+			strings[index] = value;
+			stringIndexes.put(value, index);
+		}
+		return index;
+	}
+}
@@ -0,0 +1,93 @@
+package dk.defiant.xml.digester.events;
+
+import java.io.Reader;
+import java.io.StringReader;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamException;
+
+import net.jcip.annotations.ThreadSafe;
+
+import dk.defiant.xml.digester.XmlDigester;
+
+/**
+ * Immutable, compact recording of a StAX event stream.
+ * 
+ * A recording can be replayed any number of times, also concurrently, by
+ * handing the readers returned from {@link #newEventReader()} to 
+ * {@link XmlDigester#digest(XMLEventReader, Object, dk.defiant.xml.digester.DigesterEventHandler)}.
+ * Replaying skips decoding and tokenizing entirely which makes it a cheap way 
+ * of digesting the same document more than once.
+ * 
+ * @author jip
+ *
+ */
+@ThreadSafe
+public final class EventRecording {
+
+	// Encoded events, see EventRecorder for the layout of each event type
+	final int[] codes;
+	// Index into codes for the start of each event
+	final int[] eventOffsets;
+	// Packed text of characters, comments, attribute values etc.
+	final char[] text;
+	final QName[] names;
+	final String[] strings;
+	
+	EventRecording(int[] codes, int[] eventOffsets, char[] text, QName[] names, String[] strings) {
+		this.codes = codes;
+		this.eventOffsets = eventOffsets;
+		this.text = text;
+		this.names = names;
+		this.strings = strings;
+	}
+	
+	/**
+	 * Record all events of an XML document.
+	 * 
+	 * @param reader The reader to read the document from
+	 * @return The recording of the document
+	 * @throws XMLStreamException
+	 */
+	public static EventRecording record(Reader reader) throws XMLStreamException {
+		XMLEventReader eventReader = XMLInputFactory.newInstance().createXMLEventReader(reader);
+		try {
+			EventRecorder recorder = new EventRecorder();
+			recorder.record(eventReader);
+			return recorder.toRecording();
+		} finally {
+			eventReader.close();
+		}
+	}
+	
+	/**
+	 * Record all events of an XML document.
+	 * 
+	 * @param xml The string containing XML
+	 * @return The recording of the document
+	 * @throws XMLStreamException
+	 */
+	public static EventRecording record(String xml) throws XMLStreamException {
+		return record(new StringReader(xml));
+	}
+	
+	/**
+	 * Get a new reader replaying the recorded events from the beginning.
+	 * 
+	 * @return An event reader positioned before the first event
+	 */
+	public XMLEventReader newEventReader() {
+		return new RecordedEventReader(this);
+	}
+	
+	/**
+	 * Get the number of recorded events.
+	 * 
+	 * @return The number of events
+	 */
+	public int size() {
+		return eventOffsets.length;
+	}
+}
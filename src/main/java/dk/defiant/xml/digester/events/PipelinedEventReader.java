@@ -0,0 +1,210 @@
+package dk.defiant.xml.digester.events;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+import javax.xml.stream.XMLEventReader;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Event reader that parses on a separate producer thread.
+ * <p>
+ * The producer reads events from the source reader and hands them to the consumer 
+ * through a pre-allocated single-producer/single-consumer ring buffer. Positions are 
+ * published in batches so the threads rarely touch the same cache lines, and neither 
+ * side takes a lock. This lets decoding and tokenizing run in parallel with the handlers 
+ * consuming the events.
+ * </p>
+ * <p>
+ * The reader itself must only be used by one consumer thread. Closing it stops the 
+ * producer, closes the source reader and waits for the producer to be done with it, so 
+ * the input of the source may be used again once the reader is closed. A producer that 
+ * is blocked reading the input is waited for just like a consumer reading the source 
+ * itself would be.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class PipelinedEventReader extends AbstractEventReader {
+
+	public static final int DEFAULT_CAPACITY = 1024;
+	
+	private static final int MAX_BATCH_SIZE = 16;
+	
+	private final XMLEventReader source;
+	private final XMLEvent[] ring;
+	private final int mask;
+	private final int batchSize;
+	
+	// Next position to be read by the consumer, as seen by the producer
+	private final AtomicLong head = new AtomicLong();
+	// Next position to be written by the producer, as seen by the consumer
+	private final AtomicLong tail = new AtomicLong();
+	private volatile boolean finished;
+	private volatile boolean closed;
+	private volatile Throwable failure;
+	private final CountDownLatch stopped = new CountDownLatch(1);
+	
+	// Only accessed by the consumer
+	private long readPosition;
+	private long readLimit;
+	
+	/**
+	 * Start parsing the source on a new daemon thread.
+	 * 
+	 * @param source The reader to read events from
+	 * @param capacity The number of events the ring buffer can hold, rounded up to a power of two
+	 */
+	public PipelinedEventReader(XMLEventReader source, int capacity) {
+		this(source, capacity, null);
+	}
+	
+	/**
+	 * Start parsing the source using an executor.
+	 * 
+	 * @param source The reader to read events from
+	 * @param capacity The number of events the ring buffer can hold, rounded up to a power of two
+	 * @param executor The executor to run the producer on or null to start a new daemon thread
+	 */
+	public PipelinedEventReader(XMLEventReader source, int capacity, Executor executor) {
+		if (capacity < 2) {
+			throw new IllegalArgumentException("Capacity must be at least 2");
+		}
+		this.source = source;
+		this.ring = new XMLEvent[Integer.highestOneBit(capacity - 1) << 1];
+		this.mask = ring.length - 1;
+		this.batchSize = Math.min(MAX_BATCH_SIZE, ring.length / 2);
+		Runnable producer = new Runnable() {
+			@Override
+			public void run() {
+				produce();
+			}
+		};
+		if (executor == null) {
+			Thread thread = new Thread(producer, "xml-digester-pipeline");
+			thread.setDaemon(true);
+			thread.start();
+		} else {
+			executor.execute(producer);
+		}
+	}
+	
+	@Override
+	protected XMLEvent readEvent() throws XMLStreamException {
+		if (readPosition == readLimit) {
+			// Hand the consumed slots back before waiting for more
+			head.lazySet(readPosition);
+			int idleCount = 0;
+			while ((readLimit = tail.get()) == readPosition) {
+				if (finished) {
+					// The producer publishes its last events before finishing so read the tail once more
+					readLimit = tail.get();
+					if (readLimit == readPosition) {
+						rethrowFailure();
+						return null;
+					}
+					break;
+				}
+				idle(idleCount++);
+			}
+		}
+		int index = (int) readPosition & mask;
+		XMLEvent event = ring[index];
+		ring[index] = null;
+		readPosition++;
+		if ((readPosition & (batchSize - 1)) == 0) {
+			head.lazySet(readPosition);
+		}
+		return event;
+	}
+	
+	@Override
+	public void close() throws XMLStreamException {
+		closed = true;
+		boolean interrupted = false;
+		while (true) {
+			try {
+				stopped.await();
+				break;
+			} catch (InterruptedException e) {
+				// The source is shared with the producer until it stops, so keep waiting
+				interrupted = true;
+			}
+		}
+		if (interrupted) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	
+	private void produce() {
+		long writePosition = 0;
+		long headCache = 0;
+		int unpublished = 0;
+		try {
+			while (!closed && source.hasNext()) {
+				XMLEvent event = source.nextEvent();
+				int idleCount = 0;
+				while (writePosition - headCache >= ring.length) {
+					// Ring is full so make sure the consumer sees everything before waiting
+					if (unpublished > 0) {
+						tail.lazySet(writePosition);
+						unpublished = 0;
+					}
+					headCache = head.get();
+					if (closed) {
+						return;
+					}
+					idle(idleCount++);
+				}
+				ring[(int) writePosition & mask] = event;
+				writePosition++;
+				if (++unpublished == batchSize) {
+					tail.lazySet(writePosition);
+					unpublished = 0;
+				}
+			}
+		} catch (Throwable t) {
+			failure = t;
+		} finally {
+			tail.lazySet(writePosition);
+			finished = true;
+			try {
+				source.close();
+			} catch (XMLStreamException e) {
+				// Nothing more to be done
+			} finally {
+				stopped.countDown();
+			}
+		}
+	}
+	
+	private void rethrowFailure() throws XMLStreamException {
+		Throwable t = failure;
+		if (t instanceof XMLStreamException) {
+			throw (XMLStreamException) t;
+		} else if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		} else if (t instanceof Error) {
+			throw (Error) t;
+		} else if (t != null) {
+			throw new XMLStreamException(t);
+		}
+	}
+	
+	private static void idle(int idleCount) {
+		if (idleCount < 64) {
+			// Busy spin, the other side is usually only a few events behind
+		} else if (idleCount < 128) {
+			Thread.yield();
+		} else {
+			LockSupport.parkNanos(50000L);
+		}
+	}
+}
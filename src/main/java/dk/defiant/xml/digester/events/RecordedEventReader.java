@@ -0,0 +1,119 @@
+package dk.defiant.xml.digester.events;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLEventFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.Namespace;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reader replaying the events of an {@link EventRecording}.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+class RecordedEventReader extends AbstractEventReader {
+
+	// Event factories are not guaranteed to be thread safe so every thread gets its own
+	private static final ThreadLocal<XMLEventFactory> eventFactories = new ThreadLocal<XMLEventFactory>() {
+		@Override
+		protected XMLEventFactory initialValue() {
+			return XMLEventFactory.newInstance();
+		}
+	};
+	
+	private final EventRecording recording;
+	private final XMLEventFactory eventFactory = eventFactories.get();
+	private int nextEvent;
+	
+	RecordedEventReader(EventRecording recording) {
+		this.recording = recording;
+	}
+	
+	@Override
+	protected XMLEvent readEvent() throws XMLStreamException {
+		if (nextEvent >= recording.eventOffsets.length) {
+			return null;
+		}
+		int[] codes = recording.codes;
+		int i = recording.eventOffsets[nextEvent++];
+		switch (codes[i]) {
+		case XMLEvent.START_DOCUMENT:
+			String encoding = string(codes[i + 1]);
+			if (encoding == null) {
+				return eventFactory.createStartDocument();
+			}
+			int flags = codes[i + 3];
+			if ((flags & 2) != 0) {
+				return eventFactory.createStartDocument(encoding, string(codes[i + 2]), (flags & 1) != 0);
+			}
+			return eventFactory.createStartDocument(encoding, string(codes[i + 2]));
+		case XMLEvent.END_DOCUMENT:
+			return eventFactory.createEndDocument();
+		case XMLEvent.START_ELEMENT:
+			return readStartElement(codes, i);
+		case XMLEvent.END_ELEMENT:
+			QName name = recording.names[codes[i + 1]];
+			return eventFactory.createEndElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart());
+		case XMLEvent.CHARACTERS:
+			return eventFactory.createCharacters(text(codes, i + 1));
+		case XMLEvent.CDATA:
+			return eventFactory.createCData(text(codes, i + 1));
+		case XMLEvent.SPACE:
+			return eventFactory.createIgnorableSpace(text(codes, i + 1));
+		case XMLEvent.COMMENT:
+			return eventFactory.createComment(text(codes, i + 1));
+		case XMLEvent.PROCESSING_INSTRUCTION:
+			return eventFactory.createProcessingInstruction(string(codes[i + 1]), text(codes, i + 2));
+		case XMLEvent.DTD:
+			return eventFactory.createDTD(text(codes, i + 1));
+		default:
+			throw new XMLStreamException("Corrupt event recording, unknown event type " + codes[i]);
+		}
+	}
+	
+	private XMLEvent readStartElement(int[] codes, int i) {
+		QName name = recording.names[codes[i + 1]];
+		int attributeCount = codes[i + 2];
+		int namespaceCount = codes[i + 3];
+		i += 4;
+		List<Attribute> attributes = Collections.emptyList();
+		if (attributeCount > 0) {
+			attributes = new ArrayList<Attribute>(attributeCount);
+			for (int n = 0; n < attributeCount; n++, i += 3) {
+				attributes.add(eventFactory.createAttribute(recording.names[codes[i]], text(codes, i + 1)));
+			}
+		}
+		List<Namespace> namespaces = Collections.emptyList();
+		if (namespaceCount > 0) {
+			namespaces = new ArrayList<Namespace>(namespaceCount);
+			for (int n = 0; n < namespaceCount; n++, i += 2) {
+				String prefix = string(codes[i]);
+				String uri = string(codes[i + 1]);
+				if (prefix == null || prefix.isEmpty()) {
+					namespaces.add(eventFactory.createNamespace(uri));
+				} else {
+					namespaces.add(eventFactory.createNamespace(prefix, uri));
+				}
+			}
+		}
+		return eventFactory.createStartElement(name.getPrefix(), name.getNamespaceURI(), name.getLocalPart(), 
+				attributes.iterator(), namespaces.iterator());
+	}
+	
+	private String text(int[] codes, int i) {
+		return new String(recording.text, codes[i], codes[i + 1]);
+	}
+	
+	private String string(int index) {
+		return index < 0 ? null : recording.strings[index];
+	}
+}
@@ -0,0 +1,319 @@
+package dk.defiant.xml.digester.handlers;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.defiant.xml.digester.DigesterEventHandler;
+import dk.defiant.xml.digester.EventInterest;
+import dk.defiant.xml.digester.HandlerResponse;
+import dk.defiant.xml.digester.annotations.OnEnd;
+import dk.defiant.xml.digester.annotations.OnStart;
+
+/**
+ * Extension of {@link DigesterEventHandler} dispatching element events to annotated methods.
+ * <p>
+ * Instead of chains of {@code "name".equals(localName)} tests, methods are annotated with
+ * {@link OnStart} or {@link OnEnd} and the element name they handle:
+ * </p>
+ * <pre>
+ * class PersonHandler extends AnnotatedMethodHandler {
+ *     private Person person;
+ *     
+ *     {@literal @OnStart("person")}
+ *     void person(Person person) {
+ *         this.person = person;
+ *     }
+ *     
+ *     {@literal @OnEnd("name")}
+ *     void name(String name) {
+ *         person.setName(name);
+ *     }
+ *     
+ *     {@literal @OnEnd("age")}
+ *     void age(int age) {
+ *         person.setAge(age);
+ *     }
+ *     
+ *     {@literal @OnEnd("person")}
+ *     HandlerResponse end() {
+ *         return new FinishedParsingResponse();
+ *     }
+ * }
+ * </pre>
+ * <p>
+ * Parameters are bound by type:
+ * </p>
+ * <ul>
+ *   <li>{@link XMLEvent} or one of its sub interfaces receives the event.</li>
+ *   <li>{@link Map} receives the attributes of the element (start elements only).</li>
+ *   <li>{@link String} receives the text of the element (end elements only).</li>
+ *   <li>Primitives and their wrappers receive the text of the element parsed into the type (end elements only).</li>
+ *   <li>Any other type receives the digest target.</li>
+ * </ul>
+ * <p>
+ * Methods can return a {@link HandlerResponse} or nothing. The methods of a class are compiled once
+ * into a table of {@link MethodHandle}s keyed by element name, so dispatching an event costs a single
+ * hash lookup. Characters are only captured inside elements whose end element method takes the
+ * element text.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public abstract class AnnotatedMethodHandler extends DigesterEventHandler {
+
+	private static final ConcurrentMap<Class<?>, Map<QName, Dispatch>> dispatchTables = new ConcurrentHashMap<Class<?>, Map<QName, Dispatch>>();
+	
+	private enum Argument {
+		EVENT,
+		ATTRIBUTES,
+		TEXT,
+		BOOLEAN,
+		BYTE,
+		CHAR,
+		SHORT,
+		INT,
+		LONG,
+		FLOAT,
+		DOUBLE,
+		TARGET,
+	}
+	
+	private static final class Binding {
+		final Method method;
+		final MethodHandle handle;
+		final Argument[] arguments;
+		
+		Binding(Method method, MethodHandle handle, Argument[] arguments) {
+			this.method = method;
+			this.handle = handle;
+			this.arguments = arguments;
+		}
+	}
+	
+	private static final class Dispatch {
+		Binding start;
+		Binding end;
+		boolean capturesText;
+	}
+	
+	private final Map<QName, Dispatch> dispatchTable;
+	private final Object[][] argumentBuffers = new Object[8][];
+	
+	protected AnnotatedMethodHandler() {
+		dispatchTable = getDispatchTable(getClass());
+		setArmedCapture(true);
+	}
+	
+	/**
+	 * Only elements with annotated methods and text are passed to the handler. Override this
+	 * if the handler handles other events itself.
+	 */
+	@Override
+	public EventInterest getEventInterest() {
+		return EventInterest.ELEMENTS_AND_TEXT.withNames(dispatchTable.keySet().toArray(new QName[dispatchTable.size()]));
+	}
+	
+	@Override
+	public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+		if (event.isStartElement()) {
+			Dispatch dispatch = dispatchTable.get(event.asStartElement().getName());
+			if (dispatch != null) {
+				if (dispatch.capturesText) {
+					armCharacterBuffer();
+				}
+				if (dispatch.start != null) {
+					HandlerResponse response = invoke(dispatch.start, event, digestTarget);
+					if (response != null) {
+						return response;
+					}
+				}
+			}
+		} else if (event.isEndElement()) {
+			Dispatch dispatch = dispatchTable.get(event.asEndElement().getName());
+			if (dispatch != null && dispatch.end != null) {
+				HandlerResponse response = invoke(dispatch.end, event, digestTarget);
+				if (response != null) {
+					return response;
+				}
+			}
+		}
+		return super.handle(event, digestTarget);
+	}
+	
+	private HandlerResponse invoke(Binding binding, XMLEvent event, Object digestTarget) throws XMLStreamException {
+		Argument[] arguments = binding.arguments;
+		Object[] values = argumentBuffer(arguments.length);
+		try {
+			for (int i = 0; i < arguments.length; i++) {
+				try {
+					values[i] = argument(arguments[i], event, digestTarget);
+				} catch (NumberFormatException e) {
+					throw new XMLStreamException("Bad value of parameter " + i + " of " + binding.method + ": " + e.getMessage(), event.getLocation(), e);
+				}
+			}
+			return (HandlerResponse) (Object) binding.handle.invokeExact((Object) this, values);
+		} catch (XMLStreamException e) {
+			throw e;
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new XMLStreamException(t);
+		} finally {
+			for (int i = 0; i < values.length; i++) {
+				values[i] = null;
+			}
+		}
+	}
+	
+	private Object argument(Argument argument, XMLEvent event, Object digestTarget) {
+		switch (argument) {
+		case EVENT: return event;
+		case ATTRIBUTES: return getAttributes();
+		case TEXT: return getCharacterBuffer();
+		case BOOLEAN: return Boolean.parseBoolean(getCharacterBuffer().trim());
+		case BYTE: return Byte.parseByte(getCharacterBuffer().trim());
+		case CHAR:
+			String text = getCharacterBuffer();
+			return text.isEmpty() ? '\0' : text.charAt(0);
+		case SHORT: return Short.parseShort(getCharacterBuffer().trim());
+		case INT: return Integer.parseInt(getCharacterBuffer().trim());
+		case LONG: return Long.parseLong(getCharacterBuffer().trim());
+		case FLOAT: return Float.parseFloat(getCharacterBuffer().trim());
+		case DOUBLE: return Double.parseDouble(getCharacterBuffer().trim());
+		default: return digestTarget;
+		}
+	}
+	
+	private Object[] argumentBuffer(int length) {
+		if (length >= argumentBuffers.length) {
+			return new Object[length];
+		}
+		Object[] buffer = argumentBuffers[length];
+		if (buffer == null) {
+			buffer = new Object[length];
+			argumentBuffers[length] = buffer;
+		}
+		return buffer;
+	}
+	
+	private static Map<QName, Dispatch> getDispatchTable(Class<?> handlerClass) {
+		Map<QName, Dispatch> table = dispatchTables.get(handlerClass);
+		if (table == null) {
+			table = compile(handlerClass);
+			Map<QName, Dispatch> existing = dispatchTables.putIfAbsent(handlerClass, table);
+			if (existing != null) {
+				table = existing;
+			}
+		}
+		return table;
+	}
+	
+	private static Map<QName, Dispatch> compile(Class<?> handlerClass) {
+		Map<QName, Dispatch> table = new HashMap<QName, Dispatch>();
+		MethodHandles.Lookup lookup = MethodHandles.lookup();
+		for (Class<?> type = handlerClass; !AnnotatedMethodHandler.class.equals(type); type = type.getSuperclass()) {
+			for (Method method : type.getDeclaredMethods()) {
+				OnStart onStart = method.getAnnotation(OnStart.class);
+				if (onStart != null) {
+					Dispatch dispatch = dispatch(table, new QName(onStart.namespace(), onStart.value()));
+					if (dispatch.start == null) {
+						dispatch.start = bind(lookup, method, true);
+					}
+				}
+				OnEnd onEnd = method.getAnnotation(OnEnd.class);
+				if (onEnd != null) {
+					Dispatch dispatch = dispatch(table, new QName(onEnd.namespace(), onEnd.value()));
+					if (dispatch.end == null) {
+						dispatch.end = bind(lookup, method, false);
+						for (Argument argument : dispatch.end.arguments) {
+							dispatch.capturesText |= argument != Argument.EVENT && argument != Argument.ATTRIBUTES && argument != Argument.TARGET;
+						}
+					}
+				}
+			}
+		}
+		return table;
+	}
+	
+	private static Dispatch dispatch(Map<QName, Dispatch> table, QName name) {
+		Dispatch dispatch = table.get(name);
+		if (dispatch == null) {
+			dispatch = new Dispatch();
+			table.put(name, dispatch);
+		}
+		return dispatch;
+	}
+	
+	private static Binding bind(MethodHandles.Lookup lookup, Method method, boolean start) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		Argument[] arguments = new Argument[parameterTypes.length];
+		for (int i = 0; i < parameterTypes.length; i++) {
+			arguments[i] = argument(method, parameterTypes[i], start);
+		}
+		if (!void.class.equals(method.getReturnType()) && !HandlerResponse.class.isAssignableFrom(method.getReturnType())) {
+			throw new IllegalArgumentException("Handler method " + method + " must return void or a " + HandlerResponse.class.getSimpleName());
+		}
+		try {
+			method.setAccessible(true);
+			MethodHandle handle = lookup.unreflect(method)
+					.asType(MethodType.genericMethodType(parameterTypes.length + 1))
+					.asSpreader(Object[].class, parameterTypes.length);
+			return new Binding(method, handle, arguments);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Handler method " + method + " is not accessible", e);
+		}
+	}
+	
+	private static Argument argument(Method method, Class<?> type, boolean start) {
+		if (XMLEvent.class.isAssignableFrom(type)) {
+			return Argument.EVENT;
+		} else if (Map.class.equals(type)) {
+			if (!start) {
+				throw new IllegalArgumentException("Attributes are only available to start element methods: " + method);
+			}
+			return Argument.ATTRIBUTES;
+		}
+		Argument argument;
+		if (String.class.equals(type)) {
+			argument = Argument.TEXT;
+		} else if (boolean.class.equals(type) || Boolean.class.equals(type)) {
+			argument = Argument.BOOLEAN;
+		} else if (byte.class.equals(type) || Byte.class.equals(type)) {
+			argument = Argument.BYTE;
+		} else if (char.class.equals(type) || Character.class.equals(type)) {
+			argument = Argument.CHAR;
+		} else if (short.class.equals(type) || Short.class.equals(type)) {
+			argument = Argument.SHORT;
+		} else if (int.class.equals(type) || Integer.class.equals(type)) {
+			argument = Argument.INT;
+		} else if (long.class.equals(type) || Long.class.equals(type)) {
+			argument = Argument.LONG;
+		} else if (float.class.equals(type) || Float.class.equals(type)) {
+			argument = Argument.FLOAT;
+		} else if (double.class.equals(type) || Double.class.equals(type)) {
+			argument = Argument.DOUBLE;
+		} else {
+			return Argument.TARGET;
+		}
+		if (start) {
+			throw new IllegalArgumentException("Element text is only available to end element methods: " + method);
+		}
+		return argument;
+	}
+}
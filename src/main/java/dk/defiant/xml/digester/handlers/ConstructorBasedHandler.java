@@ -0,0 +1,429 @@
+package dk.defiant.xml.digester.handlers;
+
+import java.lang.annotation.Annotation;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.Immutable;
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.defiant.xml.digester.DigesterEventHandler;
+import dk.defiant.xml.digester.HandlerResponse;
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.annotations.DigestConstructor;
+import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+
+/**
+ * Extension of {@link DigesterEventHandler} that digests simple XML into immutable objects
+ * created through a constructor.
+ * <p>
+ * The values of the root element are collected in an argument buffer with a slot per 
+ * constructor parameter, and the object is created in one go at the end of the root element.
+ * The handler then finishes with the object as its result, so a delegating handler gets the
+ * object as the digest target of the end element, and a {@link dk.defiant.xml.digester.RecordReader}
+ * returns it as the record.
+ * </p>
+ * <pre>
+ *     class Person {
+ *         private final long id;
+ *         private final String name;
+ *         private final List&lt;String&gt; emails;
+ *         
+ *         {@literal @DigestConstructor}
+ *         Person({@literal @Digest("@id")} long id, {@literal @Digest("name")} String name, {@literal @Digest("email")} List&lt;String&gt; emails) {
+ *             ...
+ *         }
+ *     }
+ * </pre>
+ * <p>
+ * The constructor is the one annotated with {@link DigestConstructor}, whose parameters must all be
+ * annotated with {@link Digest} naming an attribute of the root element ({@code @name}) or a child element.
+ * On Java 16 and later the canonical constructor of a record is used if no constructor is annotated, 
+ * binding the components by name unless they are annotated.
+ * </p>
+ * <p>
+ * Parameters of type String, Locale, primitives and their wrappers take the text of the element.
+ * Parameters of type List, Collection or Set take the values of every element with the name, as
+ * an unmodifiable collection. Missing values are null, zero, false or an empty collection, as is
+ * the char of an empty element. Only children of the root element are bound, so descendants can
+ * share the names of parameters or of the root element itself. Text that is not a number of 
+ * a numeric parameter ends the digest with an {@link XMLStreamException}.
+ * The constructor is looked up and compiled to a {@link MethodHandle} once per type.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class ConstructorBasedHandler<T> extends DigesterEventHandler {
+
+	private enum Kind {
+		STRING,
+		BOOLEAN,
+		BYTE,
+		CHAR,
+		SHORT,
+		INT,
+		LONG,
+		FLOAT,
+		DOUBLE,
+		LOCALE,
+	}
+	
+	/**
+	 * The compiled constructor of a type and the slots of its parameters
+	 */
+	@Immutable
+	private static final class Instantiator {
+		final MethodHandle constructor;
+		final Map<String, Integer> slots;
+		final Kind[] kinds;
+		final Class<?>[] collectionTypes;
+		final Object[] defaults;
+		
+		Instantiator(MethodHandle constructor, Map<String, Integer> slots, Kind[] kinds, Class<?>[] collectionTypes, Object[] defaults) {
+			this.constructor = constructor;
+			this.slots = slots;
+			this.kinds = kinds;
+			this.collectionTypes = collectionTypes;
+			this.defaults = defaults;
+		}
+	}
+	
+	private static final ConcurrentMap<Class<?>, Instantiator> instantiators = new ConcurrentHashMap<Class<?>, Instantiator>();
+	
+	private final QName rootName;
+	private final Class<T> type;
+	private final Instantiator instantiator;
+	private final Object[] arguments;
+	
+	// Depth within the root element, 0 outside it
+	private int depth = 0;
+	private int slot = -1;
+	private T result;
+	
+	public ConstructorBasedHandler(QName rootName, Class<T> type) {
+		this.rootName = rootName;
+		this.type = type;
+		this.instantiator = getInstantiator(type);
+		this.arguments = new Object[instantiator.kinds.length];
+		setArmedCapture(true);
+	}
+	
+	public Class<T> getType() {
+		return type;
+	}
+	
+	/**
+	 * @return The object created at the end of the last root element or null
+	 */
+	public T getResult() {
+		return result;
+	}
+	
+	@Override
+	public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+		if (event.isStartElement()) {
+			StartElement element = event.asStartElement();
+			QName name = element.getName();
+			if (depth == 0) {
+				if (rootName.equals(name)) {
+					depth = 1;
+					startRoot(element);
+				}
+			} else if (++depth == 2 && rootName.getNamespaceURI().equals(name.getNamespaceURI())) {
+				Integer elementSlot = instantiator.slots.get(name.getLocalPart());
+				if (elementSlot != null) {
+					slot = elementSlot;
+					armCharacterBuffer();
+				}
+			}
+		} else if (event.isEndElement() && depth > 0) {
+			// The root element ends by depth, as descendants may share its name
+			if (--depth == 0) {
+				result = newInstance();
+				return new FinishedParsingResponse(result);
+			} else if (depth == 1 && slot >= 0) {
+				setArgument(slot, getCharacterBuffer(), event);
+				slot = -1;
+			}
+		}
+		return super.handle(event, digestTarget);
+	}
+	
+	private void startRoot(StartElement element) throws XMLStreamException {
+		Object[] defaults = instantiator.defaults;
+		for (int i = 0; i < arguments.length; i++) {
+			Class<?> collectionType = instantiator.collectionTypes[i];
+			arguments[i] = collectionType == null ? defaults[i] 
+					: Set.class.equals(collectionType) ? new LinkedHashSet<Object>() : new ArrayList<Object>();
+		}
+		@SuppressWarnings("unchecked")
+		Iterator<Attribute> attributes = element.getAttributes();
+		while (attributes.hasNext()) {
+			Attribute attribute = attributes.next();
+			Integer attributeSlot = instantiator.slots.get("@" + attribute.getName().getLocalPart());
+			if (attributeSlot != null) {
+				setArgument(attributeSlot, attribute.getValue(), element);
+			}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private void setArgument(int slot, String text, XMLEvent event) throws XMLStreamException {
+		Object value;
+		try {
+			value = parse(instantiator.kinds[slot], text);
+		} catch (NumberFormatException e) {
+			throw new XMLStreamException("Bad value of parameter " + slot + " of " + type.getName() + ": " + e.getMessage(), event.getLocation(), e);
+		}
+		if (instantiator.collectionTypes[slot] != null) {
+			((Collection<Object>) arguments[slot]).add(value);
+		} else {
+			arguments[slot] = value;
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	private T newInstance() throws XMLStreamException {
+		for (int i = 0; i < arguments.length; i++) {
+			Class<?> collectionType = instantiator.collectionTypes[i];
+			if (Set.class.equals(collectionType)) {
+				arguments[i] = Collections.unmodifiableSet((Set<Object>) arguments[i]);
+			} else if (collectionType != null) {
+				arguments[i] = Collections.unmodifiableList((List<Object>) arguments[i]);
+			}
+		}
+		try {
+			return (T) instantiator.constructor.invokeExact(arguments);
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Error e) {
+			throw e;
+		} catch (Throwable t) {
+			throw new XMLStreamException("Error creating " + type.getName(), t);
+		} finally {
+			for (int i = 0; i < arguments.length; i++) {
+				arguments[i] = null;
+			}
+		}
+	}
+	
+	private static Object parse(Kind kind, String text) {
+		switch (kind) {
+		case BOOLEAN: return Boolean.parseBoolean(text.trim());
+		case BYTE: return Byte.parseByte(text.trim());
+		case CHAR: return text.isEmpty() ? '\0' : text.charAt(0);
+		case SHORT: return Short.parseShort(text.trim());
+		case INT: return Integer.parseInt(text.trim());
+		case LONG: return Long.parseLong(text.trim());
+		case FLOAT: return Float.parseFloat(text.trim());
+		case DOUBLE: return Double.parseDouble(text.trim());
+		case LOCALE: return new Locale(text.trim());
+		default: return text;
+		}
+	}
+	
+	private static Instantiator getInstantiator(Class<?> type) {
+		Instantiator instantiator = instantiators.get(type);
+		if (instantiator == null) {
+			instantiator = newInstantiator(type);
+			Instantiator existing = instantiators.putIfAbsent(type, instantiator);
+			if (existing != null) {
+				instantiator = existing;
+			}
+		}
+		return instantiator;
+	}
+	
+	private static Instantiator newInstantiator(Class<?> type) {
+		Constructor<?> constructor = null;
+		for (Constructor<?> candidate : type.getDeclaredConstructors()) {
+			if (candidate.isAnnotationPresent(DigestConstructor.class)) {
+				if (constructor != null) {
+					throw new IllegalArgumentException("More than one constructor of " + type.getName() + " is annotated with @" + DigestConstructor.class.getSimpleName());
+				}
+				constructor = candidate;
+			}
+		}
+		String[] names;
+		if (constructor != null) {
+			names = new String[constructor.getParameterTypes().length];
+		} else {
+			names = recordComponentNames(type);
+			if (names == null) {
+				throw new IllegalArgumentException(type.getName() + " has no constructor annotated with @" + DigestConstructor.class.getSimpleName() + " and is not a record");
+			}
+			constructor = canonicalConstructor(type);
+		}
+		Class<?>[] parameterTypes = constructor.getParameterTypes();
+		Type[] genericTypes = constructor.getGenericParameterTypes();
+		Annotation[][] annotations = constructor.getParameterAnnotations();
+		Map<String, Integer> slots = new HashMap<String, Integer>();
+		Kind[] kinds = new Kind[parameterTypes.length];
+		Class<?>[] collectionTypes = new Class<?>[parameterTypes.length];
+		Object[] defaults = new Object[parameterTypes.length];
+		Set<String> seen = new HashSet<String>();
+		for (int i = 0; i < parameterTypes.length; i++) {
+			String name = digestName(annotations[i]);
+			if (name == null) {
+				name = names[i];
+			}
+			if (name == null) {
+				throw new IllegalArgumentException("Parameter " + i + " of " + constructor + " must be annotated with @Digest(\"name\")");
+			}
+			if (!seen.add(name)) {
+				throw new IllegalArgumentException("More than one parameter of " + constructor + " is bound to " + name);
+			}
+			slots.put(name, i);
+			Class<?> valueType = parameterTypes[i];
+			if (Collection.class.isAssignableFrom(valueType)) {
+				if (!List.class.equals(valueType) && !Collection.class.equals(valueType) && !Set.class.equals(valueType)) {
+					throw new IllegalArgumentException("Parameter " + i + " of " + constructor + " must be a List, Set or Collection");
+				}
+				collectionTypes[i] = valueType;
+				valueType = elementType(genericTypes.length == parameterTypes.length ? genericTypes[i] : valueType);
+			}
+			kinds[i] = kind(valueType, constructor);
+			defaults[i] = defaultValue(valueType);
+		}
+		try {
+			constructor.setAccessible(true);
+			MethodHandle handle = MethodHandles.lookup().unreflectConstructor(constructor)
+					.asType(MethodType.genericMethodType(parameterTypes.length))
+					.asSpreader(Object[].class, parameterTypes.length)
+					.asType(MethodType.methodType(Object.class, Object[].class));
+			return new Instantiator(handle, slots, kinds, collectionTypes, defaults);
+		} catch (IllegalAccessException e) {
+			throw new IllegalArgumentException("Constructor " + constructor + " is not accessible", e);
+		}
+	}
+	
+	private static String digestName(Annotation[] annotations) {
+		for (Annotation annotation : annotations) {
+			if (annotation instanceof Digest && !"".equals(((Digest) annotation).value())) {
+				return ((Digest) annotation).value();
+			}
+		}
+		return null;
+	}
+	
+	/**
+	 * Get the component names of a record through reflection, as records are newer than the 
+	 * Java version this is compiled for.
+	 * 
+	 * @return The names or null if the type is not a record
+	 */
+	private static String[] recordComponentNames(Class<?> type) {
+		try {
+			if (!(Boolean) Class.class.getMethod("isRecord").invoke(type)) {
+				return null;
+			}
+			Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+			String[] names = new String[components.length];
+			for (int i = 0; i < components.length; i++) {
+				names[i] = (String) components[i].getClass().getMethod("getName").invoke(components[i]);
+			}
+			return names;
+		} catch (NoSuchMethodException e) {
+			// Before Java 16
+			return null;
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Error reading the record components of " + type.getName(), e);
+		}
+	}
+	
+	private static Constructor<?> canonicalConstructor(Class<?> type) {
+		try {
+			Object[] components = (Object[]) Class.class.getMethod("getRecordComponents").invoke(type);
+			Class<?>[] componentTypes = new Class<?>[components.length];
+			for (int i = 0; i < components.length; i++) {
+				Method getType = components[i].getClass().getMethod("getType");
+				componentTypes[i] = (Class<?>) getType.invoke(components[i]);
+			}
+			return type.getDeclaredConstructor(componentTypes);
+		} catch (Exception e) {
+			throw new IllegalArgumentException("Error finding the canonical constructor of " + type.getName(), e);
+		}
+	}
+	
+	private static Class<?> elementType(Type type) {
+		if (type instanceof ParameterizedType) {
+			Type argument = ((ParameterizedType) type).getActualTypeArguments()[0];
+			if (argument instanceof Class) {
+				return (Class<?>) argument;
+			}
+		}
+		return String.class;
+	}
+	
+	private static Kind kind(Class<?> type, Constructor<?> constructor) {
+		if (String.class.equals(type) || Object.class.equals(type) || CharSequence.class.equals(type)) {
+			return Kind.STRING;
+		} else if (boolean.class.equals(type) || Boolean.class.equals(type)) {
+			return Kind.BOOLEAN;
+		} else if (byte.class.equals(type) || Byte.class.equals(type)) {
+			return Kind.BYTE;
+		} else if (char.class.equals(type) || Character.class.equals(type)) {
+			return Kind.CHAR;
+		} else if (short.class.equals(type) || Short.class.equals(type)) {
+			return Kind.SHORT;
+		} else if (int.class.equals(type) || Integer.class.equals(type)) {
+			return Kind.INT;
+		} else if (long.class.equals(type) || Long.class.equals(type)) {
+			return Kind.LONG;
+		} else if (float.class.equals(type) || Float.class.equals(type)) {
+			return Kind.FLOAT;
+		} else if (double.class.equals(type) || Double.class.equals(type)) {
+			return Kind.DOUBLE;
+		} else if (Locale.class.equals(type)) {
+			return Kind.LOCALE;
+		}
+		throw new IllegalArgumentException("Unsupported parameter type " + type.getName() + " of " + constructor);
+	}
+	
+	private static Object defaultValue(Class<?> type) {
+		if (!type.isPrimitive()) {
+			return null;
+		} else if (boolean.class.equals(type)) {
+			return Boolean.FALSE;
+		} else if (char.class.equals(type)) {
+			return '\0';
+		} else if (byte.class.equals(type)) {
+			return (byte) 0;
+		} else if (short.class.equals(type)) {
+			return (short) 0;
+		} else if (int.class.equals(type)) {
+			return 0;
+		} else if (long.class.equals(type)) {
+			return 0L;
+		} else if (float.class.equals(type)) {
+			return 0f;
+		}
+		return 0d;
+	}
+}
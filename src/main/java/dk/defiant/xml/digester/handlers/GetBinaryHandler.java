@@ -0,0 +1,101 @@
+package dk.defiant.xml.digester.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+import dk.defiant.xml.digester.BinaryHandler;
+import dk.defiant.xml.digester.DigesterEventHandler;
+import dk.defiant.xml.digester.HandlerResponse;
+import dk.defiant.xml.digester.io.BinaryDecoder;
+import dk.defiant.xml.digester.responses.ContinueParsingResponse;
+import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+
+/**
+ * Decode base64 or hex encoded element content to an {@link OutputStream} or a 
+ * {@link WritableByteChannel}.
+ * <p>
+ * The content is decoded as the parser reports it, so large attachments are never held in 
+ * memory as text. This relies on the parser reporting long text in chunks, so the digester
+ * should not be set to coalesce text. The destination is flushed but not closed when the
+ * element ends.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class GetBinaryHandler<T> extends DigesterEventHandler {
+
+	public enum Encoding {
+		BASE64,
+		HEX,
+	}
+	
+	private final BinaryDecoder decoder;
+	private final BinaryHandler<T> binaryHandler;
+	private int depth = 0;
+	
+	public GetBinaryHandler(OutputStream output, Encoding encoding) {
+		this(output, encoding, null);
+	}
+	
+	/**
+	 * @param output The stream to write the decoded content to
+	 * @param encoding The encoding of the content
+	 * @param binaryHandler Handler called when the content has been decoded or null
+	 */
+	public GetBinaryHandler(OutputStream output, Encoding encoding, BinaryHandler<T> binaryHandler) {
+		this.decoder = Encoding.HEX.equals(encoding) ? BinaryDecoder.hex(output) : BinaryDecoder.base64(output);
+		this.binaryHandler = binaryHandler;
+	}
+	
+	public GetBinaryHandler(WritableByteChannel channel, Encoding encoding) {
+		this(Channels.newOutputStream(channel), encoding, null);
+	}
+	
+	/**
+	 * @param channel The channel to write the decoded content to
+	 * @param encoding The encoding of the content
+	 * @param binaryHandler Handler called when the content has been decoded or null
+	 */
+	public GetBinaryHandler(WritableByteChannel channel, Encoding encoding, BinaryHandler<T> binaryHandler) {
+		this(Channels.newOutputStream(channel), encoding, binaryHandler);
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+		try {
+			if (event.isStartElement()) {
+				depth++;
+			} else if (event.isCharacters()) {
+				decoder.decode(event.asCharacters().getData());
+			} else if (event.isEndElement()) {
+				depth--;
+				if (depth == 0) {
+					decoder.finish();
+					if (binaryHandler != null) {
+						binaryHandler.handle((T) digestTarget, decoder.getByteCount());
+					}
+					return new FinishedParsingResponse();
+				}
+			}
+		} catch (IOException e) {
+			throw new XMLStreamException("Error decoding binary content", event.getLocation(), e);
+		}
+		return new ContinueParsingResponse();
+	}
+	
+	/**
+	 * @return The number of bytes decoded so far
+	 */
+	public long getByteCount() {
+		return decoder.getByteCount();
+	}
+}
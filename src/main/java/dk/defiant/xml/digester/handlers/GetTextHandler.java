@@ -14,13 +14,14 @@ public class GetTextHandler<T> extends DigesterEventHandler {
 	
 	public GetTextHandler(TextHandler<T> textHandler) {
 		this.textHandler = textHandler;
+		setArmedCapture(true);
 	}
 	
 	@SuppressWarnings("unchecked")
 	@Override
 	public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
 		if (XMLEvent.START_ELEMENT == event.getEventType()) {
-			resetCharacterBuffer();
+			armCharacterBuffer();
 		} else if (XMLEvent.END_ELEMENT == event.getEventType()) {
 			textHandler.handle((T) digestTarget, getCharacterBuffer());
 			return new FinishedParsingResponse();
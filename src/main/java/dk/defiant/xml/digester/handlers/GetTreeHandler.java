@@ -0,0 +1,43 @@
+package dk.defiant.xml.digester.handlers;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+import dk.defiant.xml.digester.DigesterEventHandler;
+import dk.defiant.xml.digester.HandlerResponse;
+import dk.defiant.xml.digester.TreeHandler;
+import dk.defiant.xml.digester.responses.ContinueParsingResponse;
+import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+import dk.defiant.xml.digester.tree.CompactTree;
+import dk.defiant.xml.digester.tree.CompactTreeBuilder;
+
+/**
+ * Capture an element in a {@link CompactTree}, an alternative to capturing it as a string 
+ * with {@link GetXmlHandler} which has to be parsed again to be navigated.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class GetTreeHandler<T> extends DigesterEventHandler {
+
+	private final TreeHandler<T> treeHandler;
+	private final CompactTreeBuilder builder = new CompactTreeBuilder();
+	
+	public GetTreeHandler(TreeHandler<T> treeHandler) {
+		this.treeHandler = treeHandler;
+	}
+	
+	@SuppressWarnings("unchecked")
+	@Override
+	public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+		if (builder.add(event)) {
+			// Should be OK to cast since user explicitly requested a GetTreeHandler for type T
+			treeHandler.handle((T) digestTarget, builder.build());
+			builder.reset();
+			return new FinishedParsingResponse();
+		}
+		return new ContinueParsingResponse();
+	}
+}
@@ -1,12 +1,23 @@
 package dk.defiant.xml.digester.handlers;
 
+import java.lang.reflect.Constructor;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -17,15 +28,18 @@ import javax.xml.stream.events.EndElement;
 import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
-import net.jcip.annotations.ThreadSafe;
+import net.jcip.annotations.NotThreadSafe;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import dk.defiant.xml.digester.DigestStatistics;
 import dk.defiant.xml.digester.DigesterEventHandler;
 import dk.defiant.xml.digester.HandlerResponse;
+import dk.defiant.xml.digester.Resettable;
 import dk.defiant.xml.digester.annotations.Digest;
 import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+import dk.defiant.xml.digester.responses.IgnoreElementResponse;
 
 /**
  * Extension of {@link DigesterEventHandler} that can digest simple XML (with certain restrictions on the XML)
@@ -64,17 +78,41 @@ import dk.defiant.xml.digester.responses.FinishedParsingResponse;
  *         }
  *     }
  * </pre>
+ * <b>Nested types:</b>
+ * <p>
+ * A field whose type has {@literal @Digest} members of its own, or which is a collection of such a type,
+ * is digested from the child element with its name into a new instance of the type, made with its no 
+ * argument constructor. The child element is digested by the binding plan of the nested type within
+ * the same handler, so deep object graphs need neither hand written handlers nor delegation.
+ * </p>
+ * <pre>
+ *     class Order {
+ *         {@literal @Digest}
+ *         private Address address;
+ *         
+ *         {@literal @Digest("line")}
+ *         private List&lt;OrderLine&gt; lines = new ArrayList&lt;OrderLine&gt;();
+ *     }
+ * </pre>
+ * <b>Projection:</b>
+ * <p>
+ * Members annotated with {@literal @Digest(required = true)} put the handler in projection mode.
+ * As soon as every required member has been digested (for collections: received its first value)
+ * the rest of the root element is skipped. Only members of the root type are required, a nested
+ * member counts as digested when its element ends. If the handler is the outermost handler of the digest
+ * it finishes right away, so the digester stops reading the input.
+ * </p>
  * <b>Limitations:</b>
  * <ul>
  *   <li>Fields implementing Collection must be initialised prior to digesting.</li>
  *   <li>when using {@literal @Digest} annotations on setters, the setter must only take one single String argument.</li>
- *   <li>Input XML must not contain child nodes with the same qname as the root name specified when calling the constructor.</li>
+ *   <li>Nested types must have a no argument constructor.</li>
  * </ul>
  * 
  * @author jip
  *
  */
-@ThreadSafe
+@NotThreadSafe
 public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 
 	private static final Logger log = LoggerFactory.getLogger(SimpleAnnotationBasedHandler.class);
@@ -114,8 +152,79 @@ public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 		}
 	}
 	
-	private final Map<String, Field> digestedFields = new HashMap<String, Field>();
-	private final Map<String, Method> digestedMethods = new HashMap<String, Method>();
+	// Binding plans of the digest types, made once per type as looking up annotations is expensive.
+	// They are shared with the SimpleAnnotationBasedWriter
+	private static final ConcurrentMap<Class<?>, BindingPlan> bindingPlans = new ConcurrentHashMap<Class<?>, BindingPlan>();
+	
+	// Plan of nested elements that could not be digested
+	private static final BindingPlan EMPTY_PLAN = new BindingPlan();
+	
+	/**
+	 * The annotated members of a digest type
+	 */
+	static final class BindingPlan {
+		final Map<String, Field> fields = new HashMap<String, Field>();
+		final Map<String, Method> methods = new HashMap<String, Method>();
+		final Set<String> requiredNames = new HashSet<String>();
+		// Element type names of collection fields
+		final Map<Field, String> elementTypeNames = new HashMap<Field, String>();
+		// Fields of nested digest types
+		final Map<String, NestedBinding> nestedFields = new HashMap<String, NestedBinding>();
+		// Constructor of instances of the type when it is nested
+		Constructor<?> constructor;
+		// The type and its collection fields, whose sizes are recorded in the digest statistics
+		Class<?> type;
+		final List<Field> collectionFields = new ArrayList<Field>();
+	}
+	
+	/**
+	 * A field of a nested digest type, or a collection of one
+	 */
+	static final class NestedBinding {
+		final Field field;
+		final Class<?> type;
+		final boolean collection;
+		// Resolved on first use, as types can nest themselves
+		private volatile BindingPlan plan;
+		
+		NestedBinding(Field field, Class<?> type) {
+			this.field = field;
+			this.type = type;
+			this.collection = Collection.class.isAssignableFrom(field.getType());
+		}
+		
+		BindingPlan getPlan() {
+			BindingPlan resolved = plan;
+			if (resolved == null) {
+				resolved = getBindingPlan(type);
+				plan = resolved;
+			}
+			return resolved;
+		}
+	}
+	
+	/**
+	 * An element being digested into a target: the root element or an element of a nested type
+	 */
+	private static final class Frame {
+		final BindingPlan plan;
+		final Object target;
+		final String name;
+		final int depth;
+		
+		Frame(BindingPlan plan, Object target, String name, int depth) {
+			this.plan = plan;
+			this.target = target;
+			this.name = name;
+			this.depth = depth;
+		}
+	}
+	
+	private final BindingPlan bindingPlan;
+	
+	// Names of the members that must be digested before projection can skip the rest of the root element
+	private final Set<String> requiredNames;
+	private final Set<String> pendingNames = new HashSet<String>();
 	
 	// The QName that the bean handler will consider start and end point for the parsing
 	private final QName rootName;
@@ -123,9 +232,65 @@ public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 	// The type of the object that is to be digested to
 	private final Class<?> digestType;
 	
+	private boolean reuseMode = false;
+	
+	// The elements being digested, the root element at the bottom
+	private final Deque<Frame> frames = new ArrayDeque<Frame>();
+	private int depth = 0;
+	
 	public SimpleAnnotationBasedHandler(QName rootName, Class<?> digestType) {
 		this.rootName = rootName;
 		this.digestType = digestType;
+		setArmedCapture(true);
+		bindingPlan = getBindingPlan(digestType);
+		requiredNames = bindingPlan.requiredNames;
+	}
+	
+	/**
+	 * Reset the digested members of the digest target at the start of the root element.
+	 * <p>
+	 * This allows digesting record after record into the same target, e.g. one supplied by a 
+	 * {@link dk.defiant.xml.digester.ReusingDigestFactory}, without allocating a target per record.
+	 * Annotated collection fields are cleared, other annotated fields are set to null, zero or false,
+	 * including nested digest types, which are made anew for each record.
+	 * </p>
+	 * <p>
+	 * Members digested through setters are not reset, as there is nothing to read their state through. 
+	 * Targets with such members can implement {@link dk.defiant.xml.digester.Resettable} to reset them.
+	 * Only this handler resets, so handlers delegated to by a custom handler keep allocating
+	 * their own targets unless they reset them themselves.
+	 * </p>
+	 * 
+	 * @param reuseMode True to reset the target before digesting into it
+	 */
+	public void setReuseMode(boolean reuseMode) {
+		this.reuseMode = reuseMode;
+		if (reuseMode && !bindingPlan.methods.isEmpty() && !Resettable.class.isAssignableFrom(digestType)) {
+			log.warn("Members of {} digested through setters {} are not reset in reuse mode", digestType.getName(), bindingPlan.methods.keySet());
+		}
+	}
+	
+	static BindingPlan getBindingPlan(Class<?> digestType) {
+		BindingPlan plan = bindingPlans.get(digestType);
+		if (plan == null) {
+			plan = newBindingPlan(digestType);
+			BindingPlan existing = bindingPlans.putIfAbsent(digestType, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+	
+	private static BindingPlan newBindingPlan(Class<?> digestType) {
+		BindingPlan plan = new BindingPlan();
+		plan.type = digestType;
+		try {
+			plan.constructor = digestType.getDeclaredConstructor();
+			plan.constructor.setAccessible(true);
+		} catch (NoSuchMethodException e) {
+			// Only needed if the type is nested
+		}
 		while (!Object.class.equals(digestType)) {
 			for (Method method : digestType.getDeclaredMethods()) {
 				if (method.isAnnotationPresent(Digest.class)) {
@@ -140,8 +305,11 @@ public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 								value = value.substring(0, 1).toLowerCase() + value.substring(1);
 							}
 						}
-						if (!digestedMethods.containsKey(value)) {
-							digestedMethods.put(value, method);
+						if (!plan.methods.containsKey(value)) {
+							plan.methods.put(value, method);
+							if (digestAnnotation.required()) {
+								plan.requiredNames.add(value);
+							}
 						}
 					} else {
 						log.warn("Annotated method {} must take a single String argument to be used for digesting", method.getName());
@@ -156,56 +324,296 @@ public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 						// Use field name as value
 						value = field.getName();
 					}
-					digestedFields.put(value, field);
+					field.setAccessible(true);
+					Class<?> nestedType = nestedType(field);
+					if (nestedType == null) {
+						plan.fields.put(value, field);
+					} else if (hasNoArgumentConstructor(nestedType)) {
+						plan.nestedFields.put(value, new NestedBinding(field, nestedType));
+					} else {
+						log.warn("Nested type {} of field {} must have a no argument constructor to be used for digesting", nestedType.getName(), field.getName());
+						continue;
+					}
+					if (digestAnnotation.required()) {
+						plan.requiredNames.add(value);
+					}
 				}
 			}
 			digestType = digestType.getSuperclass();
 		}
+		for (NestedBinding nested : plan.nestedFields.values()) {
+			if (nested.collection) {
+				plan.collectionFields.add(nested.field);
+			}
+		}
+		for (Field field : plan.fields.values()) {
+			if (Collection.class.isAssignableFrom(field.getType())) {
+				plan.collectionFields.add(field);
+				Matcher m = genericTypePattern.matcher(field.toGenericString());
+				if (m.find()) {
+					plan.elementTypeNames.put(field, m.group(1));
+				}
+			}
+		}
+		return plan;
+	}
+	
+	/**
+	 * Get the digest type of a field of a nested type or a collection of one.
+	 * 
+	 * @return The nested type or null if the field holds values
+	 */
+	private static Class<?> nestedType(Field field) {
+		Class<?> type = field.getType();
+		if (Collection.class.isAssignableFrom(type)) {
+			Type genericType = field.getGenericType();
+			if (!(genericType instanceof ParameterizedType)) {
+				return null;
+			}
+			Type elementType = ((ParameterizedType) genericType).getActualTypeArguments()[0];
+			if (!(elementType instanceof Class)) {
+				return null;
+			}
+			type = (Class<?>) elementType;
+		}
+		return isDigestType(type) ? type : null;
+	}
+	
+	private static boolean isDigestType(Class<?> type) {
+		if (type.isPrimitive() || type.isArray() || String.class.equals(type) || valueParsers.containsKey(type.getCanonicalName())) {
+			return false;
+		}
+		for (; type != null && !Object.class.equals(type); type = type.getSuperclass()) {
+			for (Field field : type.getDeclaredFields()) {
+				if (field.isAnnotationPresent(Digest.class)) {
+					return true;
+				}
+			}
+			for (Method method : type.getDeclaredMethods()) {
+				if (method.isAnnotationPresent(Digest.class)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+	
+	private static boolean hasNoArgumentConstructor(Class<?> type) {
+		try {
+			type.getDeclaredConstructor();
+			return true;
+		} catch (NoSuchMethodException e) {
+			return false;
+		}
+	}
+	
+	private void resetTarget(Object digestTarget) {
+		for (NestedBinding nested : bindingPlan.nestedFields.values()) {
+			try {
+				if (nested.collection) {
+					Collection<?> collection = (Collection<?>) nested.field.get(digestTarget);
+					if (collection != null) {
+						collection.clear();
+					}
+				} else {
+					nested.field.set(digestTarget, null);
+				}
+			} catch (Exception e) {
+				log.error("Error resetting field value", e);
+			}
+		}
+		for (Field field : bindingPlan.fields.values()) {
+			Class<?> type = field.getType();
+			try {
+				if (Collection.class.isAssignableFrom(type)) {
+					Collection<?> collection = (Collection<?>) field.get(digestTarget);
+					if (collection != null) {
+						collection.clear();
+					}
+				} else if (!type.isPrimitive()) {
+					field.set(digestTarget, null);
+				} else if (boolean.class.equals(type)) {
+					field.setBoolean(digestTarget, false);
+				} else if (char.class.equals(type)) {
+					field.setChar(digestTarget, '\0');
+				} else {
+					// Widening conversion to the numeric type of the field
+					field.setByte(digestTarget, (byte) 0);
+				}
+			} catch (Exception e) {
+				log.error("Error resetting field value", e);
+			}
+		}
 	}
 	
 	@Override
 	public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
 		if (event.isStartElement()) {
 			StartElement element = event.asStartElement();
-			String uri = element.getName().getNamespaceURI();
-			if (rootName.getNamespaceURI().equals(uri)) {
-				String localName = element.getName().getLocalPart();
-				if (rootName.getLocalPart().equals(localName)) {
+			if (frames.isEmpty()) {
+				if (rootName.equals(element.getName())) {
+					if (reuseMode) {
+						resetTarget(digestTarget);
+					}
+					pendingNames.clear();
+					pendingNames.addAll(requiredNames);
+					depth = 1;
+					presizeCollections(bindingPlan, digestTarget);
+					Frame root = new Frame(bindingPlan, digestTarget, rootName.getLocalPart(), depth);
+					frames.push(root);
 					// Check for attributes
-					@SuppressWarnings("unchecked")
-					Iterator<Attribute> attributes = element.getAttributes();
-					while (attributes.hasNext()) {
-						Attribute attribute = attributes.next();
-						String name = "@" + attribute.getName().getLocalPart();
-						if (digestedMethods.containsKey(name)) {
-							callSetter(digestedMethods.get(name), digestTarget, attribute.getValue());
-						} else if (digestedFields.containsKey(name)) {
-							setFieldValue(digestedFields.get(name), digestTarget, attribute.getValue());
-						}
+					setAttributes(root, element);
+					if (isProjectionComplete()) {
+						return projectionResponse();
 					}
 				}
-				if (digestedFields.containsKey(localName) || digestedMethods.containsKey(localName)) {
-					resetCharacterBuffer();
+				return super.handle(event, digestTarget);
+			}
+			depth++;
+			String uri = element.getName().getNamespaceURI();
+			if (rootName.getNamespaceURI().equals(uri)) {
+				String localName = element.getName().getLocalPart();
+				Frame frame = frames.peek();
+				NestedBinding nested = frame.plan.nestedFields.get(localName);
+				if (nested != null) {
+					startNested(frame, nested, localName, element);
+				} else if (frame.plan.fields.containsKey(localName) || frame.plan.methods.containsKey(localName)) {
+					armCharacterBuffer();
 				}
 			}
 		} else if (event.isEndElement()) {
 			EndElement element = event.asEndElement();
-			if (rootName.equals(element.getName())) {
-				return new FinishedParsingResponse();
+			if (frames.isEmpty()) {
+				if (rootName.equals(element.getName())) {
+					return new FinishedParsingResponse();
+				}
+				return super.handle(event, digestTarget);
+			}
+			Frame frame = frames.peek();
+			if (depth == frame.depth) {
+				// The element of the frame ended
+				frames.pop();
+				recordCollections(frame.plan, frame.target);
+				if (frames.isEmpty()) {
+					return new FinishedParsingResponse();
+				}
+				depth--;
+				if (frames.size() == 1) {
+					pendingNames.remove(frame.name);
+				}
 			} else {
+				depth--;
 				String uri = element.getName().getNamespaceURI();
 				if (rootName.getNamespaceURI().equals(uri)) {
 					String localName = element.getName().getLocalPart();
-					if (digestedMethods.containsKey(localName)) {
-						callSetter(digestedMethods.get(localName), digestTarget, getCharacterBuffer());
-					} else if (digestedFields.containsKey(localName)) {
-						setFieldValue(digestedFields.get(localName), digestTarget, getCharacterBuffer());
+					if (frame.plan.methods.containsKey(localName)) {
+						callSetter(frame.plan.methods.get(localName), frame.target, getCharacterBuffer());
+					} else if (frame.plan.fields.containsKey(localName)) {
+						setFieldValue(frame.plan, frame.plan.fields.get(localName), frame.target, getCharacterBuffer());
+					}
+					if (frames.size() == 1) {
+						pendingNames.remove(localName);
 					}
-				} 
+				}
+			}
+			if (isProjectionComplete()) {
+				return projectionResponse();
 			}
 		}
 		return super.handle(event, digestTarget);
 	}
+	
+	private void startNested(Frame parent, NestedBinding nested, String name, StartElement element) {
+		BindingPlan plan = nested.getPlan();
+		Object target;
+		try {
+			target = plan.constructor.newInstance();
+			if (nested.collection) {
+				@SuppressWarnings("unchecked")
+				Collection<Object> collection = (Collection<Object>) nested.field.get(parent.target);
+				collection.add(target);
+			} else {
+				nested.field.set(parent.target, target);
+			}
+			presizeCollections(plan, target);
+		} catch (Exception e) {
+			log.error("Error creating nested " + nested.type.getName(), e);
+			// Digest the element into a throw-away frame so the structure stays in step 
+			target = null;
+		}
+		Frame frame = new Frame(target == null ? EMPTY_PLAN : plan, target, name, depth);
+		frames.push(frame);
+		setAttributes(frame, element);
+	}
+	
+	/**
+	 * Size the array list fields of a target for the number of elements seen in earlier digests
+	 */
+	private void presizeCollections(BindingPlan plan, Object target) {
+		DigestStatistics statistics = getStatistics();
+		if (statistics == null) {
+			return;
+		}
+		for (Field field : plan.collectionFields) {
+			try {
+				Object collection = field.get(target);
+				if (collection instanceof ArrayList) {
+					((ArrayList<?>) collection).ensureCapacity(statistics.getExpectedSize(plan.type, field.getName()));
+				}
+			} catch (Exception e) {
+				log.error("Error sizing collection", e);
+			}
+		}
+	}
+	
+	private void recordCollections(BindingPlan plan, Object target) {
+		DigestStatistics statistics = getStatistics();
+		if (statistics == null || target == null) {
+			return;
+		}
+		for (Field field : plan.collectionFields) {
+			try {
+				Collection<?> collection = (Collection<?>) field.get(target);
+				if (collection != null) {
+					statistics.record(plan.type, field.getName(), collection.size());
+				}
+			} catch (Exception e) {
+				log.error("Error reading collection size", e);
+			}
+		}
+	}
+	
+	private void setAttributes(Frame frame, StartElement element) {
+		@SuppressWarnings("unchecked")
+		Iterator<Attribute> attributes = element.getAttributes();
+		while (attributes.hasNext()) {
+			Attribute attribute = attributes.next();
+			String name = "@" + attribute.getName().getLocalPart();
+			if (frame.plan.methods.containsKey(name)) {
+				callSetter(frame.plan.methods.get(name), frame.target, attribute.getValue());
+			} else if (frame.plan.fields.containsKey(name)) {
+				setFieldValue(frame.plan, frame.plan.fields.get(name), frame.target, attribute.getValue());
+			} else {
+				continue;
+			}
+			if (frames.size() == 1) {
+				pendingNames.remove(name);
+			}
+		}
+	}
+
+	private boolean isProjectionComplete() {
+		return !requiredNames.isEmpty() && pendingNames.isEmpty();
+	}
+	
+	private HandlerResponse projectionResponse() {
+		if (isOutermostHandler()) {
+			// Nobody needs the rest of the document so stop reading it
+			return new FinishedParsingResponse();
+		}
+		// Skip the remaining content of the root element, its end element will be handled as usual
+		return new IgnoreElementResponse();
+	}
 
 	private void callSetter(Method method, Object o, String value) {
 		if (method.getParameterTypes().length == 1) {
@@ -220,10 +628,8 @@ public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 	}
 
 
-	private void setFieldValue(Field field, Object o, String value) {
+	private static void setFieldValue(BindingPlan plan, Field field, Object o, String value) {
 		Class<?> type = field.getType();
-		boolean accessible = field.isAccessible();
-		field.setAccessible(true);
 		if (String.class.equals(type)) {
 			try {
 				field.set(o, value);
@@ -231,9 +637,8 @@ public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 				log.error("Error setting field value", e);
 			}
 		} else if (Collection.class.isAssignableFrom(type)) {
-			Matcher m = genericTypePattern.matcher(field.toGenericString());
-			if (m.find()) {
-				String typeName = m.group(1);
+			String typeName = plan.elementTypeNames.get(field);
+			if (typeName != null) {
 				try {
 					@SuppressWarnings("unchecked")
 					Collection<Object> collection = (Collection<Object>) field.get(o);
@@ -254,7 +659,6 @@ public class SimpleAnnotationBasedHandler extends DigesterEventHandler {
 				log.error("Error parsing and setting fieldValue", e);
 			}
 		} 
-		field.setAccessible(accessible);
 	}
 	
 	public Class<?> getDigestType() {
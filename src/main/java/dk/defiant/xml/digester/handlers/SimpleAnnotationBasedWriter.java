@@ -0,0 +1,619 @@
+package dk.defiant.xml.digester.handlers;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.Field;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler.BindingPlan;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler.NestedBinding;
+
+/**
+ * Writer of objects to XML using the {@literal @Digest} annotations read by the {@link SimpleAnnotationBasedHandler}.
+ * <p>
+ * An object is written as the element that the handler would digest it from: fields annotated
+ * with an {@code @name} become attributes, other fields child elements, collection fields
+ * a child element per value, and fields of nested digest types child elements written the
+ * same way. Null values are left out. The annotations are read from the binding plans the
+ * handler caches, so a type is only inspected once for both reading and writing.
+ * </p>
+ * <pre>
+ * SimpleAnnotationBasedWriter writer = new SimpleAnnotationBasedWriter(output);
+ * writer.writeStartDocument();
+ * writer.writeStartElement(new QName("people"));
+ * for (Person person : people) {
+ *     writer.write(new QName("person"), person);
+ * }
+ * writer.writeEndElement();
+ * writer.flush();
+ * </pre>
+ * <p>
+ * Written to an {@link OutputStream} the XML is encoded as UTF-8 and escaped straight into a
+ * reused byte buffer. Written to an {@link XMLStreamWriter} the stream writer does the escaping.
+ * Primitive fields are read without boxing and integers formatted into a reused character buffer.
+ * Members digested through setters are not written, as there is nothing to read them from,
+ * which is logged as a warning once per type. Written to an {@link OutputStream}, text with
+ * characters XML can not represent, i.e. control characters, lone surrogates, U+FFFE and U+FFFF,
+ * is rejected with an {@link XMLStreamException}.
+ * </p>
+ *
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class SimpleAnnotationBasedWriter {
+
+	private static final Logger log = LoggerFactory.getLogger(SimpleAnnotationBasedWriter.class);
+
+	// Write plans of the digest types, made from their binding plans
+	private static final ConcurrentMap<Class<?>, WritePlan> writePlans = new ConcurrentHashMap<Class<?>, WritePlan>();
+
+	private static final char[] TRUE = "true".toCharArray();
+	private static final char[] FALSE = "false".toCharArray();
+	// Characters of the longest long, Long.MIN_VALUE
+	private static final int LONG_LENGTH = 20;
+
+	private static final int VALUE = 0;
+	private static final int VALUES = 1;
+	private static final int NESTED = 2;
+	private static final int NESTED_VALUES = 3;
+
+	/**
+	 * An annotated field written as an attribute or child elements
+	 */
+	private static final class Member {
+		final String name;
+		final Field field;
+		final int kind;
+		final Class<?> nestedType;
+
+		Member(String name, Field field, int kind, Class<?> nestedType) {
+			this.name = name;
+			this.field = field;
+			this.kind = kind;
+			this.nestedType = nestedType;
+		}
+	}
+
+	/**
+	 * The members of a digest type in the order they are written
+	 */
+	private static final class WritePlan {
+		final List<Member> attributes = new ArrayList<Member>();
+		final List<Member> elements = new ArrayList<Member>();
+	}
+
+	private final Sink sink;
+	// The default namespace of each open element
+	private final Deque<String> namespaces = new ArrayDeque<String>();
+	private char[] chars = new char[64];
+
+	/**
+	 * @param writer The stream writer to write to, which is neither flushed nor closed by this writer
+	 */
+	public SimpleAnnotationBasedWriter(XMLStreamWriter writer) {
+		this.sink = new StreamWriterSink(writer);
+	}
+
+	/**
+	 * @param output The stream to write UTF-8 encoded XML to, which is flushed by {@link #flush()} but not closed
+	 */
+	public SimpleAnnotationBasedWriter(OutputStream output) {
+		this.sink = new Utf8Sink(output);
+	}
+
+	/**
+	 * Write an XML declaration.
+	 */
+	public void writeStartDocument() throws XMLStreamException {
+		sink.startDocument();
+	}
+
+	/**
+	 * Start an element enclosing the elements written until it is ended, e.g. the root
+	 * element of a document of records.
+	 *
+	 * @param name The name of the element
+	 */
+	public void writeStartElement(QName name) throws XMLStreamException {
+		startElement(name.getLocalPart(), name.getNamespaceURI());
+	}
+
+	/**
+	 * End the element last started.
+	 */
+	public void writeEndElement() throws XMLStreamException {
+		if (namespaces.isEmpty()) {
+			throw new IllegalStateException("No element to end");
+		}
+		endElement();
+	}
+
+	/**
+	 * Write an object as an element. Child elements are written in the namespace of the element.
+	 *
+	 * @param name The name of the element
+	 * @param object The object, whose type has {@literal @Digest} annotated fields
+	 */
+	public void write(QName name, Object object) throws XMLStreamException {
+		writeObject(name.getLocalPart(), name.getNamespaceURI(), getWritePlan(object.getClass()), object);
+	}
+
+	/**
+	 * Write buffered output to the underlying stream and flush it.
+	 */
+	public void flush() throws XMLStreamException {
+		sink.flush();
+	}
+
+	private static WritePlan getWritePlan(Class<?> type) {
+		WritePlan plan = writePlans.get(type);
+		if (plan == null) {
+			plan = newWritePlan(type);
+			WritePlan existing = writePlans.putIfAbsent(type, plan);
+			if (existing != null) {
+				plan = existing;
+			}
+		}
+		return plan;
+	}
+
+	private static WritePlan newWritePlan(Class<?> type) {
+		BindingPlan binding = SimpleAnnotationBasedHandler.getBindingPlan(type);
+		if (!binding.methods.isEmpty()) {
+			log.warn("Members of {} digested through setters {} are not written", type.getName(), binding.methods.keySet());
+		}
+		Map<Field, String> names = new HashMap<Field, String>();
+		for (Map.Entry<String, Field> entry : binding.fields.entrySet()) {
+			names.put(entry.getValue(), entry.getKey());
+		}
+		Map<Field, String> nestedNames = new HashMap<Field, String>();
+		Map<Field, NestedBinding> nestedFields = new HashMap<Field, NestedBinding>();
+		for (Map.Entry<String, NestedBinding> entry : binding.nestedFields.entrySet()) {
+			nestedNames.put(entry.getValue().field, entry.getKey());
+			nestedFields.put(entry.getValue().field, entry.getValue());
+		}
+		// Write the fields of super classes first, in declaration order
+		Deque<Class<?>> hierarchy = new ArrayDeque<Class<?>>();
+		for (Class<?> c = type; c != null && !Object.class.equals(c); c = c.getSuperclass()) {
+			hierarchy.push(c);
+		}
+		WritePlan plan = new WritePlan();
+		for (Class<?> c : hierarchy) {
+			for (Field declared : c.getDeclaredFields()) {
+				boolean collection = Collection.class.isAssignableFrom(declared.getType());
+				String name = names.get(declared);
+				if (name != null) {
+					// The field of the binding plan, which has been made accessible
+					Field field = binding.fields.get(name);
+					if (!name.startsWith("@")) {
+						plan.elements.add(new Member(name, field, collection ? VALUES : VALUE, null));
+					} else if (!collection) {
+						plan.attributes.add(new Member(name.substring(1), field, VALUE, null));
+					}
+				} else if (nestedNames.containsKey(declared)) {
+					NestedBinding nested = nestedFields.get(declared);
+					plan.elements.add(new Member(nestedNames.get(declared), nested.field, nested.collection ? NESTED_VALUES : NESTED, nested.type));
+				}
+			}
+		}
+		return plan;
+	}
+
+	private void writeObject(String localName, String namespaceUri, WritePlan plan, Object target) throws XMLStreamException {
+		startElement(localName, namespaceUri);
+		try {
+			for (Member member : plan.attributes) {
+				int length = formatField(member.field, target);
+				if (length >= 0) {
+					sink.attribute(member.name, chars, length);
+				}
+			}
+			for (Member member : plan.elements) {
+				switch (member.kind) {
+				case VALUE:
+					int length = formatField(member.field, target);
+					if (length >= 0) {
+						writeValue(member.name, namespaceUri, length);
+					}
+					break;
+				case VALUES:
+					Collection<?> values = (Collection<?>) member.field.get(target);
+					if (values != null) {
+						for (Object value : values) {
+							if (value != null) {
+								writeValue(member.name, namespaceUri, format(value));
+							}
+						}
+					}
+					break;
+				case NESTED:
+					Object nested = member.field.get(target);
+					if (nested != null) {
+						writeObject(member.name, namespaceUri, getWritePlan(member.nestedType), nested);
+					}
+					break;
+				default:
+					Collection<?> nestedValues = (Collection<?>) member.field.get(target);
+					if (nestedValues != null) {
+						WritePlan nestedPlan = getWritePlan(member.nestedType);
+						for (Object value : nestedValues) {
+							if (value != null) {
+								writeObject(member.name, namespaceUri, nestedPlan, value);
+							}
+						}
+					}
+					break;
+				}
+			}
+		} catch (IllegalAccessException e) {
+			throw new XMLStreamException("Error reading field of " + target.getClass().getName(), e);
+		}
+		endElement();
+	}
+
+	private void writeValue(String localName, String namespaceUri, int length) throws XMLStreamException {
+		startElement(localName, namespaceUri);
+		sink.text(chars, length);
+		endElement();
+	}
+
+	private void startElement(String localName, String namespaceUri) throws XMLStreamException {
+		String defaultNamespace = namespaces.isEmpty() ? "" : namespaces.peek();
+		sink.startElement(localName, namespaceUri, !defaultNamespace.equals(namespaceUri));
+		namespaces.push(namespaceUri);
+	}
+
+	private void endElement() throws XMLStreamException {
+		namespaces.pop();
+		sink.endElement();
+	}
+
+	/**
+	 * Format the value of a field into the character buffer
+	 *
+	 * @return The length of the value or -1 if it is null
+	 */
+	private int formatField(Field field, Object target) throws IllegalAccessException {
+		Class<?> type = field.getType();
+		if (!type.isPrimitive()) {
+			Object value = field.get(target);
+			return value == null ? -1 : format(value);
+		} else if (int.class.equals(type)) {
+			return formatLong(field.getInt(target));
+		} else if (long.class.equals(type)) {
+			return formatLong(field.getLong(target));
+		} else if (short.class.equals(type)) {
+			return formatLong(field.getShort(target));
+		} else if (byte.class.equals(type)) {
+			return formatLong(field.getByte(target));
+		} else if (boolean.class.equals(type)) {
+			return formatChars(field.getBoolean(target) ? TRUE : FALSE);
+		} else if (char.class.equals(type)) {
+			chars[0] = field.getChar(target);
+			return 1;
+		} else if (float.class.equals(type)) {
+			return formatString(Float.toString(field.getFloat(target)));
+		} else {
+			return formatString(Double.toString(field.getDouble(target)));
+		}
+	}
+
+	private int format(Object value) {
+		if (value instanceof String) {
+			return formatString((String) value);
+		} else if (value instanceof Integer || value instanceof Long || value instanceof Short || value instanceof Byte) {
+			return formatLong(((Number) value).longValue());
+		} else if (value instanceof Boolean) {
+			return formatChars((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof Locale) {
+			// The handler digests locales from their language
+			return formatString(((Locale) value).getLanguage());
+		}
+		return formatString(String.valueOf(value));
+	}
+
+	private int formatString(String value) {
+		ensureCapacity(value.length());
+		value.getChars(0, value.length(), chars, 0);
+		return value.length();
+	}
+
+	private int formatChars(char[] value) {
+		System.arraycopy(value, 0, chars, 0, value.length);
+		return value.length;
+	}
+
+	private int formatLong(long value) {
+		ensureCapacity(LONG_LENGTH);
+		// Digits are made from the end working on the negative value, which also holds Long.MIN_VALUE
+		long negative = value < 0 ? value : -value;
+		int position = LONG_LENGTH;
+		do {
+			chars[--position] = (char) ('0' - negative % 10);
+			negative /= 10;
+		} while (negative != 0);
+		if (value < 0) {
+			chars[--position] = '-';
+		}
+		int length = LONG_LENGTH - position;
+		System.arraycopy(chars, position, chars, 0, length);
+		return length;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (chars.length < capacity) {
+			chars = new char[Math.max(capacity, chars.length * 2)];
+		}
+	}
+
+	/**
+	 * Where the XML goes
+	 */
+	private interface Sink {
+		void startDocument() throws XMLStreamException;
+
+		void startElement(String localName, String namespaceUri, boolean declareNamespace) throws XMLStreamException;
+
+		void attribute(String localName, char[] value, int length) throws XMLStreamException;
+
+		void text(char[] text, int length) throws XMLStreamException;
+
+		void endElement() throws XMLStreamException;
+
+		void flush() throws XMLStreamException;
+	}
+
+	private static final class StreamWriterSink implements Sink {
+
+		private final XMLStreamWriter writer;
+
+		StreamWriterSink(XMLStreamWriter writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		public void startDocument() throws XMLStreamException {
+			writer.writeStartDocument("UTF-8", "1.0");
+		}
+
+		@Override
+		public void startElement(String localName, String namespaceUri, boolean declareNamespace) throws XMLStreamException {
+			writer.writeStartElement("", localName, namespaceUri);
+			if (declareNamespace) {
+				writer.writeDefaultNamespace(namespaceUri);
+			}
+		}
+
+		@Override
+		public void attribute(String localName, char[] value, int length) throws XMLStreamException {
+			writer.writeAttribute(localName, new String(value, 0, length));
+		}
+
+		@Override
+		public void text(char[] text, int length) throws XMLStreamException {
+			writer.writeCharacters(text, 0, length);
+		}
+
+		@Override
+		public void endElement() throws XMLStreamException {
+			writer.writeEndElement();
+		}
+
+		@Override
+		public void flush() throws XMLStreamException {
+			writer.flush();
+		}
+	}
+
+	/**
+	 * Sink encoding and escaping straight into a byte buffer
+	 */
+	private static final class Utf8Sink implements Sink {
+
+		private static final int BUFFER_SIZE = 8192;
+		// Bytes of the longest escape, &quot;
+		private static final int MAX_ENCODED_LENGTH = 6;
+
+		private static final int NAME = 0;
+		private static final int TEXT = 1;
+		private static final int ATTRIBUTE = 2;
+
+		private final OutputStream output;
+		private final byte[] buffer = new byte[BUFFER_SIZE];
+		private int position;
+		private final Deque<String> openElements = new ArrayDeque<String>();
+		// True while attributes can be added to the last element started
+		private boolean startTagOpen = false;
+		private char[] nameChars = new char[32];
+
+		Utf8Sink(OutputStream output) {
+			this.output = output;
+		}
+
+		@Override
+		public void startDocument() throws XMLStreamException {
+			write("<?xml version=\"1.0\" encoding=\"UTF-8\"?>");
+		}
+
+		@Override
+		public void startElement(String localName, String namespaceUri, boolean declareNamespace) throws XMLStreamException {
+			closeStartTag();
+			write("<");
+			write(localName);
+			if (declareNamespace) {
+				write(" xmlns=\"");
+				encode(namespaceUri, ATTRIBUTE);
+				write("\"");
+			}
+			openElements.push(localName);
+			startTagOpen = true;
+		}
+
+		@Override
+		public void attribute(String localName, char[] value, int length) throws XMLStreamException {
+			if (!startTagOpen) {
+				throw new IllegalStateException("Attribute " + localName + " written after element content");
+			}
+			write(" ");
+			write(localName);
+			write("=\"");
+			encode(value, length, ATTRIBUTE);
+			write("\"");
+		}
+
+		@Override
+		public void text(char[] text, int length) throws XMLStreamException {
+			closeStartTag();
+			encode(text, length, TEXT);
+		}
+
+		@Override
+		public void endElement() throws XMLStreamException {
+			String localName = openElements.pop();
+			if (startTagOpen) {
+				write("/>");
+				startTagOpen = false;
+			} else {
+				write("</");
+				write(localName);
+				write(">");
+			}
+		}
+
+		@Override
+		public void flush() throws XMLStreamException {
+			closeStartTag();
+			flushBuffer();
+			try {
+				output.flush();
+			} catch (IOException e) {
+				throw new XMLStreamException("Error writing XML", e);
+			}
+		}
+
+		private void closeStartTag() throws XMLStreamException {
+			if (startTagOpen) {
+				write(">");
+				startTagOpen = false;
+			}
+		}
+
+		/**
+		 * Write markup or a name, which is not escaped
+		 */
+		private void write(String markup) throws XMLStreamException {
+			encode(markup, NAME);
+		}
+
+		private void encode(String value, int mode) throws XMLStreamException {
+			if (nameChars.length < value.length()) {
+				nameChars = new char[Math.max(value.length(), nameChars.length * 2)];
+			}
+			value.getChars(0, value.length(), nameChars, 0);
+			encode(nameChars, value.length(), mode);
+		}
+
+		private void encode(char[] text, int length, int mode) throws XMLStreamException {
+			for (int i = 0; i < length; i++) {
+				if (position + MAX_ENCODED_LENGTH > buffer.length) {
+					flushBuffer();
+				}
+				char c = text[i];
+				if (c < 0x80) {
+					if (mode == NAME) {
+						buffer[position++] = (byte) c;
+						continue;
+					}
+					switch (c) {
+					case '<':
+						escape("&lt;");
+						break;
+					case '>':
+						escape("&gt;");
+						break;
+					case '&':
+						escape("&amp;");
+						break;
+					case '\r':
+						// Would otherwise be normalised away by the parser
+						escape("&#13;");
+						break;
+					case '"':
+						if (mode == ATTRIBUTE) {
+							escape("&quot;");
+						} else {
+							buffer[position++] = (byte) c;
+						}
+						break;
+					case '\n':
+					case '\t':
+						if (mode == ATTRIBUTE) {
+							// Would otherwise be normalised to spaces by the parser
+							escape(c == '\n' ? "&#10;" : "&#9;");
+						} else {
+							buffer[position++] = (byte) c;
+						}
+						break;
+					default:
+						if (c < 0x20) {
+							// Other control characters are not allowed in XML 1.0, not even as references
+							throw new XMLStreamException(String.format("Character 0x%02x can not be written in XML", (int) c));
+						}
+						buffer[position++] = (byte) c;
+						break;
+					}
+				} else if (c < 0x800) {
+					buffer[position++] = (byte) (0xC0 | (c >> 6));
+					buffer[position++] = (byte) (0x80 | (c & 0x3F));
+				} else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(text[i + 1])) {
+					int codePoint = Character.toCodePoint(c, text[++i]);
+					buffer[position++] = (byte) (0xF0 | (codePoint >> 18));
+					buffer[position++] = (byte) (0x80 | ((codePoint >> 12) & 0x3F));
+					buffer[position++] = (byte) (0x80 | ((codePoint >> 6) & 0x3F));
+					buffer[position++] = (byte) (0x80 | (codePoint & 0x3F));
+				} else if (Character.isSurrogate(c) || c == '\uFFFE' || c == '\uFFFF') {
+					// Lone surrogates can not be encoded and the two non-characters are not allowed in XML
+					throw new XMLStreamException(String.format("Character 0x%04x can not be written in XML", (int) c));
+				} else {
+					buffer[position++] = (byte) (0xE0 | (c >> 12));
+					buffer[position++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+					buffer[position++] = (byte) (0x80 | (c & 0x3F));
+				}
+			}
+		}
+
+		private void escape(String entity) {
+			for (int i = 0; i < entity.length(); i++) {
+				buffer[position++] = (byte) entity.charAt(i);
+			}
+		}
+
+		private void flushBuffer() throws XMLStreamException {
+			try {
+				output.write(buffer, 0, position);
+			} catch (IOException e) {
+				throw new XMLStreamException("Error writing XML", e);
+			}
+			position = 0;
+		}
+	}
+}
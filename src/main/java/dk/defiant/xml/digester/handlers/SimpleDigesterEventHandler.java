@@ -6,6 +6,7 @@ import javax.xml.stream.events.StartElement;
 import javax.xml.stream.events.XMLEvent;
 
 import dk.defiant.xml.digester.DigesterEventHandler;
+import dk.defiant.xml.digester.EventInterest;
 import dk.defiant.xml.digester.HandlerResponse;
 import dk.defiant.xml.digester.responses.ContinueParsingResponse;
 
@@ -28,6 +29,14 @@ public abstract class SimpleDigesterEventHandler extends DigesterEventHandler {
 		this.uri = uri;
 	}
 	
+	/**
+	 * Elements outside the namespace of the handler are not passed to it.
+	 */
+	@Override
+	public EventInterest getEventInterest() {
+		return EventInterest.ALL.inNamespaces(uri);
+	}
+	
 	@Override
 	public final HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
 		if (XMLEvent.START_ELEMENT == event.getEventType()) {
@@ -0,0 +1,141 @@
+package dk.defiant.xml.digester.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * The records added, changed and removed between two versions of a file, found by 
+ * comparing the record hashes of their indexes.
+ * <p>
+ * Records are matched by the value of a key attribute indexed in both indexes. Records 
+ * without the key attribute are not compared, and of records sharing a key only the first 
+ * is. A record is changed if its bytes are, which includes changes that do not matter to
+ * a parser, like a different indentation.
+ * </p>
+ * 
+ * @see dk.defiant.xml.digester.XmlDigester#digestChanges(java.io.File, javax.xml.namespace.QName, String, RecordIndex, dk.defiant.xml.digester.ChangeHandler)
+ * @author jip
+ *
+ */
+@Immutable
+public final class RecordChanges {
+
+	private final int[] ordinals;
+	private final String[] keys;
+	private final boolean[] added;
+	private final List<String> removedKeys;
+	
+	private RecordChanges(int[] ordinals, String[] keys, boolean[] added, List<String> removedKeys) {
+		this.ordinals = ordinals;
+		this.keys = keys;
+		this.added = added;
+		this.removedKeys = removedKeys;
+	}
+	
+	/**
+	 * Compare the index of a file with the index of an earlier version of it.
+	 * 
+	 * @param previous The index of the earlier version or null if there is none, in which case all records are added
+	 * @param current The index of the file
+	 * @param keyAttribute The local name of the key attribute, which must be indexed in both indexes
+	 * @return The changes
+	 */
+	public static RecordChanges between(RecordIndex previous, RecordIndex current, String keyAttribute) {
+		if (previous != null && !previous.hasHashes()) {
+			throw new IllegalArgumentException("The previous index has no record hashes");
+		}
+		Map<String, Integer> currentOrdinals = current.getOrdinals(keyAttribute);
+		Map<String, Integer> previousOrdinals = previous == null ? Collections.<String, Integer>emptyMap() : previous.getOrdinals(keyAttribute);
+		// Changed records are found by ordinal so they can be listed in document order
+		String[] changedKeys = new String[current.size()];
+		boolean[] addedOrdinals = new boolean[current.size()];
+		int count = 0;
+		for (Map.Entry<String, Integer> entry : currentOrdinals.entrySet()) {
+			int ordinal = entry.getValue();
+			Integer previousOrdinal = previousOrdinals.get(entry.getKey());
+			if (previousOrdinal == null) {
+				addedOrdinals[ordinal] = true;
+			} else if (previous.getHash(previousOrdinal) == current.getHash(ordinal)) {
+				continue;
+			}
+			changedKeys[ordinal] = entry.getKey();
+			count++;
+		}
+		int[] ordinals = new int[count];
+		String[] keys = new String[count];
+		boolean[] added = new boolean[count];
+		int change = 0;
+		for (int ordinal = 0; ordinal < changedKeys.length; ordinal++) {
+			if (changedKeys[ordinal] != null) {
+				ordinals[change] = ordinal;
+				keys[change] = changedKeys[ordinal];
+				added[change] = addedOrdinals[ordinal];
+				change++;
+			}
+		}
+		// Removed records are listed in the document order of the earlier version
+		String[] removedByOrdinal = new String[previous == null ? 0 : previous.size()];
+		for (Map.Entry<String, Integer> entry : previousOrdinals.entrySet()) {
+			if (!currentOrdinals.containsKey(entry.getKey())) {
+				removedByOrdinal[entry.getValue()] = entry.getKey();
+			}
+		}
+		List<String> removedKeys = new ArrayList<String>();
+		for (String key : removedByOrdinal) {
+			if (key != null) {
+				removedKeys.add(key);
+			}
+		}
+		return new RecordChanges(ordinals, keys, added, Collections.unmodifiableList(removedKeys));
+	}
+	
+	/**
+	 * @return The number of records added or changed
+	 */
+	public int size() {
+		return ordinals.length;
+	}
+	
+	/**
+	 * @param change The index of an added or changed record, in document order
+	 * @return The ordinal of the record in the current index
+	 */
+	public int getOrdinal(int change) {
+		return ordinals[change];
+	}
+	
+	/**
+	 * @param change The index of an added or changed record, in document order
+	 * @return The key of the record
+	 */
+	public String getKey(int change) {
+		return keys[change];
+	}
+	
+	/**
+	 * @param change The index of an added or changed record, in document order
+	 * @return true if the record was added, false if it was changed
+	 */
+	public boolean isAdded(int change) {
+		return added[change];
+	}
+	
+	/**
+	 * @return The ordinals of the added and changed records in the current index
+	 */
+	public int[] getOrdinals() {
+		return Arrays.copyOf(ordinals, ordinals.length);
+	}
+	
+	/**
+	 * @return The keys of the records that were removed, in the order of the earlier version
+	 */
+	public List<String> getRemovedKeys() {
+		return removedKeys;
+	}
+}
@@ -0,0 +1,312 @@
+package dk.defiant.xml.digester.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Index of the records in an XML file, mapping record ordinals and key attribute
+ * values to the byte offsets of the records.
+ * <p>
+ * Indexes are built by a {@link RecordIndexer} and can be stored in a sidecar file 
+ * next to the XML file so later runs can look up records without scanning the file.
+ * Each record also refers to the namespace declarations in scope for it, so a record
+ * can be digested on its own.
+ * </p>
+ * 
+ * @see dk.defiant.xml.digester.XmlDigester#digestAt(File, RecordIndex, int, Object, dk.defiant.xml.digester.DigesterEventHandler)
+ */
+@Immutable
+public final class RecordIndex {
+
+	private static final int MAGIC = 0x58444958; // XDIX
+	private static final int VERSION = 2;
+	// Version without record hashes
+	private static final int VERSION_WITHOUT_HASHES = 1;
+	
+	private final QName recordName;
+	private final String encoding;
+	private final long[] startOffsets;
+	private final long[] endOffsets;
+	private final long[] hashes;
+	private final int[] namespaceContexts;
+	private final List<Map<String, String>> namespaces;
+	private final Map<String, Map<String, Integer>> keys;
+	
+	RecordIndex(QName recordName, String encoding, long[] startOffsets, long[] endOffsets, long[] hashes,
+			int[] namespaceContexts, List<Map<String, String>> namespaces, Map<String, Map<String, Integer>> keys) {
+		this.recordName = recordName;
+		this.encoding = encoding;
+		this.startOffsets = startOffsets;
+		this.endOffsets = endOffsets;
+		this.hashes = hashes;
+		this.namespaceContexts = namespaceContexts;
+		this.namespaces = namespaces;
+		this.keys = keys;
+	}
+	
+	public QName getRecordName() {
+		return recordName;
+	}
+	
+	/**
+	 * @return The encoding of the indexed file
+	 */
+	public String getEncoding() {
+		return encoding;
+	}
+	
+	/**
+	 * @return The number of indexed records
+	 */
+	public int size() {
+		return startOffsets.length;
+	}
+	
+	/**
+	 * @return The byte offset of the start tag of a record
+	 */
+	public long getStartOffset(int ordinal) {
+		return startOffsets[ordinal];
+	}
+	
+	/**
+	 * @return The byte offset after the end of a record
+	 */
+	public long getEndOffset(int ordinal) {
+		return endOffsets[ordinal];
+	}
+	
+	/**
+	 * @return The hash of the bytes of a record
+	 * @throws IllegalStateException if the index was read from a sidecar file without hashes
+	 */
+	public long getHash(int ordinal) {
+		if (hashes == null) {
+			throw new IllegalStateException("The index has no record hashes");
+		}
+		return hashes[ordinal];
+	}
+	
+	/**
+	 * @return true if the index has the hashes of the records
+	 */
+	public boolean hasHashes() {
+		return hashes != null;
+	}
+	
+	/**
+	 * @return The namespace declarations in scope for a record, mapped from prefix to URI,
+	 *         not counting the declarations on the record element itself
+	 */
+	public Map<String, String> getNamespaces(int ordinal) {
+		return namespaces.get(namespaceContexts[ordinal]);
+	}
+	
+	/**
+	 * Look up a record by the value of a key attribute.
+	 * 
+	 * @param keyAttribute The local name of the key attribute
+	 * @param value The value of the key attribute
+	 * @return The ordinal of the first record with the value or -1 if there is none
+	 */
+	public int getOrdinal(String keyAttribute, String value) {
+		Integer ordinal = getOrdinals(keyAttribute).get(value);
+		return ordinal == null ? -1 : ordinal;
+	}
+	
+	/**
+	 * @return The ordinals of the first records with each value of the key attribute
+	 */
+	Map<String, Integer> getOrdinals(String keyAttribute) {
+		Map<String, Integer> values = keys.get(keyAttribute);
+		if (values == null) {
+			throw new IllegalArgumentException("Attribute " + keyAttribute + " is not indexed");
+		}
+		return values;
+	}
+	
+	/**
+	 * Read the bytes of a record from the indexed file.
+	 * 
+	 * The namespace declarations in scope for the record are added to its start tag,
+	 * so the bytes form a well-formed document in the encoding of the file.
+	 * 
+	 * @param file The indexed file
+	 * @param ordinal The ordinal of the record
+	 * @return The bytes of the record
+	 * @throws IOException
+	 */
+	public byte[] readRecord(File file, int ordinal) throws IOException {
+		byte[] record = new byte[(int) (endOffsets[ordinal] - startOffsets[ordinal])];
+		RandomAccessFile input = new RandomAccessFile(file, "r");
+		try {
+			input.seek(startOffsets[ordinal]);
+			input.readFully(record);
+		} finally {
+			input.close();
+		}
+		Map<String, String> recordNamespaces = getNamespaces(ordinal);
+		if (recordNamespaces.isEmpty()) {
+			return record;
+		}
+		StringBuilder declarations = new StringBuilder();
+		for (Map.Entry<String, String> namespace : recordNamespaces.entrySet()) {
+			declarations.append(namespace.getKey().isEmpty() ? " xmlns" : " xmlns:" + namespace.getKey())
+					.append("=\"").append(namespace.getValue().replace("&", "&amp;").replace("\"", "&quot;")).append('"');
+		}
+		byte[] inserted = declarations.toString().getBytes(Charset.forName(encoding));
+		// Insert the declarations right after the name of the record element
+		int nameEnd = 1;
+		while (nameEnd < record.length && record[nameEnd] > ' ' && record[nameEnd] != '/' && record[nameEnd] != '>') {
+			nameEnd++;
+		}
+		byte[] result = new byte[record.length + inserted.length];
+		System.arraycopy(record, 0, result, 0, nameEnd);
+		System.arraycopy(inserted, 0, result, nameEnd, inserted.length);
+		System.arraycopy(record, nameEnd, result, nameEnd + inserted.length, record.length - nameEnd);
+		return result;
+	}
+	
+	/**
+	 * Write the index to a sidecar file.
+	 * 
+	 * @param sidecar The file to write
+	 * @throws IOException
+	 */
+	public void write(File sidecar) throws IOException {
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(sidecar), 65536));
+		try {
+			output.writeInt(MAGIC);
+			output.writeInt(hashes == null ? VERSION_WITHOUT_HASHES : VERSION);
+			output.writeUTF(recordName.getNamespaceURI());
+			output.writeUTF(recordName.getLocalPart());
+			output.writeUTF(encoding);
+			output.writeInt(namespaces.size());
+			for (Map<String, String> context : namespaces) {
+				output.writeInt(context.size());
+				for (Map.Entry<String, String> namespace : context.entrySet()) {
+					output.writeUTF(namespace.getKey());
+					output.writeUTF(namespace.getValue());
+				}
+			}
+			output.writeInt(startOffsets.length);
+			for (int i = 0; i < startOffsets.length; i++) {
+				// Offsets are stored as deltas to keep the numbers small
+				writeVarLong(output, startOffsets[i] - (i == 0 ? 0 : endOffsets[i - 1]));
+				writeVarLong(output, endOffsets[i] - startOffsets[i]);
+				writeVarLong(output, namespaceContexts[i]);
+				if (hashes != null) {
+					output.writeLong(hashes[i]);
+				}
+			}
+			output.writeInt(keys.size());
+			for (Map.Entry<String, Map<String, Integer>> key : keys.entrySet()) {
+				output.writeUTF(key.getKey());
+				output.writeInt(key.getValue().size());
+				for (Map.Entry<String, Integer> value : key.getValue().entrySet()) {
+					output.writeUTF(value.getKey());
+					writeVarLong(output, value.getValue());
+				}
+			}
+		} finally {
+			output.close();
+		}
+	}
+	
+	/**
+	 * Read an index from a sidecar file.
+	 * 
+	 * @param sidecar The file written by {@link #write(File)}
+	 * @return The index
+	 * @throws IOException
+	 */
+	public static RecordIndex read(File sidecar) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(sidecar), 65536));
+		try {
+			if (input.readInt() != MAGIC) {
+				throw new IOException(sidecar + " is not a record index");
+			}
+			int version = input.readInt();
+			if (version != VERSION && version != VERSION_WITHOUT_HASHES) {
+				throw new IOException(sidecar + " is a record index of unknown version " + version);
+			}
+			QName recordName = new QName(input.readUTF(), input.readUTF());
+			String encoding = input.readUTF();
+			int contextCount = input.readInt();
+			List<Map<String, String>> namespaces = new ArrayList<Map<String, String>>(contextCount);
+			for (int i = 0; i < contextCount; i++) {
+				int count = input.readInt();
+				Map<String, String> context = new LinkedHashMap<String, String>();
+				for (int n = 0; n < count; n++) {
+					context.put(input.readUTF(), input.readUTF());
+				}
+				namespaces.add(Collections.unmodifiableMap(context));
+			}
+			int size = input.readInt();
+			long[] startOffsets = new long[size];
+			long[] endOffsets = new long[size];
+			long[] hashes = version == VERSION ? new long[size] : null;
+			int[] namespaceContexts = new int[size];
+			for (int i = 0; i < size; i++) {
+				startOffsets[i] = (i == 0 ? 0 : endOffsets[i - 1]) + readVarLong(input);
+				endOffsets[i] = startOffsets[i] + readVarLong(input);
+				namespaceContexts[i] = (int) readVarLong(input);
+				if (hashes != null) {
+					hashes[i] = input.readLong();
+				}
+			}
+			int keyCount = input.readInt();
+			Map<String, Map<String, Integer>> keys = new HashMap<String, Map<String, Integer>>();
+			for (int i = 0; i < keyCount; i++) {
+				String keyAttribute = input.readUTF();
+				int count = input.readInt();
+				Map<String, Integer> values = new HashMap<String, Integer>(count * 4 / 3 + 1);
+				for (int n = 0; n < count; n++) {
+					values.put(input.readUTF(), (int) readVarLong(input));
+				}
+				keys.put(keyAttribute, values);
+			}
+			return new RecordIndex(recordName, encoding, startOffsets, endOffsets, hashes, namespaceContexts, namespaces, keys);
+		} finally {
+			input.close();
+		}
+	}
+	
+	private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+		while ((value & ~0x7fL) != 0) {
+			output.writeByte((int) (value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		output.writeByte((int) value);
+	}
+	
+	private static long readVarLong(DataInputStream input) throws IOException {
+		long value = 0;
+		int shift = 0;
+		int b;
+		do {
+			b = input.readUnsignedByte();
+			value |= (long) (b & 0x7f) << shift;
+			shift += 7;
+		} while ((b & 0x80) != 0);
+		return value;
+	}
+}
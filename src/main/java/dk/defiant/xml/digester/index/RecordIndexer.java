@@ -0,0 +1,350 @@
+package dk.defiant.xml.digester.index;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.xml.namespace.QName;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import dk.defiant.xml.digester.io.MarkupScanner;
+import dk.defiant.xml.digester.io.XmlEncoding;
+
+/**
+ * Builds a {@link RecordIndex} of an XML file in a single pass.
+ * <p>
+ * The indexer does not parse the file. It scans the bytes with a {@link MarkupScanner}
+ * and only looks closer at start tags, which is enough to find the records, their key 
+ * attributes and the namespaces in scope. Since bytes are scanned directly the file must 
+ * be in UTF-8 or a single byte encoding extending ASCII, like ISO-8859-1. 
+ * The encoding is taken from the XML declaration and defaults to UTF-8.
+ * </p>
+ * <p>
+ * Records nested inside records are not indexed separately.
+ * </p>
+ * <p>
+ * A 64 bit FNV-1a hash of the bytes of each record and of the namespaces it inherits is 
+ * computed while scanning, so changed records can be found by comparing the index with the index of an earlier version of the
+ * file, see {@link RecordChanges}.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class RecordIndexer implements MarkupScanner.Listener {
+
+	private static final Charset latin1 = Charset.forName("ISO-8859-1");
+	private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	private static final long FNV_PRIME = 0x100000001b3L;
+	
+	private final QName recordName;
+	private final List<String> keyAttributes;
+	
+	// State of the current run
+	private Charset charset;
+	private final StringBuilder tag = new StringBuilder();
+	private boolean inStartTag;
+	private long tagOffset;
+	private int tagDepth;
+	private final List<Map<String, String>> scopes = new ArrayList<Map<String, String>>();
+	private int recordDepth;
+	private long recordStart;
+	private int recordContext;
+	private long[] startOffsets;
+	private long[] endOffsets;
+	private long[] hashes;
+	private int[] namespaceContexts;
+	// Hash of the record being scanned
+	private boolean hashing;
+	private long hash;
+	private int size;
+	private Map<Map<String, String>, Integer> contextIndexes;
+	private List<Map<String, String>> contexts;
+	private Map<String, Map<String, Integer>> keys;
+	
+	/**
+	 * @param recordName The name of the record elements
+	 * @param keyAttributes The local names of the attributes to index records by
+	 */
+	public RecordIndexer(QName recordName, String... keyAttributes) {
+		this.recordName = recordName;
+		this.keyAttributes = Arrays.asList(keyAttributes);
+	}
+	
+	/**
+	 * Index a file.
+	 * 
+	 * @param file The XML file
+	 * @return The index
+	 * @throws IOException
+	 */
+	public RecordIndex index(File file) throws IOException {
+		InputStream input = new FileInputStream(file);
+		try {
+			return index(input);
+		} finally {
+			input.close();
+		}
+	}
+	
+	/**
+	 * Index the bytes of an XML document.
+	 * 
+	 * @param input The stream of the document, positioned at its first byte
+	 * @return The index
+	 * @throws IOException
+	 */
+	public RecordIndex index(InputStream input) throws IOException {
+		byte[] buffer = new byte[65536];
+		int count = readFully(input, buffer);
+		charset = XmlEncoding.detect(buffer, count);
+		startOffsets = new long[1024];
+		endOffsets = new long[1024];
+		hashes = new long[1024];
+		hashing = false;
+		namespaceContexts = new int[1024];
+		size = 0;
+		contextIndexes = new HashMap<Map<String, String>, Integer>();
+		contexts = new ArrayList<Map<String, String>>();
+		keys = new LinkedHashMap<String, Map<String, Integer>>();
+		for (String keyAttribute : keyAttributes) {
+			keys.put(keyAttribute, new HashMap<String, Integer>());
+		}
+		scopes.clear();
+		recordDepth = 0;
+		inStartTag = false;
+		MarkupScanner scanner = new MarkupScanner(this);
+		while (count > 0) {
+			for (int i = 0; i < count; i++) {
+				// Bytes are scanned as ISO-8859-1 characters so character offsets are byte offsets
+				char c = (char) (buffer[i] & 0xff);
+				scanner.scan(c);
+				if (inStartTag) {
+					tag.append(c);
+				}
+				// Start tags within the record are hashed as well as collected
+				if (hashing) {
+					hash = (hash ^ c) * FNV_PRIME;
+				}
+			}
+			count = input.read(buffer);
+		}
+		return new RecordIndex(recordName, charset.name(), 
+				Arrays.copyOf(startOffsets, size), Arrays.copyOf(endOffsets, size), Arrays.copyOf(hashes, size), Arrays.copyOf(namespaceContexts, size),
+				contexts, keys);
+	}
+	
+	@Override
+	public void elementStarted(long offset, int depth) {
+		inStartTag = true;
+		tag.setLength(0);
+		tagOffset = offset;
+		tagDepth = depth;
+	}
+	
+	@Override
+	public void startTagEnded(long offset, boolean empty) {
+		inStartTag = false;
+		int length = tag.length();
+		if (empty && length > 0 && tag.charAt(length - 1) == '/') {
+			length--;
+		}
+		int i = 0;
+		while (i < length && !isWhitespace(tag.charAt(i))) {
+			i++;
+		}
+		String name = tag.substring(0, i);
+		Map<String, String> declarations = Collections.emptyMap();
+		Map<String, String> attributes = Collections.emptyMap();
+		while (i < length) {
+			while (i < length && isWhitespace(tag.charAt(i))) {
+				i++;
+			}
+			int nameStart = i;
+			while (i < length && tag.charAt(i) != '=' && !isWhitespace(tag.charAt(i))) {
+				i++;
+			}
+			String attributeName = tag.substring(nameStart, i);
+			while (i < length && tag.charAt(i) != '"' && tag.charAt(i) != '\'') {
+				i++;
+			}
+			if (i >= length) {
+				break;
+			}
+			char quote = tag.charAt(i++);
+			int valueStart = i;
+			while (i < length && tag.charAt(i) != quote) {
+				i++;
+			}
+			String rawValue = tag.substring(valueStart, i++);
+			if (attributeName.equals("xmlns") || attributeName.startsWith("xmlns:")) {
+				if (declarations.isEmpty()) {
+					declarations = new LinkedHashMap<String, String>();
+				}
+				declarations.put(attributeName.length() == 5 ? "" : attributeName.substring(6), decode(rawValue));
+			} else if (recordDepth == 0) {
+				String localName = attributeName.substring(attributeName.indexOf(':') + 1);
+				if (keys.containsKey(localName)) {
+					if (attributes.isEmpty()) {
+						attributes = new HashMap<String, String>();
+					}
+					attributes.put(localName, rawValue);
+				}
+			}
+		}
+		while (scopes.size() >= tagDepth) {
+			scopes.remove(scopes.size() - 1);
+		}
+		scopes.add(declarations);
+		if (recordDepth == 0 && recordName.equals(resolve(name))) {
+			startRecord(declarations, attributes);
+		}
+	}
+	
+	@Override
+	public void elementEnded(long tagOffset, long offset, int depth) {
+		if (depth == recordDepth) {
+			if (size == startOffsets.length) {
+				startOffsets = Arrays.copyOf(startOffsets, size * 2);
+				endOffsets = Arrays.copyOf(endOffsets, size * 2);
+				hashes = Arrays.copyOf(hashes, size * 2);
+				namespaceContexts = Arrays.copyOf(namespaceContexts, size * 2);
+			}
+			startOffsets[size] = recordStart;
+			endOffsets[size] = offset;
+			hashes[size] = hash;
+			hashing = false;
+			namespaceContexts[size] = recordContext;
+			size++;
+			recordDepth = 0;
+		}
+		while (scopes.size() >= depth && !scopes.isEmpty()) {
+			scopes.remove(scopes.size() - 1);
+		}
+	}
+	
+	private void startRecord(Map<String, String> declarations, Map<String, String> attributes) {
+		recordDepth = tagDepth;
+		recordStart = tagOffset;
+		// The start tag has been collected, the rest of the record is hashed as it is scanned
+		hash = hash(FNV_OFFSET_BASIS, tag);
+		hashing = true;
+		// Namespaces declared on ancestors and not redeclared on the record itself
+		Map<String, String> context = new LinkedHashMap<String, String>();
+		for (int i = 0; i < scopes.size() - 1; i++) {
+			context.putAll(scopes.get(i));
+		}
+		context.keySet().removeAll(declarations.keySet());
+		// The inherited bindings decide the names in the record, so they are hashed too, in prefix order
+		for (Map.Entry<String, String> binding : new TreeMap<String, String>(context).entrySet()) {
+			hash = hash(hash(hash, binding.getKey()), binding.getValue());
+		}
+		Integer index = contextIndexes.get(context);
+		if (index == null) {
+			index = contexts.size();
+			contexts.add(Collections.unmodifiableMap(context));
+			contextIndexes.put(context, index);
+		}
+		recordContext = index;
+		for (Map.Entry<String, String> attribute : attributes.entrySet()) {
+			Map<String, Integer> values = keys.get(attribute.getKey());
+			String value = decode(attribute.getValue());
+			if (!values.containsKey(value)) {
+				values.put(value, size);
+			}
+		}
+	}
+	
+	private static long hash(long hash, CharSequence text) {
+		for (int i = 0; i < text.length(); i++) {
+			hash = (hash ^ text.charAt(i)) * FNV_PRIME;
+		}
+		// Separate the texts so moving characters from one to the next changes the hash
+		return (hash ^ 0xffff) * FNV_PRIME;
+	}
+	
+	private QName resolve(String name) {
+		int colon = name.indexOf(':');
+		String prefix = colon < 0 ? "" : name.substring(0, colon);
+		for (int i = scopes.size() - 1; i >= 0; i--) {
+			String uri = scopes.get(i).get(prefix);
+			if (uri != null) {
+				return new QName(uri, name.substring(colon + 1));
+			}
+		}
+		return new QName(name.substring(colon + 1));
+	}
+	
+	/**
+	 * Decode a raw attribute value: bytes read as ISO-8859-1 characters are decoded
+	 * using the encoding of the file and references are replaced.
+	 */
+	private String decode(String raw) {
+		String value = raw;
+		for (int i = 0; i < raw.length(); i++) {
+			if (raw.charAt(i) > 0x7f) {
+				value = new String(raw.getBytes(latin1), charset);
+				break;
+			}
+		}
+		if (value.indexOf('&') < 0) {
+			return value;
+		}
+		StringBuilder result = new StringBuilder(value.length());
+		int i = 0;
+		while (i < value.length()) {
+			char c = value.charAt(i);
+			int end = c == '&' ? value.indexOf(';', i) : -1;
+			if (end < 0) {
+				result.append(c);
+				i++;
+				continue;
+			}
+			String reference = value.substring(i + 1, end);
+			if (reference.startsWith("#x")) {
+				result.appendCodePoint(Integer.parseInt(reference.substring(2), 16));
+			} else if (reference.startsWith("#")) {
+				result.appendCodePoint(Integer.parseInt(reference.substring(1)));
+			} else if ("lt".equals(reference)) {
+				result.append('<');
+			} else if ("gt".equals(reference)) {
+				result.append('>');
+			} else if ("amp".equals(reference)) {
+				result.append('&');
+			} else if ("quot".equals(reference)) {
+				result.append('"');
+			} else if ("apos".equals(reference)) {
+				result.append('\'');
+			} else {
+				result.append('&').append(reference).append(';');
+			}
+			i = end + 1;
+		}
+		return result.toString();
+	}
+	
+	private static boolean isWhitespace(char c) {
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r';
+	}
+	
+	private static int readFully(InputStream input, byte[] buffer) throws IOException {
+		int count = 0;
+		int read;
+		while (count < buffer.length && (read = input.read(buffer, count, buffer.length - count)) > 0) {
+			count += read;
+		}
+		return count;
+	}
+}
@@ -0,0 +1,297 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Input stream decompressing blocked gzip (BGZF) with the blocks inflated in parallel.
+ * <p>
+ * BGZF is gzip made of members of at most 64 KB, each recording its compressed size in 
+ * a {@code BC} extra field, as written by bgzip. As the size of every member is known
+ * up front, the members can be read one after the other and inflated on the executor
+ * while earlier members are read from this stream. Blocks, i.e. the buffers and inflaters
+ * of a member, are recycled.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class BgzfInputStream extends InputStream {
+
+	static final int MAX_BLOCK_SIZE = 64 * 1024;
+	private static final int HEADER_LENGTH = 12;
+	private static final int TRAILER_LENGTH = 8;
+	
+	/**
+	 * A member read from the source and the bytes it inflates to
+	 */
+	private static final class Block implements Callable<Block> {
+		final byte[] compressed = new byte[MAX_BLOCK_SIZE];
+		final byte[] data = new byte[MAX_BLOCK_SIZE];
+		final Inflater inflater = new Inflater(true);
+		final CRC32 crc = new CRC32();
+		int dataOffset;
+		int dataLength;
+		int length;
+		
+		@Override
+		public Block call() throws IOException {
+			inflater.reset();
+			inflater.setInput(compressed, dataOffset, dataLength);
+			try {
+				length = inflater.inflate(data);
+			} catch (DataFormatException e) {
+				throw new IOException("Corrupt BGZF block: " + e.getMessage(), e);
+			}
+			if (!inflater.finished()) {
+				throw new IOException("Corrupt BGZF block: block does not fit " + MAX_BLOCK_SIZE + " bytes");
+			}
+			int trailer = dataOffset + dataLength;
+			crc.reset();
+			crc.update(data, 0, length);
+			if ((int) crc.getValue() != readInt(compressed, trailer) || length != readInt(compressed, trailer + 4)) {
+				throw new IOException("Corrupt BGZF block: checksum or size mismatch");
+			}
+			return this;
+		}
+	}
+	
+	private final InputStream source;
+	private final Executor executor;
+	private final int parallelism;
+	private final List<Block> blocks = new ArrayList<Block>();
+	private final Deque<Block> free = new ArrayDeque<Block>();
+	private final Deque<FutureTask<Block>> pending = new ArrayDeque<FutureTask<Block>>();
+	private boolean sourceEnded = false;
+	private boolean closed = false;
+	private Block current;
+	private int position;
+	
+	public BgzfInputStream(InputStream source, Executor executor) {
+		this(source, executor, Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * @param source The BGZF input
+	 * @param executor The executor to inflate blocks on
+	 * @param parallelism The number of blocks to inflate ahead of the reader
+	 */
+	public BgzfInputStream(InputStream source, Executor executor, int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be positive");
+		}
+		this.source = source;
+		this.executor = executor;
+		this.parallelism = parallelism;
+		for (int i = 0; i <= parallelism; i++) {
+			blocks.add(new Block());
+		}
+		free.addAll(blocks);
+	}
+	
+	/**
+	 * Check if a gzip header starts a BGZF member, i.e. has a {@code BC} extra field.
+	 * 
+	 * @param header The bytes of the header
+	 * @param length The number of bytes of the header, at least {@value #HEADER_LENGTH} plus the extra fields
+	 * @return The size of the member or -1 if it is not a BGZF member
+	 */
+	static int blockSize(byte[] header, int length) {
+		if (length < HEADER_LENGTH || (header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8 || (header[3] & 4) == 0) {
+			return -1;
+		}
+		int extraLength = readShort(header, 10);
+		int end = HEADER_LENGTH + extraLength;
+		if (length < end) {
+			return -1;
+		}
+		for (int field = HEADER_LENGTH; field + 4 <= end; field += 4 + readShort(header, field + 2)) {
+			if (header[field] == 'B' && header[field + 1] == 'C' && readShort(header, field + 2) == 2 && field + 6 <= end) {
+				return readShort(header, field + 4) + 1;
+			}
+		}
+		return -1;
+	}
+	
+	private static int readShort(byte[] bytes, int offset) {
+		return (bytes[offset] & 0xff) | (bytes[offset + 1] & 0xff) << 8;
+	}
+	
+	private static int readInt(byte[] bytes, int offset) {
+		return readShort(bytes, offset) | readShort(bytes, offset + 2) << 16;
+	}
+	
+	/**
+	 * Read the next member into a block.
+	 * 
+	 * @return false at the end of the source
+	 */
+	private boolean readBlock(Block block) throws IOException {
+		byte[] bytes = block.compressed;
+		int count = readFully(bytes, 0, HEADER_LENGTH);
+		if (count == 0) {
+			return false;
+		} else if (count < HEADER_LENGTH) {
+			throw new EOFException("Truncated BGZF block header");
+		}
+		int extraLength = readShort(bytes, 10);
+		if ((bytes[3] & 4) == 0 || readFully(bytes, HEADER_LENGTH, extraLength) < extraLength) {
+			throw new IOException("Not a BGZF block");
+		}
+		int size = blockSize(bytes, HEADER_LENGTH + extraLength);
+		if (size < HEADER_LENGTH + extraLength + TRAILER_LENGTH) {
+			throw new IOException("Not a BGZF block");
+		}
+		int rest = size - HEADER_LENGTH - extraLength;
+		if (readFully(bytes, HEADER_LENGTH + extraLength, rest) < rest) {
+			throw new EOFException("Truncated BGZF block");
+		}
+		block.dataOffset = HEADER_LENGTH + extraLength;
+		block.dataLength = size - block.dataOffset - TRAILER_LENGTH;
+		return true;
+	}
+	
+	private int readFully(byte[] bytes, int offset, int length) throws IOException {
+		int total = 0;
+		while (total < length) {
+			int count = source.read(bytes, offset + total, length - total);
+			if (count < 0) {
+				break;
+			}
+			total += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * Start inflating blocks until as many as the parallelism are pending.
+	 */
+	private void readAhead() throws IOException {
+		while (!sourceEnded && pending.size() < parallelism && !free.isEmpty()) {
+			Block block = free.poll();
+			if (!readBlock(block)) {
+				free.add(block);
+				sourceEnded = true;
+				break;
+			}
+			FutureTask<Block> task = new FutureTask<Block>(block);
+			pending.add(task);
+			executor.execute(task);
+		}
+	}
+	
+	private static Block await(FutureTask<Block> task) throws IOException {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted waiting for BGZF block");
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw new IOException(e.getCause().getMessage(), e.getCause());
+			}
+			throw new IOException(e.getCause());
+		}
+	}
+	
+	/**
+	 * Make sure the current block has bytes left.
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean ensureAvailable() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (current == null || position == current.length) {
+			if (current != null) {
+				free.add(current);
+				current = null;
+			}
+			readAhead();
+			FutureTask<Block> task = pending.poll();
+			if (task == null) {
+				return false;
+			}
+			current = await(task);
+			position = 0;
+		}
+		return true;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		return current.data[position++] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, count);
+		position += count;
+		return count;
+	}
+	
+	@Override
+	public int available() {
+		return current == null || closed ? 0 : current.length - position;
+	}
+	
+	/**
+	 * Close the stream, waiting for blocks being inflated, and release the inflaters.
+	 * The source is closed too.
+	 */
+	@Override
+	public void close() throws IOException {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		try {
+			for (FutureTask<Block> task : pending) {
+				try {
+					task.get();
+				} catch (ExecutionException e) {
+					// Closing anyway
+				} catch (InterruptedException e) {
+					// The inflater of the block may still be in use
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+			pending.clear();
+			current = null;
+			free.clear();
+			for (Block block : blocks) {
+				block.inflater.end();
+			}
+		} finally {
+			source.close();
+		}
+	}
+}
@@ -0,0 +1,199 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Incremental decoder of text encoded binary data, e.g. base64 content of an element.
+ * <p>
+ * Text is decoded as it arrives, in chunks of any size, and the decoded bytes are written 
+ * to an output stream through a fixed size buffer, so the memory used does not depend on
+ * the size of the data. Whitespace in the text is skipped.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public abstract class BinaryDecoder {
+
+	private static final int BUFFER_SIZE = 8192;
+	
+	private final OutputStream output;
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int buffered;
+	private long byteCount;
+	
+	protected BinaryDecoder(OutputStream output) {
+		this.output = output;
+	}
+	
+	/**
+	 * Get a decoder of base64 as defined by RFC 4648.
+	 * 
+	 * @param output The stream to write the decoded bytes to
+	 * @return The decoder
+	 */
+	public static BinaryDecoder base64(OutputStream output) {
+		return new Base64Decoder(output);
+	}
+	
+	/**
+	 * Get a decoder of hexadecimal digits, two per byte, in upper or lower case.
+	 * 
+	 * @param output The stream to write the decoded bytes to
+	 * @return The decoder
+	 */
+	public static BinaryDecoder hex(OutputStream output) {
+		return new HexDecoder(output);
+	}
+	
+	/**
+	 * Decode a chunk of text.
+	 * 
+	 * @param text The text
+	 * @throws IOException if the text is not validly encoded or writing fails
+	 */
+	public final void decode(CharSequence text) throws IOException {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c != ' ' && c != '\n' && c != '\r' && c != '\t') {
+				decode(c);
+			}
+		}
+	}
+	
+	/**
+	 * End decoding, checking that the text was complete, and flush the decoded bytes to the output stream.
+	 * 
+	 * @throws IOException if the text ended in the middle of a byte or writing fails
+	 */
+	public final void finish() throws IOException {
+		checkComplete();
+		flush();
+		output.flush();
+	}
+	
+	/**
+	 * @return The number of bytes decoded
+	 */
+	public final long getByteCount() {
+		return byteCount;
+	}
+	
+	protected abstract void decode(char c) throws IOException;
+	
+	protected abstract void checkComplete() throws IOException;
+	
+	protected final void write(int b) throws IOException {
+		if (buffered == buffer.length) {
+			flush();
+		}
+		buffer[buffered++] = (byte) b;
+		byteCount++;
+	}
+	
+	private void flush() throws IOException {
+		output.write(buffer, 0, buffered);
+		buffered = 0;
+	}
+	
+	private static final class Base64Decoder extends BinaryDecoder {
+		
+		private static final int[] sextets = new int[128];
+		
+		static {
+			Arrays.fill(sextets, -1);
+			String alphabet = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+			for (int i = 0; i < alphabet.length(); i++) {
+				sextets[alphabet.charAt(i)] = i;
+			}
+		}
+		
+		private int bits;
+		private int sextetCount;
+		private int padding;
+		
+		Base64Decoder(OutputStream output) {
+			super(output);
+		}
+		
+		@Override
+		protected void decode(char c) throws IOException {
+			if (c == '=') {
+				if (sextetCount < 2 || sextetCount + padding >= 4) {
+					throw new IOException("Misplaced base64 padding");
+				}
+				padding++;
+				return;
+			}
+			int sextet = c < sextets.length ? sextets[c] : -1;
+			if (sextet < 0) {
+				throw new IOException("Invalid base64 character '" + c + "'");
+			}
+			if (padding > 0) {
+				throw new IOException("Base64 data after padding");
+			}
+			bits = (bits << 6) | sextet;
+			if (++sextetCount == 4) {
+				write(bits >> 16);
+				write(bits >> 8);
+				write(bits);
+				bits = 0;
+				sextetCount = 0;
+			}
+		}
+		
+		@Override
+		protected void checkComplete() throws IOException {
+			if (sextetCount == 0) {
+				return;
+			}
+			if (sextetCount == 1 || (padding > 0 && sextetCount + padding != 4)) {
+				throw new IOException("Base64 data ended in the middle of a byte");
+			}
+			// Two or three sextets left hold one or two bytes
+			if (sextetCount == 2) {
+				write(bits >> 4);
+			} else {
+				write(bits >> 10);
+				write(bits >> 2);
+			}
+			bits = 0;
+			sextetCount = 0;
+		}
+	}
+	
+	private static final class HexDecoder extends BinaryDecoder {
+		
+		private int high = -1;
+		
+		HexDecoder(OutputStream output) {
+			super(output);
+		}
+		
+		@Override
+		protected void decode(char c) throws IOException {
+			int digit = c < 128 ? Character.digit(c, 16) : -1;
+			if (digit < 0) {
+				throw new IOException("Invalid hexadecimal digit '" + c + "'");
+			}
+			if (high < 0) {
+				high = digit;
+			} else {
+				write((high << 4) | digit);
+				high = -1;
+			}
+		}
+		
+		@Override
+		protected void checkComplete() throws IOException {
+			if (high >= 0) {
+				throw new IOException("Hexadecimal data ended in the middle of a byte");
+			}
+		}
+	}
+}
@@ -0,0 +1,137 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.BufferedInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.Executor;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Detection and decompression of compressed input.
+ * <p>
+ * Gzip, including gzip of several members, and zlib wrapped deflate are decompressed on a
+ * {@link ReadAheadInputStream}, so decompression runs in parallel with parsing. Blocked gzip
+ * (BGZF) is decompressed by a {@link BgzfInputStream}, which also inflates its members in
+ * parallel. Other input is read as is.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+public final class CompressedInput {
+
+	public enum Format {
+		NONE,
+		GZIP,
+		/**
+		 * Gzip of members recording their size, see {@link BgzfInputStream}
+		 */
+		BGZF,
+		/**
+		 * Deflate with a zlib header
+		 */
+		ZLIB,
+	}
+	
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// A gzip header of up to 64 KB of extra fields
+	private static final int MAX_HEADER_LENGTH = 12 + 0xffff;
+	
+	private CompressedInput() {
+	}
+	
+	/**
+	 * Detect the compression of the input without consuming it.
+	 * 
+	 * @param input The input, which must support mark
+	 * @return The format
+	 * @throws IOException
+	 */
+	public static Format detect(InputStream input) throws IOException {
+		if (!input.markSupported()) {
+			throw new IllegalArgumentException("Detecting compression needs an input stream supporting mark");
+		}
+		input.mark(MAX_HEADER_LENGTH);
+		try {
+			byte[] header = new byte[12];
+			int length = read(input, header);
+			if (length < 2) {
+				return Format.NONE;
+			}
+			int b0 = header[0] & 0xff;
+			int b1 = header[1] & 0xff;
+			if (b0 == 0x1f && b1 == 0x8b) {
+				if (length == header.length && (header[3] & 4) != 0) {
+					int extraLength = (header[10] & 0xff) | (header[11] & 0xff) << 8;
+					byte[] extended = new byte[header.length + extraLength];
+					System.arraycopy(header, 0, extended, 0, header.length);
+					byte[] extra = new byte[extraLength];
+					int extraRead = read(input, extra);
+					System.arraycopy(extra, 0, extended, header.length, extraRead);
+					if (BgzfInputStream.blockSize(extended, header.length + extraRead) > 0) {
+						return Format.BGZF;
+					}
+				}
+				return Format.GZIP;
+			}
+			// Deflate with a window of at most 32 KB, and a header checksum
+			if ((b0 & 0x0f) == 8 && (b0 >> 4) <= 7 && ((b0 << 8) | b1) % 31 == 0) {
+				return Format.ZLIB;
+			}
+			return Format.NONE;
+		} finally {
+			input.reset();
+		}
+	}
+	
+	private static int read(InputStream input, byte[] bytes) throws IOException {
+		int total = 0;
+		while (total < bytes.length) {
+			int count = input.read(bytes, total, bytes.length - total);
+			if (count < 0) {
+				break;
+			}
+			total += count;
+		}
+		return total;
+	}
+	
+	/**
+	 * Get a stream of the decompressed input. Closing the stream stops the decompression,
+	 * but does not close the source.
+	 * 
+	 * @param source The possibly compressed input
+	 * @param executor The executor to decompress on
+	 * @return The decompressed input
+	 * @throws IOException
+	 */
+	public static InputStream open(InputStream source, Executor executor) throws IOException {
+		BufferedInputStream input = new BufferedInputStream(new NonClosingInputStream(source), BUFFER_SIZE);
+		switch (detect(input)) {
+		case GZIP:
+			return new ReadAheadInputStream(new GZIPInputStream(input, BUFFER_SIZE), executor);
+		case BGZF:
+			return new BgzfInputStream(input, executor);
+		case ZLIB:
+			return new ReadAheadInputStream(new InflaterInputStream(input), executor);
+		default:
+			return input;
+		}
+	}
+	
+	/**
+	 * Stream leaving its source open, as the source belongs to whoever gave it
+	 */
+	private static final class NonClosingInputStream extends FilterInputStream {
+		
+		NonClosingInputStream(InputStream input) {
+			super(input);
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+}
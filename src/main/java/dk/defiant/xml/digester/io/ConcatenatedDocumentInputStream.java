@@ -0,0 +1,125 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Input stream presenting a stream of concatenated XML documents one document at a time.
+ * <p>
+ * Like the {@link ConcatenatedDocumentReader}, but finding the end of each root element by
+ * scanning the bytes, so the documents are only decoded by the parser. The encoding must be
+ * UTF-8 or a single byte encoding extending ASCII, see {@link XmlEncoding#isScannable(java.nio.charset.Charset)}.
+ * When the end of a document is reached, reading returns -1 until {@link #nextDocument()} 
+ * moves on to the next document.
+ * </p>
+ * <p>
+ * Closing this stream does not close the underlying stream.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class ConcatenatedDocumentInputStream extends InputStream {
+
+	private final InputStream input;
+	private final byte[] buffer;
+	private final byte[] single = new byte[1];
+	private int position;
+	private int limit;
+	private boolean endOfInput;
+	
+	private final MarkupScanner scanner = new MarkupScanner(null);
+	private boolean inDocument;
+	
+	public ConcatenatedDocumentInputStream(InputStream input) {
+		this(input, 8192);
+	}
+	
+	public ConcatenatedDocumentInputStream(InputStream input, int bufferSize) {
+		this.input = input;
+		this.buffer = new byte[bufferSize];
+	}
+	
+	/**
+	 * Move to the next document, skipping whatever is left of the current one.
+	 * 
+	 * @return true if there is another document, false at the end of the input
+	 * @throws IOException
+	 */
+	public boolean nextDocument() throws IOException {
+		skipDocument();
+		while (true) {
+			if (position == limit && !fill()) {
+				return false;
+			}
+			byte b = buffer[position];
+			if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+				break;
+			}
+			position++;
+		}
+		scanner.reset();
+		inDocument = true;
+		return true;
+	}
+	
+	/**
+	 * Skip the rest of the current document.
+	 * 
+	 * @throws IOException
+	 */
+	public void skipDocument() throws IOException {
+		while (inDocument) {
+			if (position == limit && !fill()) {
+				inDocument = false;
+				return;
+			}
+			position = scanner.scan(buffer, position, limit);
+			inDocument = !scanner.isRootEnded();
+		}
+	}
+	
+	@Override
+	public int read() throws IOException {
+		return read(single, 0, 1) < 0 ? -1 : single[0] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (!inDocument) {
+			return -1;
+		}
+		if (position == limit && !fill()) {
+			inDocument = false;
+			return -1;
+		}
+		int end = scanner.scan(buffer, position, Math.min(limit, position + len));
+		inDocument = !scanner.isRootEnded();
+		int count = end - position;
+		System.arraycopy(buffer, position, b, off, count);
+		position = end;
+		return count;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		inDocument = false;
+	}
+	
+	private boolean fill() throws IOException {
+		if (endOfInput) {
+			return false;
+		}
+		int count = input.read(buffer, 0, buffer.length);
+		if (count < 0) {
+			endOfInput = true;
+			return false;
+		}
+		position = 0;
+		limit = count;
+		return true;
+	}
+}
@@ -0,0 +1,119 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reader presenting a stream of concatenated XML documents one document at a time.
+ * <p>
+ * The reader tracks the markup with a {@link MarkupScanner} to find the end of each
+ * root element. When the end of a document is reached, reading returns -1 
+ * until {@link #nextDocument()} moves on to the next document. Whitespace between 
+ * documents is skipped so each document may start with an XML declaration. The
+ * underlying reader and the buffer stay in use across documents.
+ * </p>
+ * <p>
+ * Closing this reader does not close the underlying reader.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class ConcatenatedDocumentReader extends Reader {
+
+	private final Reader reader;
+	private final char[] buffer;
+	private int position;
+	private int limit;
+	private boolean endOfInput;
+	
+	private final MarkupScanner scanner = new MarkupScanner(null);
+	private boolean inDocument;
+	
+	public ConcatenatedDocumentReader(Reader reader) {
+		this(reader, 8192);
+	}
+	
+	public ConcatenatedDocumentReader(Reader reader, int bufferSize) {
+		this.reader = reader;
+		this.buffer = new char[bufferSize];
+	}
+	
+	/**
+	 * Move to the next document, skipping whatever is left of the current one.
+	 * 
+	 * @return true if there is another document, false at the end of the input
+	 * @throws IOException
+	 */
+	public boolean nextDocument() throws IOException {
+		skipDocument();
+		while (true) {
+			if (position == limit && !fill()) {
+				return false;
+			}
+			char c = buffer[position];
+			if (!Character.isWhitespace(c) && c != '\uFEFF') {
+				break;
+			}
+			position++;
+		}
+		scanner.reset();
+		inDocument = true;
+		return true;
+	}
+	
+	/**
+	 * Skip the rest of the current document.
+	 * 
+	 * @throws IOException
+	 */
+	public void skipDocument() throws IOException {
+		while (inDocument) {
+			if (position == limit && !fill()) {
+				inDocument = false;
+				return;
+			}
+			position = scanner.scan(buffer, position, limit);
+			inDocument = !scanner.isRootEnded();
+		}
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (!inDocument) {
+			return -1;
+		}
+		if (position == limit && !fill()) {
+			inDocument = false;
+			return -1;
+		}
+		int end = scanner.scan(buffer, position, Math.min(limit, position + len));
+		inDocument = !scanner.isRootEnded();
+		int count = end - position;
+		System.arraycopy(buffer, position, cbuf, off, count);
+		position = end;
+		return count;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		inDocument = false;
+	}
+	
+	private boolean fill() throws IOException {
+		if (endOfInput) {
+			return false;
+		}
+		int count = reader.read(buffer, 0, buffer.length);
+		if (count < 0) {
+			endOfInput = true;
+			return false;
+		}
+		position = 0;
+		limit = count;
+		return true;
+	}
+}
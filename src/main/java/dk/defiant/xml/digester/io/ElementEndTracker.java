@@ -0,0 +1,88 @@
+package dk.defiant.xml.digester.io;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Keeps track of where elements end in text scanned by a {@link MarkupScanner}.
+ * <p>
+ * Element ends are numbered in document order, the first element ending being number 1, 
+ * which matches the count of end element events a parser reports for the same text. 
+ * Offsets are looked up by that number, so they never depend on the location a parser 
+ * reports, which some parsers keep in an int.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public final class ElementEndTracker implements MarkupScanner.Listener {
+
+	private final MarkupScanner scanner = new MarkupScanner(this);
+	private final long baseOffset;
+	
+	// Number of element ends scanned
+	private long elementEnds;
+	// Queue of the offsets of the last element ends not yet looked up, sized in powers of two
+	private long[] endOffsets = new long[64];
+	private int head;
+	private int size;
+	
+	/**
+	 * @param baseOffset The offset of the first character scanned
+	 */
+	public ElementEndTracker(long baseOffset) {
+		this.baseOffset = baseOffset;
+	}
+	
+	/**
+	 * Scan the next character of the text, or the next byte as an ISO-8859-1 character.
+	 */
+	public void scan(char c) {
+		scanner.scan(c);
+	}
+	
+	/**
+	 * Get the offset after an element.
+	 * 
+	 * Element ends before the given one are forgotten, so ends must be looked up in 
+	 * document order.
+	 * 
+	 * @param ordinal The number of the element end in document order, starting from 1
+	 * @return The offset after the element relative to the base offset, or -1 if it is unknown
+	 */
+	public long getElementEndOffset(long ordinal) {
+		long first = elementEnds - size + 1;
+		if (ordinal < first || ordinal > elementEnds) {
+			return -1;
+		}
+		int skipped = (int) (ordinal - first);
+		head += skipped;
+		size -= skipped;
+		return baseOffset + endOffsets[head & (endOffsets.length - 1)];
+	}
+	
+	@Override
+	public void elementStarted(long offset, int depth) {
+	}
+	
+	@Override
+	public void startTagEnded(long offset, boolean empty) {
+	}
+	
+	@Override
+	public void elementEnded(long tagOffset, long offset, int depth) {
+		if (size == endOffsets.length) {
+			// Unroll the queue into an array of twice the size
+			int start = head & (endOffsets.length - 1);
+			long[] ends = new long[size * 2];
+			int tail = size - start;
+			System.arraycopy(endOffsets, start, ends, 0, tail);
+			System.arraycopy(endOffsets, 0, ends, tail, start);
+			endOffsets = ends;
+			head = 0;
+		}
+		endOffsets[(head + size) & (endOffsets.length - 1)] = offset;
+		size++;
+		elementEnds++;
+	}
+}
@@ -0,0 +1,26 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+
+/**
+ * Thrown by {@link LimitedReader} and {@link LimitedInputStream} when reading 
+ * beyond the limit of the input.
+ * 
+ * @author jip
+ *
+ */
+public class InputLimitExceededException extends IOException {
+
+	private static final long serialVersionUID = 1L;
+	
+	private final long limit;
+	
+	public InputLimitExceededException(long limit) {
+		super("Input exceeds the limit of " + limit);
+		this.limit = limit;
+	}
+	
+	public long getLimit() {
+		return limit;
+	}
+}
@@ -0,0 +1,74 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Input stream failing with an {@link InputLimitExceededException} when more than a 
+ * given number of bytes are read.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class LimitedInputStream extends FilterInputStream {
+
+	private final long limit;
+	private long remaining;
+	
+	public LimitedInputStream(InputStream input, long limit) {
+		super(input);
+		this.limit = limit;
+		this.remaining = limit;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = in.read();
+		if (b >= 0) {
+			count(1);
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		// Read one byte more than allowed to tell input ending at the limit from input exceeding it
+		int count = in.read(b, off, (int) Math.min(len, remaining + 1));
+		if (count > 0) {
+			count(count);
+		}
+		return count;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, remaining + 1));
+		count(skipped);
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+	
+	@Override
+	public synchronized void mark(int readlimit) {
+	}
+	
+	@Override
+	public synchronized void reset() throws IOException {
+		throw new IOException("Reset not supported");
+	}
+	
+	private void count(long count) throws InputLimitExceededException {
+		remaining -= count;
+		if (remaining < 0) {
+			throw new InputLimitExceededException(limit);
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reader failing with an {@link InputLimitExceededException} when more than a 
+ * given number of characters are read.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class LimitedReader extends FilterReader {
+
+	private final long limit;
+	private long remaining;
+	
+	public LimitedReader(Reader reader, long limit) {
+		super(reader);
+		this.limit = limit;
+		this.remaining = limit;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int c = in.read();
+		if (c >= 0) {
+			count(1);
+		}
+		return c;
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		// Read one character more than allowed to tell input ending at the limit from input exceeding it
+		int count = in.read(cbuf, off, (int) Math.min(len, remaining + 1));
+		if (count > 0) {
+			count(count);
+		}
+		return count;
+	}
+	
+	@Override
+	public long skip(long n) throws IOException {
+		long skipped = in.skip(Math.min(n, remaining + 1));
+		count(skipped);
+		return skipped;
+	}
+	
+	@Override
+	public boolean markSupported() {
+		return false;
+	}
+	
+	@Override
+	public void mark(int readAheadLimit) throws IOException {
+		throw new IOException("Mark not supported");
+	}
+	
+	@Override
+	public void reset() throws IOException {
+		throw new IOException("Reset not supported");
+	}
+	
+	private void count(long count) throws InputLimitExceededException {
+		remaining -= count;
+		if (remaining < 0) {
+			throw new InputLimitExceededException(limit);
+		}
+	}
+}
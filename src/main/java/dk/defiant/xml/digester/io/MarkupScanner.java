@@ -0,0 +1,305 @@
+package dk.defiant.xml.digester.io;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Lightweight scanner tracking the element structure of XML text without parsing it.
+ * <p>
+ * The scanner recognises tags, quoted attribute values, comments, CDATA sections,
+ * processing instructions and document type declarations, which is enough to know 
+ * where elements start and end. It does not check well-formedness and it does not
+ * expand entities, so markup coming from entity replacement text is not seen.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class MarkupScanner {
+
+	/**
+	 * Receives the element boundaries found by the scanner.
+	 */
+	public interface Listener {
+		
+		/**
+		 * Called when the '&lt;' of a start tag has been scanned.
+		 * 
+		 * @param offset The offset of the '&lt;'
+		 * @param depth The depth of the element, 1 for the root element
+		 */
+		void elementStarted(long offset, int depth);
+		
+		/**
+		 * Called when the '&gt;' ending a start tag has been scanned.
+		 * 
+		 * @param offset The offset after the '&gt;'
+		 * @param empty true if the tag is an empty element tag, in which case 
+		 *        {@link #elementEnded(long, long, int)} follows right away
+		 */
+		void startTagEnded(long offset, boolean empty);
+		
+		/**
+		 * Called when the '&gt;' ending an element has been scanned, i.e. the end of
+		 * an end tag or of an empty element tag.
+		 * 
+		 * @param tagOffset The offset of the '&lt;' of the tag ending the element
+		 * @param offset The offset after the '&gt;'
+		 * @param depth The depth of the element, 1 for the root element
+		 */
+		void elementEnded(long tagOffset, long offset, int depth);
+	}
+	
+	private enum State {
+		CONTENT,
+		LESS_THAN,
+		START_TAG,
+		ATTRIBUTE_VALUE,
+		END_TAG,
+		PROCESSING_INSTRUCTION,
+		PROCESSING_INSTRUCTION_QUESTION_MARK,
+		BANG,
+		COMMENT_START,
+		COMMENT,
+		COMMENT_DASH,
+		COMMENT_DASH_DASH,
+		CDATA,
+		CDATA_BRACKET,
+		CDATA_BRACKET_BRACKET,
+		DECLARATION,
+		DECLARATION_QUOTE,
+	}
+	
+	private final Listener listener;
+	private State state = State.CONTENT;
+	private char quote;
+	private boolean slash;
+	private int depth;
+	private int declarationDepth;
+	private long offset;
+	private long tagOffset;
+	private boolean rootEnded;
+	
+	/**
+	 * @param listener Listener for element boundaries or null if only depth is of interest
+	 */
+	public MarkupScanner(Listener listener) {
+		this.listener = listener;
+	}
+	
+	/**
+	 * Prepare for scanning a new document. The offset keeps counting.
+	 */
+	public void reset() {
+		state = State.CONTENT;
+		depth = 0;
+		slash = false;
+		rootEnded = false;
+	}
+	
+	/**
+	 * Scan characters, stopping right after the end of the root element.
+	 * 
+	 * @param buffer The characters to scan
+	 * @param from Index of the first character to scan
+	 * @param to Index after the last character to scan
+	 * @return The index after the last scanned character
+	 */
+	public int scan(char[] buffer, int from, int to) {
+		int i = from;
+		while (i < to && !rootEnded) {
+			scan(buffer[i++]);
+		}
+		return i;
+	}
+	
+	/**
+	 * Scan the bytes of UTF-8 or a single byte encoding extending ASCII, stopping right 
+	 * after the end of the root element.
+	 * 
+	 * @param buffer The bytes to scan
+	 * @param from Index of the first byte to scan
+	 * @param to Index after the last byte to scan
+	 * @return The index after the last scanned byte
+	 * @see XmlEncoding#isScannable(java.nio.charset.Charset)
+	 */
+	public int scan(byte[] buffer, int from, int to) {
+		int i = from;
+		while (i < to && !rootEnded) {
+			// Bytes of UTF-8 multi-byte characters are 0x80 and up, so they are never markup
+			scan((char) (buffer[i++] & 0xff));
+		}
+		return i;
+	}
+	
+	/**
+	 * Scan a single character.
+	 * 
+	 * @param c The character
+	 */
+	public void scan(char c) {
+		switch (state) {
+		case CONTENT:
+			if (c == '<') {
+				state = State.LESS_THAN;
+				tagOffset = offset;
+			}
+			break;
+		case LESS_THAN:
+			if (c == '?') {
+				state = State.PROCESSING_INSTRUCTION;
+			} else if (c == '!') {
+				state = State.BANG;
+			} else if (c == '/') {
+				state = State.END_TAG;
+			} else {
+				state = State.START_TAG;
+				slash = false;
+				if (listener != null) {
+					listener.elementStarted(tagOffset, depth + 1);
+				}
+			}
+			break;
+		case START_TAG:
+			if (c == '"' || c == '\'') {
+				quote = c;
+				state = State.ATTRIBUTE_VALUE;
+			} else if (c == '>') {
+				state = State.CONTENT;
+				if (listener != null) {
+					listener.startTagEnded(offset + 1, slash);
+				}
+				if (slash) {
+					endElement(depth + 1);
+				} else {
+					depth++;
+				}
+			} else {
+				slash = c == '/';
+			}
+			break;
+		case ATTRIBUTE_VALUE:
+			if (c == quote) {
+				state = State.START_TAG;
+				slash = false;
+			}
+			break;
+		case END_TAG:
+			if (c == '>') {
+				state = State.CONTENT;
+				endElement(depth--);
+			}
+			break;
+		case PROCESSING_INSTRUCTION:
+			if (c == '?') {
+				state = State.PROCESSING_INSTRUCTION_QUESTION_MARK;
+			}
+			break;
+		case PROCESSING_INSTRUCTION_QUESTION_MARK:
+			if (c == '>') {
+				state = State.CONTENT;
+			} else if (c != '?') {
+				state = State.PROCESSING_INSTRUCTION;
+			}
+			break;
+		case BANG:
+			if (c == '-') {
+				state = State.COMMENT_START;
+			} else if (c == '[') {
+				state = State.CDATA;
+			} else {
+				state = State.DECLARATION;
+				declarationDepth = 0;
+			}
+			break;
+		case COMMENT_START:
+			state = State.COMMENT;
+			break;
+		case COMMENT:
+			if (c == '-') {
+				state = State.COMMENT_DASH;
+			}
+			break;
+		case COMMENT_DASH:
+			state = c == '-' ? State.COMMENT_DASH_DASH : State.COMMENT;
+			break;
+		case COMMENT_DASH_DASH:
+			if (c == '>') {
+				state = State.CONTENT;
+			} else if (c != '-') {
+				state = State.COMMENT;
+			}
+			break;
+		case CDATA:
+			if (c == ']') {
+				state = State.CDATA_BRACKET;
+			}
+			break;
+		case CDATA_BRACKET:
+			state = c == ']' ? State.CDATA_BRACKET_BRACKET : State.CDATA;
+			break;
+		case CDATA_BRACKET_BRACKET:
+			if (c == '>') {
+				state = State.CONTENT;
+			} else if (c != ']') {
+				state = State.CDATA;
+			}
+			break;
+		case DECLARATION:
+			if (c == '"' || c == '\'') {
+				quote = c;
+				state = State.DECLARATION_QUOTE;
+			} else if (c == '[') {
+				declarationDepth++;
+			} else if (c == ']') {
+				declarationDepth--;
+			} else if (c == '>' && declarationDepth == 0) {
+				state = State.CONTENT;
+			}
+			break;
+		case DECLARATION_QUOTE:
+			if (c == quote) {
+				state = State.DECLARATION;
+			}
+			break;
+		}
+		offset++;
+	}
+	
+	/**
+	 * @return true if the root element of the current document has ended
+	 */
+	public boolean isRootEnded() {
+		return rootEnded;
+	}
+	
+	/**
+	 * @return The number of open elements
+	 */
+	public int getDepth() {
+		return depth;
+	}
+	
+	/**
+	 * @return The number of characters scanned
+	 */
+	public long getOffset() {
+		return offset;
+	}
+	
+	/**
+	 * @return true if the scanner is between markup, i.e. at character content
+	 */
+	public boolean isInContent() {
+		return state == State.CONTENT;
+	}
+	
+	private void endElement(int elementDepth) {
+		if (listener != null) {
+			listener.elementEnded(tagOffset, offset + 1, elementDepth);
+		}
+		if (elementDepth <= 1) {
+			rootEnded = true;
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Input stream keeping track of the byte offsets where elements end in the XML passing through it.
+ * <p>
+ * The bytes are scanned as ISO-8859-1 characters, like the {@link dk.defiant.xml.digester.index.RecordIndexer}
+ * does, so the XML must be in UTF-8 or a single byte encoding extending ASCII, like 
+ * ISO-8859-1. The first bytes are kept so the encoding can be detected from them.
+ * </p>
+ * 
+ * @see ElementEndTracker
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class OffsetTrackingInputStream extends InputStream {
+
+	// Enough for a byte order mark and an XML declaration
+	private static final int PREFIX_LENGTH = 1024;
+	
+	private final InputStream input;
+	private final ElementEndTracker tracker;
+	private final String encoding;
+	private final byte[] prefix = new byte[PREFIX_LENGTH];
+	private int prefixLength;
+	
+	/**
+	 * @param input The stream to track, positioned at the start of the document
+	 */
+	public OffsetTrackingInputStream(InputStream input) {
+		this(input, 0, null);
+	}
+	
+	/**
+	 * @param input The stream to track
+	 * @param baseOffset The offset of the first byte of the stream
+	 * @param encoding The encoding of the XML, or null to detect it from the first bytes
+	 */
+	public OffsetTrackingInputStream(InputStream input, long baseOffset, String encoding) {
+		this.input = input;
+		this.tracker = new ElementEndTracker(baseOffset);
+		this.encoding = encoding;
+	}
+	
+	/**
+	 * @return The tracker of the element ends read
+	 */
+	public ElementEndTracker getTracker() {
+		return tracker;
+	}
+	
+	/**
+	 * @return The encoding given or detected from the bytes read so far
+	 * @throws UnsupportedEncodingException if the encoding does not have single byte markup characters
+	 */
+	public String getEncoding() throws UnsupportedEncodingException {
+		return encoding != null ? encoding : XmlEncoding.detect(prefix, prefixLength).name();
+	}
+	
+	@Override
+	public int read() throws IOException {
+		int b = input.read();
+		if (b >= 0) {
+			scan((byte) b);
+		}
+		return b;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		int count = input.read(b, off, len);
+		for (int i = off; i < off + count; i++) {
+			scan(b[i]);
+		}
+		return count;
+	}
+	
+	private void scan(byte b) {
+		if (prefixLength < PREFIX_LENGTH) {
+			prefix[prefixLength++] = b;
+		}
+		tracker.scan((char) (b & 0xff));
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return input.available();
+	}
+	
+	@Override
+	public void close() throws IOException {
+		input.close();
+	}
+}
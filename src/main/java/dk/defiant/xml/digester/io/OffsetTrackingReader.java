@@ -0,0 +1,54 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reader keeping track of where elements end in the text passing through it.
+ * <p>
+ * Element ends are looked up by their number in document order, see {@link ElementEndTracker},
+ * so the offsets are the character offsets of the text read, counted as longs, whatever
+ * location the parser reports.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class OffsetTrackingReader extends Reader {
+
+	private final Reader reader;
+	private final ElementEndTracker tracker;
+	
+	/**
+	 * @param reader The reader to track
+	 * @param baseOffset The offset of the first character of the reader
+	 */
+	public OffsetTrackingReader(Reader reader, long baseOffset) {
+		this.reader = reader;
+		this.tracker = new ElementEndTracker(baseOffset);
+	}
+	
+	/**
+	 * @return The tracker of the element ends read
+	 */
+	public ElementEndTracker getTracker() {
+		return tracker;
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		int count = reader.read(cbuf, off, len);
+		for (int i = off; i < off + count; i++) {
+			tracker.scan(cbuf[i]);
+		}
+		return count;
+	}
+	
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
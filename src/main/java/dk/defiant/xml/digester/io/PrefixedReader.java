@@ -0,0 +1,41 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+import java.io.Reader;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Reader reading a prefix before continuing with another reader.
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class PrefixedReader extends Reader {
+
+	private final String prefix;
+	private final Reader reader;
+	private int position;
+	
+	public PrefixedReader(String prefix, Reader reader) {
+		this.prefix = prefix;
+		this.reader = reader;
+	}
+	
+	@Override
+	public int read(char[] cbuf, int off, int len) throws IOException {
+		if (position < prefix.length()) {
+			int count = Math.min(len, prefix.length() - position);
+			prefix.getChars(position, position + count, cbuf, off);
+			position += count;
+			return count;
+		}
+		return reader.read(cbuf, off, len);
+	}
+	
+	@Override
+	public void close() throws IOException {
+		reader.close();
+	}
+}
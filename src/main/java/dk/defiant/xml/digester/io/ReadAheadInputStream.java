@@ -0,0 +1,211 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+
+import net.jcip.annotations.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Input stream reading its source ahead on another thread.
+ * <p>
+ * A task on the executor fills buffers from the source while the bytes of earlier buffers
+ * are read from this stream, so whatever the source costs, e.g. decompression, runs in 
+ * parallel with the reader. The buffers are recycled: a fixed number of them go back and 
+ * forth between the task and the reader. A buffer is handed over when it is full or the 
+ * source ends.
+ * </p>
+ * <p>
+ * The source is read and closed by the read-ahead task only. Closing this stream stops
+ * the task after the buffer it is filling.
+ * </p>
+ * 
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class ReadAheadInputStream extends InputStream {
+
+	private static final Logger log = LoggerFactory.getLogger(ReadAheadInputStream.class);
+	
+	public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+	public static final int DEFAULT_BUFFERS = 4;
+	
+	private static final class Buffer {
+		final byte[] data;
+		int length;
+		boolean last;
+		IOException error;
+		
+		Buffer(int size) {
+			data = new byte[size];
+		}
+	}
+	
+	private final BlockingQueue<Buffer> free;
+	private final BlockingQueue<Buffer> filled;
+	private volatile boolean closed = false;
+	
+	// Only accessed by the reader
+	private Buffer current;
+	private int position;
+	private IOException failure;
+	
+	public ReadAheadInputStream(InputStream source, Executor executor) {
+		this(source, executor, DEFAULT_BUFFER_SIZE, DEFAULT_BUFFERS);
+	}
+	
+	/**
+	 * @param source The stream to read ahead
+	 * @param executor The executor to run the read-ahead task on
+	 * @param bufferSize The size of the buffers
+	 * @param buffers The number of buffers, at least 2 for the reader and the task to run in parallel
+	 */
+	public ReadAheadInputStream(final InputStream source, Executor executor, int bufferSize, int buffers) {
+		if (bufferSize <= 0 || buffers <= 0) {
+			throw new IllegalArgumentException("Buffer size and number of buffers must be positive");
+		}
+		free = new ArrayBlockingQueue<Buffer>(buffers);
+		// Room for every buffer, so handing one over never blocks
+		filled = new ArrayBlockingQueue<Buffer>(buffers);
+		for (int i = 0; i < buffers; i++) {
+			free.add(new Buffer(bufferSize));
+		}
+		executor.execute(new Runnable() {
+			@Override
+			public void run() {
+				readAhead(source);
+			}
+		});
+	}
+	
+	private void readAhead(InputStream source) {
+		try {
+			while (!closed) {
+				Buffer buffer = free.take();
+				if (closed) {
+					break;
+				}
+				fill(source, buffer);
+				filled.add(buffer);
+				if (buffer.last) {
+					break;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			try {
+				source.close();
+			} catch (IOException e) {
+				log.warn("Error closing read-ahead source", e);
+			}
+		}
+	}
+	
+	private static void fill(InputStream source, Buffer buffer) {
+		buffer.length = 0;
+		buffer.last = false;
+		buffer.error = null;
+		try {
+			while (buffer.length < buffer.data.length) {
+				int count = source.read(buffer.data, buffer.length, buffer.data.length - buffer.length);
+				if (count < 0) {
+					buffer.last = true;
+					break;
+				}
+				buffer.length += count;
+			}
+		} catch (IOException e) {
+			buffer.length = 0;
+			buffer.last = true;
+			buffer.error = e;
+		} catch (RuntimeException e) {
+			buffer.length = 0;
+			buffer.last = true;
+			buffer.error = new IOException(e);
+		}
+	}
+	
+	/**
+	 * Make sure the current buffer has bytes left.
+	 * 
+	 * @return false at the end of the stream
+	 */
+	private boolean ensureAvailable() throws IOException {
+		if (closed) {
+			throw new IOException("Stream closed");
+		}
+		while (current == null || position == current.length) {
+			if (failure != null) {
+				throw new IOException(failure.getMessage(), failure);
+			}
+			if (current != null) {
+				if (current.last) {
+					return false;
+				}
+				free.add(current);
+				current = null;
+			}
+			try {
+				current = filled.take();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException("Interrupted waiting for read-ahead");
+			}
+			position = 0;
+			failure = current.error;
+		}
+		return true;
+	}
+	
+	@Override
+	public int read() throws IOException {
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		return current.data[position++] & 0xff;
+	}
+	
+	@Override
+	public int read(byte[] b, int off, int len) throws IOException {
+		if (len == 0) {
+			return 0;
+		}
+		if (!ensureAvailable()) {
+			return -1;
+		}
+		int count = Math.min(len, current.length - position);
+		System.arraycopy(current.data, position, b, off, count);
+		position += count;
+		return count;
+	}
+	
+	@Override
+	public int available() throws IOException {
+		return current == null || closed ? 0 : current.length - position;
+	}
+	
+	@Override
+	public void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		// Hand the buffers back so a task waiting for one wakes up and sees the stream is closed
+		if (current != null) {
+			free.add(current);
+			current = null;
+		}
+		Buffer buffer;
+		while ((buffer = filled.poll()) != null) {
+			free.add(buffer);
+		}
+	}
+}
@@ -0,0 +1,60 @@
+package dk.defiant.xml.digester.io;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Detection of the encoding of XML that is scanned as bytes.
+ * 
+ * @author jip
+ *
+ */
+public final class XmlEncoding {
+
+	private static final Charset latin1 = Charset.forName("ISO-8859-1");
+	private static final Charset utf8 = Charset.forName("UTF-8");
+	private static final Pattern encodingPattern = Pattern.compile("^(?:\\xEF\\xBB\\xBF)?<\\?xml[^>]*encoding\\s*=\\s*[\"']([^\"']+)[\"']");
+	
+	private XmlEncoding() {
+	}
+	
+	/**
+	 * Detect the encoding of an XML document from its first bytes. The encoding is taken 
+	 * from the XML declaration and defaults to UTF-8.
+	 * 
+	 * @param buffer The first bytes of the document
+	 * @param count The number of bytes in the buffer
+	 * @return The encoding
+	 * @throws UnsupportedEncodingException if the encoding can not be scanned as bytes, e.g. UTF-16 or Shift_JIS
+	 */
+	public static Charset detect(byte[] buffer, int count) throws UnsupportedEncodingException {
+		if (count >= 2 && ((buffer[0] == (byte) 0xfe && buffer[1] == (byte) 0xff) || (buffer[0] == (byte) 0xff && buffer[1] == (byte) 0xfe))) {
+			throw new UnsupportedEncodingException("UTF-16 documents can not be scanned as bytes");
+		}
+		Matcher matcher = encodingPattern.matcher(new String(buffer, 0, Math.min(count, 1024), latin1));
+		Charset charset = matcher.find() ? Charset.forName(matcher.group(1)) : utf8;
+		if (!isScannable(charset)) {
+			throw new UnsupportedEncodingException(charset.name() + " documents can not be scanned as bytes");
+		}
+		return charset;
+	}
+	
+	/**
+	 * An encoding can be scanned as bytes if every byte below 0x80 is the ASCII character 
+	 * it would be on its own. That holds for UTF-8, where all bytes of multi-byte characters
+	 * are 0x80 and up, and for single byte encodings that extend ASCII. It does not hold
+	 * for e.g. Shift_JIS, GBK and Big5, where the second byte of a character can be '[' or ']'.
+	 * 
+	 * @param charset An encoding
+	 * @return true if the encoding can be scanned as bytes
+	 */
+	public static boolean isScannable(Charset charset) {
+		if (!charset.canEncode() || !Arrays.equals("<a/>".getBytes(charset), "<a/>".getBytes(latin1))) {
+			return false;
+		}
+		return utf8.equals(charset) || charset.newEncoder().maxBytesPerChar() == 1;
+	}
+}
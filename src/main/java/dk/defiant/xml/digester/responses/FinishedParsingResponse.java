@@ -7,4 +7,22 @@ public class FinishedParsingResponse extends HandlerResponse {
 	public FinishedParsingResponse() {
 		super(HandlerResponse.Type.FINISHED_PARSING);
 	}
+	
+	/**
+	 * Finish parsing with a result that replaces the digest target of the handler, e.g. an 
+	 * object created when the handler finished. The handler that delegated to the finishing 
+	 * handler gets the result as the digest target of the event the handler finished at.
+	 * 
+	 * @param result The result
+	 */
+	public FinishedParsingResponse(Object result) {
+		super(HandlerResponse.Type.FINISHED_PARSING, null, result);
+	}
+	
+	/**
+	 * @return The result of the handler or null
+	 */
+	public Object getResult() {
+		return getDigestTarget();
+	}
 }
@@ -0,0 +1,28 @@
+package dk.defiant.xml.digester.responses;
+
+import java.io.OutputStream;
+import java.nio.channels.WritableByteChannel;
+
+import dk.defiant.xml.digester.BinaryHandler;
+import dk.defiant.xml.digester.HandlerResponse;
+import dk.defiant.xml.digester.handlers.GetBinaryHandler;
+
+public class GetBinaryResponse extends HandlerResponse {
+
+	public GetBinaryResponse(OutputStream output, GetBinaryHandler.Encoding encoding) {
+		super(Type.DELEGATE, new GetBinaryHandler<Object>(output, encoding));
+	}
+	
+	public <T> GetBinaryResponse(OutputStream output, GetBinaryHandler.Encoding encoding, BinaryHandler<T> binaryHandler) {
+		super(Type.DELEGATE, new GetBinaryHandler<T>(output, encoding, binaryHandler));
+	}
+	
+	public GetBinaryResponse(WritableByteChannel channel, GetBinaryHandler.Encoding encoding) {
+		super(Type.DELEGATE, new GetBinaryHandler<Object>(channel, encoding));
+	}
+	
+	public <T> GetBinaryResponse(WritableByteChannel channel, GetBinaryHandler.Encoding encoding, BinaryHandler<T> binaryHandler) {
+		super(Type.DELEGATE, new GetBinaryHandler<T>(channel, encoding, binaryHandler));
+	}
+	
+}
@@ -0,0 +1,13 @@
+package dk.defiant.xml.digester.responses;
+
+import dk.defiant.xml.digester.HandlerResponse;
+import dk.defiant.xml.digester.TreeHandler;
+import dk.defiant.xml.digester.handlers.GetTreeHandler;
+
+public class GetTreeResponse extends HandlerResponse {
+
+	public <T> GetTreeResponse(TreeHandler<T> treeHandler) {
+		super(Type.DELEGATE, new GetTreeHandler<T>(treeHandler));
+	}
+	
+}
@@ -0,0 +1,343 @@
+package dk.defiant.xml.digester.tree;
+
+import java.util.Arrays;
+
+import javax.xml.namespace.QName;
+
+import net.jcip.annotations.Immutable;
+
+/**
+ * Read-only tree of an XML element stored in parallel arrays.
+ * <p>
+ * Nodes are elements and text nodes identified by their index in document order, the
+ * root element being node 0. Names are interned, so a tree has one {@link QName} per
+ * distinct name, and text is kept in a single character array from which strings are
+ * only made when asked for. Comments and processing instructions are not kept.
+ * </p>
+ * <p>
+ * Elements can be looked up by paths of child element names separated by {@code /},
+ * relative to the root or to a given element. A name is a local name, {@code {uri}local}
+ * for a name in a namespace ({@code {}local} for no namespace), or {@code *} for any element. The last step of a path given
+ * to {@link #getValue(String)} can be an attribute, e.g. {@code address/@type}.
+ * </p>
+ * <pre>
+ * CompactTree tree = ...;
+ * String street = tree.getValue("address/street");
+ * for (int item : tree.findAll("items/item")) {
+ *     String sku = tree.getAttribute(item, "sku");
+ * }
+ * </pre>
+ *
+ * @see CompactTreeBuilder
+ * @author jip
+ *
+ */
+@Immutable
+public final class CompactTree {
+
+	/**
+	 * Index returned when there is no such node
+	 */
+	public static final int NONE = -1;
+
+	// Name index of text nodes
+	static final int TEXT = -1;
+
+	private final QName[] names;
+	private final int[] nodeNames;
+	private final int[] parents;
+	private final int[] nextSiblings;
+	private final int[] subtreeEnds;
+	private final int[] textStarts;
+	private final int[] textEnds;
+	private final int[] attributeStarts;
+	private final int[] attributeCounts;
+	private final int[] attributeNames;
+	private final int[] attributeValueStarts;
+	private final int[] attributeValueEnds;
+	private final char[] text;
+	private final char[] attributeText;
+
+	CompactTree(QName[] names, int[] nodeNames, int[] parents, int[] nextSiblings, int[] subtreeEnds, int[] textStarts, int[] textEnds,
+			int[] attributeStarts, int[] attributeCounts, int[] attributeNames, int[] attributeValueStarts, int[] attributeValueEnds,
+			char[] text, char[] attributeText) {
+		this.names = names;
+		this.nodeNames = nodeNames;
+		this.parents = parents;
+		this.nextSiblings = nextSiblings;
+		this.subtreeEnds = subtreeEnds;
+		this.textStarts = textStarts;
+		this.textEnds = textEnds;
+		this.attributeStarts = attributeStarts;
+		this.attributeCounts = attributeCounts;
+		this.attributeNames = attributeNames;
+		this.attributeValueStarts = attributeValueStarts;
+		this.attributeValueEnds = attributeValueEnds;
+		this.text = text;
+		this.attributeText = attributeText;
+	}
+
+	/**
+	 * @return The root element
+	 */
+	public int getRoot() {
+		return 0;
+	}
+
+	/**
+	 * @return The number of nodes of the tree
+	 */
+	public int size() {
+		return nodeNames.length;
+	}
+
+	public boolean isElement(int node) {
+		return nodeNames[node] != TEXT;
+	}
+
+	/**
+	 * @param node An element
+	 * @return The name of the element or null for a text node
+	 */
+	public QName getName(int node) {
+		return isElement(node) ? names[nodeNames[node]] : null;
+	}
+
+	/**
+	 * @param node An element
+	 * @return The local name of the element or null for a text node
+	 */
+	public String getLocalName(int node) {
+		return isElement(node) ? names[nodeNames[node]].getLocalPart() : null;
+	}
+
+	/**
+	 * @return The parent element of the node or {@link #NONE} for the root
+	 */
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	/**
+	 * @return The first child node of the node or {@link #NONE}
+	 */
+	public int getFirstChild(int node) {
+		return node + 1 < subtreeEnds[node] ? node + 1 : NONE;
+	}
+
+	/**
+	 * @return The next sibling node of the node or {@link #NONE}
+	 */
+	public int getNextSibling(int node) {
+		return nextSiblings[node];
+	}
+
+	/**
+	 * @return The first child element of the node or {@link #NONE}
+	 */
+	public int getFirstChildElement(int node) {
+		int child = getFirstChild(node);
+		while (child != NONE && !isElement(child)) {
+			child = nextSiblings[child];
+		}
+		return child;
+	}
+
+	/**
+	 * @return The next sibling element of the node or {@link #NONE}
+	 */
+	public int getNextSiblingElement(int node) {
+		int sibling = nextSiblings[node];
+		while (sibling != NONE && !isElement(sibling)) {
+			sibling = nextSiblings[sibling];
+		}
+		return sibling;
+	}
+
+	/**
+	 * Get the text of a node. The text of an element is the text of all its descendants.
+	 *
+	 * @param node A node
+	 * @return The text of the node
+	 */
+	public String getText(int node) {
+		return new String(text, textStarts[node], textEnds[node] - textStarts[node]);
+	}
+
+	/**
+	 * @return The number of attributes of the element, 0 for text nodes
+	 */
+	public int getAttributeCount(int node) {
+		return attributeCounts[node];
+	}
+
+	/**
+	 * @param node An element
+	 * @param index The index of the attribute
+	 * @return The name of the attribute
+	 */
+	public QName getAttributeName(int node, int index) {
+		return names[attributeNames[attribute(node, index)]];
+	}
+
+	/**
+	 * @param node An element
+	 * @param index The index of the attribute
+	 * @return The value of the attribute
+	 */
+	public String getAttributeValue(int node, int index) {
+		int attribute = attribute(node, index);
+		return new String(attributeText, attributeValueStarts[attribute], attributeValueEnds[attribute] - attributeValueStarts[attribute]);
+	}
+
+	/**
+	 * @param node An element
+	 * @param localName The local name of the attribute
+	 * @return The value of the first attribute with the local name or null
+	 */
+	public String getAttribute(int node, String localName) {
+		for (int i = 0; i < attributeCounts[node]; i++) {
+			if (localName.equals(getAttributeName(node, i).getLocalPart())) {
+				return getAttributeValue(node, i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @param node An element
+	 * @param name The name of the attribute
+	 * @return The value of the attribute or null
+	 */
+	public String getAttribute(int node, QName name) {
+		for (int i = 0; i < attributeCounts[node]; i++) {
+			if (name.equals(getAttributeName(node, i))) {
+				return getAttributeValue(node, i);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Find the first element at a path relative to the root element.
+	 *
+	 * @param path The path, e.g. {@code address/street}
+	 * @return The element or {@link #NONE}
+	 */
+	public int find(String path) {
+		return find(getRoot(), path);
+	}
+
+	/**
+	 * Find the first element at a path relative to an element.
+	 *
+	 * @param node The element the path is relative to
+	 * @param path The path, e.g. {@code address/street}
+	 * @return The element or {@link #NONE}
+	 */
+	public int find(int node, String path) {
+		int[] found = find(node, steps(path), 1);
+		return found.length == 0 ? NONE : found[0];
+	}
+
+	/**
+	 * Find all elements at a path relative to the root element.
+	 *
+	 * @param path The path, e.g. {@code items/item}
+	 * @return The elements in document order
+	 */
+	public int[] findAll(String path) {
+		return findAll(getRoot(), path);
+	}
+
+	/**
+	 * Find all elements at a path relative to an element.
+	 *
+	 * @param node The element the path is relative to
+	 * @param path The path, e.g. {@code items/item}
+	 * @return The elements in document order
+	 */
+	public int[] findAll(int node, String path) {
+		return find(node, steps(path), Integer.MAX_VALUE);
+	}
+
+	/**
+	 * Get the text of the first element at a path, or the value of an attribute if the
+	 * last step of the path is an attribute, e.g. {@code address/@type}.
+	 *
+	 * @param path The path relative to the root element
+	 * @return The text or attribute value or null if there is no such element or attribute
+	 */
+	public String getValue(String path) {
+		int attributeStep = path.lastIndexOf('@');
+		if (attributeStep < 0) {
+			int node = find(path);
+			return node == NONE ? null : getText(node);
+		}
+		int node = attributeStep == 0 ? getRoot() : find(path.substring(0, attributeStep - 1));
+		if (node == NONE) {
+			return null;
+		}
+		String attribute = path.substring(attributeStep + 1);
+		return attribute.startsWith("{") ? getAttribute(node, qName(attribute)) : getAttribute(node, attribute);
+	}
+
+	private int attribute(int node, int index) {
+		if (index < 0 || index >= attributeCounts[node]) {
+			throw new IndexOutOfBoundsException("Attribute " + index + " of " + attributeCounts[node]);
+		}
+		return attributeStarts[node] + index;
+	}
+
+	/**
+	 * Parse a name of the form {@code {uri}local}, allowing an empty URI for no namespace
+	 */
+	private static QName qName(String name) {
+		int end = name.indexOf('}');
+		if (end < 0) {
+			throw new IllegalArgumentException("Missing } in name " + name);
+		}
+		return new QName(name.substring(1, end), name.substring(end + 1));
+	}
+	
+	private static String[] steps(String path) {
+		return path.isEmpty() ? new String[0] : path.split("/");
+	}
+
+	private int[] find(int node, String[] steps, int limit) {
+		int[] found = new int[] { node };
+		for (int i = 0; i < steps.length; i++) {
+			String step = steps[i];
+			// Only the matches of the last step are limited
+			int stepLimit = i == steps.length - 1 ? limit : Integer.MAX_VALUE;
+			int[] matches = new int[4];
+			int count = 0;
+			for (int parent : found) {
+				for (int child = getFirstChildElement(parent); child != NONE && count < stepLimit; child = getNextSiblingElement(child)) {
+					if (matches(child, step)) {
+						if (count == matches.length) {
+							matches = Arrays.copyOf(matches, count * 2);
+						}
+						matches[count++] = child;
+					}
+				}
+			}
+			found = Arrays.copyOf(matches, count);
+			if (count == 0) {
+				break;
+			}
+		}
+		return found;
+	}
+
+	private boolean matches(int node, String step) {
+		if ("*".equals(step)) {
+			return true;
+		}
+		QName name = names[nodeNames[node]];
+		if (step.startsWith("{")) {
+			return name.equals(qName(step));
+		}
+		return step.equals(name.getLocalPart());
+	}
+}
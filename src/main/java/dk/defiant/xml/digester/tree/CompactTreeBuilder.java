@@ -0,0 +1,237 @@
+package dk.defiant.xml.digester.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.events.Attribute;
+import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+
+import net.jcip.annotations.NotThreadSafe;
+
+/**
+ * Builder of a {@link CompactTree} from the events of an element.
+ * <p>
+ * The events are added from the start element of the root element to its end element,
+ * after which the tree can be built. Adjacent text events are merged into one text node.
+ * The builder can be reset and reused, keeping the arrays it has grown.
+ * </p>
+ *
+ * @author jip
+ *
+ */
+@NotThreadSafe
+public class CompactTreeBuilder {
+
+	private static final int INITIAL_CAPACITY = 16;
+
+	private final Map<QName, Integer> nameIndexes = new HashMap<QName, Integer>();
+	private final List<QName> names = new ArrayList<QName>();
+
+	private int nodeCount;
+	private int[] nodeNames = new int[INITIAL_CAPACITY];
+	private int[] parents = new int[INITIAL_CAPACITY];
+	private int[] nextSiblings = new int[INITIAL_CAPACITY];
+	private int[] subtreeEnds = new int[INITIAL_CAPACITY];
+	private int[] textStarts = new int[INITIAL_CAPACITY];
+	private int[] textEnds = new int[INITIAL_CAPACITY];
+	private int[] attributeStarts = new int[INITIAL_CAPACITY];
+	private int[] attributeCounts = new int[INITIAL_CAPACITY];
+
+	private int attributeCount;
+	private int[] attributeNames = new int[INITIAL_CAPACITY];
+	private int[] attributeValueStarts = new int[INITIAL_CAPACITY];
+	private int[] attributeValueEnds = new int[INITIAL_CAPACITY];
+
+	private int textLength;
+	private char[] text = new char[INITIAL_CAPACITY * 8];
+	private int attributeTextLength;
+	private char[] attributeText = new char[INITIAL_CAPACITY * 8];
+
+	// Open elements and their last child so far
+	private int depth;
+	private int[] openElements = new int[INITIAL_CAPACITY];
+	private int[] lastChildren = new int[INITIAL_CAPACITY];
+	private boolean complete = false;
+
+	/**
+	 * Add an event of the element. Events other than elements and text are skipped.
+	 *
+	 * @param event The event
+	 * @return true if the event was the end element of the root element
+	 */
+	public boolean add(XMLEvent event) {
+		if (complete) {
+			throw new IllegalStateException("The root element has ended");
+		}
+		switch (event.getEventType()) {
+		case XMLEvent.START_ELEMENT:
+			startElement(event.asStartElement());
+			break;
+		case XMLEvent.END_ELEMENT:
+			endElement();
+			break;
+		case XMLEvent.CHARACTERS:
+		case XMLEvent.CDATA:
+		case XMLEvent.SPACE:
+			characters(event.asCharacters().getData());
+			break;
+		default:
+			// Comments, processing instructions etc. are not part of the tree
+			break;
+		}
+		return complete;
+	}
+
+	/**
+	 * @return true when the root element has ended
+	 */
+	public boolean isComplete() {
+		return complete;
+	}
+
+	/**
+	 * Build the tree of the events added.
+	 *
+	 * @return The tree
+	 * @throws IllegalStateException if the root element has not ended
+	 */
+	public CompactTree build() {
+		if (!complete) {
+			throw new IllegalStateException("The root element has not ended");
+		}
+		return new CompactTree(names.toArray(new QName[names.size()]),
+				Arrays.copyOf(nodeNames, nodeCount), Arrays.copyOf(parents, nodeCount), Arrays.copyOf(nextSiblings, nodeCount),
+				Arrays.copyOf(subtreeEnds, nodeCount), Arrays.copyOf(textStarts, nodeCount), Arrays.copyOf(textEnds, nodeCount),
+				Arrays.copyOf(attributeStarts, nodeCount), Arrays.copyOf(attributeCounts, nodeCount),
+				Arrays.copyOf(attributeNames, attributeCount), Arrays.copyOf(attributeValueStarts, attributeCount), Arrays.copyOf(attributeValueEnds, attributeCount),
+				Arrays.copyOf(text, textLength), Arrays.copyOf(attributeText, attributeTextLength));
+	}
+
+	/**
+	 * Reset the builder for building another tree.
+	 */
+	public void reset() {
+		nameIndexes.clear();
+		names.clear();
+		nodeCount = 0;
+		attributeCount = 0;
+		textLength = 0;
+		attributeTextLength = 0;
+		depth = 0;
+		complete = false;
+	}
+
+	private void startElement(StartElement element) {
+		int node = addNode(nameIndex(element.getName()));
+		attributeStarts[node] = attributeCount;
+		@SuppressWarnings("unchecked")
+		Iterator<Attribute> attributes = element.getAttributes();
+		while (attributes.hasNext()) {
+			Attribute attribute = attributes.next();
+			addAttribute(nameIndex(attribute.getName()), attribute.getValue());
+		}
+		attributeCounts[node] = attributeCount - attributeStarts[node];
+		if (depth == openElements.length) {
+			openElements = Arrays.copyOf(openElements, depth * 2);
+			lastChildren = Arrays.copyOf(lastChildren, depth * 2);
+		}
+		openElements[depth] = node;
+		lastChildren[depth] = CompactTree.NONE;
+		depth++;
+	}
+
+	private void endElement() {
+		depth--;
+		int node = openElements[depth];
+		subtreeEnds[node] = nodeCount;
+		textEnds[node] = textLength;
+		complete = depth == 0;
+	}
+
+	private void characters(String data) {
+		if (depth == 0) {
+			// Text outside the root element
+			return;
+		}
+		int lastChild = lastChildren[depth - 1];
+		if (lastChild == CompactTree.NONE || lastChild != nodeCount - 1 || nodeNames[lastChild] != CompactTree.TEXT) {
+			lastChild = addNode(CompactTree.TEXT);
+			attributeStarts[lastChild] = attributeCount;
+			attributeCounts[lastChild] = 0;
+		}
+		text = ensureCapacity(text, textLength + data.length());
+		data.getChars(0, data.length(), text, textLength);
+		textLength += data.length();
+		textEnds[lastChild] = textLength;
+	}
+
+	private int addNode(int nameIndex) {
+		if (nodeCount == nodeNames.length) {
+			int capacity = nodeCount * 2;
+			nodeNames = Arrays.copyOf(nodeNames, capacity);
+			parents = Arrays.copyOf(parents, capacity);
+			nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+			subtreeEnds = Arrays.copyOf(subtreeEnds, capacity);
+			textStarts = Arrays.copyOf(textStarts, capacity);
+			textEnds = Arrays.copyOf(textEnds, capacity);
+			attributeStarts = Arrays.copyOf(attributeStarts, capacity);
+			attributeCounts = Arrays.copyOf(attributeCounts, capacity);
+		}
+		int node = nodeCount++;
+		nodeNames[node] = nameIndex;
+		nextSiblings[node] = CompactTree.NONE;
+		subtreeEnds[node] = node + 1;
+		textStarts[node] = textLength;
+		textEnds[node] = textLength;
+		if (depth > 0) {
+			parents[node] = openElements[depth - 1];
+			int previousSibling = lastChildren[depth - 1];
+			if (previousSibling != CompactTree.NONE) {
+				nextSiblings[previousSibling] = node;
+			}
+			lastChildren[depth - 1] = node;
+		} else {
+			parents[node] = CompactTree.NONE;
+		}
+		return node;
+	}
+
+	private void addAttribute(int nameIndex, String value) {
+		if (attributeCount == attributeNames.length) {
+			int capacity = attributeCount * 2;
+			attributeNames = Arrays.copyOf(attributeNames, capacity);
+			attributeValueStarts = Arrays.copyOf(attributeValueStarts, capacity);
+			attributeValueEnds = Arrays.copyOf(attributeValueEnds, capacity);
+		}
+		attributeText = ensureCapacity(attributeText, attributeTextLength + value.length());
+		value.getChars(0, value.length(), attributeText, attributeTextLength);
+		attributeNames[attributeCount] = nameIndex;
+		attributeValueStarts[attributeCount] = attributeTextLength;
+		attributeTextLength += value.length();
+		attributeValueEnds[attributeCount] = attributeTextLength;
+		attributeCount++;
+	}
+
+	private int nameIndex(QName name) {
+		Integer index = nameIndexes.get(name);
+		if (index == null) {
+			index = names.size();
+			names.add(name);
+			nameIndexes.put(name, index);
+		}
+		return index;
+	}
+
+	private static char[] ensureCapacity(char[] chars, int capacity) {
+		if (capacity <= chars.length) {
+			return chars;
+		}
+		return Arrays.copyOf(chars, Math.max(capacity, chars.length * 2));
+	}
+}
@@ -0,0 +1,199 @@
+package dk.defiant.xml.digester.flow;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.xml.stream.XMLStreamException;
+
+import net.jcip.annotations.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.defiant.xml.digester.RecordReader;
+
+/**
+ * Publisher of the records read by a {@link RecordReader}.
+ * <p>
+ * The document is parsed on the executor of the publisher, and only as far as the
+ * demand of the subscriber allows. When the demand reaches zero parsing pauses until
+ * more records are requested, so backpressure reaches all the way to the input.
+ * Cancelling the subscription closes the record reader. As the end of the records is only
+ * discovered when parsing for the next record, completion is signalled once the subscriber
+ * requests a record after the last one.
+ * </p>
+ * <pre>
+ * RecordReader&lt;Person&gt; people = digester.readRecords(input, new QName("person"), factory);
+ * new RecordPublisher&lt;Person&gt;(people, executor).subscribe(databaseWriter);
+ * </pre>
+ * <p>
+ * A record reader can only be read once, so the publisher accepts a single subscriber.
+ * </p>
+ *
+ * @author jip
+ *
+ */
+@ThreadSafe
+public class RecordPublisher<T> implements Flow.Publisher<T> {
+
+	private static final Logger log = LoggerFactory.getLogger(RecordPublisher.class);
+
+	private final RecordReader<T> records;
+	private final Executor executor;
+	private final AtomicBoolean subscribed = new AtomicBoolean(false);
+
+	/**
+	 * There is no default executor, as parsing blocks on I/O and would starve a pool meant for
+	 * short tasks, like the common fork join pool.
+	 *
+	 * @param records The record reader to publish the records of
+	 * @param executor The executor to parse on, which must allow blocking on I/O
+	 */
+	public RecordPublisher(RecordReader<T> records, Executor executor) {
+		if (executor == null) {
+			throw new NullPointerException("Executor must not be null");
+		}
+		this.records = records;
+		this.executor = executor;
+	}
+
+	@Override
+	public void subscribe(Flow.Subscriber<? super T> subscriber) {
+		if (subscriber == null) {
+			throw new NullPointerException("Subscriber must not be null");
+		}
+		if (!subscribed.compareAndSet(false, true)) {
+			subscriber.onSubscribe(new Flow.Subscription() {
+				@Override
+				public void request(long n) {
+				}
+
+				@Override
+				public void cancel() {
+				}
+			});
+			subscriber.onError(new IllegalStateException(RecordPublisher.class.getSimpleName() + " only accepts one subscriber"));
+			return;
+		}
+		RecordSubscription subscription = new RecordSubscription(subscriber);
+		subscriber.onSubscribe(subscription);
+	}
+
+	/**
+	 * Subscription reading records while there is demand. Signals are serialised by
+	 * only letting one drain run at a time, the last request or cancel to arrive
+	 * while a drain runs makes it loop once more.
+	 */
+	private final class RecordSubscription implements Flow.Subscription, Runnable {
+
+		private final Flow.Subscriber<? super T> subscriber;
+		private final AtomicLong demand = new AtomicLong();
+		private final AtomicInteger pendingDrains = new AtomicInteger();
+		private volatile boolean cancelled = false;
+		// Signalled instead of records, a bad request or a rejected drain
+		private volatile Throwable failure;
+
+		// Only accessed by the running drain
+		private boolean done = false;
+
+		RecordSubscription(Flow.Subscriber<? super T> subscriber) {
+			this.subscriber = subscriber;
+		}
+
+		@Override
+		public void request(long n) {
+			if (n <= 0) {
+				failure = new IllegalArgumentException("Requested " + n + " records, the number must be positive");
+			} else {
+				long current;
+				long updated;
+				do {
+					current = demand.get();
+					updated = current + n < 0 ? Long.MAX_VALUE : current + n;
+				} while (!demand.compareAndSet(current, updated));
+			}
+			schedule();
+		}
+
+		@Override
+		public void cancel() {
+			cancelled = true;
+			schedule();
+		}
+
+		private void schedule() {
+			if (pendingDrains.getAndIncrement() == 0) {
+				try {
+					executor.execute(this);
+				} catch (RejectedExecutionException e) {
+					// The drain is still ours to run, so signal the error through it on this thread
+					failure = e;
+					run();
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			int drains = pendingDrains.get();
+			while (true) {
+				drain();
+				drains = pendingDrains.addAndGet(-drains);
+				if (drains == 0) {
+					break;
+				}
+			}
+		}
+
+		private void drain() {
+			if (done) {
+				return;
+			}
+			if (cancelled) {
+				done = true;
+				closeRecords();
+				return;
+			}
+			if (failure != null) {
+				done = true;
+				closeRecords();
+				subscriber.onError(failure);
+				return;
+			}
+			try {
+				while (demand.get() > 0 && !cancelled) {
+					if (!records.hasNext()) {
+						done = true;
+						subscriber.onComplete();
+						return;
+					}
+					T record = records.next();
+					if (demand.get() != Long.MAX_VALUE) {
+						demand.decrementAndGet();
+					}
+					subscriber.onNext(record);
+				}
+				if (cancelled) {
+					done = true;
+					closeRecords();
+				}
+			} catch (Throwable t) {
+				done = true;
+				closeRecords();
+				subscriber.onError(t);
+			}
+		}
+
+		private void closeRecords() {
+			try {
+				records.close();
+			} catch (XMLStreamException e) {
+				log.warn("Error closing record reader", e);
+			}
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.StringReader;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.columnar.Aggregation;
+import dk.defiant.xml.digester.columnar.Aggregation.Function;
+import dk.defiant.xml.digester.columnar.AggregationResult;
+import dk.defiant.xml.digester.columnar.ColumnSchema;
+import dk.defiant.xml.digester.columnar.ColumnType;
+
+public class AggregationTest {
+
+	static class Order {
+		@Digest("@customer")
+		String customer;
+		
+		@Digest
+		int quantity;
+		
+		@Digest
+		double amount;
+	}
+	
+	private static final String ORDERS = "<orders>"
+			+ "<order customer='ann'><quantity>2</quantity><amount>10.5</amount></order>"
+			+ "<order customer='bob'><quantity>1</quantity><amount>3</amount></order>"
+			+ "<order customer='ann'><quantity>5</quantity></order>"
+			+ "<order><quantity>7</quantity><amount>1</amount></order>"
+			+ "</orders>";
+	
+	@Test
+	public void aggregatesGroupsOfAnnotatedRecords() throws Exception {
+		Aggregation aggregation = Aggregation.of(ColumnSchema.fromAnnotations(new QName("order"), Order.class))
+				.groupBy("customer")
+				.with(Function.SUM, "quantity")
+				.with(Function.MAX, "quantity")
+				.with(Function.SUM, "amount")
+				.with(Function.MIN, "amount")
+				.with(Function.COUNT, "amount");
+		AggregationResult result = new XmlDigester().aggregate(new StringReader(ORDERS), aggregation);
+		assertEquals(3, result.getGroupCount());
+		
+		int ann = result.findGroup("ann");
+		assertEquals(0, ann);
+		assertEquals(2, result.getCount(ann));
+		assertEquals(7, result.getLongValue(ann, 0));
+		assertEquals(5, result.getLongValue(ann, 1));
+		assertEquals(10.5, result.getValue(ann, 2), 0);
+		assertEquals(10.5, result.getValue(ann, 3), 0);
+		assertEquals(1, result.getLongValue(ann, 4));
+		
+		int none = result.findGroup(null);
+		assertEquals(2, none);
+		assertNull(result.getKey(none));
+		assertEquals(7, result.getLongValue(none, 0));
+	}
+	
+	@Test
+	public void aggregatesAllRecordsWithoutGrouping() throws Exception {
+		ColumnSchema schema = ColumnSchema.forRecords(new QName("order"))
+				.withColumn("quantity", "quantity", ColumnType.LONG)
+				.withColumn("amount", "amount", ColumnType.DOUBLE);
+		AggregationResult result = new XmlDigester().aggregate(new StringReader(ORDERS), 
+				Aggregation.of(schema).with(Function.SUM, "quantity").with(Function.MAX, "amount"));
+		assertEquals(1, result.getGroupCount());
+		assertEquals(4, result.getCount(0));
+		assertEquals(15, result.getLongValue(0, 0));
+		assertEquals(10.5, result.getValue(0, 1), 0);
+		
+		AggregationResult empty = new XmlDigester().aggregate(new StringReader("<orders/>"), 
+				Aggregation.of(schema).with(Function.MIN, "quantity"));
+		assertEquals(0, empty.getCount(0));
+		assertTrue(Double.isNaN(empty.getValue(0, 0)));
+	}
+	
+	@Test
+	public void aggregatesManyGroups() throws Exception {
+		StringBuilder xml = new StringBuilder("<orders>");
+		for (int i = 0; i < 5000; i++) {
+			xml.append("<order><customer>").append(i % 1000).append("</customer><quantity>").append(i).append("</quantity></order>");
+		}
+		xml.append("</orders>");
+		ColumnSchema schema = ColumnSchema.forRecords(new QName("order"))
+				.withColumn("customer", "customer", ColumnType.INT)
+				.withColumn("quantity", "quantity", ColumnType.INT);
+		AggregationResult result = new XmlDigester().aggregate(new StringReader(xml.toString()), 
+				Aggregation.of(schema).groupBy("customer").with(Function.SUM, "quantity"));
+		assertEquals(1000, result.getGroupCount());
+		int group = result.findGroup(999);
+		assertEquals(5, result.getCount(group));
+		assertEquals(999 + 1999 + 2999 + 3999 + 4999, result.getLongValue(group, 0));
+	}
+	
+	@Test
+	public void readsOnlyKeyAndAggregatedColumns() throws Exception {
+		String xml = "<orders>"
+				+ "<order customer='ann'><quantity>n/a</quantity><note>x</note></order>"
+				+ "<order customer='bob'><quantity>2</quantity><note>y</note></order>"
+				+ "<order customer='ann'><quantity/><note>z</note></order>"
+				+ "<order customer='ann'><note>x</note></order>"
+				+ "</orders>";
+		ColumnSchema schema = ColumnSchema.forRecords(new QName("order"))
+				.withColumn("customer", "@customer", ColumnType.STRING)
+				.withColumn("note", "note", ColumnType.LONG)
+				.withColumn("quantity", "quantity", ColumnType.INT);
+		// Quantities are only counted and notes not read at all, so neither is parsed
+		AggregationResult result = new XmlDigester().aggregate(new StringReader(xml), 
+				Aggregation.of(schema).groupBy("customer").with(Function.COUNT, "quantity"));
+		assertEquals(2, result.getGroupCount());
+		int ann = result.findGroup("ann");
+		assertEquals(3, result.getCount(ann));
+		assertEquals(2, result.getLongValue(ann, 0));
+		assertEquals(1, result.getLongValue(result.findGroup("bob"), 0));
+		assertEquals(schema, result.getAggregation().getSchema());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsSumOfStrings() {
+		Aggregation.of(ColumnSchema.fromAnnotations(new QName("order"), Order.class)).with(Function.SUM, "customer");
+	}
+}
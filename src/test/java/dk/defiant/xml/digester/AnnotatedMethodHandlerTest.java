@@ -0,0 +1,95 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Map;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.OnEnd;
+import dk.defiant.xml.digester.annotations.OnStart;
+import dk.defiant.xml.digester.handlers.AnnotatedMethodHandler;
+import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+
+public class AnnotatedMethodHandlerTest {
+
+	static class Person {
+		String id;
+		String name;
+		int age;
+		double height;
+	}
+	
+	static class PersonHandler extends AnnotatedMethodHandler {
+		
+		private Person person;
+		
+		@OnStart("person")
+		void person(Person person, Map<QName, String> attributes) {
+			this.person = person;
+			person.id = attributes.get(new QName("id"));
+		}
+		
+		@OnEnd("name")
+		void name(String name) {
+			person.name = name;
+		}
+		
+		@OnEnd("age")
+		void age(int age) {
+			person.age = age;
+		}
+		
+		@OnEnd(value = "height", namespace = "urn:measures")
+		void height(double height) {
+			person.height = height;
+		}
+		
+		@OnEnd("person")
+		HandlerResponse end() {
+			return new FinishedParsingResponse();
+		}
+	}
+	
+	@Test
+	public void dispatchesToAnnotatedMethods() throws Exception {
+		String xml = 
+				"<person id=\"p1\" xmlns:m=\"urn:measures\">" +
+				"  <name>John Doe</name>" +
+				"  <age> 42 </age>" +
+				"  <m:height>1.85</m:height>" +
+				"  <height>0</height>" +
+				"</person>";
+		Person person = new Person();
+		new XmlDigester().digest(xml, person, new PersonHandler());
+		assertEquals("p1", person.id);
+		assertEquals("John Doe", person.name);
+		assertEquals(42, person.age);
+		assertEquals(1.85, person.height, 0.0);
+	}
+	
+	static class InitialHandler extends AnnotatedMethodHandler {
+		
+		char initial = '?';
+		
+		@OnEnd("initial")
+		void initial(char initial) {
+			this.initial = initial;
+		}
+	}
+	
+	@Test
+	public void bindsEmptyCharToZero() throws Exception {
+		InitialHandler handler = new InitialHandler();
+		new XmlDigester().digest("<person><initial/></person>", null, handler);
+		assertEquals('\0', handler.initial);
+	}
+	
+	@Test(expected = XMLStreamException.class)
+	public void reportsBadNumbersAsXmlErrors() throws Exception {
+		new XmlDigester().digest("<person><age>old</age></person>", new Person(), new PersonHandler());
+	}
+}
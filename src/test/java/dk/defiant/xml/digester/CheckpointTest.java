@@ -0,0 +1,187 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.Serializable;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.handlers.SimpleDigesterEventHandler;
+import dk.defiant.xml.digester.io.ElementEndTracker;
+import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+
+public class CheckpointTest {
+
+	class ItemHandler extends SimpleDigesterEventHandler {
+		
+		private List<String> items;
+		private int seen;
+		private String catalogVersion;
+		
+		public ItemHandler() {
+			super("urn:catalog");
+		}
+		
+		@SuppressWarnings("unchecked")
+		@Override
+		public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+			String localName = element.getName().getLocalPart();
+			if ("catalog".equals(localName)) {
+				items = (List<String>) digestTarget;
+				catalogVersion = getAttributes().get(new QName("version"));
+			} else if ("item".equals(localName)) {
+				resetCharacterBuffer();
+			}
+			return super.handle(element, digestTarget);
+		}
+		
+		@Override
+		public HandlerResponse handle(EndElement element, Object digestTarget) throws XMLStreamException {
+			String localName = element.getName().getLocalPart();
+			if ("catalog".equals(localName)) {
+				return new FinishedParsingResponse();
+			} else if ("item".equals(localName)) {
+				seen++;
+				items.add(catalogVersion + ":" + seen + ":" + getCharacterBuffer());
+			}
+			return super.handle(element, digestTarget);
+		}
+		
+		@Override
+		protected Serializable getCheckpointState() {
+			return seen;
+		}
+		
+		@Override
+		protected void restoreCheckpointState(Serializable state) {
+			seen = (Integer) state;
+		}
+	}
+	
+	private static final String xml =
+			"<?xml version=\"1.0\"?>\n" +
+			"<c:catalog xmlns:c=\"urn:catalog\" version=\"7\">\n" +
+			"  <c:items>\n" +
+			"    <c:item>a</c:item>\n" +
+			"    <c:item>b &amp; c</c:item>\n" +
+			"    <c:item/>\n" +
+			"    <c:item>d</c:item>\n" +
+			"  </c:items>\n" +
+			"</c:catalog>";
+	
+	@Test
+	public void resumesFromCheckpoint() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		Checkpointing checkpointing = new Checkpointing(new QName("urn:catalog", "item"), 2, new CheckpointListener() {
+			@Override
+			public void checkpoint(Checkpoint checkpoint) {
+				checkpoints.add(checkpoint);
+			}
+		});
+		List<String> items = new ArrayList<String>();
+		digester.digest(new StringReader(xml), items, new ItemHandler(), checkpointing);
+		assertEquals(Arrays.asList("7:1:a", "7:2:b & c", "7:3:", "7:4:d"), items);
+		assertEquals(2, checkpoints.size());
+		
+		Checkpoint checkpoint = checkpoints.get(0);
+		assertEquals(2, checkpoint.getRecordCount());
+		assertEquals(xml.indexOf("</c:item>", xml.indexOf("b &amp; c")) + "</c:item>".length(), checkpoint.getCharacterOffset());
+		
+		List<String> resumedItems = new ArrayList<String>();
+		checkpoints.clear();
+		digester.resume(new StringReader(xml), checkpoint, resumedItems, new ItemHandler(), checkpointing);
+		assertEquals(Arrays.asList("7:3:", "7:4:d"), resumedItems);
+		assertEquals(1, checkpoints.size());
+		assertEquals(4, checkpoints.get(0).getRecordCount());
+		assertEquals(xml.indexOf("d</c:item>") + "d</c:item>".length(), checkpoints.get(0).getCharacterOffset());
+	}
+	
+	private static final String nonAsciiXml = xml.replace(">a<", ">\u00e6\u00f8\u00e5<");
+	
+	@Test
+	public void resumesFromByteCheckpoint() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		byte[] bytes = nonAsciiXml.getBytes("UTF-8");
+		final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		Checkpointing checkpointing = new Checkpointing(new QName("urn:catalog", "item"), 2, new CheckpointListener() {
+			@Override
+			public void checkpoint(Checkpoint checkpoint) {
+				checkpoints.add(checkpoint);
+			}
+		});
+		List<String> items = new ArrayList<String>();
+		digester.digest(new ByteArrayInputStream(bytes), items, new ItemHandler(), checkpointing);
+		assertEquals(Arrays.asList("7:1:\u00e6\u00f8\u00e5", "7:2:b & c", "7:3:", "7:4:d"), items);
+		assertEquals(2, checkpoints.size());
+		
+		Checkpoint checkpoint = checkpoints.get(0);
+		String beforeCheckpoint = nonAsciiXml.substring(0, nonAsciiXml.indexOf("</c:item>", nonAsciiXml.indexOf("b &amp; c")) + "</c:item>".length());
+		assertEquals(-1, checkpoint.getCharacterOffset());
+		assertEquals(beforeCheckpoint.getBytes("UTF-8").length, checkpoint.getByteOffset());
+		assertTrue(checkpoint.getByteOffset() > beforeCheckpoint.length());
+		assertEquals("UTF-8", checkpoint.getEncoding());
+		
+		List<String> resumedItems = new ArrayList<String>();
+		checkpoints.clear();
+		digester.resume(new ByteArrayInputStream(bytes), checkpoint, resumedItems, new ItemHandler(), checkpointing);
+		assertEquals(Arrays.asList("7:3:", "7:4:d"), resumedItems);
+		assertEquals(1, checkpoints.size());
+		String beforeNext = nonAsciiXml.substring(0, nonAsciiXml.indexOf("d</c:item>") + "d</c:item>".length());
+		assertEquals(beforeNext.getBytes("UTF-8").length, checkpoints.get(0).getByteOffset());
+	}
+	
+	@Test
+	public void resumedDigestMakesFurtherCheckpoints() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		final List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+		Checkpointing checkpointing = new Checkpointing(new QName("urn:catalog", "item"), 1, new CheckpointListener() {
+			@Override
+			public void checkpoint(Checkpoint checkpoint) {
+				checkpoints.add(checkpoint);
+			}
+		});
+		digester.digest(new StringReader(xml), new ArrayList<String>(), new ItemHandler(), checkpointing);
+		List<Checkpoint> original = new ArrayList<Checkpoint>(checkpoints);
+		assertEquals(4, original.size());
+		
+		checkpoints.clear();
+		List<String> resumedItems = new ArrayList<String>();
+		digester.resume(new StringReader(xml), original.get(0), resumedItems, new ItemHandler(), checkpointing);
+		assertEquals(Arrays.asList("7:2:b & c", "7:3:", "7:4:d"), resumedItems);
+		assertEquals(3, checkpoints.size());
+		for (int i = 0; i < checkpoints.size(); i++) {
+			assertEquals(original.get(i + 1).getCharacterOffset(), checkpoints.get(i).getCharacterOffset());
+			assertEquals(original.get(i + 1).getRecordCount(), checkpoints.get(i).getRecordCount());
+		}
+	}
+	
+	@Test
+	public void tracksOffsetsBeyondIntRange() {
+		long base = 3000000000L;
+		ElementEndTracker tracker = new ElementEndTracker(base);
+		for (char c : "<a><b/><c>x</c></a>".toCharArray()) {
+			tracker.scan(c);
+		}
+		assertEquals(base + 7, tracker.getElementEndOffset(1));
+		assertEquals(base + 15, tracker.getElementEndOffset(2));
+		assertEquals(base + 19, tracker.getElementEndOffset(3));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsCharacterCheckpointForBytes() throws Exception {
+		Checkpoint checkpoint = new Checkpoint(10, 1, new ArrayList<Checkpoint.OpenElement>(), new ArrayList<Serializable>());
+		new XmlDigester().resume(new ByteArrayInputStream(xml.getBytes("UTF-8")), checkpoint, new ArrayList<String>(), new ItemHandler(), null);
+	}
+}
@@ -0,0 +1,106 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.columnar.BatchHandler;
+import dk.defiant.xml.digester.columnar.ColumnBatch;
+import dk.defiant.xml.digester.columnar.ColumnSchema;
+import dk.defiant.xml.digester.columnar.ColumnType;
+import dk.defiant.xml.digester.columnar.ColumnarHandler;
+import dk.defiant.xml.digester.columnar.StringColumn;
+
+public class ColumnarHandlerTest {
+
+	static class Person {
+		@Digest("@id")
+		long id;
+		
+		@Digest
+		String name;
+		
+		@Digest
+		double height;
+	}
+	
+	private static final String PEOPLE = "<people>"
+			+ "<person id='1'><name>Ann</name><height>1.71</height><address type='home'><city>Oslo</city></address></person>"
+			+ "<person id='2'><name>Bob</name></person>"
+			+ "<person id='3'><name>Ann</name><height>1.65</height></person>"
+			+ "</people>";
+	
+	@Test
+	public void digestsAnnotatedRecordsIntoBatches() throws Exception {
+		final List<String> rows = new ArrayList<String>();
+		final List<Integer> sizes = new ArrayList<Integer>();
+		ColumnSchema schema = ColumnSchema.fromAnnotations(new QName("person"), Person.class);
+		new XmlDigester().digest(PEOPLE, null, new ColumnarHandler(schema, 2, new BatchHandler() {
+			@Override
+			public void handle(ColumnBatch batch) {
+				sizes.add(batch.size());
+				for (int row = 0; row < batch.size(); row++) {
+					rows.add(batch.getLongColumn("id").getLong(row) + " " + batch.getStringColumn("name").getString(row) + " "
+							+ (batch.getColumn("height").isNull(row) ? "-" : String.valueOf(batch.getDoubleColumn("height").getDouble(row))));
+				}
+			}
+		}));
+		assertEquals("[2, 1]", sizes.toString());
+		assertEquals("[1 Ann 1.71, 2 Bob -, 3 Ann 1.65]", rows.toString());
+	}
+	
+	@Test
+	public void digestsPathsAndEncodesStrings() throws Exception {
+		final List<String> values = new ArrayList<String>();
+		ColumnSchema schema = ColumnSchema.forRecords(new QName("person"))
+				.withColumn("name", "name", ColumnType.STRING)
+				.withColumn("city", "address/city", ColumnType.STRING)
+				.withColumn("addressType", "address/@type", ColumnType.STRING)
+				.withColumn("id", "@id", ColumnType.INT);
+		new XmlDigester().digest(PEOPLE, null, new ColumnarHandler(schema, 10, new BatchHandler() {
+			@Override
+			public void handle(ColumnBatch batch) {
+				StringColumn names = batch.getStringColumn("name");
+				assertEquals(2, names.getDictionarySize());
+				assertEquals(names.getCode(0), names.getCode(2));
+				assertFalse(batch.getColumn("city").isNull(0));
+				assertTrue(batch.getColumn("city").isNull(1));
+				for (int row = 0; row < batch.size(); row++) {
+					values.add(batch.getIntColumn("id").getInt(row) + ":" + batch.getStringColumn("city").getString(row) 
+							+ ":" + batch.getStringColumn("addressType").getString(row));
+				}
+			}
+		}));
+		assertEquals("[1:Oslo:home, 2:null:null, 3:null:null]", values.toString());
+	}
+	
+	@Test
+	public void keepsStringsBeyondDictionaryAsPlainValues() throws Exception {
+		final List<String> values = new ArrayList<String>();
+		StringBuilder xml = new StringBuilder("<people>");
+		for (String name : new String[] {"Ann", "Bob", "Ann", "Cid", "Dan", "Bob", "Cid"}) {
+			xml.append("<person><name>").append(name).append("</name></person>");
+		}
+		xml.append("</people>");
+		ColumnSchema schema = ColumnSchema.forRecords(new QName("person")).withColumn("name", "name", ColumnType.STRING);
+		new XmlDigester().digest(xml.toString(), null, new ColumnarHandler(schema, 4, 2, new BatchHandler() {
+			@Override
+			public void handle(ColumnBatch batch) {
+				StringColumn names = batch.getStringColumn("name");
+				assertEquals(2, names.getDictionarySize());
+				for (int row = 0; row < batch.size(); row++) {
+					values.add(names.getString(row) + (names.isDictionaryCode(names.getCode(row)) ? "" : "*"));
+				}
+			}
+		}));
+		assertEquals("[Ann, Bob, Ann, Cid*, Dan*, Bob, Cid*]", values.toString());
+	}
+}
@@ -0,0 +1,84 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.handlers.SimpleDigesterEventHandler;
+import dk.defiant.xml.digester.responses.GetTreeResponse;
+import dk.defiant.xml.digester.tree.CompactTree;
+
+public class CompactTreeTest {
+
+	static class Order {
+		CompactTree details;
+	}
+	
+	private static final String XML = 
+			"<order xmlns:x=\"urn:x\">" +
+			"<details type=\"express\">" +
+			"<address><street>Main <![CDATA[Street]]> 1</street><city>Springfield</city></address>" +
+			"<!-- not in the tree -->" +
+			"<items><item sku=\"a\" x:flag=\"1\">First</item><item sku=\"b\">Second</item></items>" +
+			"<x:note>Fragile</x:note>" +
+			"</details>" +
+			"</order>";
+	
+	@Test
+	public void capturesElementInTree() throws Exception {
+		Order order = new Order();
+		new XmlDigester().digest(XML, order, new SimpleDigesterEventHandler("") {
+			@Override
+			public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+				if ("details".equals(element.getName().getLocalPart())) {
+					return new GetTreeResponse(new TreeHandler<Order>() {
+						@Override
+						public void handle(Order target, CompactTree tree) {
+							target.details = tree;
+						}
+					});
+				}
+				return super.handle(element, digestTarget);
+			}
+		});
+		CompactTree tree = order.details;
+		assertEquals("details", tree.getLocalName(tree.getRoot()));
+		assertEquals("express", tree.getValue("@type"));
+		assertEquals("Main Street 1", tree.getValue("address/street"));
+		assertEquals("Springfield", tree.getValue("address/city"));
+		assertEquals("Main Street 1Springfield", tree.getText(tree.find("address")));
+		int[] items = tree.findAll("items/item");
+		assertEquals(2, items.length);
+		assertEquals("a", tree.getAttribute(items[0], "sku"));
+		assertEquals("1", tree.getAttribute(items[0], new QName("urn:x", "flag")));
+		assertEquals("Second", tree.getText(items[1]));
+		assertEquals(items[1], tree.getNextSiblingElement(items[0]));
+		assertEquals(tree.find("items"), tree.getParent(items[0]));
+		assertEquals("Fragile", tree.getValue("{urn:x}note"));
+		assertEquals("Fragile", tree.getValue("note"));
+		assertNull(tree.getValue("{}note"));
+		assertArrayEquals(new int[0], tree.findAll("address/zip"));
+	}
+	
+	@Test
+	public void capturesTreeFromHandler() throws Exception {
+		final CompactTree[] trees = new CompactTree[1];
+		new XmlDigester().digest(XML, null, new SimpleDigesterEventHandler("") {
+			@Override
+			public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+				if ("items".equals(element.getName().getLocalPart())) {
+					trees[0] = getTree();
+				}
+				return super.handle(element, digestTarget);
+			}
+		});
+		assertEquals(5, trees[0].size());
+		assertEquals("First", trees[0].getValue("item"));
+	}
+}
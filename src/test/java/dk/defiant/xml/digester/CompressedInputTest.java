@@ -0,0 +1,173 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.After;
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+import dk.defiant.xml.digester.io.CompressedInput;
+
+public class CompressedInputTest {
+
+	static class Item {
+		@Digest("@id")
+		String id;
+	}
+	
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+	
+	@After
+	public void shutDown() {
+		executor.shutdownNow();
+	}
+	
+	private static byte[] document(int items) throws IOException {
+		StringBuilder xml = new StringBuilder("<items>");
+		for (int i = 0; i < items; i++) {
+			xml.append("<item id=\"").append(i).append("\">Item number ").append(i).append("</item>");
+		}
+		return xml.append("</items>").toString().getBytes("UTF-8");
+	}
+	
+	private static byte[] gzip(byte[] bytes, int from, int to) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		GZIPOutputStream gzip = new GZIPOutputStream(output);
+		gzip.write(bytes, from, to - from);
+		gzip.close();
+		return output.toByteArray();
+	}
+	
+	private static byte[] bgzf(byte[] bytes) throws IOException {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		for (int offset = 0; offset < bytes.length; offset += 1000) {
+			int length = Math.min(1000, bytes.length - offset);
+			Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+			deflater.setInput(bytes, offset, length);
+			deflater.finish();
+			byte[] compressed = new byte[2048];
+			int compressedLength = deflater.deflate(compressed);
+			deflater.end();
+			CRC32 crc = new CRC32();
+			crc.update(bytes, offset, length);
+			int blockSize = 18 + compressedLength + 8;
+			output.write(new byte[] { 0x1f, (byte) 0x8b, 8, 4, 0, 0, 0, 0, 0, (byte) 0xff, 6, 0, 'B', 'C', 2, 0 });
+			writeLittleEndian(output, blockSize - 1, 2);
+			output.write(compressed, 0, compressedLength);
+			writeLittleEndian(output, (int) crc.getValue(), 4);
+			writeLittleEndian(output, length, 4);
+		}
+		return output.toByteArray();
+	}
+	
+	private static void writeLittleEndian(ByteArrayOutputStream output, int value, int bytes) {
+		for (int i = 0; i < bytes; i++) {
+			output.write(value >>> (8 * i));
+		}
+	}
+	
+	private int countItems(byte[] input) throws XMLStreamException {
+		XmlDigester digester = new XmlDigester();
+		digester.setDecompressionExecutor(executor);
+		RecordReader<Item> items = digester.readRecords(new ByteArrayInputStream(input), new QName("item"), 
+				new DigestFactory<Item>() {
+			@Override
+			public Item newDigestTarget() {
+				return new Item();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new SimpleAnnotationBasedHandler(new QName("item"), Item.class);
+			}
+		});
+		int count = 0;
+		try {
+			while (items.hasNext()) {
+				assertEquals(String.valueOf(count), items.next().id);
+				count++;
+			}
+		} finally {
+			items.close();
+		}
+		return count;
+	}
+	
+	@Test
+	public void detectsFormats() throws Exception {
+		byte[] xml = document(10);
+		assertEquals(CompressedInput.Format.NONE, CompressedInput.detect(new ByteArrayInputStream(xml)));
+		assertEquals(CompressedInput.Format.GZIP, CompressedInput.detect(new ByteArrayInputStream(gzip(xml, 0, xml.length))));
+		assertEquals(CompressedInput.Format.BGZF, CompressedInput.detect(new ByteArrayInputStream(bgzf(xml))));
+		ByteArrayOutputStream zlib = new ByteArrayOutputStream();
+		DeflaterOutputStream deflater = new DeflaterOutputStream(zlib);
+		deflater.write(xml);
+		deflater.close();
+		assertEquals(CompressedInput.Format.ZLIB, CompressedInput.detect(new ByteArrayInputStream(zlib.toByteArray())));
+		assertEquals(10, countItems(zlib.toByteArray()));
+	}
+	
+	@Test
+	public void digestsCompressedInput() throws Exception {
+		byte[] xml = document(20000);
+		assertEquals(20000, countItems(xml));
+		assertEquals(20000, countItems(gzip(xml, 0, xml.length)));
+		// Several gzip members
+		ByteArrayOutputStream members = new ByteArrayOutputStream();
+		members.write(gzip(xml, 0, 1000));
+		members.write(gzip(xml, 1000, 300000));
+		members.write(gzip(xml, 300000, xml.length));
+		assertEquals(20000, countItems(members.toByteArray()));
+		assertEquals(20000, countItems(bgzf(xml)));
+	}
+	
+	@Test
+	public void failsOnCorruptBlock() throws Exception {
+		byte[] compressed = bgzf(document(1000));
+		// Flip a bit in the checksum of the second block
+		int secondBlock = ((compressed[16] & 0xff) | (compressed[17] & 0xff) << 8) + 1;
+		int secondSize = ((compressed[secondBlock + 16] & 0xff) | (compressed[secondBlock + 17] & 0xff) << 8) + 1;
+		compressed[secondBlock + secondSize - 8] ^= 1;
+		try {
+			countItems(compressed);
+			fail("Expected corrupt input to fail");
+		} catch (XMLStreamException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void leavesSourceOpen() throws Exception {
+		final boolean[] closed = new boolean[1];
+		byte[] xml = document(10);
+		InputStream source = new ByteArrayInputStream(gzip(xml, 0, xml.length)) {
+			@Override
+			public void close() {
+				closed[0] = true;
+			}
+		};
+		XmlDigester digester = new XmlDigester();
+		digester.setDecompressionExecutor(executor);
+		Item item = new Item();
+		digester.digest(source, item, new SimpleAnnotationBasedHandler(new QName("item"), Item.class));
+		assertEquals("0", item.id);
+		assertFalse(closed[0]);
+	}
+}
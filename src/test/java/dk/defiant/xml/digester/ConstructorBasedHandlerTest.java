@@ -0,0 +1,157 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assume.assumeNotNull;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.StringReader;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.List;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.annotations.DigestConstructor;
+import dk.defiant.xml.digester.handlers.ConstructorBasedHandler;
+
+public class ConstructorBasedHandlerTest {
+
+	static final class Person {
+		final long id;
+		final String name;
+		final int age;
+		final List<String> emails;
+		
+		@DigestConstructor
+		Person(@Digest("@id") long id, @Digest("name") String name, @Digest("age") int age, @Digest("email") List<String> emails) {
+			this.id = id;
+			this.name = name;
+			this.age = age;
+			this.emails = emails;
+		}
+	}
+	
+	@Test
+	public void constructsImmutableObject() throws Exception {
+		ConstructorBasedHandler<Person> handler = new ConstructorBasedHandler<Person>(new QName("person"), Person.class);
+		new XmlDigester().digest("<person id='7'><name>Ann</name><email>a@x</email><email>ann@y</email></person>", null, handler);
+		Person person = handler.getResult();
+		assertEquals(7, person.id);
+		assertEquals("Ann", person.name);
+		assertEquals(0, person.age);
+		assertEquals("[a@x, ann@y]", person.emails.toString());
+	}
+	
+	@Test
+	public void readsConstructedRecords() throws Exception {
+		RecordReader<Person> people = new XmlDigester().readRecords(new StringReader(
+				"<people><person id='1'><name>Ann</name><age>41</age></person><person id='2'/></people>"), 
+				new QName("person"), new DigestFactory<Person>() {
+			@Override
+			public Person newDigestTarget() {
+				return null;
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new ConstructorBasedHandler<Person>(new QName("person"), Person.class);
+			}
+		});
+		Person ann = people.next();
+		assertEquals(1, ann.id);
+		assertEquals(41, ann.age);
+		assertEquals("[]", ann.emails.toString());
+		Person unnamed = people.next();
+		assertEquals(2, unnamed.id);
+		assertNull(unnamed.name);
+		assertFalse(people.hasNext());
+	}
+	
+	@Test
+	public void endsRootByDepth() throws Exception {
+		ConstructorBasedHandler<Person> handler = new ConstructorBasedHandler<Person>(new QName("person"), Person.class);
+		new XmlDigester().digest("<person id='1'><name>Ann</name>"
+				+ "<friends><person id='2'><name>Bob</name><age>9</age></person></friends>"
+				+ "<age>41</age></person>", null, handler);
+		Person person = handler.getResult();
+		assertEquals(1, person.id);
+		assertEquals("Ann", person.name);
+		assertEquals(41, person.age);
+	}
+	
+	static final class Grade {
+		final char letter;
+		final int points;
+		
+		@DigestConstructor
+		Grade(@Digest("letter") char letter, @Digest("@points") int points) {
+			this.letter = letter;
+			this.points = points;
+		}
+	}
+	
+	@Test
+	public void bindsEmptyCharToZero() throws Exception {
+		ConstructorBasedHandler<Grade> handler = new ConstructorBasedHandler<Grade>(new QName("grade"), Grade.class);
+		new XmlDigester().digest("<grade points='12'><letter/></grade>", null, handler);
+		assertEquals('\0', handler.getResult().letter);
+		assertEquals(12, handler.getResult().points);
+	}
+	
+	@Test(expected = XMLStreamException.class)
+	public void reportsBadNumbersAsXmlErrors() throws Exception {
+		new XmlDigester().digest("<grade points='many'><letter>A</letter></grade>", null, 
+				new ConstructorBasedHandler<Grade>(new QName("grade"), Grade.class));
+	}
+	
+	@Test
+	public void constructsRecordsThroughCanonicalConstructor() throws Exception {
+		// Records can not be declared at the language level of the tests, so one is compiled here
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		assumeNotNull(compiler);
+		boolean records = true;
+		try {
+			Class.class.getMethod("isRecord");
+		} catch (NoSuchMethodException e) {
+			records = false;
+		}
+		assumeTrue(records);
+		File directory = File.createTempFile("records", "");
+		directory.delete();
+		directory.mkdir();
+		File source = new File(directory, "Point.java");
+		Writer writer = new FileWriter(source);
+		try {
+			writer.write("public record Point(@dk.defiant.xml.digester.annotations.Digest(\"@x\") int x, int y, String label) {}");
+		} finally {
+			writer.close();
+		}
+		assertEquals(0, compiler.run(null, null, null, "-classpath", System.getProperty("java.class.path"), 
+				"-d", directory.getPath(), source.getPath()));
+		URLClassLoader loader = new URLClassLoader(new URL[] {directory.toURI().toURL()}, getClass().getClassLoader());
+		try {
+			Class<?> point = loader.loadClass("Point");
+			@SuppressWarnings({"rawtypes", "unchecked"})
+			ConstructorBasedHandler<?> handler = new ConstructorBasedHandler(new QName("point"), point);
+			new XmlDigester().digest("<point x='3'><y>4</y><label>P</label></point>", null, handler);
+			assertEquals("Point[x=3, y=4, label=P]", handler.getResult().toString());
+		} finally {
+			loader.close();
+			for (File file : directory.listFiles()) {
+				file.delete();
+			}
+			directory.delete();
+		}
+	}
+}
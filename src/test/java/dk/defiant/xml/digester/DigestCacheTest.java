@@ -0,0 +1,140 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Arrays;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+
+public class DigestCacheTest {
+
+	static class Config {
+		@Digest
+		String name;
+	}
+	
+	private final byte[] config = "<config><name>one</name></config>".getBytes();
+	private final byte[] otherConfig = "<config><name>two</name></config>".getBytes();
+	
+	static class ConfigFactory implements DigestFactory<Config> {
+		
+		private final String rootName;
+		
+		ConfigFactory(String rootName) {
+			this.rootName = rootName;
+		}
+		
+		@Override
+		public Config newDigestTarget() {
+			return new Config();
+		}
+		
+		@Override
+		public DigesterEventHandler newEventHandler() {
+			return new SimpleAnnotationBasedHandler(new QName(rootName), Config.class);
+		}
+		
+		@Override
+		public boolean equals(Object o) {
+			return o instanceof ConfigFactory && rootName.equals(((ConfigFactory) o).rootName);
+		}
+		
+		@Override
+		public int hashCode() {
+			return rootName.hashCode();
+		}
+	}
+	
+	private Config digest(DigestCache cache, byte[] input) throws Exception {
+		return cache.digest(input, "UTF-8", "config", new Config(), new SimpleAnnotationBasedHandler(new QName("config"), Config.class));
+	}
+	
+	@Test
+	public void returnsCachedResultForIdenticalInput() throws Exception {
+		DigestCache cache = new DigestCache(new XmlDigester(), 10);
+		Config first = digest(cache, config);
+		Config second = digest(cache, config.clone());
+		assertSame(first, second);
+		assertEquals("one", second.name);
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+	
+	@Test
+	public void evictsLeastRecentlyUsedEntries() throws Exception {
+		DigestCache cache = new DigestCache(new XmlDigester(), 1);
+		Config first = digest(cache, config);
+		assertEquals("two", digest(cache, otherConfig).name);
+		assertNotSame(first, digest(cache, config));
+		assertEquals(0, cache.getHitCount());
+		assertEquals(2, cache.getEvictionCount());
+		assertEquals(1, cache.size());
+	}
+	
+	@Test
+	public void boundsTotalSizeOfCachedInputs() throws Exception {
+		DigestCache cache = new DigestCache(new XmlDigester(), 10, config.length + otherConfig.length - 1, new DigestCache.TargetCopier() {
+			@Override
+			public Object copy(Object digestTarget) {
+				return digestTarget;
+			}
+		});
+		digest(cache, config);
+		digest(cache, otherConfig);
+		assertEquals(1, cache.size());
+		assertEquals(otherConfig.length, cache.getInputBytes());
+		assertEquals(1, cache.getEvictionCount());
+		byte[] large = new byte[config.length + otherConfig.length];
+		Arrays.fill(large, (byte) ' ');
+		System.arraycopy(config, 0, large, 0, config.length);
+		assertEquals("one", digest(cache, large).name);
+		assertEquals(1, cache.size());
+		assertEquals(otherConfig.length, cache.getInputBytes());
+	}
+	
+	@Test
+	public void copiesCachedResultsWithCopier() throws Exception {
+		DigestCache cache = new DigestCache(new XmlDigester(), 10, new DigestCache.TargetCopier() {
+			@Override
+			public Object copy(Object digestTarget) {
+				Config copy = new Config();
+				copy.name = ((Config) digestTarget).name;
+				return copy;
+			}
+		});
+		Config first = digest(cache, config);
+		Config second = digest(cache, config);
+		assertNotSame(first, second);
+		assertEquals("one", second.name);
+	}
+	
+	@Test
+	public void separatesEntriesByCacheKey() throws Exception {
+		DigestCache cache = new DigestCache(new XmlDigester(), 10);
+		byte[] input = "<settings><name>one</name></settings>".getBytes();
+		Config config = cache.digest(input, "UTF-8", new ConfigFactory("config"));
+		assertNull(config.name);
+		Config settings = cache.digest(input, "UTF-8", new ConfigFactory("settings"));
+		assertEquals("one", settings.name);
+		assertSame(settings, cache.digest(input, "UTF-8", new ConfigFactory("settings")));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+	
+	@Test
+	public void detectsCharacterSetWithoutName() throws Exception {
+		DigestCache cache = new DigestCache(new XmlDigester(), 10);
+		Config first = cache.digest(config, null, new ConfigFactory("config"));
+		assertEquals("one", first.name);
+		assertSame(first, cache.digest(config, null, new ConfigFactory("config")));
+		assertNotSame(first, cache.digest(config, "UTF-8", new ConfigFactory("config")));
+	}
+}
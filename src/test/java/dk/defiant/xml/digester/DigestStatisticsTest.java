@@ -0,0 +1,66 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+
+public class DigestStatisticsTest {
+
+	static class Basket {
+		@Digest
+		String owner;
+		
+		@Digest("fruit")
+		List<String> fruits = new ArrayList<String>();
+	}
+	
+	private static String basket(int fruits) {
+		StringBuilder xml = new StringBuilder("<basket><owner>Someone with a long name</owner>");
+		for (int i = 0; i < fruits; i++) {
+			xml.append("<fruit>apple</fruit>");
+		}
+		return xml.append("</basket>").toString();
+	}
+	
+	@Test
+	public void expectedSizeRisesAtOnceAndDecaysSlowly() {
+		DigestStatistics statistics = new DigestStatistics();
+		assertEquals(0, statistics.getExpectedSize(Basket.class, "fruits"));
+		statistics.record(Basket.class, "fruits", 100);
+		assertEquals(100, statistics.getExpectedSize(Basket.class, "fruits"));
+		statistics.record(Basket.class, "fruits", 20);
+		assertEquals(95, statistics.getExpectedSize(Basket.class, "fruits"));
+		statistics.record(Basket.class, "fruits", 500);
+		assertEquals(500, statistics.getExpectedSize(Basket.class, "fruits"));
+		statistics.record(Basket.class, "fruits", Integer.MAX_VALUE);
+		assertEquals(DigestStatistics.MAX_EXPECTED_SIZE, statistics.getExpectedSize(Basket.class, "fruits"));
+	}
+	
+	@Test
+	public void recordsShapeOfDigests() throws Exception {
+		DigestStatistics statistics = new DigestStatistics();
+		XmlDigester digester = new XmlDigester();
+		digester.setStatistics(statistics);
+		Basket basket = new Basket();
+		digester.digest(basket(40), basket, new SimpleAnnotationBasedHandler(new QName("basket"), Basket.class));
+		assertEquals(40, basket.fruits.size());
+		assertEquals(40, statistics.getExpectedSize(Basket.class, "fruits"));
+		assertTrue(statistics.getExpectedSize(SimpleAnnotationBasedHandler.class, DigestStatistics.TEXT_LENGTH) >= "Someone with a long name".length());
+		assertEquals(1, statistics.getExpectedSize(SimpleAnnotationBasedHandler.class, DigestStatistics.HANDLER_DEPTH));
+		
+		// Later digests are sized from the statistics and record their own shape
+		basket = new Basket();
+		digester.digest(basket(8), basket, new SimpleAnnotationBasedHandler(new QName("basket"), Basket.class));
+		assertEquals(8, basket.fruits.size());
+		assertEquals(38, statistics.getExpectedSize(Basket.class, "fruits"));
+	}
+}
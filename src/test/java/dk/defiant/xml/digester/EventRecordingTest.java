@@ -0,0 +1,77 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.events.EventRecording;
+import dk.defiant.xml.digester.handlers.GetXmlHandler;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+
+public class EventRecordingTest {
+
+	static class Version {
+		@Digest("@schema")
+		String schema;
+	}
+	
+	static class Order {
+		@Digest("@id")
+		int id;
+		
+		@Digest
+		String customer;
+		
+		@Digest
+		String note;
+	}
+	
+	private static final String xml = 
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>" +
+			"<order xmlns:x=\"urn:x\" schema=\"2\" id=\"17\">" +
+			"  <!-- Comment -->" +
+			"  <customer>Jane &amp; John</customer>" +
+			"  <note><![CDATA[<fragile>]]></note>" +
+			"  <x:extra>ignored</x:extra>" +
+			"</order>";
+	
+	@Test
+	public void replaysRecordingIntoSeveralHandlers() throws Exception {
+		EventRecording recording = EventRecording.record(xml);
+		XmlDigester digester = new XmlDigester();
+		
+		Version version = new Version();
+		digester.digest(recording.newEventReader(), version, new SimpleAnnotationBasedHandler(new QName("order"), Version.class));
+		assertEquals("2", version.schema);
+		
+		Order order = new Order();
+		digester.digest(recording.newEventReader(), order, new SimpleAnnotationBasedHandler(new QName("order"), Order.class));
+		assertEquals(17, order.id);
+		assertEquals("Jane & John", order.customer);
+		assertEquals("<fragile>", order.note);
+	}
+	
+	@Test
+	public void replaysSameEventsAsParser() throws Exception {
+		EventRecording recording = EventRecording.record(xml);
+		GetXmlCapture direct = new GetXmlCapture();
+		GetXmlCapture replayed = new GetXmlCapture();
+		XmlDigester digester = new XmlDigester();
+		digester.digest(xml, null, new GetXmlHandler<Object>(direct));
+		digester.digest(recording.newEventReader(), null, new GetXmlHandler<Object>(replayed));
+		// The XML declaration is left out since parsers differ in how they write the encoding
+		assertEquals(direct.xml.substring(direct.xml.indexOf("<order")), replayed.xml.substring(replayed.xml.indexOf("<order")));
+	}
+	
+	static class GetXmlCapture implements XmlHandler<Object> {
+		String xml;
+		
+		@Override
+		public void handle(Object target, String xml) {
+			this.xml = xml;
+		}
+	}
+}
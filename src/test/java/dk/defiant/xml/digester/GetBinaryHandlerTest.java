@@ -0,0 +1,71 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.StartElement;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.handlers.GetBinaryHandler;
+import dk.defiant.xml.digester.handlers.SimpleDigesterEventHandler;
+import dk.defiant.xml.digester.responses.GetBinaryResponse;
+
+public class GetBinaryHandlerTest {
+
+	static class Attachment {
+		long length;
+	}
+	
+	private static byte[] digest(String xml, final GetBinaryHandler.Encoding encoding) throws XMLStreamException {
+		final ByteArrayOutputStream output = new ByteArrayOutputStream();
+		Attachment attachment = new Attachment();
+		new XmlDigester().digest(xml, attachment, new SimpleDigesterEventHandler("") {
+			@Override
+			public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+				if ("data".equals(element.getName().getLocalPart())) {
+					return new GetBinaryResponse(output, encoding, new BinaryHandler<Attachment>() {
+						@Override
+						public void handle(Attachment target, long length) {
+							target.length = length;
+						}
+					});
+				}
+				return super.handle(element, digestTarget);
+			}
+		});
+		assertEquals(output.size(), attachment.length);
+		return output.toByteArray();
+	}
+	
+	@Test
+	public void decodesBase64() throws Exception {
+		assertEquals("Man", new String(digest("<a><data>TWFu</data></a>", GetBinaryHandler.Encoding.BASE64), "US-ASCII"));
+		assertEquals("Ma", new String(digest("<a><data>TWE=</data></a>", GetBinaryHandler.Encoding.BASE64), "US-ASCII"));
+		assertEquals("M", new String(digest("<a><data>\n  TQ==\n</data></a>", GetBinaryHandler.Encoding.BASE64), "US-ASCII"));
+		assertEquals("Many hands", new String(digest("<a><data>TWFueSBo\r\nYW5kcw</data></a>", GetBinaryHandler.Encoding.BASE64), "US-ASCII"));
+		try {
+			digest("<a><data>TW*u</data></a>", GetBinaryHandler.Encoding.BASE64);
+			fail("Expected invalid base64 to fail");
+		} catch (XMLStreamException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void decodesLargeHexContent() throws Exception {
+		byte[] data = new byte[100000];
+		new Random(42).nextBytes(data);
+		StringBuilder xml = new StringBuilder("<a><data>");
+		for (byte b : data) {
+			xml.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+		}
+		xml.append("</data></a>");
+		assertArrayEquals(data, digest(xml.toString(), GetBinaryHandler.Encoding.HEX));
+	}
+}
@@ -0,0 +1,141 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+import dk.defiant.xml.digester.index.RecordIndex;
+
+public class RecordChangesTest {
+
+	static class Entry {
+		@Digest("@id")
+		String id;
+		
+		@Digest
+		String title;
+	}
+	
+	private static final QName entryName = new QName("entry");
+	
+	private File snapshot;
+	private File sidecar;
+	
+	@Before
+	public void beforeEach() throws Exception {
+		snapshot = File.createTempFile("snapshot", ".xml");
+		sidecar = File.createTempFile("snapshot", ".idx");
+	}
+	
+	@After
+	public void afterEach() {
+		snapshot.delete();
+		sidecar.delete();
+	}
+	
+	private void writeSnapshot(String entries) throws Exception {
+		writeDocument("<entries>" + entries + "</entries>");
+	}
+	
+	private void writeDocument(String document) throws Exception {
+		OutputStream output = new FileOutputStream(snapshot);
+		output.write(document.getBytes("UTF-8"));
+		output.close();
+	}
+	
+	private static class RecordingChangeHandler implements ChangeHandler<Entry> {
+		final List<String> changes = new ArrayList<String>();
+		
+		@Override
+		public Entry newDigestTarget() {
+			return new Entry();
+		}
+		
+		@Override
+		public DigesterEventHandler newEventHandler() {
+			return new SimpleAnnotationBasedHandler(entryName, Entry.class);
+		}
+		
+		@Override
+		public void added(String key, Entry digestTarget) {
+			changes.add("added " + key + " " + digestTarget.title);
+		}
+		
+		@Override
+		public void changed(String key, Entry digestTarget) {
+			changes.add("changed " + key + " " + digestTarget.title);
+		}
+		
+		@Override
+		public void removed(String key) {
+			changes.add("removed " + key);
+		}
+	}
+	
+	@Test
+	public void digestsOnlyChangedRecords() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		writeSnapshot("<entry id='1'><title>One</title></entry><entry id='2'><title>Two</title></entry><entry id='3'><title>Three</title></entry>");
+		RecordingChangeHandler handler = new RecordingChangeHandler();
+		digester.digestChanges(snapshot, entryName, "id", null, handler).write(sidecar);
+		assertEquals("[added 1 One, added 2 Two, added 3 Three]", handler.changes.toString());
+		
+		writeSnapshot("<entry id='1'><title>One</title></entry><entry id='3'><title>Tree</title></entry><entry id='4'><title>Four</title></entry>");
+		handler = new RecordingChangeHandler();
+		RecordIndex index = digester.digestChanges(snapshot, entryName, "id", RecordIndex.read(sidecar), handler);
+		assertEquals("[changed 3 Tree, added 4 Four, removed 2]", handler.changes.toString());
+		
+		handler = new RecordingChangeHandler();
+		digester.digestChanges(snapshot, entryName, "id", index, handler);
+		assertEquals("[]", handler.changes.toString());
+	}
+	
+	@Test
+	public void detectsChangesOfChildTags() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		writeSnapshot("<entry id='1'><title lang='en'>One</title></entry><entry id='2'><title>Two</title></entry>");
+		RecordIndex index = digester.digestChanges(snapshot, entryName, "id", null, new RecordingChangeHandler());
+		
+		writeSnapshot("<entry id='1'><title lang='da'>One</title></entry><entry id='2'><name>Two</name></entry>");
+		RecordingChangeHandler handler = new RecordingChangeHandler();
+		digester.digestChanges(snapshot, entryName, "id", index, handler);
+		assertEquals("[changed 1 One, changed 2 null]", handler.changes.toString());
+	}
+	
+	@Test
+	public void detectsChangesOfInheritedNamespaces() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		writeDocument("<entries xmlns:t='urn:one'><entry id='1'><t:title>One</t:title></entry></entries>");
+		RecordIndex index = digester.digestChanges(snapshot, entryName, "id", null, new RecordingChangeHandler());
+		
+		writeDocument("<entries xmlns:t='urn:two'><entry id='1'><t:title>One</t:title></entry></entries>");
+		RecordingChangeHandler handler = new RecordingChangeHandler();
+		digester.digestChanges(snapshot, entryName, "id", index, handler);
+		assertEquals(1, handler.changes.size());
+		assertEquals("changed 1", handler.changes.get(0).substring(0, 9));
+	}
+	
+	@Test
+	public void listsRemovedRecordsInDocumentOrder() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		writeSnapshot("<entry id='10'/><entry id='2'/><entry id='33'/><entry id='4'/><entry id='5'/>");
+		RecordIndex index = digester.digestChanges(snapshot, entryName, "id", null, new RecordingChangeHandler());
+		
+		writeSnapshot("<entry id='5'/>");
+		RecordingChangeHandler handler = new RecordingChangeHandler();
+		digester.digestChanges(snapshot, entryName, "id", index, handler);
+		assertEquals("[removed 10, removed 2, removed 33, removed 4]", handler.changes.toString());
+	}
+}
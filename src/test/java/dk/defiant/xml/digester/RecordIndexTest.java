@@ -0,0 +1,82 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+
+import javax.xml.namespace.QName;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+import dk.defiant.xml.digester.index.RecordIndex;
+import dk.defiant.xml.digester.index.RecordIndexer;
+
+public class RecordIndexTest {
+
+	static class Entry {
+		@Digest("@id")
+		String id;
+		
+		@Digest
+		String title;
+	}
+	
+	private static final QName entryName = new QName("urn:archive", "entry");
+	
+	private File archive;
+	private File sidecar;
+	
+	@Before
+	public void beforeEach() throws Exception {
+		archive = File.createTempFile("archive", ".xml");
+		sidecar = File.createTempFile("archive", ".idx");
+		String xml = 
+				"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+				"<a:archive xmlns:a=\"urn:archive\">\n" +
+				"  <!-- <a:entry id=\"fake\"> -->\n" +
+				"  <a:entry id=\"first\"><a:title>F\u00f8rste</a:title></a:entry>\n" +
+				"  <a:entry id=\"s&#230;cond\"><a:title><![CDATA[</a:entry>]]></a:title></a:entry>\n" +
+				"  <a:entry id=\"third\" xmlns:a=\"urn:archive\"/>\n" +
+				"</a:archive>";
+		OutputStream output = new FileOutputStream(archive);
+		output.write(xml.getBytes("UTF-8"));
+		output.close();
+	}
+	
+	@After
+	public void afterEach() {
+		archive.delete();
+		sidecar.delete();
+	}
+	
+	@Test
+	public void digestsIndexedRecords() throws Exception {
+		new RecordIndexer(entryName, "id").index(archive).write(sidecar);
+		RecordIndex index = RecordIndex.read(sidecar);
+		assertEquals(3, index.size());
+		
+		XmlDigester digester = new XmlDigester();
+		Entry entry = new Entry();
+		digester.digestAt(archive, index, 0, entry, new SimpleAnnotationBasedHandler(entryName, Entry.class));
+		assertEquals("first", entry.id);
+		assertEquals("F\u00f8rste", entry.title);
+		
+		entry = new Entry();
+		assertTrue(digester.digestAt(archive, index, "id", "s\u00e6cond", entry, new SimpleAnnotationBasedHandler(entryName, Entry.class)));
+		assertEquals("</a:entry>", entry.title);
+		
+		entry = new Entry();
+		assertTrue(digester.digestAt(archive, index, "id", "third", entry, new SimpleAnnotationBasedHandler(entryName, Entry.class)));
+		assertEquals("third", entry.id);
+		
+		assertFalse(digester.digestAt(archive, index, "id", "fake", new Entry(), new SimpleAnnotationBasedHandler(entryName, Entry.class)));
+	}
+}
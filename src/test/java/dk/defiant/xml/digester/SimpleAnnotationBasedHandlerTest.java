@@ -0,0 +1,246 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+import dk.defiant.xml.digester.handlers.SimpleDigesterEventHandler;
+import dk.defiant.xml.digester.responses.DelegateParsingResponse;
+import dk.defiant.xml.digester.responses.FinishedParsingResponse;
+
+public class SimpleAnnotationBasedHandlerTest {
+
+	static class Header {
+		@Digest(value = "@version", required = true)
+		String version;
+		
+		@Digest(required = true)
+		String title;
+		
+		@Digest
+		String comment;
+	}
+	
+	static class Document {
+		Header header;
+		String body;
+	}
+	
+	static class Part {
+		@Digest("@id")
+		String id;
+		
+		@Digest
+		int quantity;
+		
+		@Digest("part")
+		List<Part> parts = new ArrayList<Part>();
+	}
+	
+	static class Assembly {
+		@Digest
+		Header header;
+		
+		@Digest("part")
+		List<Part> parts = new ArrayList<Part>();
+	}
+	
+	class DocumentHandler extends SimpleDigesterEventHandler {
+
+		private Document document;
+		
+		public DocumentHandler() {
+			super("");
+		}
+		
+		@Override
+		public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+			String localName = element.getName().getLocalPart();
+			if ("document".equals(localName)) {
+				document = (Document) digestTarget;
+			} else if ("header".equals(localName)) {
+				return new DelegateParsingResponse(new SimpleAnnotationBasedHandler(new QName("header"), Header.class), new Header());
+			} else if ("body".equals(localName)) {
+				document.body = getText();
+			}
+			return super.handle(element, digestTarget);
+		}
+		
+		@Override
+		public HandlerResponse handle(EndElement element, Object digestTarget) throws XMLStreamException {
+			String localName = element.getName().getLocalPart();
+			if ("document".equals(localName)) {
+				return new FinishedParsingResponse();
+			} else if ("header".equals(localName)) {
+				document.header = (Header) digestTarget;
+			}
+			return super.handle(element, digestTarget);
+		}
+	}
+	
+	@Test
+	public void stopsReadingDocumentWhenRequiredFieldsAreDigested() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		Header header = new Header();
+		// Everything after the title is malformed so reading it would fail
+		String xml = 
+				"<header version=\"2\">" +
+				"  <title>Report</title>" +
+				"  <comment>Not needed</comment>" +
+				"  <broken></mismatch>";
+		
+		digester.digest(xml, header, new SimpleAnnotationBasedHandler(new QName("header"), Header.class));
+		assertEquals("2", header.version);
+		assertEquals("Report", header.title);
+		assertNull(header.comment);
+	}
+	
+	@Test
+	public void skipsRestOfDelegatedElementWhenRequiredFieldsAreDigested() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		Document document = new Document();
+		String xml = 
+				"<document>" +
+				"  <header version=\"2\">" +
+				"    <title>Report</title>" +
+				"    <comment>Not needed</comment>" +
+				"  </header>" +
+				"  <body>Text</body>" +
+				"</document>";
+		
+		digester.digest(xml, document, new DocumentHandler());
+		assertEquals("2", document.header.version);
+		assertEquals("Report", document.header.title);
+		assertNull(document.header.comment);
+		assertEquals("Text", document.body);
+	}
+	
+	static class Version {
+		@Digest(value = "@version", required = true)
+		String version;
+		
+		@Digest
+		String comment;
+	}
+	
+	@Test
+	public void skipsDelegatedElementWhenRootAttributesCompleteProjection() throws Exception {
+		final List<Version> versions = new ArrayList<Version>();
+		String xml = 
+				"<document>" +
+				"  <header version=\"3\"><comment>Not needed</comment></header>" +
+				"  <header version=\"4\"/>" +
+				"</document>";
+		new XmlDigester().digest(xml, null, new SimpleDigesterEventHandler("") {
+			@Override
+			public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+				if ("header".equals(element.getName().getLocalPart())) {
+					return new DelegateParsingResponse(new SimpleAnnotationBasedHandler(new QName("header"), Version.class), new Version());
+				}
+				return super.handle(element, digestTarget);
+			}
+			
+			@Override
+			public HandlerResponse handle(EndElement element, Object digestTarget) throws XMLStreamException {
+				if ("header".equals(element.getName().getLocalPart())) {
+					versions.add((Version) digestTarget);
+				}
+				return super.handle(element, digestTarget);
+			}
+		});
+		assertEquals(2, versions.size());
+		assertEquals("3", versions.get(0).version);
+		assertNull(versions.get(0).comment);
+		assertEquals("4", versions.get(1).version);
+	}
+	
+	static class Order {
+		@Digest("@id")
+		String id;
+		
+		@Digest
+		int quantity;
+		
+		@Digest("item")
+		List<String> items = new ArrayList<String>();
+	}
+	
+	@Test
+	public void reusesTargetForEveryRecord() throws Exception {
+		String xml = 
+				"<orders>" +
+				"<order id=\"1\"><quantity>2</quantity><item>a</item><item>b</item></order>" +
+				"<order><item>c</item></order>" +
+				"</orders>";
+		RecordReader<Order> orders = new XmlDigester().readRecords(new StringReader(xml), new QName("order"), new ReusingDigestFactory<Order>(new DigestFactory<Order>() {
+			@Override
+			public Order newDigestTarget() {
+				return new Order();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				SimpleAnnotationBasedHandler handler = new SimpleAnnotationBasedHandler(new QName("order"), Order.class);
+				handler.setReuseMode(true);
+				return handler;
+			}
+		}));
+		Order first = orders.next();
+		List<String> items = first.items;
+		assertEquals("1", first.id);
+		assertEquals(2, first.quantity);
+		assertEquals(Arrays.asList("a", "b"), first.items);
+		Order second = orders.next();
+		assertSame(first, second);
+		assertSame(items, second.items);
+		assertNull(second.id);
+		assertEquals(0, second.quantity);
+		assertEquals(Arrays.asList("c"), second.items);
+		assertFalse(orders.hasNext());
+	}
+	
+	@Test
+	public void digestsNestedTypesWithinHandler() throws Exception {
+		Assembly assembly = new Assembly();
+		new XmlDigester().digest("<assembly>"
+				+ "<header version='2'><title>Bike</title></header>"
+				+ "<part id='frame'><quantity>1</quantity></part>"
+				+ "<part id='wheel'><quantity>2</quantity><part id='spoke'><quantity>32</quantity></part></part>"
+				+ "</assembly>", assembly, new SimpleAnnotationBasedHandler(new QName("assembly"), Assembly.class));
+		assertEquals("2", assembly.header.version);
+		assertEquals("Bike", assembly.header.title);
+		assertEquals(2, assembly.parts.size());
+		assertEquals("frame", assembly.parts.get(0).id);
+		assertEquals(1, assembly.parts.get(0).quantity);
+		Part wheel = assembly.parts.get(1);
+		assertEquals(2, wheel.quantity);
+		assertEquals(1, wheel.parts.size());
+		assertEquals("spoke", wheel.parts.get(0).id);
+		assertEquals(32, wheel.parts.get(0).quantity);
+	}
+	
+	@Test
+	public void digestsChildrenNamedLikeRoot() throws Exception {
+		Part part = new Part();
+		new XmlDigester().digest("<part id='wheel'><part id='spoke'><quantity>32</quantity></part><quantity>2</quantity></part>", 
+				part, new SimpleAnnotationBasedHandler(new QName("part"), Part.class));
+		assertEquals("wheel", part.id);
+		assertEquals(2, part.quantity);
+		assertEquals(32, part.parts.get(0).quantity);
+	}
+}
@@ -0,0 +1,142 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedWriter;
+
+public class SimpleAnnotationBasedWriterTest {
+
+	static class Line {
+		@Digest("@sku")
+		String sku;
+		
+		@Digest
+		int quantity;
+		
+		Line() {
+		}
+		
+		Line(String sku, int quantity) {
+			this.sku = sku;
+			this.quantity = quantity;
+		}
+	}
+	
+	static class Order {
+		@Digest("@id")
+		long id;
+		
+		@Digest
+		String customer;
+		
+		@Digest
+		boolean paid;
+		
+		@Digest
+		double total;
+		
+		@Digest("note")
+		List<String> notes = new ArrayList<String>();
+		
+		@Digest("line")
+		List<Line> lines = new ArrayList<Line>();
+		
+		@Digest
+		Line gift;
+	}
+	
+	private static Order order() {
+		Order order = new Order();
+		order.id = Long.MIN_VALUE;
+		order.customer = "Ann & \"Bob\" <\u00d8rsted> \ud83d\ude00";
+		order.paid = true;
+		order.total = 12.5;
+		order.notes.add("fragile");
+		order.notes.add("a\tb");
+		order.lines.add(new Line("a\"1\n", -42));
+		order.lines.add(new Line(null, 0));
+		return order;
+	}
+	
+	@Test
+	public void writesAnnotatedObjectsToBytes() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SimpleAnnotationBasedWriter writer = new SimpleAnnotationBasedWriter(output);
+		writer.write(new QName("order"), order());
+		writer.flush();
+		assertEquals("<order id=\"-9223372036854775808\"><customer>Ann &amp; \"Bob\" &lt;\u00d8rsted&gt; \ud83d\ude00</customer>"
+				+ "<paid>true</paid><total>12.5</total><note>fragile</note><note>a\tb</note>"
+				+ "<line sku=\"a&quot;1&#10;\"><quantity>-42</quantity></line><line><quantity>0</quantity></line></order>", 
+				output.toString("UTF-8"));
+	}
+	
+	@Test(expected = XMLStreamException.class)
+	public void rejectsControlCharacters() throws Exception {
+		SimpleAnnotationBasedWriter writer = new SimpleAnnotationBasedWriter(new ByteArrayOutputStream());
+		writer.write(new QName("line"), new Line("a\u0001b", 1));
+	}
+	
+	@Test
+	public void rejectsUnencodableCharacters() throws Exception {
+		for (String text : new String[] {"a\ud800b", "a\udc00", "a\ud800", "a\ufffeb", "\uffff"}) {
+			SimpleAnnotationBasedWriter writer = new SimpleAnnotationBasedWriter(new ByteArrayOutputStream());
+			try {
+				writer.write(new QName("line"), new Line(text, 1));
+				fail("Expected " + text + " to be rejected");
+			} catch (XMLStreamException e) {
+				// Expected
+			}
+		}
+	}
+	
+	@Test
+	public void roundTripsThroughHandler() throws Exception {
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		SimpleAnnotationBasedWriter writer = new SimpleAnnotationBasedWriter(output);
+		writer.writeStartDocument();
+		writer.write(new QName("urn:orders", "order"), order());
+		writer.flush();
+		
+		Order order = new Order();
+		new XmlDigester().digest(output.toByteArray(), order, new SimpleAnnotationBasedHandler(new QName("urn:orders", "order"), Order.class));
+		Order expected = order();
+		assertEquals(expected.id, order.id);
+		assertEquals(expected.customer, order.customer);
+		assertEquals(expected.paid, order.paid);
+		assertEquals(expected.total, order.total, 0);
+		assertEquals(expected.notes, order.notes);
+		assertEquals(2, order.lines.size());
+		assertEquals(expected.lines.get(0).sku, order.lines.get(0).sku);
+		assertEquals(-42, order.lines.get(0).quantity);
+	}
+	
+	@Test
+	public void writesToStreamWriter() throws Exception {
+		StringWriter output = new StringWriter();
+		XMLStreamWriter streamWriter = XMLOutputFactory.newInstance().createXMLStreamWriter(output);
+		SimpleAnnotationBasedWriter writer = new SimpleAnnotationBasedWriter(streamWriter);
+		writer.writeStartElement(new QName("urn:orders", "orders"));
+		Line line = new Line("x<y", 3);
+		writer.write(new QName("urn:orders", "line"), line);
+		writer.write(new QName("line"), line);
+		writer.writeEndElement();
+		writer.flush();
+		assertEquals("<orders xmlns=\"urn:orders\"><line sku=\"x&lt;y\"><quantity>3</quantity></line>"
+				+ "<line xmlns=\"\" sku=\"x&lt;y\"><quantity>3</quantity></line></orders>", output.toString());
+	}
+}
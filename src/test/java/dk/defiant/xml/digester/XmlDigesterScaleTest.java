@@ -0,0 +1,284 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.util.concurrent.TimeUnit;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.events.EndElement;
+import javax.xml.stream.events.StartElement;
+
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.columnar.BatchHandler;
+import dk.defiant.xml.digester.columnar.ColumnBatch;
+import dk.defiant.xml.digester.columnar.ColumnSchema;
+import dk.defiant.xml.digester.columnar.ColumnarHandler;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+import dk.defiant.xml.digester.handlers.SimpleDigesterEventHandler;
+
+/**
+ * Scale and soak tests digesting large synthetic documents generated on the fly.
+ * <p>
+ * These are not run by default, run them with {@code mvn test -Pscale}, which runs them
+ * with a fixed heap. The sizes and floors can be changed with system properties, e.g.
+ * {@code -Dscale.records=50000000} for an input of several GB.
+ * </p>
+ */
+public class XmlDigesterScaleTest {
+
+	private static final int RECORDS = Integer.getInteger("scale.records", 2000000);
+	private static final int DEPTH = Integer.getInteger("scale.depth", 5000);
+	private static final int REPEATS = Integer.getInteger("scale.repeats", 5000);
+	private static final long HEAP_CEILING = Long.getLong("scale.heapCeilingMb", 64) << 20;
+	private static final long LEAK_CEILING = Long.getLong("scale.leakCeilingMb", 8) << 20;
+	private static final long RECORDS_PER_SECOND_FLOOR = Long.getLong("scale.recordsPerSecond", 20000);
+	private static final int COMPARED_RECORDS = Integer.getInteger("scale.comparedRecords", 200000);
+	private static final int COMPARISON_ROUNDS = Integer.getInteger("scale.comparisonRounds", 5);
+	private static final int HEAP_SAMPLE_INTERVAL = 250000;
+	
+	private static final Logger log = LoggerFactory.getLogger(XmlDigesterScaleTest.class);
+	
+	private static final MemoryMXBean memory = ManagementFactory.getMemoryMXBean();
+	
+	static class Item {
+		@Digest("@id")
+		long id;
+		
+		@Digest
+		String name;
+		
+		@Digest
+		double price;
+	}
+	
+	/**
+	 * Reader of a document of records generated as it is read, so no input is kept in memory
+	 */
+	static final class SyntheticRecords extends Reader {
+		
+		private final int records;
+		private final StringBuilder chunk = new StringBuilder();
+		private int next = 0;
+		private int position = 0;
+		
+		SyntheticRecords(int records) {
+			this.records = records;
+			chunk.append("<?xml version=\"1.0\"?>\n<items>");
+		}
+		
+		@Override
+		public int read(char[] cbuf, int off, int len) {
+			if (position == chunk.length()) {
+				if (!fill()) {
+					return -1;
+				}
+			}
+			int count = Math.min(len, chunk.length() - position);
+			chunk.getChars(position, position + count, cbuf, off);
+			position += count;
+			return count;
+		}
+		
+		private boolean fill() {
+			if (next > records) {
+				return false;
+			}
+			chunk.setLength(0);
+			position = 0;
+			int end = Math.min(next + 100, records);
+			for (; next < end; next++) {
+				chunk.append("\n  <item id=\"").append(next).append("\"><name>Item ").append(next % 1000)
+						.append("</name><price>").append(next % 100).append(".25</price><note>Not digested</note></item>");
+			}
+			if (next == records) {
+				chunk.append("\n</items>\n");
+				next++;
+			}
+			return true;
+		}
+		
+		@Override
+		public void close() {
+		}
+	}
+	
+	private static long usedHeapAfterGc() {
+		System.gc();
+		return memory.getHeapMemoryUsage().getUsed();
+	}
+	
+	private static void assertThroughput(long records, long startNanos) {
+		long elapsed = Math.max(1, System.nanoTime() - startNanos);
+		long recordsPerSecond = records * TimeUnit.SECONDS.toNanos(1) / elapsed;
+		assertTrue("Throughput of " + recordsPerSecond + " records/s is below the floor of " + RECORDS_PER_SECOND_FLOOR,
+				recordsPerSecond >= RECORDS_PER_SECOND_FLOOR);
+	}
+	
+	@Test
+	public void readsRecordsInBoundedHeap() throws Exception {
+		long baseline = usedHeapAfterGc();
+		long start = System.nanoTime();
+		RecordReader<Item> items = new XmlDigester().readRecords(new SyntheticRecords(RECORDS), new QName("item"), new DigestFactory<Item>() {
+			@Override
+			public Item newDigestTarget() {
+				return new Item();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new SimpleAnnotationBasedHandler(new QName("item"), Item.class);
+			}
+		});
+		long count = 0;
+		long peak = 0;
+		try {
+			while (items.hasNext()) {
+				Item item = items.next();
+				assertEquals(count, item.id);
+				count++;
+				if (count % HEAP_SAMPLE_INTERVAL == 0) {
+					peak = Math.max(peak, usedHeapAfterGc() - baseline);
+				}
+			}
+		} finally {
+			items.close();
+		}
+		assertEquals(RECORDS, count);
+		assertTrue("Heap grew by " + (peak >> 20) + " MB", peak < HEAP_CEILING);
+		assertThroughput(count, start);
+	}
+	
+	@Test
+	public void digestsColumnsInBoundedHeap() throws Exception {
+		final long baseline = usedHeapAfterGc();
+		final long[] counts = new long[2];
+		long start = System.nanoTime();
+		ColumnSchema schema = ColumnSchema.fromAnnotations(new QName("item"), Item.class);
+		new XmlDigester().digest(new SyntheticRecords(RECORDS), null, new ColumnarHandler(schema, 4096, new BatchHandler() {
+			@Override
+			public void handle(ColumnBatch batch) {
+				assertEquals(counts[0], batch.getFirstRecord());
+				counts[0] += batch.size();
+				if (++counts[1] % 64 == 0) {
+					long grown = usedHeapAfterGc() - baseline;
+					assertTrue("Heap grew by " + (grown >> 20) + " MB", grown < HEAP_CEILING);
+				}
+				// Item names repeat every 1000 records
+				assertTrue(batch.getStringColumn("name").getDictionarySize() <= 1000);
+			}
+		}));
+		assertEquals(RECORDS, counts[0]);
+		assertThroughput(counts[0], start);
+	}
+	
+	@Test
+	public void digestsDeepNesting() throws Exception {
+		StringBuilder xml = new StringBuilder();
+		for (int i = 0; i < DEPTH; i++) {
+			xml.append("<level n=\"").append(i).append("\">");
+		}
+		xml.append("bottom");
+		for (int i = 0; i < DEPTH; i++) {
+			xml.append("</level>");
+		}
+		final int[] depths = new int[2];
+		new XmlDigester().digest(new StringReader(xml.toString()), null, new SimpleDigesterEventHandler("") {
+			@Override
+			public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+				depths[0]++;
+				depths[1] = Math.max(depths[1], depths[0]);
+				return super.handle(element, digestTarget);
+			}
+			
+			@Override
+			public HandlerResponse handle(EndElement element, Object digestTarget) throws XMLStreamException {
+				depths[0]--;
+				return super.handle(element, digestTarget);
+			}
+		});
+		assertEquals(0, depths[0]);
+		assertEquals(DEPTH, depths[1]);
+	}
+	
+	@Test
+	public void repeatedDigestsDoNotLeak() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		int warmUp = REPEATS / 10;
+		long baseline = 0;
+		for (int i = 0; i < REPEATS; i++) {
+			if (i == warmUp) {
+				baseline = usedHeapAfterGc();
+			}
+			Item item = new Item();
+			digester.digest(new SyntheticRecords(1), item, new SimpleAnnotationBasedHandler(new QName("item"), Item.class));
+			assertEquals("Item 0", item.name);
+		}
+		long grown = usedHeapAfterGc() - baseline;
+		assertTrue("Heap grew by " + (grown >> 10) + " KB over " + (REPEATS - warmUp) + " digests", grown < LEAK_CEILING);
+	}
+	
+	/**
+	 * Handler counting the items of a document
+	 */
+	static final class ItemCounter extends SimpleDigesterEventHandler {
+		
+		long count;
+		
+		ItemCounter() {
+			super("");
+		}
+		
+		@Override
+		public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+			if ("item".equals(element.getName().getLocalPart())) {
+				count++;
+			}
+			return super.handle(element, digestTarget);
+		}
+	}
+	
+	/**
+	 * Compares handing bytes to the parser with decoding them through a reader first, the 
+	 * way byte input was parsed before. The rates of both are logged for each round.
+	 */
+	@Test
+	public void comparesByteAndDecodedInput() throws Exception {
+		StringBuilder document = new StringBuilder();
+		char[] buffer = new char[8192];
+		Reader records = new SyntheticRecords(COMPARED_RECORDS);
+		for (int count = records.read(buffer, 0, buffer.length); count >= 0; count = records.read(buffer, 0, buffer.length)) {
+			document.append(buffer, 0, count);
+		}
+		byte[] xml = document.toString().getBytes("UTF-8");
+		XmlDigester digester = new XmlDigester();
+		for (int round = 0; round < COMPARISON_ROUNDS; round++) {
+			ItemCounter counter = new ItemCounter();
+			long start = System.nanoTime();
+			digester.digest(new ByteArrayInputStream(xml), "UTF-8", null, counter);
+			long bytesNanos = System.nanoTime() - start;
+			assertEquals(COMPARED_RECORDS, counter.count);
+			
+			counter = new ItemCounter();
+			start = System.nanoTime();
+			digester.digest(new BufferedReader(new InputStreamReader(new ByteArrayInputStream(xml), "UTF-8")), null, counter);
+			long readerNanos = System.nanoTime() - start;
+			assertEquals(COMPARED_RECORDS, counter.count);
+			
+			log.info("Round {}: {}", round, String.format("bytes %.1f MB/s, reader %.1f MB/s", 
+					xml.length * 1000.0 / bytesNanos, xml.length * 1000.0 / readerNanos));
+		}
+	}
+}
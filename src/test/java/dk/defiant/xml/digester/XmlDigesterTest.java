@@ -1,14 +1,36 @@
 package dk.defiant.xml.digester;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 
+import java.io.ByteArrayInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.xml.namespace.QName;
+import javax.xml.stream.XMLInputFactory;
 import javax.xml.stream.XMLStreamException;
 import javax.xml.stream.events.EndElement;
 import javax.xml.stream.events.StartElement;
+import javax.xml.stream.events.XMLEvent;
+import javax.xml.stream.util.EventReaderDelegate;
 
 import org.junit.Test;
 
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.events.PipelinedEventReader;
+import dk.defiant.xml.digester.handlers.GetXmlHandler;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
 import dk.defiant.xml.digester.handlers.SimpleDigesterEventHandler;
+import dk.defiant.xml.digester.responses.DelegateParsingResponse;
 import dk.defiant.xml.digester.responses.FinishedParsingResponse;
 
 public class XmlDigesterTest {
@@ -91,4 +113,399 @@ public class XmlDigesterTest {
 		        + "    <zip>1234</zip>"
 		        + "  </address>", person.getAddressBlob());
 	}
+	
+	@Test
+	public void digestsPipelined() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		digester.setPipelined(true);
+		digester.setPipelineCapacity(4);
+		StringBuilder xml = new StringBuilder("<person><name>John Doe</name><address>");
+		for (int i = 0; i < 1000; i++) {
+			xml.append("<line>").append(i).append("</line>");
+		}
+		xml.append("</address></person>");
+		Person person = new Person();
+		digester.digest(xml.toString(), person, new PersonHandler());
+		assertEquals("John Doe", person.getName());
+		assertTrue(person.getAddressBlob().endsWith("<line>999</line></address>"));
+	}
+	
+	@Test
+	public void digestsBytesUsingDeclaredEncoding() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		byte[] xml = ("<?xml version=\"1.0\" encoding=\"ISO-8859-1\"?>"
+				+ "<person><name>S\u00f8ren</name></person>").getBytes("ISO-8859-1");
+		
+		Person person = new Person();
+		digester.digest(xml, person, new PersonHandler());
+		assertEquals("S\u00f8ren", person.getName());
+		
+		ByteBuffer buffer = ByteBuffer.allocateDirect(xml.length);
+		buffer.put(xml).flip();
+		person = new Person();
+		digester.digest(buffer, person, new PersonHandler());
+		assertEquals("S\u00f8ren", person.getName());
+		assertEquals(0, buffer.position());
+	}
+	
+	@Test
+	public void digestsStreamsUsingGivenCharacterSet() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		String xml = "<person><name>S\u00f8ren \u20ac</name></person>";
+		// An alias the parser is handed by its canonical name, and a character set decoded by a reader
+		for (String charSetName : new String[] {"utf8", "latin9", "windows-1252", "UTF-16LE"}) {
+			Person person = new Person();
+			digester.digest(new ByteArrayInputStream(xml.getBytes(charSetName)), charSetName, person, new PersonHandler());
+			assertEquals(charSetName, "S\u00f8ren \u20ac", person.getName());
+			
+			person = new Person();
+			digester.digest(xml.getBytes(charSetName), charSetName, person, new PersonHandler());
+			assertEquals(charSetName, "S\u00f8ren \u20ac", person.getName());
+		}
+		try {
+			digester.digest(new ByteArrayInputStream(xml.getBytes("UTF-8")), "no-such-charset", new Person(), new PersonHandler());
+			fail("Unknown character set accepted");
+		} catch (UnsupportedEncodingException e) {
+			assertEquals("no-such-charset", e.getMessage());
+		}
+	}
+	
+	@Test
+	public void honoursDelegateFinishingAtFirstEvent() throws Exception {
+		final List<String> results = new ArrayList<String>();
+		new XmlDigester().digest("<people><person name='Ann'><nested><person name='Bob'/></nested></person><person name='Cid'/></people>", 
+				null, new SimpleDigesterEventHandler("") {
+			@Override
+			public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+				if ("person".equals(element.getName().getLocalPart())) {
+					return new DelegateParsingResponse(new SimpleDigesterEventHandler("") {
+						@Override
+						public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+							// Everything is known from the start element, so the delegate is done with it
+							return new FinishedParsingResponse(getAttributes().get(new QName("name")));
+						}
+					}, null);
+				}
+				return super.handle(element, digestTarget);
+			}
+			
+			@Override
+			public HandlerResponse handle(EndElement element, Object digestTarget) throws XMLStreamException {
+				if ("person".equals(element.getName().getLocalPart())) {
+					results.add((String) digestTarget);
+				}
+				return super.handle(element, digestTarget);
+			}
+		});
+		assertEquals(Arrays.asList("Ann", "Cid"), results);
+	}
+	
+	static class Message {
+		@Digest("@id")
+		String id;
+		
+		@Digest
+		String body;
+	}
+	
+	@Test
+	public void digestsConcatenatedDocuments() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		String xml =
+				"<?xml version=\"1.0\"?><message id=\"1\"><body>a &gt; b</body></message>\n" +
+				"<?xml version=\"1.0\"?>\n<!-- second --><message id='2&gt;'><body><![CDATA[</message>]]></body><empty/></message>" +
+				"<message id=\"3\"/>\n";
+		final List<Message> messages = new ArrayList<Message>();
+		long count = digester.digestDocuments(new StringReader(xml), new DocumentHandler<Message>() {
+			@Override
+			public Message newDigestTarget() {
+				return new Message();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new SimpleAnnotationBasedHandler(new QName("message"), Message.class);
+			}
+			
+			@Override
+			public void handle(Message message) {
+				messages.add(message);
+			}
+		});
+		assertEquals(3, count);
+		assertEquals("1", messages.get(0).id);
+		assertEquals("a > b", messages.get(0).body);
+		assertEquals("2>", messages.get(1).id);
+		assertEquals("</message>", messages.get(1).body);
+		assertEquals("3", messages.get(2).id);
+	}
+	
+	@Test
+	public void digestsConcatenatedDocumentStreams() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		final List<Message> messages = new ArrayList<Message>();
+		DocumentHandler<Message> documentHandler = new DocumentHandler<Message>() {
+			@Override
+			public Message newDigestTarget() {
+				return new Message();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new SimpleAnnotationBasedHandler(new QName("message"), Message.class);
+			}
+			
+			@Override
+			public void handle(Message message) {
+				messages.add(message);
+			}
+		};
+		String xml =
+				"<?xml version=\"1.0\"?><message id=\"1\"><body>s\u00f8 &gt; \u20ac</body></message>\n" +
+				"<message id='2'><body><![CDATA[</message>]]></body></message>\r\n" +
+				"<message id=\"3\"/>";
+		for (String charSetName : new String[] {"UTF-8", "ISO-8859-15", "UTF-16LE"}) {
+			messages.clear();
+			long count = digester.digestDocuments(new ByteArrayInputStream(xml.getBytes(charSetName)), charSetName, documentHandler);
+			assertEquals(charSetName, 3, count);
+			assertEquals(charSetName, "s\u00f8 > \u20ac", messages.get(0).body);
+			assertEquals(charSetName, "</message>", messages.get(1).body);
+			assertEquals(charSetName, "3", messages.get(2).id);
+		}
+		// The second byte of \u30be is ']' in Shift_JIS, so scanning its bytes would end the CDATA section early
+		messages.clear();
+		xml = "<message id='1'><body><![CDATA[\u30be]></message>]]></body></message><message id='2'/>";
+		assertEquals(2, digester.digestDocuments(new ByteArrayInputStream(xml.getBytes("Shift_JIS")), "Shift_JIS", documentHandler));
+		assertEquals("\u30be]></message>", messages.get(0).body);
+		assertEquals("2", messages.get(1).id);
+	}
+	
+	static class MessageHeader {
+		@Digest(value = "@id", required = true)
+		String id;
+	}
+	
+	@Test
+	public void digestsPipelinedConcatenatedDocuments() throws Exception {
+		XmlDigester digester = new XmlDigester();
+		digester.setPipelined(true);
+		digester.setPipelineCapacity(2);
+		StringBuilder xml = new StringBuilder();
+		for (int i = 0; i < 500; i++) {
+			xml.append("<message id=\"").append(i).append("\"><body>").append(i).append("</body>");
+			for (int j = 0; j < 100; j++) {
+				xml.append("<padding/>");
+			}
+			xml.append("</message>\n");
+		}
+		// Each header is complete at the start of its message, so parsing is still going on as the digest ends
+		final List<MessageHeader> messages = new ArrayList<MessageHeader>();
+		DocumentHandler<MessageHeader> documentHandler = new DocumentHandler<MessageHeader>() {
+			@Override
+			public MessageHeader newDigestTarget() {
+				return new MessageHeader();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new SimpleAnnotationBasedHandler(new QName("message"), MessageHeader.class);
+			}
+			
+			@Override
+			public void handle(MessageHeader message) {
+				messages.add(message);
+			}
+		};
+		assertEquals(500, digester.digestDocuments(new StringReader(xml.toString()), documentHandler));
+		assertEquals(500, digester.digestDocuments(new ByteArrayInputStream(xml.toString().getBytes("UTF-8")), "UTF-8", documentHandler));
+		for (int i = 0; i < 1000; i++) {
+			assertEquals(String.valueOf(i % 500), messages.get(i).id);
+		}
+	}
+	
+	@Test
+	public void closingPipelineWaitsForParsingToStop() throws Exception {
+		final boolean[] sourceClosed = new boolean[1];
+		EventReaderDelegate source = new EventReaderDelegate(XMLInputFactory.newInstance().createXMLEventReader(new StringReader("<a><b/><b/><b/><b/></a>"))) {
+			@Override
+			public XMLEvent nextEvent() throws XMLStreamException {
+				try {
+					Thread.sleep(20);
+				} catch (InterruptedException e) {
+					throw new XMLStreamException(e);
+				}
+				return super.nextEvent();
+			}
+			
+			@Override
+			public void close() throws XMLStreamException {
+				sourceClosed[0] = true;
+				super.close();
+			}
+		};
+		PipelinedEventReader eventReader = new PipelinedEventReader(source, 2);
+		eventReader.nextEvent();
+		eventReader.close();
+		assertTrue(sourceClosed[0]);
+	}
+	
+	@Test
+	public void capturesOnlyArmedElements() throws Exception {
+		final List<String> texts = new ArrayList<String>();
+		DigesterEventHandler handler = new SimpleDigesterEventHandler("") {
+			{
+				setArmedCapture(true);
+			}
+			
+			@Override
+			public HandlerResponse handle(StartElement element, Object digestTarget) throws XMLStreamException {
+				if ("name".equals(element.getName().getLocalPart())) {
+					armCharacterBuffer();
+				}
+				return super.handle(element, digestTarget);
+			}
+			
+			@Override
+			public HandlerResponse handle(EndElement element, Object digestTarget) throws XMLStreamException {
+				if ("person".equals(element.getName().getLocalPart())) {
+					texts.add(getCharacterBuffer());
+				}
+				return super.handle(element, digestTarget);
+			}
+		};
+		XmlDigester digester = new XmlDigester();
+		digester.setCoalescing(true);
+		digester.digest("<people>\n  <person>\n    <name>John <b>Doe</b></name>\n    <age>42</age>\n  </person>\n</people>", null, handler);
+		assertEquals(1, texts.size());
+		assertEquals("John Doe", texts.get(0));
+	}
+	
+	@Test
+	public void dispatchesOnlyEventsOfInterest() throws Exception {
+		final List<String> seen = new ArrayList<String>();
+		DigesterEventHandler handler = new DigesterEventHandler() {
+			@Override
+			public EventInterest getEventInterest() {
+				return EventInterest.ELEMENTS_AND_TEXT.ignoringWhitespace().inNamespaces("urn:a");
+			}
+			
+			@Override
+			public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+				if (event.isStartElement()) {
+					seen.add(event.asStartElement().getName().getLocalPart());
+				} else if (event.isCharacters()) {
+					seen.add(event.asCharacters().getData());
+				} else if (!event.isEndElement()) {
+					seen.add("event " + event.getEventType());
+				}
+				return super.handle(event, digestTarget);
+			}
+		};
+		new XmlDigester().digest(
+				"<a:root xmlns:a=\"urn:a\">\n  <!-- comment -->\n  <?pi data?>\n  <b>foreign</b>\n  <a:name>x</a:name>\n</a:root>", 
+				null, handler);
+		assertEquals(Arrays.asList("root", "foreign", "name", "x"), seen);
+	}
+	
+	@Test
+	public void keepsCommentsForDelegatesOfFilteringHandlers() throws Exception {
+		final List<String> fragments = new ArrayList<String>();
+		DigesterEventHandler handler = new DigesterEventHandler() {
+			@Override
+			public EventInterest getEventInterest() {
+				return EventInterest.ELEMENTS_AND_TEXT;
+			}
+			
+			@Override
+			public HandlerResponse handle(XMLEvent event, Object digestTarget) throws XMLStreamException {
+				if (event.isStartElement() && "note".equals(event.asStartElement().getName().getLocalPart())) {
+					return new DelegateParsingResponse(new GetXmlHandler<Object>(new XmlHandler<Object>() {
+						@Override
+						public void handle(Object target, String xml) {
+							fragments.add(xml);
+						}
+					}));
+				}
+				return super.handle(event, digestTarget);
+			}
+		};
+		new XmlDigester().digest("<root><!-- skipped --><note>a<!-- kept -->b</note></root>", null, handler);
+		assertEquals(Arrays.asList("<note>a<!-- kept -->b</note>"), fragments);
+	}
+	
+	@Test
+	public void endsDigestsExceedingLimits() throws Exception {
+		StringBuilder xml = new StringBuilder("<people>");
+		for (int i = 0; i < 1000; i++) {
+			xml.append("<person><name>John Doe</name><age>42</age></person>");
+		}
+		xml.append("</people>");
+		XmlDigester digester = new XmlDigester();
+		digester.digest(xml.toString(), null, new SimpleDigesterEventHandler("") {});
+		try {
+			digester.withLimits(DigestLimits.NONE.withMaxEvents(100)).digest(xml.toString(), null, new SimpleDigesterEventHandler("") {});
+			fail("Expected the event limit to be exceeded");
+		} catch (DigestLimitExceededException e) {
+			assertEquals(DigestLimitExceededException.Limit.EVENTS, e.getLimit());
+		}
+		try {
+			digester.withLimits(DigestLimits.NONE.withMaxInputLength(xml.length() - 1)).digest(xml.toString(), null, new SimpleDigesterEventHandler("") {});
+			fail("Expected the input limit to be exceeded");
+		} catch (DigestLimitExceededException e) {
+			assertEquals(DigestLimitExceededException.Limit.INPUT_LENGTH, e.getLimit());
+		}
+		digester.withLimits(DigestLimits.NONE.withMaxInputLength(xml.length())).digest(xml.toString(), null, new SimpleDigesterEventHandler("") {});
+		CancellationToken token = new CancellationToken();
+		token.cancel();
+		try {
+			digester.withLimits(DigestLimits.NONE.withCancellationToken(token)).digest(xml.toString(), null, new SimpleDigesterEventHandler("") {});
+			fail("Expected the digest to be cancelled");
+		} catch (DigestCancelledException e) {
+			// Expected
+		}
+	}
+	
+	@Test
+	public void readsRecordsOnDemand() throws Exception {
+		StringBuilder xml = new StringBuilder("<messages><header>skipped</header>");
+		for (int i = 0; i < 10000; i++) {
+			xml.append("<message id=\"").append(i).append("\"><body>Message ").append(i).append("</body></message>");
+		}
+		xml.append("</messages>");
+		final int[] read = new int[1];
+		Reader reader = new FilterReader(new StringReader(xml.toString())) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				int count = super.read(cbuf, off, len);
+				read[0] += Math.max(count, 0);
+				return count;
+			}
+		};
+		RecordReader<Message> messages = new XmlDigester().readRecords(reader, new QName("message"), new DigestFactory<Message>() {
+			@Override
+			public Message newDigestTarget() {
+				return new Message();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new SimpleAnnotationBasedHandler(new QName("message"), Message.class);
+			}
+		});
+		try {
+			assertTrue(messages.hasNext());
+			Message first = messages.next();
+			assertEquals("0", first.id);
+			assertEquals("Message 0", first.body);
+			assertTrue("Parsed too far ahead", read[0] < xml.length() / 2);
+			int count = 1;
+			while (messages.hasNext()) {
+				assertEquals(String.valueOf(count), messages.next().id);
+				count++;
+			}
+			assertEquals(10000, count);
+		} finally {
+			messages.close();
+		}
+	}
 }
@@ -0,0 +1,185 @@
+package dk.defiant.xml.digester;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Flow;
+import java.util.concurrent.RejectedExecutionException;
+
+import javax.xml.namespace.QName;
+
+import org.junit.Test;
+
+import dk.defiant.xml.digester.annotations.Digest;
+import dk.defiant.xml.digester.flow.RecordPublisher;
+import dk.defiant.xml.digester.handlers.SimpleAnnotationBasedHandler;
+
+public class RecordPublisherTest {
+
+	static class Message {
+		@Digest("@id")
+		String id;
+	}
+	
+	/**
+	 * Subscriber recording the signals it receives, requesting a number of records on subscription.
+	 */
+	static class RecordingSubscriber implements Flow.Subscriber<Message> {
+		
+		private final long initialRequest;
+		Flow.Subscription subscription;
+		final List<String> ids = new ArrayList<String>();
+		int completions;
+		Throwable error;
+		
+		RecordingSubscriber(long initialRequest) {
+			this.initialRequest = initialRequest;
+		}
+		
+		@Override
+		public void onSubscribe(Flow.Subscription subscription) {
+			this.subscription = subscription;
+			subscription.request(initialRequest);
+		}
+		
+		@Override
+		public void onNext(Message item) {
+			ids.add(item.id);
+		}
+		
+		@Override
+		public void onError(Throwable throwable) {
+			error = throwable;
+		}
+		
+		@Override
+		public void onComplete() {
+			completions++;
+		}
+	}
+	
+	// Drains on the calling thread, so the signals have arrived when request returns
+	private static final Executor direct = new Executor() {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	};
+	
+	private final int[] read = new int[1];
+	
+	private RecordReader<Message> readMessages(int count) throws Exception {
+		StringBuilder xml = new StringBuilder("<messages>");
+		for (int i = 0; i < count; i++) {
+			xml.append("<message id='").append(i).append("'/>");
+		}
+		xml.append("</messages>");
+		Reader reader = new FilterReader(new StringReader(xml.toString())) {
+			@Override
+			public int read(char[] cbuf, int off, int len) throws IOException {
+				int count = super.read(cbuf, off, len);
+				read[0] += Math.max(count, 0);
+				return count;
+			}
+		};
+		return new XmlDigester().readRecords(reader, new QName("message"), new DigestFactory<Message>() {
+			@Override
+			public Message newDigestTarget() {
+				return new Message();
+			}
+			
+			@Override
+			public DigesterEventHandler newEventHandler() {
+				return new SimpleAnnotationBasedHandler(new QName("message"), Message.class);
+			}
+		});
+	}
+	
+	@Test
+	public void publishesAllRecordsAndCompletes() throws Exception {
+		RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+		new RecordPublisher<Message>(readMessages(3), direct).subscribe(subscriber);
+		assertEquals("[0, 1, 2]", subscriber.ids.toString());
+		assertEquals(1, subscriber.completions);
+		assertNull(subscriber.error);
+	}
+	
+	@Test
+	public void parsesOnlyAsFarAsRequested() throws Exception {
+		RecordReader<Message> records = readMessages(10000);
+		RecordingSubscriber subscriber = new RecordingSubscriber(2);
+		new RecordPublisher<Message>(records, direct).subscribe(subscriber);
+		assertEquals("[0, 1]", subscriber.ids.toString());
+		assertEquals(0, subscriber.completions);
+		
+		subscriber.subscription.request(3);
+		assertEquals("[0, 1, 2, 3, 4]", subscriber.ids.toString());
+		assertTrue("Parsed too far ahead", read[0] < 10000 * "<message id='0000'/>".length() / 2);
+		
+		subscriber.subscription.request(Long.MAX_VALUE);
+		assertEquals(10000, subscriber.ids.size());
+		assertEquals(1, subscriber.completions);
+	}
+	
+	@Test
+	public void cancelClosesRecordReader() throws Exception {
+		RecordReader<Message> records = readMessages(10);
+		RecordingSubscriber subscriber = new RecordingSubscriber(1);
+		new RecordPublisher<Message>(records, direct).subscribe(subscriber);
+		subscriber.subscription.cancel();
+		subscriber.subscription.request(5);
+		assertEquals("[0]", subscriber.ids.toString());
+		assertFalse(records.hasNext());
+		assertEquals(0, subscriber.completions);
+		assertNull(subscriber.error);
+	}
+	
+	@Test
+	public void rejectsNonPositiveRequest() throws Exception {
+		RecordReader<Message> records = readMessages(10);
+		RecordingSubscriber subscriber = new RecordingSubscriber(0);
+		new RecordPublisher<Message>(records, direct).subscribe(subscriber);
+		assertTrue(subscriber.error instanceof IllegalArgumentException);
+		assertTrue(subscriber.ids.isEmpty());
+		assertFalse(records.hasNext());
+		
+		subscriber.subscription.request(1);
+		assertTrue(subscriber.ids.isEmpty());
+	}
+	
+	@Test
+	public void acceptsOneSubscriber() throws Exception {
+		RecordPublisher<Message> publisher = new RecordPublisher<Message>(readMessages(1), direct);
+		publisher.subscribe(new RecordingSubscriber(1));
+		RecordingSubscriber second = new RecordingSubscriber(1);
+		publisher.subscribe(second);
+		assertTrue(second.error instanceof IllegalStateException);
+		assertTrue(second.ids.isEmpty());
+	}
+	
+	@Test
+	public void signalsRejectedDrainsAsErrors() throws Exception {
+		RecordReader<Message> records = readMessages(3);
+		RecordingSubscriber subscriber = new RecordingSubscriber(2);
+		new RecordPublisher<Message>(records, new Executor() {
+			@Override
+			public void execute(Runnable command) {
+				throw new RejectedExecutionException("Shut down");
+			}
+		}).subscribe(subscriber);
+		assertTrue(subscriber.error instanceof RejectedExecutionException);
+		assertTrue(subscriber.ids.isEmpty());
+		assertFalse(records.hasNext());
+		subscriber.subscription.request(1);
+		assertEquals(0, subscriber.completions);
+	}
+}